@@ -0,0 +1,103 @@
+package org.cryptocoinpartners.esper;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.cryptocoinpartners.module.Context;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The cost per Trade of the OHLC bar view (OHLCBarPlugInView.update), of a talib aggregation (GenericTALibFunction.enter and getValue)
+ * and of the equivalent streaming aggregation (StreamingIndicatorFunction), each measured through a single statement in its own Context so the plug-ins see the same events as they would in a strategy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndicatorBenchmark {
+
+	@Param({ "ohlcbar", "talib", "sma" })
+	public String indicator;
+
+	@Setup(Level.Trial)
+	public void setup() throws NoSuchMethodException, ConfigurationException {
+		ConfigUtil.init("cointrader.properties", Collections.<String, String> emptyMap());
+		context = Context.create(new Context.TimeProvider() {
+			@Override
+			public Instant getInitialTime() {
+				return new Instant(time);
+			}
+
+			@Override
+			public Instant nextTime(Event event) {
+				return event.getTime();
+			}
+		});
+		String statement;
+		if (indicator.equals("ohlcbar"))
+			statement = "select * from Trade.custom:ohlcbar(timestamp, priceAsDouble, volumeAsDouble, market, " + IndicatorBenchmark.class.getName()
+					+ ".getInterval())";
+		else if (indicator.equals("talib"))
+			statement = "select talib(\"movingAverage\", priceAsDouble, 20, \"Sma\") as value from Trade";
+		else
+			statement = "select sma(priceAsDouble, 20) as value from Trade";
+		context.subscribe(subscriber, Subscriber.class.getMethod("handle", Object.class), statement);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.destroy();
+	}
+
+	@Benchmark
+	public void update(Blackhole blackhole) {
+		// a trade a second, so a one minute bar closes every 60 trades
+		time += 1000;
+		context.publish(new Trade(market, new Instant(time), new Instant(time), null, 10000L + (time / 1000 % 50), 100L));
+		blackhole.consume(subscriber.last);
+	}
+
+	/** the bar interval in seconds; the view will not take a constant interval */
+	public static double getInterval() {
+		return 60.0;
+	}
+
+	public static class Subscriber {
+		public void handle(Object value) {
+			last = value;
+		}
+
+		private Object last;
+	}
+
+	private final Market market = new Market(new Exchange("INDICATORBENCH"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false,
+			"USD", 0.01)), 0.01, 0.001);
+	private final Subscriber subscriber = new Subscriber();
+	private Context context;
+	private long time = 1000000L;
+
+}
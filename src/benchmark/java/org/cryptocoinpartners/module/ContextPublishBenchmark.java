@@ -0,0 +1,91 @@
+package org.cryptocoinpartners.module;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Publishing Trades into a Context with a number of subscribed statements, each delivering to a listener method as a @When would.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContextPublishBenchmark {
+
+	@Param({ "1", "10", "50" })
+	public int statements;
+
+	@Setup(Level.Trial)
+	public void setup() throws NoSuchMethodException, ConfigurationException {
+		ConfigUtil.init("cointrader.properties", Collections.<String, String> emptyMap());
+		// events drive the clock, as in a replay
+		context = Context.create(new Context.TimeProvider() {
+			@Override
+			public Instant getInitialTime() {
+				return new Instant(time);
+			}
+
+			@Override
+			public Instant nextTime(Event event) {
+				return event.getTime();
+			}
+		});
+		Method method = Subscriber.class.getMethod("handleTrade", Trade.class);
+		for (int i = 0; i < statements; i++)
+			context.subscribe(subscriber, method, "select * from Trade(priceCount > " + i + ")");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.destroy();
+	}
+
+	@Benchmark
+	public void publish(Blackhole blackhole) {
+		time += 10;
+		context.publish(new Trade(market, new Instant(time), new Instant(time), null, 10000L + (time % 100), 100L));
+		blackhole.consume(subscriber.count);
+	}
+
+	public static class Subscriber {
+		public void handleTrade(Trade trade) {
+			count++;
+		}
+
+		private long count;
+	}
+
+	private final Market market = new Market(new Exchange("PUBLISHBENCH"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false,
+			"USD", 0.01)), 0.01, 0.001);
+	private final Subscriber subscriber = new Subscriber();
+	private Context context;
+	private long time = 1000000L;
+
+}
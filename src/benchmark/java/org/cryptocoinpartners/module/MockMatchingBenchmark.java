@@ -0,0 +1,125 @@
+package org.cryptocoinpartners.module;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.enumeration.FillType;
+import org.cryptocoinpartners.enumeration.TransactionType;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MockOrderService matching Trades and Books against a number of resting limit orders which are away from the market, so no fills are made and no
+ * portfolio or database is needed. This is the cost every market data event pays in a backtest while orders are working.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MockMatchingBenchmark {
+
+	@Param({ "10", "1000" })
+	public int orders;
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("unchecked")
+	public void setup() throws Exception {
+		ConfigUtil.init("cointrader.properties", Collections.<String, String> emptyMap());
+		context = Context.create(new Context.TimeProvider() {
+			@Override
+			public Instant getInitialTime() {
+				return new Instant(time);
+			}
+
+			@Override
+			public Instant nextTime(Event event) {
+				return event.getTime();
+			}
+		});
+		service = new MockOrderService();
+		service.context = context;
+		service.setTradingEnabled(true);
+		ArrayList<SpecificOrder> buys = new ArrayList<SpecificOrder>();
+		ArrayList<SpecificOrder> sells = new ArrayList<SpecificOrder>();
+		for (int i = 0; i < orders; i++) {
+			// buys from 90.00 down and sells from 110.00 up, best first as the service keeps them
+			SpecificOrder buy = new SpecificOrder(new Instant(time), (Portfolio) null, market, 100000000L);
+			buy.setFillType(FillType.LIMIT);
+			buy.setLimitPriceCount(9000L - i);
+			buys.add(buy);
+			SpecificOrder sell = new SpecificOrder(new Instant(time), (Portfolio) null, market, -100000000L);
+			sell.setFillType(FillType.LIMIT);
+			sell.setLimitPriceCount(11000L + i);
+			sells.add(sell);
+		}
+		Map<TransactionType, ArrayList<SpecificOrder>> marketOrders = new ConcurrentHashMap<TransactionType, ArrayList<SpecificOrder>>();
+		marketOrders.put(TransactionType.BUY, buys);
+		marketOrders.put(TransactionType.SELL, sells);
+		Field pendingOrders = MockOrderService.class.getDeclaredField("pendingOrders");
+		pendingOrders.setAccessible(true);
+		((Map<Market, Map<TransactionType, ArrayList<SpecificOrder>>>) pendingOrders.get(null)).put(market, marketOrders);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.destroy();
+	}
+
+	@Benchmark
+	public void matchTrade() {
+		time += 10;
+		Trade trade = new Trade(market, new Instant(time), new Instant(time), null, 10000L + (time % 500), (time % 20 < 10) ? 100L : -100L);
+		context.publish(trade);
+		service.handleTrade(trade);
+	}
+
+	@Benchmark
+	public void matchBook() {
+		time += 10;
+		bookBuilder.start(new Instant(time), new Instant(time), null, market);
+		for (int i = 0; i < 10; i++) {
+			bookBuilder.addBid(new BigDecimal(9999 - i).movePointLeft(2), BigDecimal.ONE);
+			bookBuilder.addAsk(new BigDecimal(10001 + i).movePointLeft(2), BigDecimal.ONE);
+		}
+		Book book = bookBuilder.build();
+		context.publish(book);
+		service.handleBook(book);
+	}
+
+	private final Market market = new Market(new Exchange("MATCHINGBENCH"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false,
+			"USD", 0.01)), 0.01, 0.001);
+	private final Book.Builder bookBuilder = new Book.Builder();
+	private Context context;
+	private MockOrderService service;
+	private long time = 1000000L;
+
+}
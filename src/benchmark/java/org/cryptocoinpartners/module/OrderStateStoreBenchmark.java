@@ -0,0 +1,167 @@
+package org.cryptocoinpartners.module;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.enumeration.OrderState;
+import org.cryptocoinpartners.enumeration.PositionEffect;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Pending order queries against 50,000 tracked orders, 200 of them open, spread over 10 markets and 2 portfolios. The indexed benchmarks
+ * call BaseOrderService and the OrderStateStore as they are; the scanned ones repeat what they did before it, which was to copy every open
+ * order out of the per state sets and filter the copy, and to look remote keys up by walking the whole order state map. The heap taken by
+ * the store beyond a plain map of the same orders is printed once at setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderStateStoreBenchmark {
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		ConfigUtil.init("cointrader.properties", Collections.<String, String> emptyMap());
+		service = new MockOrderService();
+		Random random = new Random(1);
+		Currency usd = new Currency(false, "USD", 0.01);
+		Exchange exchange = new Exchange("STOREBENCH");
+		markets = new Market[MARKETS];
+		for (int m = 0; m < MARKETS; m++)
+			markets[m] = new Market(exchange, new Listing(new Currency(false, "STORE" + m, 0.00000001), usd), 0.01, 0.001);
+		portfolios = new Portfolio[] { new Portfolio("first", null), new Portfolio("second", null) };
+
+		List<SpecificOrder> orders = new ArrayList<SpecificOrder>(ORDERS);
+		List<OrderState> states = new ArrayList<OrderState>(ORDERS);
+		OrderState[] open = { OrderState.NEW, OrderState.ROUTED, OrderState.PLACED, OrderState.PARTFILLED, OrderState.CANCELLING };
+		remoteKeys = new String[ORDERS];
+		for (int i = 0; i < ORDERS; i++) {
+			SpecificOrder order = new SpecificOrder(new Instant(i), portfolios[random.nextInt(portfolios.length)], markets[random.nextInt(MARKETS)],
+					random.nextBoolean() ? 1000L : -1000L);
+			order.setPositionEffect(random.nextBoolean() ? PositionEffect.OPEN : PositionEffect.CLOSE);
+			order.setRemoteKey("remote" + i);
+			remoteKeys[i] = order.getRemoteKey();
+			orders.add(order);
+			// the live orders are the newest
+			states.add(i >= ORDERS - LIVE ? open[random.nextInt(open.length)] : (random.nextBoolean() ? OrderState.FILLED : OrderState.CANCELLED));
+		}
+
+		// what is freed when each map is dropped, held in a field until then so the JIT cannot drop it first
+		Map<Order, OrderState> plain = new ConcurrentHashMap<Order, OrderState>();
+		for (int i = 0; i < ORDERS; i++)
+			plain.put(orders.get(i), states.get(i));
+		long plainBytes = retainedBytes(plain);
+		OrderStateStore store = new OrderStateStore();
+		for (int i = 0; i < ORDERS; i++)
+			store.update(orders.get(i), states.get(i), 0);
+		long storeBytes = retainedBytes(store);
+		System.out.println("OrderStateStore with " + ORDERS + " orders, " + LIVE + " open: " + storeBytes / 1024 + " KiB against "
+				+ plainBytes / 1024 + " KiB for a ConcurrentHashMap, so the indexes take about " + (storeBytes - plainBytes) / ORDERS
+				+ " bytes an order");
+
+		for (int i = 0; i < ORDERS; i++)
+			service.orderStateMap.update(orders.get(i), states.get(i), 0);
+	}
+
+	@Benchmark
+	public Collection<SpecificOrder> indexedLongOpenOrders() {
+		int n = next++;
+		return service.getPendingLongOpenOrders(portfolios[n & 1], markets[n % MARKETS]);
+	}
+
+	@Benchmark
+	public Collection<SpecificOrder> scannedLongOpenOrders() {
+		int n = next++;
+		Portfolio portfolio = portfolios[n & 1];
+		Market market = markets[n % MARKETS];
+		List<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
+		for (Order order : scannedPendingOrders()) {
+			if (order instanceof SpecificOrder) {
+				SpecificOrder pendingOrder = (SpecificOrder) order;
+				if (pendingOrder.getPortfolio().equals(portfolio) && pendingOrder.getMarket().equals(market)
+						&& pendingOrder.getPositionEffect() == (PositionEffect.OPEN) && pendingOrder.isBid()) {
+					if (!portfolioPendingOrders.contains(pendingOrder))
+						portfolioPendingOrders.add(pendingOrder);
+				}
+			}
+		}
+		return portfolioPendingOrders;
+	}
+
+	@Benchmark
+	public Order indexedRemoteKey() {
+		return service.orderStateMap.getOrder(markets[0].getExchange(), remoteKeys[ORDERS - 1 - (next++ % LIVE)]);
+	}
+
+	@Benchmark
+	public Order scannedRemoteKey() {
+		String remoteKey = remoteKeys[ORDERS - 1 - (next++ % LIVE)];
+		for (Order order : service.orderStateMap.keySet())
+			if (order instanceof SpecificOrder && remoteKey.equals(((SpecificOrder) order).getRemoteKey()))
+				return order;
+		return null;
+	}
+
+	/** getPendingOrders as it was, a union of the open states' sets */
+	private Collection<Order> scannedPendingOrders() {
+		List<Order> cointraderOpenOrders = new ArrayList<Order>();
+		for (OrderState state : OPEN_STATES)
+			cointraderOpenOrders.addAll(service.orderStateMap.getOrders(state));
+		return cointraderOpenOrders;
+	}
+
+	private long retainedBytes(Object o) {
+		measured = o;
+		o = null;
+		long used = usedHeap();
+		measured = null;
+		return used - usedHeap();
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static final int MARKETS = 10;
+	private static final int ORDERS = 50000;
+	private static final int LIVE = 200;
+	private static final OrderState[] OPEN_STATES = { OrderState.NEW, OrderState.TRIGGER, OrderState.PLACED, OrderState.PARTFILLED, OrderState.ROUTED,
+			OrderState.CANCELLING };
+	private MockOrderService service;
+	private Market[] markets;
+	private Portfolio[] portfolios;
+	private String[] remoteKeys;
+	private int next;
+	private Object measured;
+
+}
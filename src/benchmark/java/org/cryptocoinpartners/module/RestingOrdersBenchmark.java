@@ -0,0 +1,105 @@
+package org.cryptocoinpartners.module;
+
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.enumeration.FillType;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.DecimalAmount;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.GeneralOrder;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BaseOrderService.updateRestingOrders for a Trade with a number of resting stop orders on its market, half buy stops above the market and half
+ * sell stops below it. The trades stay inside the stops, so this is the per-tick cost of deciding that nothing triggers; triggering itself needs a
+ * portfolio and the database.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RestingOrdersBenchmark {
+
+	@Param({ "10", "1000" })
+	public int stops;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		ConfigUtil.init("cointrader.properties", Collections.<String, String> emptyMap());
+		context = Context.create(new Context.TimeProvider() {
+			@Override
+			public Instant getInitialTime() {
+				return new Instant(time);
+			}
+
+			@Override
+			public Instant nextTime(Event event) {
+				return event.getTime();
+			}
+		});
+		service = new MockOrderService();
+		service.context = context;
+		service.setTradingEnabled(true);
+		Method addTriggerOrder = BaseOrderService.class.getDeclaredMethod("addTriggerOrder", Order.class);
+		addTriggerOrder.setAccessible(true);
+		for (int i = 0; i < stops; i++) {
+			boolean buy = i % 2 == 0;
+			GeneralOrder stop = new GeneralOrder(new Instant(time), (Portfolio) null, market, buy ? BigDecimal.ONE : BigDecimal.ONE.negate(),
+					FillType.STOP_LIMIT);
+			// stops from 110.00 up for the buys and from 90.00 down for the sells
+			stop.setStopPrice(DecimalAmount.of(new BigDecimal(buy ? 11000 + i : 9000 - i).movePointLeft(2)));
+			addTriggerOrder.invoke(service, stop);
+		}
+	}
+
+	/** the next trade is published beforehand, so the engine's clock has reached it as it would have for a live trade */
+	@Setup(Level.Invocation)
+	public void nextTrade() {
+		time += 10;
+		trade = new Trade(market, new Instant(time), new Instant(time), null, 10000L + (time % 500), 100L);
+		context.publish(trade);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.destroy();
+	}
+
+	@Benchmark
+	public void updateRestingOrders() {
+		service.updateRestingOrders(trade, 0.0);
+	}
+
+	private final Market market = new Market(new Exchange("RESTINGBENCH"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false,
+			"USD", 0.01)), 0.01, 0.001);
+	private Context context;
+	private MockOrderService service;
+	private Trade trade;
+	private long time = 1000000L;
+
+}
@@ -0,0 +1,149 @@
+package org.cryptocoinpartners.module;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.enumeration.FillType;
+import org.cryptocoinpartners.enumeration.TransactionType;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Books replayed round robin over 50 markets with 200 resting limit orders each, 10,000 in all, through the touch fill model's
+ * MockOrderService.updateBook and through the SimulatedBooks of the queue model. The books move around inside the orders, so nothing fills
+ * and no portfolio or database is needed, but the queue model still tracks the queue ahead of the orders the books show.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SimulatedExchangeBenchmark {
+
+	@Setup(Level.Trial)
+	@SuppressWarnings("unchecked")
+	public void setup() throws Exception {
+		ConfigUtil.init("cointrader.properties", Collections.<String, String> emptyMap());
+		service = new MockOrderService();
+		service.setFillModel(MockOrderService.FillModel.TOUCH);
+		service.setTradingEnabled(true);
+		Field pendingField = MockOrderService.class.getDeclaredField("pendingOrders");
+		pendingField.setAccessible(true);
+		Map<Market, Map<TransactionType, ArrayList<SpecificOrder>>> pendingOrders = (Map<Market, Map<TransactionType, ArrayList<SpecificOrder>>>) pendingField
+				.get(null);
+		SimulatedBook.Listener listener = new SimulatedBook.Listener() {
+			@Override
+			public void filled(SpecificOrder order, long priceCount, long volumeCount, boolean maker, Instant time, Instant received) {
+				throw new IllegalStateException("The benchmark books should not fill " + order);
+			}
+
+			@Override
+			public void cancelled(SpecificOrder order, long volumeCount, Instant time) {
+			}
+		};
+
+		Random random = new Random(1);
+		Currency usd = new Currency(false, "USD", 0.01);
+		Market[] markets = new Market[MARKETS];
+		simulated = new SimulatedBook[MARKETS];
+		for (int m = 0; m < MARKETS; m++) {
+			markets[m] = new Market(new Exchange("SIMBENCH"), new Listing(new Currency(false, "SIM" + m, 0.00000001), usd), 0.01, 0.001);
+			simulated[m] = new SimulatedBook(SimulatedLatency.NONE, SimulatedLatency.NONE, SimulatedLatency.NONE, 1, new Random(m), listener);
+			simulated[m].book(book(markets[m], 10000, 0, random));
+			ArrayList<SpecificOrder> buys = new ArrayList<SpecificOrder>();
+			ArrayList<SpecificOrder> sells = new ArrayList<SpecificOrder>();
+			for (int i = 0; i < ORDERS / MARKETS / 2; i++) {
+				// twenty levels a side, the best of them inside the books' ten levels
+				SpecificOrder buy = order(markets[m], 1000L, 9993L - i % 20);
+				SpecificOrder sell = order(markets[m], -1000L, 10007L + i % 20);
+				buys.add(buy);
+				sells.add(sell);
+				simulated[m].place(buy, new Instant(0));
+				simulated[m].place(sell, new Instant(0));
+			}
+			Collections.sort(buys, MockOrderService.descendingPriceComparator);
+			Collections.sort(sells, MockOrderService.ascendingPriceComparator);
+			Map<TransactionType, ArrayList<SpecificOrder>> marketOrders = new ConcurrentHashMap<TransactionType, ArrayList<SpecificOrder>>();
+			marketOrders.put(TransactionType.BUY, buys);
+			marketOrders.put(TransactionType.SELL, sells);
+			pendingOrders.put(markets[m], marketOrders);
+		}
+
+		books = new Book[BOOKS];
+		bookMarkets = new int[BOOKS];
+		long[] mids = new long[MARKETS];
+		Arrays.fill(mids, 10000);
+		for (int b = 0; b < BOOKS; b++) {
+			int m = b % MARKETS;
+			mids[m] = Math.max(9995, Math.min(10005, mids[m] + random.nextInt(3) - 1));
+			bookMarkets[b] = m;
+			books[b] = book(markets[m], mids[m], b + 1, random);
+		}
+	}
+
+	@Benchmark
+	public void touch() {
+		int b = next++ & (BOOKS - 1);
+		service.handleBook(books[b]);
+	}
+
+	@Benchmark
+	public void queue() {
+		int b = next++ & (BOOKS - 1);
+		simulated[bookMarkets[b]].book(books[b]);
+	}
+
+	/** ten levels a side around mid, in ticks */
+	private static Book book(Market market, long mid, long time, Random random) {
+		bookBuilder.start(new Instant(time), null, market);
+		for (int i = 1; i <= 10; i++) {
+			bookBuilder.addBid(BigDecimal.valueOf(mid - i, 2), BigDecimal.valueOf(1 + random.nextInt(10000), 3));
+			bookBuilder.addAsk(BigDecimal.valueOf(mid + i, 2), BigDecimal.valueOf(1 + random.nextInt(10000), 3));
+		}
+		return bookBuilder.build();
+	}
+
+	private static SpecificOrder order(Market market, long volumeCount, long limitPriceCount) {
+		SpecificOrder order = new SpecificOrder(new Instant(0), (Portfolio) null, market, volumeCount);
+		order.setFillType(FillType.LIMIT);
+		order.setLimitPriceCount(limitPriceCount);
+		return order;
+	}
+
+	private static final int MARKETS = 50;
+	private static final int ORDERS = 10000;
+	private static final int BOOKS = 1 << 12;
+	private static final Book.Builder bookBuilder = new Book.Builder();
+	private MockOrderService service;
+	private SimulatedBook[] simulated;
+	private Book[] books;
+	private int[] bookMarkets;
+	private int next;
+
+}
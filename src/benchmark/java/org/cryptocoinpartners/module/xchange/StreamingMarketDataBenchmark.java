@@ -0,0 +1,195 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.module.Context;
+import org.cryptocoinpartners.module.OrderBookEngine;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.LiveBook;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.TradeFactory;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Streamed book updates per second, from Binance JSON to a Book published into a Context with one subscribed statement. <code>mapped</code>
+ * hands each message straight to the mapper, which costs the parse, the LiveBook update and the publish, plus building the message;
+ * <code>localhost</code> adds the WebSocket, sending batches of messages from a {@link LocalExchangeSimulator} and waiting for them all to
+ * arrive.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamingMarketDataBenchmark {
+
+	@Benchmark
+	public void mapped(InProcess state) throws Exception {
+		state.message.setLength(0);
+		long sequence = ++state.sequence;
+		// one level changed, walking through the ten levels under the best bid
+		state.message.append("{\"e\":\"depthUpdate\",\"E\":").append(sequence).append(",\"s\":\"BTCUSD\",\"U\":").append(sequence).append(",\"u\":")
+				.append(sequence).append(",\"b\":[[\"").append(BigDecimal.valueOf(9990 - sequence % 10, 2)).append("\",\"")
+				.append(1 + sequence % 7).append("\"]],\"a\":[]}");
+		state.mapper.map(state.message.toString(), state.handler);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void localhost(Localhost state) {
+		long expected = state.source.getMessageCount() + state.exchange.send(BATCH);
+		while (state.source.getMessageCount() < expected)
+			Thread.yield();
+	}
+
+	@State(Scope.Thread)
+	public static class InProcess {
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception {
+			ConfigUtil.init("cointrader.properties", Collections.<String, String> emptyMap());
+			context = subscribedContext();
+			handler = new StreamingMarketData(context, new OrderBookEngine(), bookFactory, tradeFactory, new StreamingMarketDataSource.SnapshotSource() {
+				@Override
+				public long snapshot(Market snapshotMarket, LiveBook book) {
+					synchronized (book) {
+						book.beginReplace();
+						for (int i = 1; i <= 20; i++) {
+							book.stageBid(10000 - i, 1000);
+							book.stageAsk(10000 + i, 1000);
+						}
+						book.commitReplace(Instant.now(), Instant.now());
+					}
+					return 0;
+				}
+			}, 0);
+			mapper.subscribe(Collections.singletonList(market));
+			// the first update starts the book from a snapshot, on the handler's own thread
+			mapper.map("{\"e\":\"depthUpdate\",\"E\":1,\"s\":\"BTCUSD\",\"U\":1,\"u\":1,\"b\":[[\"99.99\",\"1\"]],\"a\":[]}", handler);
+			sequence = 1;
+			while (!handler.isSynced(market))
+				Thread.sleep(1);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			handler.close();
+			context.destroy();
+		}
+
+		private final BinanceStreamMapper mapper = new BinanceStreamMapper();
+		private final StringBuilder message = new StringBuilder();
+		private Context context;
+		private StreamingMarketData handler;
+		private long sequence;
+
+	}
+
+	@State(Scope.Thread)
+	public static class Localhost {
+
+		@Setup(Level.Trial)
+		public void setup() throws Exception {
+			ConfigUtil.init("cointrader.properties", Collections.<String, String> emptyMap());
+			context = subscribedContext();
+			List<Market> markets = Collections.singletonList(market);
+			exchange = new LocalExchangeSimulator(markets, 1, 0);
+			exchange.start();
+			handler = new StreamingMarketData(context, new OrderBookEngine(), bookFactory, tradeFactory, exchange, 0);
+			source = new WebSocketMarketDataSource(exchange.getUri(), new BinanceStreamMapper(), 0, 100, 1000);
+			source.start(markets, handler);
+			if (!exchange.awaitSubscribers(1, 10000))
+				throw new IllegalStateException("no subscriber to " + exchange.getUri());
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws Exception {
+			source.stop();
+			handler.close();
+			exchange.close();
+			context.destroy();
+		}
+
+		private Context context;
+		private LocalExchangeSimulator exchange;
+		private StreamingMarketData handler;
+		private WebSocketMarketDataSource source;
+
+	}
+
+	public static class Subscriber {
+		public void handleBook(Book book) {
+			count++;
+		}
+
+		private long count;
+	}
+
+	private static Context subscribedContext() throws NoSuchMethodException {
+		Context context = Context.create();
+		context.subscribe(new Subscriber(), Subscriber.class.getMethod("handleBook", Book.class), "select * from Book");
+		return context;
+	}
+
+	private static final int BATCH = 1000;
+	private static final Market market = new Market(new Exchange("STREAMBENCH"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false,
+			"USD", 0.01)), 0.01, 0.001);
+	private static final TradeFactory tradeFactory = new TradeFactory() {
+		@Override
+		public Trade create(Tradeable market, Instant time, String remoteKey, long priceCount, long volumeCount) {
+			return new Trade(market, time, remoteKey, priceCount, volumeCount);
+		}
+
+		@Override
+		public Trade create(Tradeable market, Instant time, Instant timeRecieved, String remoteKey, long priceCount, long volumeCount) {
+			return new Trade(market, time, timeRecieved, remoteKey, priceCount, volumeCount);
+		}
+
+		@Override
+		public Trade create(Tradeable market, Instant time, String remoteKey, BigDecimal price, BigDecimal volume) {
+			return new Trade(market, time, remoteKey, price, volume);
+		}
+	};
+	private static final BookFactory bookFactory = new BookFactory() {
+		@Override
+		public Book create(Instant time, Tradeable market) {
+			return create(time, time, null, market);
+		}
+
+		@Override
+		public Book create(Instant time, String remoteKey, Tradeable market) {
+			return create(time, time, remoteKey, market);
+		}
+
+		@Override
+		public Book create(Instant time, Instant timeReceived, String remoteKey, Tradeable market) {
+			Book.Builder builder = new Book.Builder();
+			builder.start(time, timeReceived, remoteKey, (Market) market);
+			return builder.build();
+		}
+	};
+
+}
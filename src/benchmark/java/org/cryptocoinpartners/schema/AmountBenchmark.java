@@ -0,0 +1,103 @@
+package org.cryptocoinpartners.schema;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.util.Remainder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The Amount arithmetic used when valuing positions and fills, on DiscreteAmounts of the same basis and on DecimalAmounts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AmountBenchmark {
+
+	@Benchmark
+	public Amount discretePlus() {
+		return price.plus(otherPrice);
+	}
+
+	@Benchmark
+	public Amount discreteTimes() {
+		return price.times(volume, Remainder.ROUND_EVEN);
+	}
+
+	@Benchmark
+	public int discreteCompareTo() {
+		return price.compareTo(otherPrice);
+	}
+
+	@Benchmark
+	public DiscreteAmount discreteToBasis() {
+		return decimalPrice.toBasis(0.01, Remainder.ROUND_EVEN);
+	}
+
+	@Benchmark
+	public Amount decimalPlus() {
+		return decimalPrice.plus(decimalVolume);
+	}
+
+	@Benchmark
+	public Amount decimalTimes() {
+		return decimalPrice.times(decimalVolume, Remainder.ROUND_EVEN);
+	}
+
+	@Benchmark
+	public Amount decimalDividedBy() {
+		return decimalPrice.dividedBy(decimalVolume, Remainder.ROUND_EVEN);
+	}
+
+	@Benchmark
+	public int decimalCompareTo() {
+		return decimalPrice.compareTo(price);
+	}
+
+	/** the volume weighted average of a thousand fills, the way Position averaged them before AmountAccumulator */
+	@Benchmark
+	public Amount averageChained() {
+		Amount average = null;
+		Amount cumVolume = DecimalAmount.ZERO;
+		for (int i = 0; i < FILLS; i++) {
+			Amount fillPrice = new DiscreteAmount(1234567L + i, 0.01);
+			Amount fillVolume = new DiscreteAmount(150000000L + i, 0.00000001);
+			average = average == null ? fillPrice : average.times(cumVolume, Remainder.ROUND_EVEN).plus(fillVolume.times(fillPrice, Remainder.ROUND_EVEN))
+					.divide(cumVolume.plus(fillVolume), Remainder.ROUND_EVEN);
+			cumVolume = cumVolume.plus(fillVolume);
+		}
+		return average;
+	}
+
+	@Benchmark
+	public Amount averageAccumulated() {
+		notional.reset();
+		cumVolume.reset();
+		for (int i = 0; i < FILLS; i++) {
+			notional.addProduct(1234567L + i, 100, 150000000L + i, 100000000);
+			cumVolume.add(150000000L + i, 100000000);
+		}
+		return notional.divide(cumVolume, Remainder.ROUND_EVEN);
+	}
+
+	private static final int FILLS = 1000;
+	private final AmountAccumulator notional = new AmountAccumulator();
+	private final AmountAccumulator cumVolume = new AmountAccumulator();
+	private final DiscreteAmount price = new DiscreteAmount(1234567L, 0.01);
+	private final DiscreteAmount otherPrice = new DiscreteAmount(1234589L, 0.01);
+	private final DiscreteAmount volume = new DiscreteAmount(150000000L, 0.00000001);
+	private final DecimalAmount decimalPrice = DecimalAmount.of(new BigDecimal("12345.67"));
+	private final DecimalAmount decimalVolume = DecimalAmount.of(new BigDecimal("1.5"));
+
+}
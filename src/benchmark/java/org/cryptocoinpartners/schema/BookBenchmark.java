@@ -0,0 +1,98 @@
+package org.cryptocoinpartners.schema;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Instant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building a Book from unsorted levels, and encoding it for the database both as a full book and as a diff against its parent.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookBenchmark {
+
+	@Param({ "10", "100" })
+	public int depth;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(42);
+		bidPrices = new BigDecimal[depth];
+		askPrices = new BigDecimal[depth];
+		volumes = new BigDecimal[depth];
+		for (int i = 0; i < depth; i++) {
+			bidPrices[i] = new BigDecimal(10000 - random.nextInt(1000)).movePointLeft(2);
+			askPrices[i] = new BigDecimal(10001 + random.nextInt(1000)).movePointLeft(2);
+			volumes[i] = new BigDecimal(1 + random.nextInt(100)).movePointLeft(1);
+		}
+		Book.Builder chain = new Book.Builder();
+		parent = build(chain, 1000L, 0);
+		parent.setPersisted(true);
+		child = build(chain, 2000L, depth / 10 + 1);
+		if (child.getParent() != parent)
+			throw new IllegalStateException("benchmark book was not chained to its parent");
+		full = build(new Book.Builder(), 3000L, 0);
+	}
+
+	@Benchmark
+	public Book buildBook() {
+		return build(streamBuilder, 4000L, 0);
+	}
+
+	@Benchmark
+	public Book.DiffResult diff() {
+		return child.diff(parent);
+	}
+
+	@Benchmark
+	public Book encodeFullBlobs() {
+		full.prePersist();
+		return full;
+	}
+
+	@Benchmark
+	public Book encodeDiffBlobs() {
+		child.prePersist();
+		return child;
+	}
+
+	/** a book with the benchmark's levels, the first <code>changed</code> of which have had their volume changed */
+	private Book build(Book.Builder builder, long time, int changed) {
+		builder.start(new Instant(time), new Instant(time), null, market);
+		for (int i = 0; i < depth; i++) {
+			BigDecimal volume = i < changed ? volumes[i].add(BigDecimal.ONE) : volumes[i];
+			builder.addBid(bidPrices[i], volume);
+			builder.addAsk(askPrices[i], volume);
+		}
+		return builder.build();
+	}
+
+	private final Market market = new Market(new Exchange("BOOKBENCH"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false,
+			"USD", 0.01)), 0.01, 0.001);
+	private final Book.Builder streamBuilder = new Book.Builder();
+	private BigDecimal[] bidPrices;
+	private BigDecimal[] askPrices;
+	private BigDecimal[] volumes;
+	private Book parent;
+	private Book child;
+	private Book full;
+
+}
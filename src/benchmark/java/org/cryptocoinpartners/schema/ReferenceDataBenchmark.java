@@ -0,0 +1,180 @@
+package org.cryptocoinpartners.schema;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.cryptocoinpartners.schema.dao.ReferenceDataDao;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Market and Listing lookups for reference data which is already known, from four threads at once: the ReferenceDataRegistry against the
+ * synchronized scan of a set of markets which Market.findOrCreate used to do, and Listing.forSymbol before and after its cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class ReferenceDataBenchmark {
+
+	@Param({ "10", "200" })
+	public int markets;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		registry = new ReferenceDataRegistry(new EmptyDao(), new ListingFactory() {
+			@Override
+			public Listing create(Asset base, Asset quote) {
+				return new Listing(base, quote);
+			}
+
+			@Override
+			public Listing create(Asset base, Asset quote, Prompt prompt) {
+				return new Listing(base, quote, prompt);
+			}
+		}, new MarketFactory() {
+			@Override
+			public Market create(Exchange exchange, Listing listing, double priceBasis, double volumeBasis) {
+				return new Market(exchange, listing, priceBasis, volumeBasis);
+			}
+
+			@Override
+			public Market create(Exchange exchange, Listing listing, double priceBasis, double volumeBasis, double minimumOrderSize) {
+				return new Market(exchange, listing, priceBasis, volumeBasis, minimumOrderSize);
+			}
+		});
+		Currency usd = currency("USD");
+		exchanges = new Exchange[markets];
+		listings = new Listing[markets];
+		symbols = new String[markets];
+		for (int i = 0; i < markets; i++) {
+			final String exchangeSymbol = "EX" + (i % 5);
+			exchanges[i] = registry.findOrCreateExchange(exchangeSymbol, new Supplier<Exchange>() {
+				@Override
+				public Exchange get() {
+					return new Exchange(exchangeSymbol);
+				}
+			});
+			symbols[i] = "C" + i + ".USD";
+			listings[i] = registry.findOrCreateListing(currency("C" + i), usd, null);
+			scanned.add(registry.findOrCreateMarket(exchanges[i], listings[i]));
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+
+		int next() {
+			return next++ & Integer.MAX_VALUE;
+		}
+
+		private int next;
+
+	}
+
+	@Benchmark
+	public Market scanMarket(Cursor cursor) {
+		int i = cursor.next() % markets;
+		return scan(exchanges[i], listings[i]);
+	}
+
+	@Benchmark
+	public Market registryMarket(Cursor cursor) {
+		int i = cursor.next() % markets;
+		return registry.findOrCreateMarket(exchanges[i], listings[i]);
+	}
+
+	@Benchmark
+	public Listing parseListing(Cursor cursor) {
+		// what Listing.forSymbol did on every call: upper case, split, and look up both assets
+		String symbol = symbols[cursor.next() % markets].toUpperCase();
+		int dot = symbol.indexOf('.');
+		return registry.findOrCreateListing(registry.findCurrency(symbol.substring(0, dot)), registry.findCurrency(symbol.substring(dot + 1)), null);
+	}
+
+	@Benchmark
+	public Listing cachedListing(Cursor cursor) {
+		return registry.forSymbol(symbols[cursor.next() % markets]);
+	}
+
+	// the same monitor for every thread, as the static one was
+	private synchronized Market scan(Exchange exchange, Listing listing) {
+		for (Market market : scanned)
+			if (market.getExchange().equals(exchange) && market.getListing().equals(listing))
+				return market;
+		return null;
+	}
+
+	private Currency currency(final String symbol) {
+		return registry.findOrCreateCurrency(symbol, new Supplier<Currency>() {
+			@Override
+			public Currency get() {
+				return new Currency(false, symbol, 0.01);
+			}
+		});
+	}
+
+	/** a database with nothing in it, which never needs to be asked twice */
+	private static class EmptyDao implements ReferenceDataDao {
+
+		@Override
+		public <T extends EntityBase> List<T> findAll(Class<T> type) {
+			return new ArrayList<T>();
+		}
+
+		@Override
+		public Exchange findExchange(String symbol) {
+			return null;
+		}
+
+		@Override
+		public Currency findCurrency(String symbol) {
+			return null;
+		}
+
+		@Override
+		public Prompt findPrompt(String symbol) {
+			return null;
+		}
+
+		@Override
+		public Listing findListing(Asset base, Asset quote, Prompt prompt) {
+			return null;
+		}
+
+		@Override
+		public Market findMarket(Exchange exchange, Listing listing) {
+			return null;
+		}
+
+		@Override
+		public void persist(EntityBase entity) {
+		}
+
+	}
+
+	private ReferenceDataRegistry registry;
+	private Exchange[] exchanges;
+	private Listing[] listings;
+	private String[] symbols;
+	private final Set<Market> scanned = new HashSet<Market>();
+
+}
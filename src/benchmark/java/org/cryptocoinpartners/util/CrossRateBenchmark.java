@@ -0,0 +1,140 @@
+package org.cryptocoinpartners.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.DiscreteAmount;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cross rate work BasicQuoteService does for each Book: the bid and ask ListingsMatrix updates it used to make against one
+ * CrossRateGraph update. The books are a synthetic random walk over 15 assets and 40 listings spread across four exchanges, with a fifth of
+ * the books repeating the previous top of book. Throughput gives updates per second and the sample time mode the p99 update latency.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CrossRateBenchmark {
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Random random = new Random(1);
+		Currency[] assets = new Currency[15];
+		double[] values = new double[assets.length];
+		for (int i = 0; i < assets.length; i++) {
+			assets[i] = new Currency(i == 0, "A" + i, i == 0 ? 0.01 : 0.00000001);
+			values[i] = i == 0 ? 1 : Math.exp(random.nextGaussian() * 3);
+		}
+		Exchange[] exchanges = { new Exchange("BENCHA"), new Exchange("BENCHB"), new Exchange("BENCHC"), new Exchange("BENCHD") };
+		List<Market> markets = new ArrayList<Market>();
+		for (int i = 0; i < 40; i++) {
+			// every asset is quoted in the first few, as most are quoted in USD, BTC or ETH
+			int base = 1 + i % (assets.length - 1);
+			int quote = i < assets.length - 1 ? 0 : random.nextInt(3);
+			if (quote == base)
+				quote = 0;
+			markets.add(new Market(exchanges[i % exchanges.length], new Listing(assets[base], assets[quote]), 0.00000001, 0.00000001));
+		}
+
+		int events = 1 << 14;
+		eventMarkets = new Market[events];
+		bids = new double[events];
+		asks = new double[events];
+		times = new long[events];
+		bidAmounts = new DiscreteAmount[events];
+		askAmounts = new DiscreteAmount[events];
+		long time = 0;
+		for (int e = 0; e < events; e++) {
+			Market market = markets.get(random.nextInt(markets.size()));
+			int base = indexOf(assets, market.getBase());
+			int quote = indexOf(assets, market.getQuote());
+			if (random.nextInt(5) != 0)
+				values[base] *= Math.exp(random.nextGaussian() / 1000);
+			double mid = values[base] / values[quote];
+			eventMarkets[e] = market;
+			bids[e] = Math.round(mid * 0.9995 / 0.00000001) * 0.00000001;
+			asks[e] = Math.round(mid * 1.0005 / 0.00000001) * 0.00000001;
+			times[e] = time += random.nextInt(20);
+			bidAmounts[e] = new DiscreteAmount(Math.round(bids[e] / 0.00000001), 0.00000001);
+			askAmounts[e] = new DiscreteAmount(Math.round(asks[e] / 0.00000001), 0.00000001);
+		}
+
+		graph = new CrossRateGraph(3, 60000);
+		bidMatrix = new ListingsMatrix();
+		askMatrix = new ListingsMatrix();
+		for (int e = 0; e < events; e++) {
+			graph.update(eventMarkets[e], bids[e], asks[e], times[e]);
+			updateMatrices(e);
+		}
+	}
+
+	@Benchmark
+	public Object listingsMatrix() {
+		int e = next++ & (eventMarkets.length - 1);
+		// the DiscreteAmounts came from Book.getBidPrice and getAskPrice
+		bidAmounts[e] = new DiscreteAmount(bidAmounts[e].getCount(), 0.00000001);
+		askAmounts[e] = new DiscreteAmount(askAmounts[e].getCount(), 0.00000001);
+		updateMatrices(e);
+		return askMatrix;
+	}
+
+	@Benchmark
+	public Object crossRateGraph() {
+		int e = next++ & (eventMarkets.length - 1);
+		// replays wrap around, so keep the clock moving forward
+		graph.update(eventMarkets[e], bids[e], asks[e], times[e] + (next >>> 14) * times[times.length - 1]);
+		return graph;
+	}
+
+	private void updateMatrices(int e) {
+		Market market = eventMarkets[e];
+		try {
+			bidMatrix.updateRates(market.getBase(), market.getQuote(), bidAmounts[e]);
+		} catch (IllegalArgumentException ex) {
+			bidMatrix.addAsset(market.getBase(), market.getQuote(), bidAmounts[e]);
+		}
+		try {
+			askMatrix.updateRates(market.getBase(), market.getQuote(), askAmounts[e]);
+		} catch (IllegalArgumentException ex) {
+			askMatrix.addAsset(market.getBase(), market.getQuote(), askAmounts[e]);
+		}
+	}
+
+	private static int indexOf(Currency[] assets, Object asset) {
+		for (int i = 0; i < assets.length; i++)
+			if (assets[i] == asset)
+				return i;
+		return -1;
+	}
+
+	private CrossRateGraph graph;
+	private ListingsMatrix bidMatrix;
+	private ListingsMatrix askMatrix;
+	private Market[] eventMarkets;
+	private double[] bids;
+	private double[] asks;
+	private long[] times;
+	private DiscreteAmount[] bidAmounts;
+	private DiscreteAmount[] askAmounts;
+	private int next;
+
+}
@@ -55,6 +55,9 @@ public class BacktestRunMode extends RunMode {
 	//private final Instant start = new DateTime(2016, 06, 10, 0, 0, 0, 0, DateTimeZone.UTC).toInstant();//
 	//private final Instant end = new DateTime(2017, 11, 15, 0, 0, 0, 0, DateTimeZone.UTC).toInstant();//
 
+	@Parameter(names = { "-fills" }, description = "mock exchange fill model, queue or touch, to compare the two. Defaults to mock.exchange.fill.model")
+	public String fillModel;
+
 	@Parameter(names = { "-" }, description = "No-op switch used to end list of positions before supplying the strategy name")
 	boolean noop = false;
 
@@ -83,6 +86,10 @@ public class BacktestRunMode extends RunMode {
 		//
 
 		OrderService orderService = context.getInjector().getInstance(OrderService.class);
+		if (fillModel != null && orderService instanceof MockOrderService) {
+			((MockOrderService) orderService).setFillModel(MockOrderService.FillModel.valueOf(fillModel.toUpperCase()));
+			log.info("Backtesting with the " + fillModel + " fill model");
+		}
 		context.attach(JMXManager.class);
 		//  Manager.manage("org.cryptocoinpartners.cointrader", context.getInjector().getInjector());
 		//  context.attach(JMXManager.class);
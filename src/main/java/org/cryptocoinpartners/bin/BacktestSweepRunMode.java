@@ -0,0 +1,171 @@
+package org.cryptocoinpartners.bin;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+import javax.inject.Inject;
+
+import org.cryptocoinpartners.module.BacktestStats;
+import org.cryptocoinpartners.module.BasicPortfolioService;
+import org.cryptocoinpartners.module.BasicQuoteService;
+import org.cryptocoinpartners.module.Context;
+import org.cryptocoinpartners.module.MockOrderService;
+import org.cryptocoinpartners.module.xchange.XchangeAccountService;
+import org.cryptocoinpartners.report.TableOutput;
+import org.cryptocoinpartners.schema.ReplayFactory;
+import org.cryptocoinpartners.schema.StrategyInstance;
+import org.cryptocoinpartners.service.OrderService;
+import org.cryptocoinpartners.util.IoUtil;
+import org.cryptocoinpartners.util.Replay;
+import org.joda.time.Instant;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.clutch.dates.StringToTime;
+
+/**
+ * Backtests one strategy over every combination of a grid of parameters. The market data is read once by a single Replay and each combination
+ * runs in its own Context, with its own Esper engine, order service and portfolio service, on its own thread. A table of the results is output
+ * when the replay ends.
+ *
+ * <pre>
+ * backtest-sweep -start "2014-01-01" -end "2014-06-01" -p fast.period=5,10,20 -p slow.period=50,100 MyStrategy
+ * </pre>
+ */
+@SuppressWarnings("UnusedDeclaration")
+@Parameters(commandNames = "backtest-sweep", commandDescription = "backtest a strategy over a grid of parameters, sharing one replay of the market data")
+public class BacktestSweepRunMode extends RunMode {
+
+	@Inject
+	protected transient ReplayFactory replayFactory;
+
+	@Override
+	public void run(Semaphore semaphore) {
+		List<Map<String, String>> grid = grid();
+		Semaphore backTestSemaphore = new Semaphore(0);
+		Replay replay = replayFactory.between(parse(startStr), parse(endStr), false, backTestSemaphore, false, replayBooks, false, null);
+
+		List<Variant> variants = new ArrayList<Variant>();
+		for (Map<String, String> parameters : grid) {
+			// the first variant runs in the Replay's own Context, the others are fed copies of its events
+			Context context = variants.isEmpty() ? replay.getContext() : replay.createFollower("sweep");
+			variants.add(new Variant(context, parameters));
+		}
+		log.info(this.getClass().getSimpleName() + ":run - backtesting " + variants.size() + " variants of " + strategyNames.get(0));
+
+		long started = System.currentTimeMillis();
+		replay.run();
+		while (backTestSemaphore.availablePermits() > 0) {
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				log.debug(this.getClass().getSimpleName() + ": replaying historic prices", e);
+			}
+		}
+		log.info(this.getClass().getSimpleName() + ":run - sweep completed in " + (System.currentTimeMillis() - started) + "ms");
+
+		String[] headers = { "Variant", "Parameters", "PnL", "Max Drawdown", "Fills", "Runtime (ms)" };
+		String[][] rows = new String[variants.size()][];
+		for (int i = 0; i < variants.size(); i++) {
+			Variant variant = variants.get(i);
+			variant.stats.sample();
+			rows[i] = new String[] { Integer.toString(i), variant.parameters.toString(), Double.toString(variant.stats.getPnL()),
+					Double.toString(variant.stats.getMaxDrawdown()), Long.toString(variant.stats.getFills()),
+					Long.toString(replay.getPublishMillis(variant.context)) };
+		}
+		TableOutput results = new TableOutput(headers, rows);
+		if (csv != null)
+			IoUtil.writeCsv(results, csv);
+		else
+			IoUtil.outputAscii(results);
+
+		if (semaphore != null)
+			semaphore.release();
+	}
+
+	private class Variant {
+
+		private Variant(Context context, Map<String, String> parameters) {
+			this.context = context;
+			this.parameters = parameters;
+			context.attach(XchangeAccountService.class);
+			context.attach(BasicQuoteService.class);
+			context.attach(BasicPortfolioService.class);
+			context.attach(MockOrderService.class);
+			context.getInjector().getInstance(OrderService.class).setTradingEnabled(true);
+			String strategyName = strategyNames.get(0);
+			StrategyInstance strategyInstance = new StrategyInstance(strategyName, strategyName + " " + parameters, parameters);
+			context.attachInstance(strategyInstance);
+			strategyInstance.getStrategy().init();
+			this.stats = context.attach(BacktestStats.class);
+		}
+
+		private final Context context;
+		private final Map<String, String> parameters;
+		private final BacktestStats stats;
+	}
+
+	/** the cartesian product of the -p values, in the order they were given */
+	private List<Map<String, String>> grid() {
+		List<Map<String, String>> grid = new ArrayList<Map<String, String>>();
+		grid.add(new LinkedHashMap<String, String>());
+		for (String parameter : parameters) {
+			int equals = parameter.indexOf('=');
+			if (equals <= 0)
+				throw new IllegalArgumentException("parameter \"" + parameter + "\" should be given as key=value1,value2,...");
+			String key = parameter.substring(0, equals).trim();
+			List<Map<String, String>> expanded = new ArrayList<Map<String, String>>();
+			for (Map<String, String> point : grid) {
+				for (String value : parameter.substring(equals + 1).split(",")) {
+					Map<String, String> next = new LinkedHashMap<String, String>(point);
+					next.put(key, value.trim());
+					expanded.add(next);
+				}
+			}
+			grid = expanded;
+		}
+		return grid;
+	}
+
+	private Instant parse(String time) {
+		try {
+			return new Instant(((Date) new StringToTime(time)).getTime());
+		} catch (Exception e) {
+			log.error("Could not parse time \"" + time + "\"");
+			System.exit(7001);
+			return null;
+		}
+	}
+
+	@Parameter(description = "Strategy name to load", arity = 1, required = true)
+	public List<String> strategyNames;
+
+	@Parameter(names = { "-p" }, description = "a parameter of the grid as key=value1,value2,... May be repeated")
+	public List<String> parameters = new ArrayList<String>();
+
+	@Parameter(names = { "-start" }, description = "English time description of the time to start the backtest", required = true)
+	public String startStr;
+
+	@Parameter(names = { "-end" }, description = "English time description of the time to end the backtest", required = true)
+	public String endStr;
+
+	@Parameter(names = { "-books" }, description = "replay Books as well as Trades", arity = 1)
+	public boolean replayBooks = true;
+
+	@Parameter(names = "-csv", description = "specifies a file for the results in CSV format")
+	public String csv = null;
+
+	@Parameter(names = { "-" }, description = "No-op switch used to end list of parameters before supplying the strategy name")
+	boolean noop = false;
+
+	@Override
+	public void run() {
+		Semaphore semaphore = null;
+		run(semaphore);
+
+	}
+}
@@ -0,0 +1,103 @@
+package org.cryptocoinpartners.bin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.Semaphore;
+
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.util.EM;
+import org.cryptocoinpartners.util.QueryCursor;
+import org.cryptocoinpartners.util.TickStore;
+import org.joda.time.Instant;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+import com.clutch.dates.StringToTime;
+
+/**
+ * Copies the Trades and Books in the database into a {@link TickStore}, so backtests can be replayed with <code>replay.source=tickstore</code>.
+ * Rows are streamed in time order and written to the end of any existing day files, so a range should only be exported once.
+ */
+@SuppressWarnings("UnusedDeclaration")
+@Parameters(commandNames = "export-ticks", commandDescription = "copy trades and books from the database into tick store files")
+public class ExportTicksRunMode extends RunMode {
+
+	@Override
+	public void run(Semaphore semaphore) {
+		Instant start = parse(startStr, new Instant(0));
+		Instant end = parse(endStr, Instant.now());
+		TickStore tickStore = outputDir == null ? injector.getInstance(TickStore.class) : new TickStore(new File(outputDir), config.getInt(
+				"tickstore.block.size", 4096));
+		try {
+			long trades = export(Trade.class, "select t from Trade t where time >= ?1 and time <= ?2 order by time", start, end, tickStore);
+			long books = 0;
+			if (exportBooks)
+				books = export(Book.class, "select b from Book b where time >= ?1 and time <= ?2 order by time", start, end, tickStore);
+			log.info("Exported " + trades + " trades and " + books + " books to " + tickStore.getRoot());
+		} finally {
+			tickStore.close();
+		}
+		if (semaphore != null)
+			semaphore.release();
+		System.exit(0);
+	}
+
+	private long export(Class<?> type, String query, Instant start, Instant end, TickStore tickStore) {
+		long count = 0;
+		try (QueryCursor<?> cursor = EM.queryCursor(type, fetchSize, query, start, end)) {
+			while (cursor != null && cursor.hasNext()) {
+				Object event = cursor.next();
+				try {
+					if (event instanceof Book)
+						tickStore.write((Book) event);
+					else
+						tickStore.write((Trade) event);
+					count++;
+				} catch (IOException e) {
+					log.error("Unable to export " + event, e);
+					System.exit(1);
+				} catch (Error | Exception e) {
+					// a diff Book whose parent can no longer be loaded is skipped
+					log.warn("Skipping " + event + " which could not be exported", e);
+				}
+			}
+		}
+		return count;
+	}
+
+	private Instant parse(String time, Instant defaultTime) {
+		if (time == null)
+			return defaultTime;
+		try {
+			return new Instant(((Date) new StringToTime(time)).getTime());
+		} catch (Exception e) {
+			log.error("Could not parse time \"" + time + "\"");
+			System.exit(7001);
+			return null;
+		}
+	}
+
+	@Parameter(names = { "-start" }, description = "English time description of the time to start exporting ticks")
+	public String startStr = null;
+
+	@Parameter(names = { "-end" }, description = "English time description of the time to stop exporting ticks")
+	public String endStr = null;
+
+	@Parameter(names = { "-out" }, description = "tick store directory, defaults to tickstore.path")
+	public String outputDir = null;
+
+	@Parameter(names = { "-books" }, description = "also export Books", arity = 1)
+	public boolean exportBooks = true;
+
+	@Parameter(names = { "-fetch" }, description = "rows fetched from the database per round trip")
+	public int fetchSize = 1000;
+
+	@Override
+	public void run() {
+		Semaphore semaphore = null;
+		run(semaphore);
+
+	}
+}
@@ -0,0 +1,252 @@
+package org.cryptocoinpartners.esper;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Tradeable;
+
+/**
+ * Accumulates OHLC bars for any number of markets over one or more intervals in a single pass. Each (market, interval) pair is a slot in
+ * parallel primitive arrays, indexed by a market id interned on first sight, so applying a trade is a few array writes with no boxing or hashing.
+ * A {@link Bar} is only created when its interval closes.
+ * <p>
+ * Trades are only applied to the finest interval. When a finest bar closes it is folded into the slots of every coarser interval, so a 1h bar
+ * is rolled up from its 1m bars rather than from the trades again. Every interval must therefore be a whole multiple of the finest one. Bars
+ * are aligned to the epoch, so day bars start at midnight UTC.
+ * <p>
+ * Markets which have traded before but not during an interval get a flat bar at their last close, with no volume.
+ * <p>
+ * Not thread safe; the ohlcbar view only calls it under its statement's lock.
+ */
+public class BarAggregator {
+
+    public interface BarListener {
+
+        /**
+         * @param previous the bar last published for the same market and interval, or null if this is the first
+         */
+        void onBar(int marketId, Bar bar, Bar previous);
+
+    }
+
+    /**
+     * @param intervals bar intervals in seconds, in any order
+     */
+    public BarAggregator(double... intervals) {
+        if (intervals.length == 0)
+            throw new IllegalArgumentException("at least one bar interval is needed");
+        this.intervals = intervals.clone();
+        Arrays.sort(this.intervals);
+        intervalCount = this.intervals.length;
+        intervalMillis = new long[intervalCount];
+        nextClose = new long[intervalCount];
+        for (int i = 0; i < intervalCount; i++) {
+            intervalMillis[i] = Math.round(this.intervals[i] * 1000);
+            if (intervalMillis[i] <= 0 || intervalMillis[i] % intervalMillis[0] != 0)
+                throw new IllegalArgumentException("bar interval " + this.intervals[i] + " is not a positive multiple of the finest interval "
+                        + this.intervals[0]);
+        }
+        allocate(16);
+    }
+
+    /** @return the dense id of the market, assigning the next one if it has not been seen before */
+    public int getMarketId(Tradeable market) {
+        Integer id = marketIds.get(market);
+        if (id != null)
+            return id;
+        if (marketCount == markets.length)
+            grow(markets.length * 2);
+        markets[marketCount] = market;
+        marketIds.put(market, marketCount);
+        return marketCount++;
+    }
+
+    public Tradeable getMarket(int marketId) {
+        return markets[marketId];
+    }
+
+    public int getMarketCount() {
+        return marketCount;
+    }
+
+    /** @return the intervals in seconds, finest first */
+    public double[] getIntervals() {
+        return intervals.clone();
+    }
+
+    /**
+     * Adds a trade to the open finest bar of its market.
+     *
+     * @param volume signed volume, negative for sells
+     * @return false if the trade is older than the bar already closed for its market, so was dropped
+     */
+    public boolean apply(int marketId, long timestamp, double price, double volume) {
+        if (timestamp < cutoff[marketId])
+            return false;
+        int slot = marketId * intervalCount;
+        if (count[slot] == 0) {
+            start[slot] = floor(timestamp, intervalMillis[0]);
+            open[slot] = price;
+            high[slot] = price;
+            low[slot] = price;
+        } else {
+            if (price > high[slot])
+                high[slot] = price;
+            if (price < low[slot])
+                low[slot] = price;
+        }
+        close[slot] = price;
+        this.volume[slot] += volume;
+        if (volume > 0)
+            buyVolume[slot] += volume;
+        else if (volume < 0)
+            sellVolume[slot] += volume;
+        count[slot]++;
+        return true;
+    }
+
+    /**
+     * Starts the interval clocks on first use.
+     *
+     * @return when the finest open bar closes
+     */
+    public long getNextClose(long now) {
+        if (nextClose[0] == 0)
+            for (int i = 0; i < intervalCount; i++)
+                nextClose[i] = floor(now, intervalMillis[i]) + intervalMillis[i];
+        return nextClose[0];
+    }
+
+    /**
+     * Closes every interval whose boundary has passed, finest first so each coarser bar includes the finest bar closing with it, and publishes a
+     * bar for every market which has a price.
+     */
+    public void close(long now, BarListener listener) {
+        for (int i = 0; i < intervalCount; i++) {
+            if (nextClose[i] == 0 || now < nextClose[i])
+                continue;
+            long barStart = floor(now, intervalMillis[i]) - intervalMillis[i];
+            for (int marketId = 0; marketId < marketCount; marketId++) {
+                int slot = marketId * intervalCount + i;
+                if (count[slot] > 0) {
+                    if (i == 0)
+                        for (int coarser = 1; coarser < intervalCount; coarser++)
+                            fold(slot, marketId * intervalCount + coarser, coarser);
+                    publish(marketId, i, slot, start[slot], open[slot], high[slot], low[slot], close[slot], listener);
+                    previousClose[slot] = close[slot];
+                    volume[slot] = 0;
+                    buyVolume[slot] = 0;
+                    sellVolume[slot] = 0;
+                    count[slot] = 0;
+                } else if (!Double.isNaN(previousClose[slot])) {
+                    double last = previousClose[slot];
+                    publish(marketId, i, slot, barStart, last, last, last, last, listener);
+                }
+                if (i == 0)
+                    cutoff[marketId] = floor(now, intervalMillis[0]);
+            }
+            nextClose[i] = floor(now, intervalMillis[i]) + intervalMillis[i];
+        }
+    }
+
+    /** forgets every bar and market */
+    public void clear() {
+        marketIds.clear();
+        marketCount = 0;
+        Arrays.fill(nextClose, 0);
+        allocate(16);
+    }
+
+    private void fold(int from, int to, int interval) {
+        if (count[to] == 0) {
+            start[to] = floor(start[from], intervalMillis[interval]);
+            open[to] = open[from];
+            high[to] = high[from];
+            low[to] = low[from];
+        } else {
+            if (high[from] > high[to])
+                high[to] = high[from];
+            if (low[from] < low[to])
+                low[to] = low[from];
+        }
+        close[to] = close[from];
+        volume[to] += volume[from];
+        buyVolume[to] += buyVolume[from];
+        sellVolume[to] += sellVolume[from];
+        count[to] += count[from];
+    }
+
+    private void publish(int marketId, int interval, int slot, long barStart, double open, double high, double low, double close, BarListener listener) {
+        Bar bar = new Bar(barStart, intervals[interval], open, close, high, low, volume[slot], buyVolume[slot], sellVolume[slot], markets[marketId]);
+        Bar previous = published[slot];
+        published[slot] = bar;
+        listener.onBar(marketId, bar, previous);
+    }
+
+    private void allocate(int capacity) {
+        int slots = capacity * intervalCount;
+        markets = new Tradeable[capacity];
+        cutoff = new long[capacity];
+        start = new long[slots];
+        open = new double[slots];
+        high = new double[slots];
+        low = new double[slots];
+        close = new double[slots];
+        volume = new double[slots];
+        buyVolume = new double[slots];
+        sellVolume = new double[slots];
+        previousClose = new double[slots];
+        Arrays.fill(previousClose, Double.NaN);
+        count = new int[slots];
+        published = new Bar[slots];
+    }
+
+    private void grow(int capacity) {
+        int used = markets.length * intervalCount;
+        int slots = capacity * intervalCount;
+        markets = Arrays.copyOf(markets, capacity);
+        cutoff = Arrays.copyOf(cutoff, capacity);
+        start = Arrays.copyOf(start, slots);
+        open = Arrays.copyOf(open, slots);
+        high = Arrays.copyOf(high, slots);
+        low = Arrays.copyOf(low, slots);
+        close = Arrays.copyOf(close, slots);
+        volume = Arrays.copyOf(volume, slots);
+        buyVolume = Arrays.copyOf(buyVolume, slots);
+        sellVolume = Arrays.copyOf(sellVolume, slots);
+        previousClose = Arrays.copyOf(previousClose, slots);
+        Arrays.fill(previousClose, used, slots, Double.NaN);
+        count = Arrays.copyOf(count, slots);
+        published = Arrays.copyOf(published, slots);
+    }
+
+    private static long floor(long timestamp, long millis) {
+        long remainder = timestamp % millis;
+        return remainder < 0 ? timestamp - remainder - millis : timestamp - remainder;
+    }
+
+    private final double[] intervals;
+    private final long[] intervalMillis;
+    private final long[] nextClose;
+    private final int intervalCount;
+    private final Map<Tradeable, Integer> marketIds = new HashMap<Tradeable, Integer>();
+    private Tradeable[] markets;
+    private int marketCount;
+    // indexed by market id
+    private long[] cutoff;
+    // indexed by market id * interval count + interval
+    private long[] start;
+    private double[] open;
+    private double[] high;
+    private double[] low;
+    private double[] close;
+    private double[] volume;
+    private double[] buyVolume;
+    private double[] sellVolume;
+    private double[] previousClose;
+    private int[] count;
+    private Bar[] published;
+
+}
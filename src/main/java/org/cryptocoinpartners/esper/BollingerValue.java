@@ -0,0 +1,30 @@
+package org.cryptocoinpartners.esper;
+
+public class BollingerValue {
+    private final double upper;
+    private final double middle;
+    private final double lower;
+
+    public BollingerValue(double upper, double middle, double lower) {
+        this.upper = upper;
+        this.middle = middle;
+        this.lower = lower;
+    }
+
+    public double getUpper() {
+        return upper;
+    }
+
+    public double getMiddle() {
+        return middle;
+    }
+
+    public double getLower() {
+        return lower;
+    }
+
+    @Override
+    public String toString() {
+        return "Bollinger[" + lower + ", " + middle + ", " + upper + "]";
+    }
+}
@@ -0,0 +1,51 @@
+package org.cryptocoinpartners.esper;
+
+/**
+ * A fixed capacity FIFO of primitive doubles. Once full, each value added displaces the oldest.
+ */
+final class DoubleRing {
+
+    DoubleRing(int capacity) {
+        values = new double[capacity];
+    }
+
+    /** @return the value displaced by this one, or NaN if the ring was not yet full */
+    double add(double value) {
+        double displaced = Double.NaN;
+        if (size == values.length)
+            displaced = values[next];
+        else
+            size++;
+        values[next] = value;
+        next = next + 1 == values.length ? 0 : next + 1;
+        return displaced;
+    }
+
+    /** @return the value at the index, counting from the oldest */
+    double get(int index) {
+        int position = next - size + index;
+        return values[position < 0 ? position + values.length : position];
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return values.length;
+    }
+
+    boolean isFull() {
+        return size == values.length;
+    }
+
+    void clear() {
+        size = 0;
+        next = 0;
+    }
+
+    private final double[] values;
+    private int next;
+    private int size;
+
+}
@@ -1,5 +1,6 @@
 package org.cryptocoinpartners.esper;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.cryptocoinpartners.schema.Tradeable;
@@ -21,14 +22,14 @@ public class OHLCBarPlugInViewFactory extends ViewFactorySupport {
     private ExprNode valueExpression;
     private ExprNode volumeExpression;
     private ExprNode marketExpression;
-    private ExprNode intervalExpression;
+    private ExprNode[] intervalExpressions;
 
     @Override
     public void setViewParameters(ViewFactoryContext viewFactoryContext, List<ExprNode> viewParameters) throws ViewParameterException {
         this.viewFactoryContext = viewFactoryContext;
-        if (viewParameters.size() < 2) {
+        if (viewParameters.size() < 5) {
             throw new ViewParameterException(
-                    "View requires at least two parameters: the expression returning timestamps and the expression supplying OHLC data points");
+                    "View requires at least five parameters: the expressions returning timestamps, OHLC data points, volumes and markets, then one or more bar intervals");
         }
         this.viewParameters = viewParameters;
     }
@@ -42,7 +43,7 @@ public class OHLCBarPlugInViewFactory extends ViewFactorySupport {
         valueExpression = validatedNodes[1];
         volumeExpression = validatedNodes[2];
         marketExpression = validatedNodes[3];
-        intervalExpression = validatedNodes[4];
+        intervalExpressions = Arrays.copyOfRange(validatedNodes, 4, validatedNodes.length);
 
         if ((timestampExpression.getExprEvaluator().getType() != long.class) && (timestampExpression.getExprEvaluator().getType() != Long.class)) {
             throw new ViewParameterException("View requires long-typed timestamp values in parameter 1");
@@ -56,15 +57,16 @@ public class OHLCBarPlugInViewFactory extends ViewFactorySupport {
         if ((marketExpression.getExprEvaluator().getType() != Tradeable.class) && (marketExpression.getExprEvaluator().getType() != Tradeable.class)) {
             throw new ViewParameterException("View requires tradeable-typed values for in parameter 4");
         }
-        if ((intervalExpression.getExprEvaluator().getType() != double.class) && (intervalExpression.getExprEvaluator().getType() != Double.class)) {
-            throw new ViewParameterException("View requires double-typed values for in parameter 5");
-        }
+        for (int i = 0; i < intervalExpressions.length; i++)
+            if ((intervalExpressions[i].getExprEvaluator().getType() != double.class) && (intervalExpressions[i].getExprEvaluator().getType() != Double.class)) {
+                throw new ViewParameterException("View requires double-typed values for in parameter " + (i + 5));
+            }
     }
 
     @Override
     public View makeView(AgentInstanceViewFactoryChainContext agentInstanceViewFactoryContext) {
         return new OHLCBarPlugInView(agentInstanceViewFactoryContext, timestampExpression, valueExpression, volumeExpression, marketExpression,
-                intervalExpression);
+                intervalExpressions);
     }
 
     @Override
@@ -0,0 +1,499 @@
+package org.cryptocoinpartners.esper;
+
+/**
+ * A technical indicator updated one input at a time in constant time, keeping only primitive state. Values agree with the TA-Lib functions of
+ * the same name and default settings, once the indicator has seen as many inputs as TA-Lib's lookback needs.
+ * <p>
+ * Windowed sums are recomputed from their ring once per window, so rounding errors cannot accumulate however long an indicator runs.
+ */
+public abstract class StreamingIndicator {
+
+    /** adds the next input */
+    public abstract void update(double value);
+
+    /** adds the next bar; indicators which only use one price take the close */
+    public void update(double high, double low, double close) {
+        update(close);
+    }
+
+    /** @return true once enough inputs have been seen for a value */
+    public abstract boolean isReady();
+
+    /** @return the current value as a Double or value object, or null until the indicator is ready */
+    public abstract Object getValue();
+
+    public abstract void clear();
+
+    /** simple moving average */
+    public static class Sma extends StreamingIndicator {
+
+        public Sma(int period) {
+            window = new DoubleRing(period);
+        }
+
+        @Override
+        public void update(double value) {
+            double displaced = window.add(value);
+            if (Double.isNaN(displaced)) {
+                sum += value;
+                return;
+            }
+            if (++sinceResync == window.capacity()) {
+                sinceResync = 0;
+                sum = 0;
+                for (int i = 0; i < window.size(); i++)
+                    sum += window.get(i);
+            } else
+                sum += value - displaced;
+        }
+
+        @Override
+        public boolean isReady() {
+            return window.isFull();
+        }
+
+        public double getMean() {
+            return sum / window.size();
+        }
+
+        @Override
+        public Object getValue() {
+            return isReady() ? getMean() : null;
+        }
+
+        @Override
+        public void clear() {
+            window.clear();
+            sum = 0;
+            sinceResync = 0;
+        }
+
+        private final DoubleRing window;
+        private double sum;
+        private int sinceResync;
+
+    }
+
+    /** exponential moving average, seeded with the simple average of the first period inputs as TA-Lib does */
+    public static class Ema extends StreamingIndicator {
+
+        public Ema(int period) {
+            this.period = period;
+            this.k = 2.0 / (period + 1);
+        }
+
+        @Override
+        public void update(double value) {
+            if (count < period) {
+                ema += value;
+                if (++count == period)
+                    ema /= period;
+            } else
+                ema += k * (value - ema);
+        }
+
+        @Override
+        public boolean isReady() {
+            return count == period;
+        }
+
+        /** @return the average, or NaN until ready */
+        public double getEma() {
+            return isReady() ? ema : Double.NaN;
+        }
+
+        @Override
+        public Object getValue() {
+            return isReady() ? ema : null;
+        }
+
+        @Override
+        public void clear() {
+            count = 0;
+            ema = 0;
+        }
+
+        private final int period;
+        private final double k;
+        private int count;
+        private double ema;
+
+    }
+
+    /** weighted moving average, the newest input weighted period and the oldest 1 */
+    public static class Wma extends StreamingIndicator {
+
+        public Wma(int period) {
+            window = new DoubleRing(period);
+            divisor = period * (period + 1) / 2.0;
+        }
+
+        @Override
+        public void update(double value) {
+            double previousSum = sum;
+            double displaced = window.add(value);
+            if (Double.isNaN(displaced)) {
+                sum += value;
+                weighted += window.size() * value;
+                return;
+            }
+            if (++sinceResync == window.capacity()) {
+                sinceResync = 0;
+                sum = 0;
+                weighted = 0;
+                for (int i = 0; i < window.size(); i++) {
+                    sum += window.get(i);
+                    weighted += (i + 1) * window.get(i);
+                }
+            } else {
+                // every input moves down a weight, the displaced one to zero, and the new one comes in at period
+                weighted += window.size() * value - previousSum;
+                sum = previousSum + value - displaced;
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return window.isFull();
+        }
+
+        @Override
+        public Object getValue() {
+            return isReady() ? weighted / divisor : null;
+        }
+
+        @Override
+        public void clear() {
+            window.clear();
+            sum = 0;
+            weighted = 0;
+            sinceResync = 0;
+        }
+
+        private final DoubleRing window;
+        private final double divisor;
+        private double sum;
+        private double weighted;
+        private int sinceResync;
+
+    }
+
+    /** population standard deviation over the window */
+    public static class StdDev extends StreamingIndicator {
+
+        public StdDev(int period) {
+            window = new DoubleRing(period);
+        }
+
+        @Override
+        public void update(double value) {
+            double displaced = window.add(value);
+            if (Double.isNaN(displaced)) {
+                sum += value;
+                sumOfSquares += value * value;
+                return;
+            }
+            if (++sinceResync == window.capacity()) {
+                sinceResync = 0;
+                sum = 0;
+                sumOfSquares = 0;
+                for (int i = 0; i < window.size(); i++) {
+                    double held = window.get(i);
+                    sum += held;
+                    sumOfSquares += held * held;
+                }
+            } else {
+                sum += value - displaced;
+                sumOfSquares += value * value - displaced * displaced;
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return window.isFull();
+        }
+
+        public double getMean() {
+            return sum / window.size();
+        }
+
+        public double getStdDev() {
+            double mean = getMean();
+            double variance = sumOfSquares / window.size() - mean * mean;
+            return variance > 0 ? Math.sqrt(variance) : 0;
+        }
+
+        @Override
+        public Object getValue() {
+            return isReady() ? getStdDev() : null;
+        }
+
+        @Override
+        public void clear() {
+            window.clear();
+            sum = 0;
+            sumOfSquares = 0;
+            sinceResync = 0;
+        }
+
+        private final DoubleRing window;
+        private double sum;
+        private double sumOfSquares;
+        private int sinceResync;
+
+    }
+
+    /** the lowest or highest input in the window, kept in a monotonic queue so each input is added and removed once */
+    public static class Extreme extends StreamingIndicator {
+
+        public Extreme(int period, boolean highest) {
+            this.period = period;
+            this.highest = highest;
+            values = new double[period];
+            sequences = new long[period];
+        }
+
+        @Override
+        public void update(double value) {
+            sequence++;
+            if (size > 0 && sequences[head] <= sequence - period) {
+                head = head + 1 == period ? 0 : head + 1;
+                size--;
+            }
+            while (size > 0) {
+                int last = (head + size - 1) % period;
+                if (highest ? values[last] > value : values[last] < value)
+                    break;
+                size--;
+            }
+            int tail = (head + size) % period;
+            values[tail] = value;
+            sequences[tail] = sequence;
+            size++;
+        }
+
+        @Override
+        public boolean isReady() {
+            return sequence >= period;
+        }
+
+        @Override
+        public Object getValue() {
+            return isReady() ? values[head] : null;
+        }
+
+        @Override
+        public void clear() {
+            head = 0;
+            size = 0;
+            sequence = 0;
+        }
+
+        private final int period;
+        private final boolean highest;
+        private final double[] values;
+        private final long[] sequences;
+        private int head;
+        private int size;
+        private long sequence;
+
+    }
+
+    /** Wilder's relative strength index */
+    public static class Rsi extends StreamingIndicator {
+
+        public Rsi(int period) {
+            this.period = period;
+        }
+
+        @Override
+        public void update(double value) {
+            if (Double.isNaN(previous)) {
+                previous = value;
+                return;
+            }
+            double change = value - previous;
+            previous = value;
+            double gain = change > 0 ? change : 0;
+            double loss = change < 0 ? -change : 0;
+            if (changes < period) {
+                averageGain += gain;
+                averageLoss += loss;
+                if (++changes == period) {
+                    averageGain /= period;
+                    averageLoss /= period;
+                }
+            } else {
+                averageGain = (averageGain * (period - 1) + gain) / period;
+                averageLoss = (averageLoss * (period - 1) + loss) / period;
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return changes == period;
+        }
+
+        @Override
+        public Object getValue() {
+            if (!isReady())
+                return null;
+            double total = averageGain + averageLoss;
+            return total == 0 ? 0.0 : 100 * averageGain / total;
+        }
+
+        @Override
+        public void clear() {
+            previous = Double.NaN;
+            changes = 0;
+            averageGain = 0;
+            averageLoss = 0;
+        }
+
+        private final int period;
+        private double previous = Double.NaN;
+        private int changes;
+        private double averageGain;
+        private double averageLoss;
+
+    }
+
+    /** Wilder's average true range, over bars of high, low and close */
+    public static class Atr extends StreamingIndicator {
+
+        public Atr(int period) {
+            this.period = period;
+        }
+
+        @Override
+        public void update(double value) {
+            update(value, value, value);
+        }
+
+        @Override
+        public void update(double high, double low, double close) {
+            if (Double.isNaN(previousClose)) {
+                previousClose = close;
+                return;
+            }
+            double trueRange = Math.max(high - low, Math.max(Math.abs(high - previousClose), Math.abs(low - previousClose)));
+            previousClose = close;
+            if (ranges < period) {
+                atr += trueRange;
+                if (++ranges == period)
+                    atr /= period;
+            } else
+                atr = (atr * (period - 1) + trueRange) / period;
+        }
+
+        @Override
+        public boolean isReady() {
+            return ranges == period;
+        }
+
+        @Override
+        public Object getValue() {
+            return isReady() ? atr : null;
+        }
+
+        @Override
+        public void clear() {
+            previousClose = Double.NaN;
+            ranges = 0;
+            atr = 0;
+        }
+
+        private final int period;
+        private double previousClose = Double.NaN;
+        private int ranges;
+        private double atr;
+
+    }
+
+    /** a simple moving average with bands the given number of standard deviations either side */
+    public static class Bollinger extends StreamingIndicator {
+
+        public Bollinger(int period, double deviations) {
+            this.window = new StdDev(period);
+            this.deviations = deviations;
+        }
+
+        @Override
+        public void update(double value) {
+            window.update(value);
+        }
+
+        @Override
+        public boolean isReady() {
+            return window.isReady();
+        }
+
+        @Override
+        public Object getValue() {
+            if (!isReady())
+                return null;
+            double middle = window.getMean();
+            double band = deviations * window.getStdDev();
+            return new BollingerValue(middle + band, middle, middle - band);
+        }
+
+        @Override
+        public void clear() {
+            window.clear();
+        }
+
+        private final StdDev window;
+        private final double deviations;
+
+    }
+
+    /**
+     * The difference between a fast and a slow EMA, with an EMA of that difference as its signal line. The fast EMA starts with the first input
+     * rather than being aligned with the slow one as in TA-Lib, so the first values differ slightly until the start has decayed away.
+     */
+    public static class Macd extends StreamingIndicator {
+
+        public Macd(int fastPeriod, int slowPeriod, int signalPeriod) {
+            fast = new Ema(Math.min(fastPeriod, slowPeriod));
+            slow = new Ema(Math.max(fastPeriod, slowPeriod));
+            signal = new Ema(signalPeriod);
+        }
+
+        @Override
+        public void update(double value) {
+            fast.update(value);
+            slow.update(value);
+            if (slow.isReady()) {
+                macd = fast.getEma() - slow.getEma();
+                signal.update(macd);
+            }
+        }
+
+        @Override
+        public boolean isReady() {
+            return signal.isReady();
+        }
+
+        @Override
+        public Object getValue() {
+            if (!isReady())
+                return null;
+            double signalLine = signal.getEma();
+            return new MacdValue(macd, signalLine, macd - signalLine);
+        }
+
+        @Override
+        public void clear() {
+            fast.clear();
+            slow.clear();
+            signal.clear();
+        }
+
+        private final Ema fast;
+        private final Ema slow;
+        private final Ema signal;
+        private double macd;
+
+    }
+
+}
@@ -0,0 +1,163 @@
+package org.cryptocoinpartners.esper;
+
+import com.espertech.esper.client.hook.AggregationFunctionFactory;
+import com.espertech.esper.epl.agg.aggregator.AggregationMethod;
+import com.espertech.esper.epl.agg.service.AggregationValidationContext;
+
+/*
+ * Streaming indicator example usage, one value per group as for any aggregation:
+ * select market, sma(priceAsDouble, 20) as fast, sma(priceAsDouble, 50) as slow, bollinger(priceAsDouble, 20, 2.0).getUpper() as upper from Trade group by market;
+ * select atr(high, low, close, 14) as atr, macd(close, 12, 26, 9).getHistogram() as histogram from Bar;
+ */
+
+/**
+ * Registers the {@link StreamingIndicator}s as Esper aggregation functions. Each group gets its own indicator, which is updated as events enter.
+ * <p>
+ * The window is the period given to the function, as with talib, so events leaving a data window are ignored. Periods must be constants:
+ * <ul>
+ * <li>sma, ema, wma, rsi, movingStddev, movingMin, movingMax (value, period)
+ * <li>atr (high, low, close, period)
+ * <li>bollinger (value, period, deviations), returning a {@link BollingerValue}
+ * <li>macd (value, fastPeriod, slowPeriod, signalPeriod), returning a {@link MacdValue}
+ * </ul>
+ */
+public class StreamingIndicatorFunction implements AggregationFunctionFactory {
+
+    @Override
+    public void setFunctionName(String functionName) {
+        this.functionName = functionName;
+    }
+
+    @Override
+    public void validate(AggregationValidationContext validationContext) {
+        Class<?>[] types = validationContext.getParameterTypes();
+        int inputs = functionName.equalsIgnoreCase("atr") ? 3 : 1;
+        int constants = functionName.equalsIgnoreCase("macd") ? 3 : functionName.equalsIgnoreCase("bollinger") ? 2 : 1;
+        if (types.length != inputs + constants)
+            throw new IllegalArgumentException(functionName + " takes " + inputs + " input" + (inputs == 1 ? "" : "s") + " followed by " + constants
+                    + " constant" + (constants == 1 ? "" : "s"));
+        for (int i = 0; i < inputs; i++)
+            if (types[i] == null || !Number.class.isAssignableFrom(box(types[i])))
+                throw new IllegalArgumentException(functionName + " param " + i + " must be numeric");
+        parameters = new double[constants];
+        for (int i = 0; i < constants; i++) {
+            if (!validationContext.getIsConstantValue()[inputs + i] || !(validationContext.getConstantValues()[inputs + i] instanceof Number))
+                throw new IllegalArgumentException(functionName + " param " + (inputs + i) + " must be a numeric constant");
+            parameters[i] = ((Number) validationContext.getConstantValues()[inputs + i]).doubleValue();
+        }
+        for (int i = 0; i < constants; i++)
+            if (!functionName.equalsIgnoreCase("bollinger") || i == 0)
+                if (parameters[i] < 1 || parameters[i] != Math.floor(parameters[i]))
+                    throw new IllegalArgumentException(functionName + " period " + parameters[i] + " must be a positive integer");
+        this.inputs = inputs;
+        // fails the statement now, rather than on its first event, if the name is not an indicator
+        newIndicator();
+    }
+
+    @Override
+    public AggregationMethod newAggregator() {
+        return new Aggregator(newIndicator(), inputs, getValueType());
+    }
+
+    @Override
+    public Class<?> getValueType() {
+        if (functionName.equalsIgnoreCase("bollinger"))
+            return BollingerValue.class;
+        if (functionName.equalsIgnoreCase("macd"))
+            return MacdValue.class;
+        return Double.class;
+    }
+
+    private StreamingIndicator newIndicator() {
+        int period = (int) parameters[0];
+        String name = functionName.toLowerCase();
+        if (name.equals("sma"))
+            return new StreamingIndicator.Sma(period);
+        if (name.equals("ema"))
+            return new StreamingIndicator.Ema(period);
+        if (name.equals("wma"))
+            return new StreamingIndicator.Wma(period);
+        if (name.equals("rsi"))
+            return new StreamingIndicator.Rsi(period);
+        if (name.equals("movingstddev"))
+            return new StreamingIndicator.StdDev(period);
+        if (name.equals("movingmin"))
+            return new StreamingIndicator.Extreme(period, false);
+        if (name.equals("movingmax"))
+            return new StreamingIndicator.Extreme(period, true);
+        if (name.equals("atr"))
+            return new StreamingIndicator.Atr(period);
+        if (name.equals("bollinger"))
+            return new StreamingIndicator.Bollinger(period, parameters[1]);
+        if (name.equals("macd"))
+            return new StreamingIndicator.Macd(period, (int) parameters[1], (int) parameters[2]);
+        throw new IllegalArgumentException("no streaming indicator named " + functionName);
+    }
+
+    private static Class<?> box(Class<?> type) {
+        if (!type.isPrimitive())
+            return type;
+        if (type == double.class)
+            return Double.class;
+        if (type == float.class)
+            return Float.class;
+        if (type == long.class)
+            return Long.class;
+        if (type == int.class)
+            return Integer.class;
+        if (type == short.class)
+            return Short.class;
+        if (type == byte.class)
+            return Byte.class;
+        return type;
+    }
+
+    static class Aggregator implements AggregationMethod {
+
+        Aggregator(StreamingIndicator indicator, int inputs, Class<?> valueType) {
+            this.indicator = indicator;
+            this.inputs = inputs;
+            this.valueType = valueType;
+        }
+
+        @Override
+        public void enter(Object value) {
+            Object[] params = (Object[]) value;
+            if (inputs == 1) {
+                if (params[0] != null)
+                    indicator.update(((Number) params[0]).doubleValue());
+            } else if (params[0] != null && params[1] != null && params[2] != null)
+                indicator.update(((Number) params[0]).doubleValue(), ((Number) params[1]).doubleValue(), ((Number) params[2]).doubleValue());
+        }
+
+        @Override
+        public void leave(Object value) {
+            // the indicator keeps its own window of period inputs
+        }
+
+        @Override
+        public Object getValue() {
+            return indicator.getValue();
+        }
+
+        @Override
+        public Class<?> getValueType() {
+            return valueType;
+        }
+
+        @Override
+        public void clear() {
+            indicator.clear();
+        }
+
+        private final StreamingIndicator indicator;
+        private final int inputs;
+        private final Class<?> valueType;
+
+    }
+
+    private String functionName;
+    private double[] parameters;
+    private int inputs;
+
+}
@@ -1,10 +1,14 @@
 package org.cryptocoinpartners.module;
 
+import java.io.File;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -16,6 +20,8 @@ import java.util.concurrent.TimeUnit;
 import javax.inject.Singleton;
 import javax.persistence.ElementCollection;
 
+import org.apache.commons.configuration.Configuration;
+import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.schema.Bar;
 import org.cryptocoinpartners.schema.Book;
 import org.cryptocoinpartners.schema.EntityBase;
@@ -23,6 +29,7 @@ import org.cryptocoinpartners.schema.Trade;
 import org.cryptocoinpartners.schema.Tradeable;
 import org.cryptocoinpartners.util.ConfigUtil;
 import org.cryptocoinpartners.util.Injector;
+import org.cryptocoinpartners.util.PersistQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +47,8 @@ public class ApplicationInitializer implements Context.AttachListener, Serializa
 	private static int persistanceTradeThreadCount = ConfigUtil.combined().getInt("db.trade.writer.threads", 1);
 	private static int persistanceBarThreadCount = ConfigUtil.combined().getInt("db.bar.writer.threads", 1);
 	private static int queueSize = ConfigUtil.combined().getInt("db.writer.queue.length", 10000);
+	private static int batchSize = ConfigUtil.combined().getInt("db.writer.batch.size", 500);
+	private static long batchLatency = ConfigUtil.combined().getLong("db.writer.batch.ms", 250);
 
 	private static ListeningExecutorService insertPool = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(1));
 	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.applicationInitalizer");
@@ -56,9 +65,9 @@ public class ApplicationInitializer implements Context.AttachListener, Serializa
 	//private static BlockingQueue mergeQueue = new DelayQueue();
 	private static BlockingQueue<EntityBase> mergeQueue = new LinkedBlockingQueue<EntityBase>();
 	private static BlockingQueue<EntityBase> bulkMergeQueue = new LinkedBlockingQueue<EntityBase>();
-	private static BlockingQueue<Book> mergeBookQueue = new LinkedBlockingQueue<Book>();
-	private static BlockingQueue<Trade> mergeTradeQueue = new LinkedBlockingQueue<Trade>();
-	private static BlockingQueue<Bar> mergeBarQueue = new LinkedBlockingQueue<Bar>();
+	private static BlockingQueue<Book> mergeBookQueue = createQueue("book", "books");
+	private static BlockingQueue<Trade> mergeTradeQueue = createQueue("trade", "trades");
+	private static BlockingQueue<Bar> mergeBarQueue = createQueue("bar", "bars");
 	private static BlockingQueue<EntityBase> insertQueue = mergeQueue;
 	private static BlockingQueue<EntityBase> bulkInsertQueue = bulkMergeQueue;
 	private static BlockingQueue<Book> insertBookQueue = mergeBookQueue;
@@ -87,11 +96,11 @@ public class ApplicationInitializer implements Context.AttachListener, Serializa
 		//   deleteService.submit(new deleteRunnable(deleteQueue));
 
 		for (int i = 0; i < persistanceBookThreadCount; i++)
-			mergeService.submit(new mergeRunnable(mergeBookQueue));
+			mergeService.submit(new batchMergeRunnable(mergeBookQueue));
 		for (int i = 0; i < persistanceTradeThreadCount; i++)
-			mergeService.submit(new mergeRunnable(mergeTradeQueue));
+			mergeService.submit(new batchMergeRunnable(mergeTradeQueue));
 		for (int i = 0; i < persistanceBarThreadCount; i++)
-			mergeService.submit(new mergeRunnable(mergeBarQueue));
+			mergeService.submit(new batchMergeRunnable(mergeBarQueue));
 		log.debug(this.getClass() + "- ApplicationInitializer started merege peristnace thread");
 		//Future insertFuture = insertService.submit(new persistRunnable(insertQueue));
 
@@ -172,6 +181,25 @@ public class ApplicationInitializer implements Context.AttachListener, Serializa
 		this.deleteQueue = deleteQueue;
 	}
 
+	/**
+	 * a bounded queue for one type of market data, "trade", "book" or "bar". What happens when it fills up is set by db.writer.&lt;type&gt;.policy,
+	 * and its metrics are registered over JMX under the given name.
+	 */
+	public static <E extends EntityBase> PersistQueue<E> createQueue(String type, String name) {
+		Configuration config = ConfigUtil.combined();
+		String defaultPolicy = type.equals("trade") ? "spill" : type.equals("book") ? "block" : "drop_oldest";
+		String policyName = config.getString("db.writer." + type + ".policy", defaultPolicy);
+		PersistQueue.Policy policy;
+		try {
+			policy = PersistQueue.Policy.valueOf(policyName.trim().toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new ConfigurationError("db.writer." + type + ".policy must be one of block, drop_oldest, spill or coalesce, not " + policyName);
+		}
+		int capacity = config.getInt("db.writer." + type + ".queue.length", queueSize);
+		File spillRoot = new File(config.getString("db.writer.spill.path", "spill"));
+		return new PersistQueue<E>(name, policy, capacity, spillRoot, null, null).register();
+	}
+
 	public BlockingQueue<EntityBase> getMergeQueue() {
 		return mergeQueue;
 	}
@@ -320,100 +348,150 @@ public class ApplicationInitializer implements Context.AttachListener, Serializa
 
 	}
 
-	public class batchMergeRunnable implements Callable {
+	/**
+	 * Writes the entities of a queue in batches. It waits for the first entity of a batch, then collects up to maxBatchSize entities for at most
+	 * maxLatencyMillis. The new entities of a batch are inserted in a single transaction, so Hibernate can send them as JDBC batches. If that
+	 * transaction fails the batch is split in halves until the failing entities are found, and only those are retried one at a time. Entities to be
+	 * merged or deleted are written one at a time after the inserts.
+	 */
+	public static class batchMergeRunnable implements Callable {
 
 		private final BlockingQueue mergeQueue;
+		private final int maxBatchSize;
+		private final long maxLatencyMillis;
 
 		@Override
 		public Object call() throws Exception {
-
-			EntityBase entity = null;
-			int maxBatchSize = 50;
-			long maxLatencyNanos = 100000;
-			long maxTimeoutNanos = 100000;
-			Collection<EntityBase> batch = new ArrayList<EntityBase>();
-			int curBatchSize = 0;
-			long stopBatchTimeNanos = -1;
-
+			List<EntityBase> batch = new ArrayList<EntityBase>(maxBatchSize);
 			while (true) {
-				boolean timeout = false;
-				if (stopBatchTimeNanos == -1) {
-					// Start of new batch. Block for the first item of this batch.
+				try {
+					batch.clear();
 					batch.add((EntityBase) mergeQueue.take());
-					curBatchSize++;
-					stopBatchTimeNanos = maxTimeoutNanos + maxLatencyNanos;
-				} else {
-					// Continue existing batch. Block until an item is in the queue or the
-					// batch timeout expires.
-					EntityBase element = (EntityBase) mergeQueue.poll(stopBatchTimeNanos, TimeUnit.NANOSECONDS);
-					if (element == null) {
-						// Timeout occurred.
-						break;
+					long stopBatchTimeNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+					while (batch.size() < maxBatchSize) {
+						if (mergeQueue.drainTo(batch, maxBatchSize - batch.size()) > 0)
+							continue;
+						long remainingNanos = stopBatchTimeNanos - System.nanoTime();
+						if (remainingNanos <= 0)
+							break;
+						EntityBase element = (EntityBase) mergeQueue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+						if (element == null)
+							break;
+						batch.add(element);
 					}
-					batch.add(element);
-					curBatchSize++;
+					write(batch);
+				} catch (InterruptedException e) {
+					log.debug(" " + this.getClass().getSimpleName() + ":batchMergeRunnable interrupted with " + batch.size() + " entities unwritten");
+					Thread.currentThread().interrupt();
+					return null;
+				} catch (Throwable e) {
+					log.error(" " + this.getClass().getSimpleName() + ":batchMergeRunnable, unable to write batch of " + batch.size()
+							+ " entities, full stack trace follows:", e);
 				}
-				curBatchSize += mergeQueue.drainTo(batch, maxBatchSize - curBatchSize);
-
-				if (curBatchSize >= maxBatchSize) {
+			}
+		}
 
-					try {
-						if (entity == null)
-							continue;
-						// synchronized (entity) {
-						if (entity.getDao() == null)
-							Injector.root().getInjector().injectMembers(entity);
-						if (entity.getDao() == null) {
-							log.error(this.getClass().getSimpleName() + ":mergeRunnable - No DAO defined for " + entity.getClass().getSimpleName() + " "
-									+ entity.getUuid());
-
-							//    mergeQueue.add(entity);
-							continue;
+		void write(List<EntityBase> batch) {
+			List<EntityBase> inserts = new ArrayList<EntityBase>(batch.size());
+			List<EntityBase> updates = new ArrayList<EntityBase>();
+			Set<EntityBase> written = new HashSet<EntityBase>();
+			for (EntityBase entity : batch) {
+				if (entity == null)
+					continue;
+				if (entity.getDao() == null)
+					Injector.root().getInjector().injectMembers(entity);
+				if (entity.getDao() == null) {
+					log.error(this.getClass().getSimpleName() + ":batchMergeRunnable - No DAO defined for " + entity.getClass().getSimpleName() + " "
+							+ entity.getUuid());
+					continue;
+				}
+				// a Book whose parent was dropped or spilled by its queue, or failed to insert, restarts the diff chain
+				if (entity instanceof Book && entity.getParent() != null && !entity.getParent().getPersisted() && !written.contains(entity.getParent()))
+					entity.persitParents();
+				if (!entity.getPersisted() && (entity.getPeristanceAction() == null || entity.getPeristanceAction() == PersistanceAction.NEW))
+					inserts.add(entity);
+				else
+					updates.add(entity);
+				written.add(entity);
+			}
+			insert(inserts);
+			for (EntityBase entity : updates)
+				writeEntity(entity);
+		}
 
-						}
-						//  continue;
+		/** inserts the entities in one transaction, halving the batch on failure so only the failing entities are retried singly */
+		private void insert(List<EntityBase> entities) {
+			if (entities.isEmpty())
+				return;
+			Long[] ids = new Long[entities.size()];
+			long[] versions = new long[entities.size()];
+			for (int i = 0; i < entities.size(); i++) {
+				ids[i] = entities.get(i).getId();
+				versions[i] = entities.get(i).getVersion();
+			}
+			try {
+				entities.get(0).getDao().insertBatch(entities);
+			} catch (Throwable e) {
+				// the transaction was rolled back, so undo the ids and versions it assigned
+				for (int i = 0; i < entities.size(); i++) {
+					entities.get(i).setId(ids[i]);
+					entities.get(i).setVersion(versions[i]);
+				}
+				if (entities.size() == 1) {
+					log.debug(" " + this.getClass().getSimpleName() + ":batchMergeRunnable, retrying " + entities.get(0).getUuid() + " singly after "
+							+ e);
+					writeEntity(entities.get(0));
+				} else {
+					int half = entities.size() / 2;
+					insert(entities.subList(0, half));
+					insert(entities.subList(half, entities.size()));
+				}
+				return;
+			}
+			for (EntityBase entity : entities) {
+				entity.setAttempt(0);
+				entity.setPersisted(true);
+				if (entity.getOriginalEntity() != null) {
+					entity.getOriginalEntity().setPersisted(true);
+					entity.setOriginalEntity(null);
+				}
+			}
+			log.trace(this.getClass().getSimpleName() + ":batchMergeRunnable - inserted batch of " + entities.size() + " "
+					+ entities.get(0).getClass().getSimpleName());
+		}
 
-						if (entity.getPeristanceAction() != null) {
-							switch (entity.getPeristanceAction()) {
-								case NEW:
-									entity.getDao().persistEntities(false, entity);
-									break;
-								case MERGE:
-									entity.getDao().mergeEntities(false, entity);
-									break;
-								case DELETE:
-									entity.getDao().deleteEntities(entity);
-									break;
-								default:
-									entity.getDao().mergeEntities(false, entity);
-									break;
-							}
-						} else
+		private void writeEntity(EntityBase entity) {
+			try {
+				if (entity.getPeristanceAction() != null) {
+					switch (entity.getPeristanceAction()) {
+						case NEW:
+							entity.getDao().persistEntities(false, entity);
+							break;
+						case MERGE:
 							entity.getDao().mergeEntities(false, entity);
-						//  }
-
-					} catch (RuntimeException e) {
-						log.error(" " + this.getClass().getSimpleName() + ":mergeRunnable, resubmitting thread due to "
-								+ (entity == null ? "null entity" : entity.getUuid()) + " full stack trace follows:", e);
-
-						mergeService.submit(this);
-						throw e;
-					} catch (Throwable e) {
-						log.error(" " + this.getClass().getSimpleName() + ":mergeRunnable, " + (entity == null ? "null entity" : entity.getUuid())
-								+ " full stack trace follows:", e);
-
+							break;
+						case DELETE:
+							entity.getDao().deleteEntities(entity);
+							break;
+						default:
+							entity.getDao().mergeEntities(false, entity);
+							break;
 					}
-					break;
-				}
+				} else
+					entity.getDao().mergeEntities(false, entity);
+			} catch (Throwable e) {
+				log.error(" " + this.getClass().getSimpleName() + ":batchMergeRunnable, " + entity.getUuid() + " full stack trace follows:", e);
 			}
-
-			return curBatchSize;
-
 		}
 
 		public batchMergeRunnable(BlockingQueue mergeQueue) {
-			this.mergeQueue = mergeQueue;
+			this(mergeQueue, batchSize, batchLatency);
+		}
 
+		public batchMergeRunnable(BlockingQueue mergeQueue, int maxBatchSize, long maxLatencyMillis) {
+			this.mergeQueue = mergeQueue;
+			this.maxBatchSize = Math.max(maxBatchSize, 1);
+			this.maxLatencyMillis = maxLatencyMillis;
 		}
 
 	}
@@ -0,0 +1,90 @@
+package org.cryptocoinpartners.module;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.cryptocoinpartners.esper.annotation.When;
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Fill;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.service.PortfolioService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the summary figures of a backtest: fills, and the equity (cash plus open trade equity in the base asset) sampled every hour of replay
+ * time, from which the PnL and the largest peak to trough drawdown are taken. Attach it after the strategies so their portfolios are known.
+ */
+@Singleton
+public class BacktestStats {
+
+	@When("select * from Fill")
+	public synchronized void handleFill(Fill fill) {
+		fills++;
+	}
+
+	@When("select current_timestamp() from pattern [every timer:interval(1 hour)]")
+	public void handleSample(long now) {
+		sample();
+	}
+
+	/** records the current equity, and returns it */
+	public synchronized double sample() {
+		Asset baseAsset = getBaseAsset();
+		if (baseAsset == null)
+			return 0;
+		double equity;
+		try {
+			equity = portfolioService.getBaseCashBalance(baseAsset).plus(portfolioService.getBaseUnrealisedPnL(baseAsset)).asDouble();
+		} catch (Error | Exception e) {
+			log.debug(this.getClass().getSimpleName() + ":sample - unable to value portfolios", e);
+			return lastEquity;
+		}
+		if (samples == 0) {
+			startEquity = equity;
+			peakEquity = equity;
+		}
+		peakEquity = Math.max(peakEquity, equity);
+		maxDrawdown = Math.max(maxDrawdown, peakEquity - equity);
+		lastEquity = equity;
+		samples++;
+		return equity;
+	}
+
+	public synchronized long getFills() {
+		return fills;
+	}
+
+	/** the change in equity since the first sample */
+	public synchronized double getPnL() {
+		return lastEquity - startEquity;
+	}
+
+	/** the largest fall in equity from a previous peak, in the base asset */
+	public synchronized double getMaxDrawdown() {
+		return maxDrawdown;
+	}
+
+	public synchronized long getSamples() {
+		return samples;
+	}
+
+	private Asset getBaseAsset() {
+		for (Portfolio portfolio : portfolioService.getPortfolios())
+			if (portfolio.getBaseAsset() != null)
+				return portfolio.getBaseAsset();
+		return null;
+	}
+
+	@Inject
+	protected PortfolioService portfolioService;
+
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.backtestStats");
+	private long fills;
+	private long samples;
+	private double startEquity;
+	private double lastEquity;
+	private double peakEquity;
+	private double maxDrawdown;
+
+}
@@ -24,6 +24,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -67,6 +68,7 @@ import org.cryptocoinpartners.schema.PositionUpdate;
 import org.cryptocoinpartners.schema.SpecificOrder;
 import org.cryptocoinpartners.schema.SpecificOrderFactory;
 import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.TopOfBook;
 import org.cryptocoinpartners.schema.Tradeable;
 import org.cryptocoinpartners.schema.Transaction;
 import org.cryptocoinpartners.schema.TransactionFactory;
@@ -111,16 +113,18 @@ public abstract class BaseOrderService implements OrderService {
 	protected final static HashMap<Exchange, ExecutorService> exchangeCancellationPool = new HashMap<Exchange, ExecutorService>();
 	protected final static HashMap<Exchange, BlockingQueue<SpecificOrder>> exchangeCancellationQueues = new HashMap<Exchange, BlockingQueue<SpecificOrder>>();
 
-	private final static Map<Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>> triggerOrders = new ConcurrentHashMap<Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>>();
-	private final static Map<Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>> targetOrders = new ConcurrentHashMap<Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>>();
+	private final Map<Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>> triggerOrders = new ConcurrentHashMap<Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>>();
+	private final ConcurrentHashMap<Tradeable, Lock> marketLocks = new ConcurrentHashMap<Tradeable, Lock>();
+	private final Map<Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>> targetOrders = new ConcurrentHashMap<Tradeable, Map<Double, Map<TransactionType, Map<FillType, List<Order>>>>>();
 
-	private final static Map<Tradeable, Map<Double, Map<TransactionType, List<Order>>>> trailingTriggerOrders = new ConcurrentHashMap<Tradeable, Map<Double, Map<TransactionType, List<Order>>>>();
+	private final Map<Tradeable, Map<Double, Map<TransactionType, List<Order>>>> trailingTriggerOrders = new ConcurrentHashMap<Tradeable, Map<Double, Map<TransactionType, List<Order>>>>();
 
 	protected static boolean cancelUnknownOrders = (ConfigUtil.combined() != null) ? ConfigUtil.combined().getBoolean("cancel.unknownorders", false) : false;
 	protected static boolean ignoreUnknownOrders = (ConfigUtil.combined() != null) ? ConfigUtil.combined().getBoolean("ignore.unknownorders", true) : true;
 	protected static int maxPlacementCount = (ConfigUtil.combined() != null) ? ConfigUtil.combined().getInt("xchange.maxplacementcount", new Integer(20))
 			: new Integer(20);
 	protected static boolean saveStopPriceUpdates = (ConfigUtil.combined() != null) ? ConfigUtil.combined().getBoolean("save.stopupdates", true) : true;
+	protected static long evictOrdersAfterMinutes = (ConfigUtil.combined() != null) ? ConfigUtil.combined().getLong("order.evict.minutes", 0) : 0;
 
 	@Override
 	public void init() {
@@ -542,13 +546,7 @@ public abstract class BaseOrderService implements OrderService {
 
 			log.debug("Adding " + orderUpdate.getOrder().getUuid() + "/" + System.identityHashCode(orderUpdate.getOrder()) + " with state "
 					+ orderUpdate.getState() + " to orderStateMap");
-			orderStateMap.put(orderUpdate.getOrder(), orderUpdate.getState());
-			if (stateOrderMap.get(orderUpdate.getState()) == null) {
-				Set<Order> orderSet = new HashSet<Order>();
-				stateOrderMap.put(orderUpdate.getState(), orderSet);
-
-			}
-			stateOrderMap.get(orderUpdate.getState()).add(orderUpdate.getOrder());
+			orderStateMap.update(orderUpdate.getOrder(), orderUpdate.getState(), context.getTime().getMillis());
 			if (orderUpdate.getState() == (OrderState.TRIGGER))
 				addTriggerOrder(orderUpdate.getOrder());
 
@@ -559,31 +557,8 @@ public abstract class BaseOrderService implements OrderService {
 	@Override
 	public Collection<Order> getPendingOrders() {
 		//PersitOrderFill(order);
-		List<Order> cointraderOpenOrders = new ArrayList<Order>();
-		//  for (Order order : orderStateMap.keySet())
-		// if (orderStateMap.get(order).isOpen())
-		//  cointraderOpenOrders.add(order);
-		try {
-			//        replacingOrderLock.lock();
-			//this == OrderState.NEW || this == OrderState.TRIGGER || this == OrderState.ROUTED || this == OrderState.PLACED || this == OrderState.PARTFILLED;
-
-			if (stateOrderMap.get(OrderState.NEW) != null)
-				cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.NEW));
-			if (stateOrderMap.get(OrderState.TRIGGER) != null)
-				cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.TRIGGER));
-			if (stateOrderMap.get(OrderState.PLACED) != null)
-				cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.PLACED));
-			if (stateOrderMap.get(OrderState.PARTFILLED) != null)
-				cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.PARTFILLED));
-			if (stateOrderMap.get(OrderState.ROUTED) != null)
-				cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.ROUTED));
-			if (stateOrderMap.get(OrderState.CANCELLING) != null)
-				cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.CANCELLING));
-		} catch (Exception e) {
-			log.error(this.getClass().getSimpleName() + ": getPendingOrders - Unable to retrive order state ", e);
-		} finally {
-			// replacingOrderLock.unlock();
-		}
+		// the open orders are NEW, TRIGGER, ROUTED, PLACED, PARTFILLED or CANCELLING, kept in one set by the orderStateMap
+		List<Order> cointraderOpenOrders = new ArrayList<Order>(orderStateMap.getOpenOrders());
 		// we need to sort these by time?
 		// Collections.sort(cointraderOpenOrders, timeComparator);
 		return cointraderOpenOrders;
@@ -2406,7 +2381,7 @@ public abstract class BaseOrderService implements OrderService {
 				log.info(this.getClass().getSimpleName() + " : triggerOrder -Cancelling working orders for parent fill: "
 						+ (triggeredOrder.getParentFill() != null ? triggeredOrder.getParentFill().getUuid() : " "));
 				try {
-					if (!getPendingOrders().isEmpty())
+					if (!orderStateMap.getOpenOrders().isEmpty())
 						if (triggeredOrder.getParentFill() != null && !handleCancelSpecificOrderByParentFill(triggeredOrder.getParentFill())) {
 							log.info(this.getClass().getSimpleName() + " : triggerOrder - unable to cancell all orders by parent fill:"
 									+ triggeredOrder.getParentFill().getUuid());
@@ -2496,8 +2471,38 @@ public abstract class BaseOrderService implements OrderService {
 		}
 	}
 
+	/**
+	 * Market data for different markets is processed in parallel, while events for one market are processed one at a time.
+	 */
+	void updateRestingOrders(Event event, Double triggerInterval) {
+		Tradeable market = (event instanceof Trade) ? ((Trade) event).getMarket() : (event instanceof Book) ? ((Book) event).getMarket() : null;
+		if (market == null)
+			return;
+		Lock marketLock = marketLocks.get(market);
+		if (marketLock == null) {
+			marketLocks.putIfAbsent(market, new ReentrantLock());
+			marketLock = marketLocks.get(market);
+		}
+		marketLock.lock();
+		try {
+			updateMarketRestingOrders(event, triggerInterval);
+		} finally {
+			marketLock.unlock();
+		}
+	}
+
+	/**
+	 * @return the orders of a trigger list which could trigger at the given price. A TriggerBook gives just the orders whose trigger price has been
+	 *         crossed, unless one of its orders has expired and so the whole list needs to be looked at.
+	 */
+	private List<Order> triggerCandidates(List<Order> orders, Amount price) {
+		if (orders instanceof TriggerBook && !((TriggerBook) orders).hasExpiredBy(context.getTime()))
+			return ((TriggerBook) orders).crossedBy(price);
+		return orders;
+	}
+
 	@SuppressWarnings("ConstantConditions")
-	private synchronized void updateRestingOrders(Event event, Double triggerInterval) {
+	private void updateMarketRestingOrders(Event event, Double triggerInterval) {
 		//TODO If we trigger an order and it get's rejected by the exchange, the trigger order also get's rejeccted, should we place it back into a triggered state so it can trigger again?
 
 		//TODO if there is a miminimum order size, we might need to cancel all stops then place a bigger order above the imunum size.
@@ -2506,82 +2511,24 @@ public abstract class BaseOrderService implements OrderService {
 
 		// For trigger orders we need to move then if the event time is after the order time even when the trade service is disabled.
 
-		Tradeable market = null;
-		List<Offer> asks = new ArrayList<>();
-		Book b = null;
-		Trade t = null;
-		List<Offer> bids = new ArrayList<>();
-		if (event instanceof Book) {
-			b = (Book) event;
-			//  market = b.getMarket();
-
-		}
-		/*
-		 * if (event.getTimestamp() >= 1390101388000L) { log.debug("here we go"); log.debug("orderstatmap: " + orderStateMap); log.debug("pendingOrders: "
-		 * + getPendingOrders()); log.debug("TriggerOrders: " + triggerOrders); log.debug("TrailingTriggerOrders: " + trailingTriggerOrders); }
-		 */
-
-		if (event instanceof Trade) {
-			t = (Trade) event;
-
-			//  market = t.getMarket();
-			b = bookFactory.create(new Instant(t.getTimestamp()), t.getMarket());
-
-			//if Trade is a sell then it must have big the ask
-			if (!t.getMarket().isSynthetic()) {
-				if (t.getVolume().isNegative()) {
-					Offer bestBid = new Offer(t.getMarket(), t.getTime(), t.getTimeReceived(), t.getPrice().getCount(),
-							Math.abs(t.getVolume().getCount()) * -1);
-					b.getAsks().add(bestBid);
-					Offer bestAsk = new Offer(t.getMarket(), t.getTime(), t.getTimeReceived(), t.getPrice().getCount(), Math.abs(t.getVolume().getCount()));
-					b.getBids().add(bestAsk);
+		// trades are taken as both the best bid and best ask, without building a Book and Offers for them
+		TopOfBook quote = (event instanceof Trade) ? TopOfBook.of((Trade) event) : TopOfBook.of((Book) event);
+		Tradeable market = quote.getMarket();
 
-				} else {
-					Offer bestAsk = new Offer(t.getMarket(), t.getTime(), t.getTimeReceived(), t.getPrice().getCount(),
-							Math.abs(t.getVolume().getCount()) * -1);
-					b.getAsks().add(bestAsk);
-					Offer bestBid = new Offer(t.getMarket(), t.getTime(), t.getTimeReceived(), t.getPrice().getCount(), Math.abs(t.getVolume().getCount()));
-					b.getBids().add(bestBid);
-				}
-			} else {
-				if (t.getVolume().isNegative()) {
-					Offer bestBid = new Offer(t.getMarket(), t.getTime(), t.getTimeReceived(), t.getPrice().asBigDecimal(),
-							t.getVolume().asBigDecimal().abs().negate());
-					b.getAsks().add(bestBid);
-					Offer bestAsk = new Offer(t.getMarket(), t.getTime(), t.getTimeReceived(), t.getPrice().asBigDecimal(), t.getVolume().asBigDecimal().abs());
-					b.getBids().add(bestAsk);
-
-				} else {
-					Offer bestAsk = new Offer(t.getMarket(), t.getTime(), t.getTimeReceived(), t.getPrice().asBigDecimal(),
-							t.getVolume().asBigDecimal().abs().negate());
-					b.getAsks().add(bestAsk);
-					Offer bestBid = new Offer(t.getMarket(), t.getTime(), t.getTimeReceived(), t.getPrice().asBigDecimal(), t.getVolume().asBigDecimal().abs());
-					b.getBids().add(bestBid);
-				}
-			}
-
-			//     b.build();
-
-		}
-		market = b.getMarket();
-		asks = b.getAsks();
-		bids = b.getBids();
-		Offer offer;
-		//  synchronized (lock) {
-		Offer ask = b.getBestAsk();
-
-		Offer bid = b.getBestBid();
-
-		if (bid == null || bid.getPrice().isZero() || ask == null || ask.getPrice().isZero())
+		if (!quote.hasBid() || !quote.hasAsk())
 			return;
-		log.trace("Bid price for trigger: " + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
+		log.trace("Bid price for trigger: " + quote.getBidPrice() + ". Ask price for trigger: " + quote.getAskPrice());
 
 		//    Iterator<Order> itOrder = getPendingOrders().iterator();
 		//  while (itOrder.hasNext()) {
 		//    Order order = itOrder.next();
 		if (getTradingEnabled() && event != null) {
 
-			for (Order order : getPendingOrders()) {
+			// a copy, as expired orders are cancelled as we go
+			for (Order order : new ArrayList<Order>(orderStateMap.getOpenOrders(market))) {
+				// orders on other markets are updated by the events for their own market, which may be on another thread
+				if (order.getMarket() == null || !order.getMarket().equals(market))
+					continue;
 				if (order instanceof SpecificOrder && getOrderState(order) != OrderState.NEW) {
 					SpecificOrder pendingOrder = (SpecificOrder) order;
 					if (pendingOrder.getExpiryTime() != null && context.getTime().isAfter(pendingOrder.getExpiryTime())
@@ -2606,7 +2553,7 @@ public abstract class BaseOrderService implements OrderService {
 					} else if ((pendingOrder.getExpiryTime() != null && context.getTime().isAfter(pendingOrder.getExpiryTime())
 							&& pendingOrder.getExecutionInstruction().equals(ExecutionInstruction.MAKERTOTAKER))
 							|| (pendingOrder.getExpiryTime() == null && pendingOrder.getExecutionInstruction().equals(ExecutionInstruction.MAKERTOTAKER))
-							|| (getOrderState(pendingOrder) != null && getOrderState(pendingOrder).isOpen() && pendingOrder.getMarket().equals(b.getMarket())
+							|| (getOrderState(pendingOrder) != null && getOrderState(pendingOrder).isOpen() && pendingOrder.getMarket().equals(quote.getMarket())
 									&& (pendingOrder.getFillType() != null && pendingOrder.getFillType().equals(FillType.MARKET)))) {
 						//log.trace("BasedOrderSerivce - UpdateRestingOrdsers: Determining to replace order:" + pendingOrder);
 						pendingOrder.setPlacementCount(pendingOrder.getPlacementCount() + 1);
@@ -2806,15 +2753,15 @@ public abstract class BaseOrderService implements OrderService {
 				// for (SpecificOrder pendingOrder : getPendingOrders()) {
 
 				/*
-				 * if (pendingOrder.getMarket().equals(b.getMarket()) && //pendingOrder.getParentOrder().getFillType() == FillType.STOP_LIMIT)
+				 * if (pendingOrder.getMarket().equals(quote.getMarket()) && //pendingOrder.getParentOrder().getFillType() == FillType.STOP_LIMIT)
 				 * (pendingOrder.getPositionEffect() == PositionEffect.CLOSE) && (pendingOrder.getUnfilledVolumeCount() != 0) &&
 				 * pendingOrder.getExecutionInstruction() == ExecutionInstruction.TAKER) { boolean cancelled = true;
 				 * pendingOrder.setPlacementCount(pendingOrder.getPlacementCount() + 1); if (pendingOrder.isAsk()) offer =
 				 * (pendingOrder.getExecutionInstruction() == ExecutionInstruction.MAKER) ? quotes.getLastAskForMarket(pendingOrder.getMarket()) :
 				 * quotes.getLastBidForMarket(pendingOrder.getMarket()); else offer = (pendingOrder.getExecutionInstruction() == ExecutionInstruction.MAKER) ?
 				 * quotes.getLastBidForMarket(pendingOrder.getMarket()) : quotes.getLastAskForMarket(pendingOrder.getMarket()); DiscreteAmount limitPrice =
-				 * (pendingOrder.getVolume().isNegative()) ? bid.getPrice().decrement( (long) (Math.pow(pendingOrder.getPlacementCount(), 4))) :
-				 * ask.getPrice().increment( (long) (Math.pow(pendingOrder.getPlacementCount(), 4))); // we neeed to cancle order //TODO surround with try catch
+				 * (pendingOrder.getVolume().isNegative()) ? quote.getBidPrice().decrement( (long) (Math.pow(pendingOrder.getPlacementCount(), 4))) :
+				 * quote.getAskPrice().increment( (long) (Math.pow(pendingOrder.getPlacementCount(), 4))); // we neeed to cancle order //TODO surround with try catch
 				 * so we only insert if we cancel //TODO we only need to do this is the best bid/best ask has changed vs previous
 				 * log.debug("canceling existing order :" + pendingOrder); try { if (!getOrderState(pendingOrder).isCancelled()) {
 				 * log.info("Canceling Closing Orders " + pendingOrder); handleCancelSpecificOrder(pendingOrder); //cancelled = false; } // if (cancelled) { //
@@ -2868,7 +2815,7 @@ public abstract class BaseOrderService implements OrderService {
 						Set<Order> expiredBuyOrders = new HashSet<Order>();
 						Set<Order> cancelledBuyOrders = new HashSet<Order>();
 
-						Iterator<Order> itto = triggerOrders.get(market).get(triggerInterval).get(TransactionType.BUY).get(fillType).iterator();
+						Iterator<Order> itto = triggerCandidates(triggerOrders.get(market).get(triggerInterval).get(TransactionType.BUY).get(fillType), quote.getAskPrice()).iterator();
 						//  int size = triggerOrders.get(tr).get(triggerInterval).get(TransactionType.BUY).size();
 						//	log.debug("trigger orders" + triggerOrders.get(market).get(triggerInterval).get(TransactionType.BUY).get(fillType));
 						while (itto.hasNext()) {
@@ -2876,7 +2823,7 @@ public abstract class BaseOrderService implements OrderService {
 							log.trace("determining to trigger resting buy  order:" + triggeredOrder.getUuid()
 									+ (triggeredOrder.getStopPrice() != null ? " with stop price " + (triggeredOrder.getStopPrice()) : "")
 									+ (triggeredOrder.getTargetPrice() != null ? " target price " + (triggeredOrder.getTargetPrice()) : "") + " for interval "
-									+ triggerInterval + " at Bid price for trigger: " + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
+									+ triggerInterval + " at Bid price for trigger: " + quote.getBidPrice() + ". Ask price for trigger: " + quote.getAskPrice());
 
 							if (triggeredOrder.getExpiryTime() != null && context.getTime().isAfter(triggeredOrder.getExpiryTime())) {
 								log.info("Trigger order Expired, cancelling general Order:" + triggeredOrder);
@@ -2884,11 +2831,11 @@ public abstract class BaseOrderService implements OrderService {
 								itto.remove();
 								continue;
 							}
-							if (b.getMarket() != null) {
+							if (quote.getMarket() != null) {
 								try {
 									// if the order is a buy order, then I want to trigger at best price I can sell at (best bid)
-									if (triggeredOrder.isBid() && triggeredOrder.getTimestamp() < b.getBestAsk().getTimestamp()) {
-										DiscreteAmount triggerPrice = b.getBestAsk().getPrice();
+									if (triggeredOrder.isBid() && triggeredOrder.getTimestamp() < quote.getTimestamp()) {
+										DiscreteAmount triggerPrice = quote.getAskPrice();
 										if (triggeredOrder != null && ((fillType == FillType.STOP_LIMIT && triggeredOrder.getStopPrice() != null
 												&& (triggerPrice.compareTo(triggeredOrder.getStopPrice()) >= 0))
 												|| (fillType == FillType.TARGET_LIMIT && triggeredOrder.getTargetPrice() != null
@@ -2968,7 +2915,7 @@ public abstract class BaseOrderService implements OrderService {
 					FillType fillType = itf.next();
 
 					synchronized (triggerOrders.get(market).get(triggerInterval).get(TransactionType.SELL).get(fillType)) {
-						Iterator<Order> itto = triggerOrders.get(market).get(triggerInterval).get(TransactionType.SELL).get(fillType).iterator();
+						Iterator<Order> itto = triggerCandidates(triggerOrders.get(market).get(triggerInterval).get(TransactionType.SELL).get(fillType), quote.getBidPrice()).iterator();
 						HashMap<Order, String> triggeredSellOrders = new HashMap<Order, String>();
 						Set<Order> expiredSellOrders = new HashSet<Order>();
 
@@ -2985,7 +2932,7 @@ public abstract class BaseOrderService implements OrderService {
 							log.trace("determining to trigger resting sell  order:" + triggeredOrder.getUuid()
 									+ (triggeredOrder.getStopPrice() != null ? " with stop price " + (triggeredOrder.getStopPrice()) : "")
 									+ (triggeredOrder.getTargetPrice() != null ? " target price " + (triggeredOrder.getTargetPrice()) : "") + " for interval "
-									+ triggerInterval + " at Bid price for trigger: " + bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
+									+ triggerInterval + " at Bid price for trigger: " + quote.getBidPrice() + ". Ask price for trigger: " + quote.getAskPrice());
 
 							if (triggeredOrder.getExpiryTime() != null && context.getTime().isAfter(triggeredOrder.getExpiryTime())) {
 
@@ -3000,16 +2947,16 @@ public abstract class BaseOrderService implements OrderService {
 								continue;
 
 							}
-							if (b.getMarket() != null) {
+							if (quote.getMarket() != null) {
 								try {
 
-									if (triggeredOrder.getTimestamp() < b.getBestBid().getTimestamp()) {
+									if (triggeredOrder.getTimestamp() < quote.getTimestamp()) {
 										// triggerOrderLock.lock();
 										//  I want to sell at market bid price, as long, so when the 
 										//buy entry to can take ask or make bid + increment
 										//bids={10.0@606.81;2.0@606.57;12.0@606.45;1.0@605.67;87.0@605.66} asks={-96.0@607.22;-64.0@607.49;-121.0@607.51;-4.0@607.59;-121.0@607.79}
 										// so sell order, I need to sell at the current bid
-										DiscreteAmount triggerPrice = b.getBestBid().getPrice();
+										DiscreteAmount triggerPrice = quote.getBidPrice();
 
 										/*
 										 * && if ((triggeredOrder != null) && ((triggeredOrder.getStopPrice() != null &&
@@ -3123,7 +3070,7 @@ public abstract class BaseOrderService implements OrderService {
 				while (ittto.hasNext()) {
 					Order trailingTriggerOrder = ittto.next();
 
-					if (b.getTime().isBefore(trailingTriggerOrder.getTime()))
+					if (quote.getTime().isBefore(trailingTriggerOrder.getTime()))
 						continue;
 					//    synchronized (trailingTriggerOrder) {
 					//  Iterator<Order> ittto = triggerOrdersTable.get(market).get(TransactionType.BUY).columnKeySet().iterator();
@@ -3131,13 +3078,13 @@ public abstract class BaseOrderService implements OrderService {
 					//  Order trailingTriggerOrder = ittto.next();
 
 					log.trace("determining to to update trailing trigger order:" + trailingTriggerOrder.getUuid() + " at Bid price for trigger: "
-							+ bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
+							+ quote.getBidPrice() + ". Ask price for trigger: " + quote.getAskPrice());
 
-					if (b.getMarket() != null) {
+					if (quote.getMarket() != null) {
 						try {
 							// if the order is a buy order, then I want to trigger at best price I can sell at (best bid)
-							if (trailingTriggerOrder.getTimestamp() < b.getBestAsk().getTimestamp()) {
-								DiscreteAmount triggerPrice = b.getBestAsk().getPrice();
+							if (trailingTriggerOrder.getTimestamp() < quote.getTimestamp()) {
+								DiscreteAmount triggerPrice = quote.getAskPrice();
 
 								if (trailingTriggerOrder.getFillType() != null && (trailingTriggerOrder.getFillType().equals(FillType.TRAILING_STOP_LIMIT)
 										|| trailingTriggerOrder.getFillType().equals(FillType.REENTRANT_TRAILING_STOP_LIMIT))) {
@@ -3251,7 +3198,7 @@ public abstract class BaseOrderService implements OrderService {
 
 				while (ittto.hasNext()) {
 					Order trailingTriggerOrder = ittto.next();
-					if (b.getTime().isBefore(trailingTriggerOrder.getTime()))
+					if (quote.getTime().isBefore(trailingTriggerOrder.getTime()))
 						continue;
 					//  synchronized (trailingTriggerOrder) {
 					//  for (Order trailingTriggerOrder : trailingTriggerOrders.get(market).get(TransactionType.SELL)) {
@@ -3261,13 +3208,13 @@ public abstract class BaseOrderService implements OrderService {
 					//    Order trailingTriggerOrder = ittto.next();
 
 					log.trace("determining to to update trailing trigger order:" + trailingTriggerOrder.getUuid() + " at Bid price for trigger: "
-							+ bid.getPrice() + ". Ask price for trigger: " + ask.getPrice());
+							+ quote.getBidPrice() + ". Ask price for trigger: " + quote.getAskPrice());
 
-					if (b.getMarket() != null) {
+					if (quote.getMarket() != null) {
 						try {
 							// if the order is a buy order, then I want to trigger at best price I can sell at (best bid)
-							if (trailingTriggerOrder.getTimestamp() < b.getBestAsk().getTimestamp()) {
-								DiscreteAmount triggerPrice = b.getBestAsk().getPrice();
+							if (trailingTriggerOrder.getTimestamp() < quote.getTimestamp()) {
+								DiscreteAmount triggerPrice = quote.getAskPrice();
 
 								if (trailingTriggerOrder.getFillType() != null && (trailingTriggerOrder.getFillType().equals(FillType.TRAILING_STOP_LIMIT)
 										|| trailingTriggerOrder.getFillType().equals(FillType.REENTRANT_TRAILING_STOP_LIMIT))) {
@@ -3621,7 +3568,7 @@ public abstract class BaseOrderService implements OrderService {
 			return ordersToCancel;
 		// synchronized (lock) {
 		// for (Order order : getPendingOrders()) {
-		Iterator<Order> it = getPendingOrders().iterator();
+		Iterator<Order> it = orderStateMap.getOpenOrders(market).iterator();
 		while (it.hasNext()) {
 			Order order = it.next();
 
@@ -3657,7 +3604,7 @@ public abstract class BaseOrderService implements OrderService {
 		Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 				if (pendingOrder.getPortfolio().equals(portfolio) && pendingOrder.getMarket().equals(market)) {
@@ -3699,7 +3646,7 @@ public abstract class BaseOrderService implements OrderService {
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
 
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, true)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3723,7 +3670,7 @@ public abstract class BaseOrderService implements OrderService {
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
 
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, true)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3744,7 +3691,7 @@ public abstract class BaseOrderService implements OrderService {
 	public Collection<SpecificOrder> getPendingLongOrders() {
 		Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
 
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders()) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3765,7 +3712,7 @@ public abstract class BaseOrderService implements OrderService {
 		Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
 		if (tradeable == null)
 			return portfolioPendingOrders;
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(tradeable, true)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3786,7 +3733,7 @@ public abstract class BaseOrderService implements OrderService {
 		Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
 		if (tradeable == null)
 			return portfolioPendingOrders;
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(tradeable, false)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3808,7 +3755,7 @@ public abstract class BaseOrderService implements OrderService {
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
 
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, false)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3831,7 +3778,7 @@ public abstract class BaseOrderService implements OrderService {
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
 
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, false)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3853,7 +3800,7 @@ public abstract class BaseOrderService implements OrderService {
 		Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, false)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3875,7 +3822,7 @@ public abstract class BaseOrderService implements OrderService {
 		Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, false)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3895,7 +3842,7 @@ public abstract class BaseOrderService implements OrderService {
 	@Override
 	public Collection<SpecificOrder> getPendingShortOrders() {
 		Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders()) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3919,7 +3866,7 @@ public abstract class BaseOrderService implements OrderService {
 		Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, true)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3941,7 +3888,7 @@ public abstract class BaseOrderService implements OrderService {
 		Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, true)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3963,7 +3910,7 @@ public abstract class BaseOrderService implements OrderService {
 		Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, PositionEffect.CLOSE)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 
@@ -3985,7 +3932,7 @@ public abstract class BaseOrderService implements OrderService {
 			return orderToCancel;
 		//   synchronized (lock) {
 		//  for (Order order:getPendingOrders()) {
-		Iterator<Order> it = getPendingOrders().iterator();
+		Iterator<Order> it = orderStateMap.getOpenOrders(market, true).iterator();
 		while (it.hasNext()) {
 			Order order = it.next();
 
@@ -4017,7 +3964,7 @@ public abstract class BaseOrderService implements OrderService {
 			return orderToCancel;
 		//   synchronized (lock) {
 		//  for (Order order:getPendingOrders()) {
-		Iterator<Order> it = getPendingOrders().iterator();
+		Iterator<Order> it = orderStateMap.getOpenOrders(market, true).iterator();
 		while (it.hasNext()) {
 			Order order = it.next();
 
@@ -4050,7 +3997,7 @@ public abstract class BaseOrderService implements OrderService {
 			return orderToCancel;
 		//   synchronized (lock) {
 		//  for (Order order:getPendingOrders()) {
-		Iterator<Order> it = getPendingOrders().iterator();
+		Iterator<Order> it = orderStateMap.getOpenOrders(market, true).iterator();
 		while (it.hasNext()) {
 			Order order = it.next();
 
@@ -4077,20 +4024,18 @@ public abstract class BaseOrderService implements OrderService {
 	}
 
 	protected void handleUpdateSpecificOrderWorkingQuantity(SpecificOrder specificOrder, DiscreteAmount quantity) {
-		for (Order pendingOrder : getPendingOrders()) {
-			if (pendingOrder.equals(specificOrder)) {
-				// so we need to ensure that the unfilled wuanity is waulty to the qauntity.
-
-				// 200 lots order, 100 lots fill, want to update to 10 lots, so 110.
-				long updatedQuantity = (quantity.isNegative()) ? -1
-						* (Math.abs(specificOrder.getVolume().getCount()) - Math.abs(specificOrder.getUnfilledVolumeCount()) + Math.abs(quantity.getCount()))
-						: Math.abs(specificOrder.getVolume().getCount()) - Math.abs(specificOrder.getUnfilledVolumeCount()) + Math.abs(quantity.getCount());
+		if (orderStateMap.getOpenOrders().contains(specificOrder)) {
+			// so we need to ensure that the unfilled wuanity is waulty to the qauntity.
 
-				//&& pendingOrder.getMarket().equals(market)) {
-				specificOrder.setVolumeCount(updatedQuantity);
-				specificOrder.setUnfilledVolumeCount(updatedQuantity);
+			// 200 lots order, 100 lots fill, want to update to 10 lots, so 110.
+			long updatedQuantity = (quantity.isNegative()) ? -1
+					* (Math.abs(specificOrder.getVolume().getCount()) - Math.abs(specificOrder.getUnfilledVolumeCount()) + Math.abs(quantity.getCount()))
+					: Math.abs(specificOrder.getVolume().getCount()) - Math.abs(specificOrder.getUnfilledVolumeCount()) + Math.abs(quantity.getCount());
 
-			}
+			specificOrder.setVolumeCount(updatedQuantity);
+			specificOrder.setUnfilledVolumeCount(updatedQuantity);
+			// the sign may have changed
+			orderStateMap.index(specificOrder);
 
 		}
 
@@ -4195,7 +4140,7 @@ public abstract class BaseOrderService implements OrderService {
 		//   synchronized (lock) {
 		//  for ( Order order: )
 
-		Iterator<Order> it = getPendingOrders().iterator();
+		Iterator<Order> it = orderStateMap.getOpenOrders(market, PositionEffect.CLOSE).iterator();
 		while (it.hasNext()) {
 			Order order = it.next();
 
@@ -4709,7 +4654,7 @@ public abstract class BaseOrderService implements OrderService {
 	public Collection<SpecificOrder> handleCancelAllLongOpeningSpecificOrders(Portfolio portfolio, Market market) {
 		Collection<SpecificOrder> orderToCancel = new ArrayList<>();
 		//  synchronized (lock) {
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, true)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder specificOrder = (SpecificOrder) order;
 				if (specificOrder.getMarket().equals(market) && specificOrder.getPositionEffect() == (PositionEffect.OPEN) && specificOrder.isBid()
@@ -4730,7 +4675,7 @@ public abstract class BaseOrderService implements OrderService {
 	public Collection<SpecificOrder> handleCancelAllLongOpeningSpecificOrders(Portfolio portfolio, Market market, double orderGroup) {
 		Collection<SpecificOrder> orderToCancel = new ArrayList<>();
 		//  synchronized (lock) {
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, true)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder specificOrder = (SpecificOrder) order;
 				if (specificOrder.getMarket().equals(market) && specificOrder.getOrderGroup() == orderGroup
@@ -4754,7 +4699,7 @@ public abstract class BaseOrderService implements OrderService {
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
 
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, false)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 				if (pendingOrder.getPortfolio().equals(portfolio) && pendingOrder.getMarket().equals(market)
@@ -4776,7 +4721,7 @@ public abstract class BaseOrderService implements OrderService {
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
 
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, false)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 				if (pendingOrder.getPortfolio().equals(portfolio) && pendingOrder.getMarket().equals(market) && pendingOrder.getOrderGroup() == orderGroup
@@ -4797,7 +4742,7 @@ public abstract class BaseOrderService implements OrderService {
 		Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, true)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 				if (pendingOrder.getPortfolio().equals(portfolio) && pendingOrder.getMarket().equals(market)
@@ -4817,7 +4762,7 @@ public abstract class BaseOrderService implements OrderService {
 		Collection<SpecificOrder> portfolioPendingOrders = new ArrayList<SpecificOrder>();
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, true)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 				if (pendingOrder.getPortfolio().equals(portfolio) && pendingOrder.getMarket().equals(market) && pendingOrder.getOrderGroup() == orderGroup
@@ -4835,7 +4780,7 @@ public abstract class BaseOrderService implements OrderService {
 	@Override
 	public Collection<SpecificOrder> handleCancelAllLongClosingSpecificOrders(Portfolio portfolio, Market market, ExecutionInstruction execInst) {
 		Collection<SpecificOrder> orderToCancel = new ArrayList<>();
-		Iterator<Order> it = getPendingOrders().iterator();
+		Iterator<Order> it = orderStateMap.getOpenOrders(market, false).iterator();
 		while (it.hasNext()) {
 			Order order = it.next();
 
@@ -4861,7 +4806,7 @@ public abstract class BaseOrderService implements OrderService {
 	public Collection<SpecificOrder> handleCancelAllLongClosingSpecificOrders(Portfolio portfolio, Market market, ExecutionInstruction execInst,
 			double orderGroup) {
 		Collection<SpecificOrder> orderToCancel = new ArrayList<>();
-		Iterator<Order> it = getPendingOrders().iterator();
+		Iterator<Order> it = orderStateMap.getOpenOrders(market, false).iterator();
 		while (it.hasNext()) {
 			Order order = it.next();
 
@@ -4890,7 +4835,7 @@ public abstract class BaseOrderService implements OrderService {
 		//   synchronized (lock) {
 		// for (Iterator<Order> it = getPendingOrders().iterator(); it.hasNext();) {
 		//   Order order = it.next();
-		Iterator<Order> it = getPendingOrders().iterator();
+		Iterator<Order> it = orderStateMap.getOpenOrders(market, false).iterator();
 		while (it.hasNext()) {
 			Order order = it.next();
 
@@ -4917,7 +4862,7 @@ public abstract class BaseOrderService implements OrderService {
 		//   synchronized (lock) {
 		// for (Iterator<Order> it = getPendingOrders().iterator(); it.hasNext();) {
 		//   Order order = it.next();
-		Iterator<Order> it = getPendingOrders().iterator();
+		Iterator<Order> it = orderStateMap.getOpenOrders(market, false).iterator();
 		while (it.hasNext()) {
 			Order order = it.next();
 
@@ -5087,7 +5032,7 @@ public abstract class BaseOrderService implements OrderService {
 		if (market == null || portfolio == null)
 			return portfolioPendingOrders;
 
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder pendingOrder = (SpecificOrder) order;
 				if (pendingOrder.getPortfolio().equals(portfolio) && pendingOrder.getMarket().equals(market))
@@ -5763,7 +5708,7 @@ public abstract class BaseOrderService implements OrderService {
 			return orderToCancel;
 
 		//  synchronized (lock) {
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, false)) {
 			if (order instanceof SpecificOrder) {
 				SpecificOrder specificOrder = (SpecificOrder) order;
 				if (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen() && specificOrder.getMarket().equals(market)
@@ -5786,7 +5731,7 @@ public abstract class BaseOrderService implements OrderService {
 	public Collection<SpecificOrder> handleCancelAllShortOpeningSpecificOrders(Portfolio portfolio, Market market, double orderGroup) {
 		Collection<SpecificOrder> orderToCancel = new ArrayList<>();
 		//  synchronized (lock) {
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, false)) {
 			if (order.getOrderGroup() == orderGroup && order instanceof SpecificOrder) {
 				SpecificOrder specificOrder = (SpecificOrder) order;
 				if (orderStateMap.get(specificOrder) != null && orderStateMap.get(specificOrder).isOpen() && specificOrder.getMarket().equals(market)
@@ -5812,7 +5757,7 @@ public abstract class BaseOrderService implements OrderService {
 			return orderToCancel;
 
 		//  synchronized (lock) {
-		for (Order order : getPendingOrders()) {
+		for (Order order : orderStateMap.getOpenOrders(market, PositionEffect.OPEN)) {
 			SpecificOrder specificOrder;
 			if (order instanceof SpecificOrder) {
 				specificOrder = (SpecificOrder) order;
@@ -5866,28 +5811,14 @@ public abstract class BaseOrderService implements OrderService {
 					+ order.getUuid());
 			return;
 		}
-		if (oldState == null) {
+		if (oldState == null)
 			oldState = OrderState.NEW;
 
-		} else if (oldState != null && order != null && !stateOrderMap.get(oldState).isEmpty()) {
-			if (stateOrderMap.get(oldState).remove(order))
-				log.info(this.getClass().getSimpleName() + ":UpdateOrderState - Removed order " + order.getUuid() + "with state " + oldState
-						+ " from stateOrderMap");
-
-		}
 		if (order != null) {
-			orderStateMap.put(order, state);
+			// moves the order between the state and pending order indexes too
+			orderStateMap.update(order, state, context.getTime().getMillis());
 			log.info(order.getUuid() + "/" + System.identityHashCode(order) + " with state " + state + " added to orderStateMap as "
 					+ orderStateMap.get(order).toString());
-
-			if (stateOrderMap.get(state) == null) {
-				Set<Order> orderSet = new HashSet<Order>();
-				// orderSet.add(order);
-				stateOrderMap.put(state, orderSet);
-
-			}
-			if (stateOrderMap.get(state).add(order))
-				log.info(order.getUuid() + " with state " + state + " added to stateOrderMap as " + orderStateMap.get(order).toString());
 		}
 
 		// this.getClass()
@@ -5899,7 +5830,7 @@ public abstract class BaseOrderService implements OrderService {
 		orderUpdate.persit();
 		handleOrderUpdate(orderUpdate);
 		log.debug(this.getClass().getSimpleName() + " - updateOrderState: published orderupdate " + orderUpdate.getUuid() + " for order " + order.getUuid()
-				+ " with state " + state + " after added to stateOrderMap with " + orderStateMap.get(order).toString());
+				+ " with state " + state + " after added to orderStateMap with " + orderStateMap.get(order).toString());
 
 		context.route(orderUpdate);
 		//else
@@ -6259,9 +6190,10 @@ public abstract class BaseOrderService implements OrderService {
 		// sell order sorted highest to lowest (descending)
 		// bid order are to exit a short posiont so we want the list that is highest to loser (descnding)
 		// Comparator<Order> comparator = (transactionType == TransactionType.BUY) ? ascendingStopPriceComparator : descendingStopPriceComparator;
+		TransactionType transactionType = (triggerOrder.isBid()) ? TransactionType.BUY : TransactionType.SELL;
 
-		List<Order> stopTriggerOrderQueue = new ArrayList<Order>();
-		List<Order> targetTriggerOrderQueue = new ArrayList<Order>();
+		List<Order> stopTriggerOrderQueue = new TriggerBook(transactionType, FillType.STOP_LIMIT);
+		List<Order> targetTriggerOrderQueue = new TriggerBook(transactionType, FillType.TARGET_LIMIT);
 		List<Order> trailingTriggerOrderQueue = new ArrayList<Order>();
 		// if (triggerOrder.isBid())
 		//   triggerTable = TreeBasedTable.create(ascendingStopPriceComparator, descendingTrailingStopPriceComparator);
@@ -6277,7 +6209,6 @@ public abstract class BaseOrderService implements OrderService {
 
 		//   ConcurrentLinkedQueue<Order> triggerOrderQueue = new ConcurrentLinkedQueue<Order>();
 		// We want buy orders sorted  loweset to highest (ascending) and sell orders sorted to highest to lowest (decending)
-		TransactionType transactionType = (triggerOrder.isBid()) ? TransactionType.BUY : TransactionType.SELL;
 		//  TreeBasedTable<String, Integer, Character> table =
 		//        TreeBasedTable.create(rowComparator, columnComparator);
 		if (triggerOrder.getFillType().isTrailing() && (triggerOrder.getStopPrice() != null && triggerOrder.getStopAmount() != null)) {
@@ -6615,10 +6546,9 @@ public abstract class BaseOrderService implements OrderService {
 	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.orderService");
 
 	protected boolean enableTrading = false;
-	protected final Map<Order, OrderState> orderStateMap = new ConcurrentHashMap<Order, OrderState>();
+	protected final OrderStateStore orderStateMap = new OrderStateStore(TimeUnit.MINUTES.toMillis(evictOrdersAfterMinutes));
 	protected static int cancellationCount = 0;
 
-	protected final Map<OrderState, Set<Order>> stateOrderMap = new ConcurrentHashMap<OrderState, Set<Order>>();
 	@Inject
 	protected transient QuoteService quotes;
 	@Inject
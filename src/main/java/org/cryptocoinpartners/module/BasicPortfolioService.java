@@ -1,10 +1,12 @@
 package org.cryptocoinpartners.module;
 
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -15,11 +17,15 @@ import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.persistence.Transient;
 
 import org.cryptocoinpartners.enumeration.PositionType;
 import org.cryptocoinpartners.enumeration.TransactionType;
+import org.cryptocoinpartners.esper.annotation.When;
 import org.cryptocoinpartners.schema.Amount;
+import org.cryptocoinpartners.schema.AmountAccumulator;
 import org.cryptocoinpartners.schema.Asset;
 import org.cryptocoinpartners.schema.Balance;
 import org.cryptocoinpartners.schema.DecimalAmount;
@@ -32,7 +38,9 @@ import org.cryptocoinpartners.schema.Market;
 import org.cryptocoinpartners.schema.Offer;
 import org.cryptocoinpartners.schema.Portfolio;
 import org.cryptocoinpartners.schema.Position;
+import org.cryptocoinpartners.schema.PositionUpdate;
 import org.cryptocoinpartners.schema.RemoteEvent;
+import org.cryptocoinpartners.schema.RiskSnapshot;
 import org.cryptocoinpartners.schema.Trade;
 import org.cryptocoinpartners.schema.TradeFactory;
 import org.cryptocoinpartners.schema.Tradeable;
@@ -41,6 +49,7 @@ import org.cryptocoinpartners.schema.TransactionFactory;
 import org.cryptocoinpartners.service.PortfolioService;
 import org.cryptocoinpartners.service.PortfolioServiceException;
 import org.cryptocoinpartners.service.QuoteService;
+import org.cryptocoinpartners.util.ConfigUtil;
 import org.cryptocoinpartners.util.FeesUtil;
 import org.cryptocoinpartners.util.Remainder;
 import org.slf4j.Logger;
@@ -53,7 +62,7 @@ import org.slf4j.LoggerFactory;
  */
 @Singleton
 @SuppressWarnings("UnusedDeclaration")
-public class BasicPortfolioService implements PortfolioService {
+public class BasicPortfolioService implements PortfolioService, BasicPortfolioServiceMBean {
 
 	private final Map<Asset, Amount> allPnLs = new ConcurrentHashMap<Asset, Amount>();
 	private static Object lock = new Object();
@@ -79,6 +88,8 @@ public class BasicPortfolioService implements PortfolioService {
 		log.info(this.getClass().getSimpleName() + " loading positions");
 		findPositions();
 		log.info(this.getClass().getSimpleName() + " loaded positions");
+		getMarkToMarket().refreshAll(context == null ? null : context.getTime());
+		register();
 		System.gc();
 
 	}
@@ -421,141 +432,138 @@ public class BasicPortfolioService implements PortfolioService {
 	@Override
 	@Transient
 	public Map<Asset, Amount> getCashBalances() {
-		//synchronized (lock) {
-		if (balances == null || balances.isEmpty())
-
-			return getCurrentCashBalances(true);
-
-		else
-			//     synchronized (lock) {
+		// each portfolio's ledger is posted to as its transactions are added, so reading it does not walk the transactions
+		Collection<Portfolio> portfolios = getPortfolios();
+		if (portfolios.size() == 1)
+			return portfolios.iterator().next().getCashLedger().getBalances();
+		Map<Asset, AmountAccumulator> sums = new HashMap<Asset, AmountAccumulator>();
+		for (Portfolio portfolio : portfolios)
+			for (Map.Entry<Asset, Amount> balance : portfolio.getCashLedger().getBalances().entrySet())
+				cashSum(sums, balance.getKey()).add(balance.getValue());
+		Map<Asset, Amount> balances = new HashMap<Asset, Amount>();
+		for (Map.Entry<Asset, AmountAccumulator> sum : sums.entrySet())
+			balances.put(sum.getKey(), sum.getValue().toAmount());
+		return balances;
+	}
 
-			return getCurrentCashBalances(true);
-		//  }
+	/**
+	 * Compares the ledger balances with balances recomputed from every transaction.
+	 * 
+	 * @return a description of each asset whose balances differ, or an empty string if they agree
+	 */
+	@Override
+	public String verifyCashBalances() {
+		Map<Asset, Amount> ledger = getCashBalances();
+		Map<Asset, Amount> recomputed = getCurrentCashBalances();
+		Set<Asset> assets = new HashSet<Asset>(ledger.keySet());
+		assets.addAll(recomputed.keySet());
+		StringBuilder mismatches = new StringBuilder();
+		for (Asset asset : assets) {
+			Amount posted = ledger.get(asset) == null ? DecimalAmount.ZERO : ledger.get(asset);
+			Amount summed = recomputed.get(asset) == null ? DecimalAmount.ZERO : recomputed.get(asset);
+			if (posted.compareTo(summed) != 0)
+				mismatches.append(asset).append(": ledger ").append(posted).append(", recomputed ").append(summed).append("; ");
+		}
+		if (mismatches.length() > 0)
+			log.warn(this.getClass().getSimpleName() + ":verifyCashBalances - ledger differs from transactions for " + mismatches);
+		return mismatches.toString();
 	}
 
-	@Transient
-	private synchronized Map<Asset, Amount> getCurrentCashBalances(boolean reset) {
-		// if (reset) {
-		// sum of all transactions that belongs to this strategy
-		balances = new ConcurrentHashMap<Asset, Amount>();
-		Map<Asset, Amount> bals = new ConcurrentHashMap<Asset, Amount>();
-		// balances.hashCode();
-		Amount balance = DecimalAmount.ZERO;
-		// tradesHasgetTrades().hashCode()
-		Iterator<Transaction> itt = getTrades().iterator();
-		while (itt.hasNext()) {
-			balance = DecimalAmount.ZERO;
-
-			Transaction transaction = itt.next();
-			if (bals.get(transaction.getAsset()) != null) {
-
-				balance = bals.get(transaction.getAsset());
+	/** publishes the ledger balances and their verification on the platform MBean server, under the names of this service's portfolios */
+	private void register() {
+		if (objectName != null)
+			return;
+		try {
+			objectName = new ObjectName("org.cryptocoinpartners.module:type=PortfolioService,name=" + ObjectName.quote(getPortfolios().toString())
+					+ ",id=" + System.identityHashCode(this));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		} catch (JMException e) {
+			objectName = null;
+			log.warn("Unable to register cash ledger for portfolios " + getPortfolios(), e);
+		}
+	}
 
-			}
-			Amount tranCost = transaction.getCost();
-			if (!tranCost.isZero())
+	@Override
+	public String getLedgerBalances() {
+		return getCashBalances().toString();
+	}
 
-				log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances trade cost " + transaction.getCost() + " for "
-						+ transaction.getClass().getSimpleName() + "adding to " + transaction.getAsset() + " balance " + balance);
+	@Override
+	public String getRecomputedBalances() {
+		return getCurrentCashBalances().toString();
+	}
 
-			balance = balance.plus(tranCost);
-			bals.put(transaction.getAsset(), balance);
+	@Override
+	public long getLedgerPostings() {
+		long postings = 0;
+		for (Portfolio portfolio : getPortfolios())
+			postings += portfolio.getCashLedger().getPostings();
+		return postings;
+	}
 
+	/** sums the cash balances over every transaction, which the ledgers are checked against */
+	@Transient
+	private synchronized Map<Asset, Amount> getCurrentCashBalances() {
+		// sum of all transactions that belongs to this strategy, accumulated as counts rather than a new Amount per transaction
+		Map<Asset, AmountAccumulator> sums = new HashMap<Asset, AmountAccumulator>();
+		for (Transaction transaction : getTrades()) {
+			Amount tranCost = transaction.getCost();
+			if (log.isTraceEnabled() && !tranCost.isZero())
+				log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances trade cost " + tranCost + " for "
+						+ transaction.getClass().getSimpleName() + "adding to " + transaction.getAsset());
+			cashSum(sums, transaction.getAsset()).add(tranCost);
 		}
 
 		// plus part of all cashFlows
-		//Amount cashFlows = new DiscreteAmount(0, portfolio.getBaseAsset().getBasis());
-
-		Iterator<Transaction> itc = getCashFlows().iterator();
-		while (itc.hasNext()) {
-			Amount cashFlows = DecimalAmount.ZERO;
-			Transaction cashFlowTransaction = itc.next();
-			if (bals.get(cashFlowTransaction.getCurrency()) != null) {
-
-				cashFlows = bals.get(cashFlowTransaction.getCurrency());
-			}
+		for (Transaction cashFlowTransaction : getCashFlows()) {
 			Amount tranCost = cashFlowTransaction.getCost();
-			if (!tranCost.isZero())
-
-				log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances cashFlowTransaction cost " + cashFlowTransaction.getCost() + " for "
-						+ cashFlowTransaction.getClass().getSimpleName() + "adding to " + cashFlowTransaction.getCurrency() + " cashFlows " + cashFlows);
-
-			cashFlows = cashFlows.plus(tranCost);
-			bals.put(cashFlowTransaction.getCurrency(), cashFlows);
-
+			if (log.isTraceEnabled() && !tranCost.isZero())
+				log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances cashFlowTransaction cost " + tranCost + " for "
+						+ cashFlowTransaction.getClass().getSimpleName() + "adding to " + cashFlowTransaction.getCurrency());
+			cashSum(sums, cashFlowTransaction.getCurrency()).add(tranCost);
 		}
-		//Amount amount = balance.plus(cashFlows);
-
-		Iterator<Asset> it = getRealisedPnLByMarket().keySet().iterator();
-		while (it.hasNext()) {
-			Asset asset = it.next();
-			Iterator<Exchange> ite = getRealisedPnLByMarket().get(asset).keySet().iterator();
-			while (ite.hasNext()) {
-				Exchange exchange = ite.next();
-				Iterator<Listing> itm = getRealisedPnLByMarket().get(asset).get(exchange).keySet().iterator();
-				while (itm.hasNext()) {
-					Listing listing = itm.next();
-					Market market = context.getInjector().getInstance(Market.class).findOrCreate(exchange, listing);
-
-					Amount realisedPnL = getRealisedPnLByMarket().get(asset).get(exchange).get(listing);
+
+		for (Asset asset : getRealisedPnLByMarket().keySet()) {
+			for (Map<Listing, Amount> realisedPnLByListing : getRealisedPnLByMarket().get(asset).values()) {
+				for (Amount realisedPnL : realisedPnLByListing.values()) {
 					// need to change this to the market and check the margin.
 					if (!realisedPnL.isZero()) {
-						if (bals.get(asset) != null) {
-
-							balance = bals.get(asset);
-
-						}
-						log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances realisedPnL cost " + realisedPnL + " for realisedPnL adding to "
-								+ asset + " balance " + balance);
-
-						balance = balance.plus(realisedPnL);
-						bals.put(asset, balance);
-
+						if (log.isTraceEnabled())
+							log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances realisedPnL cost " + realisedPnL + " for realisedPnL adding to "
+									+ asset);
+						cashSum(sums, asset).add(realisedPnL);
 					}
-
 				}
 			}
-
 		}
 
-		Amount transferCredits = DecimalAmount.ZERO;
-		Amount transferDebits = DecimalAmount.ZERO;
-		Iterator<Transaction> itr = getTransfers().iterator();
-		while (itr.hasNext()) {
-			Transaction transactionTransaction = itr.next();
-			if (bals.get(transactionTransaction.getCurrency()) != null) {
-
-				transferDebits = bals.get(transactionTransaction.getCurrency());
-			}
-			if (bals.get(transactionTransaction.getAsset()) != null) {
-
-				transferCredits = bals.get(transactionTransaction.getAsset());
-			}
-
+		for (Transaction transactionTransaction : getTransfers()) {
 			Amount tranCost = transactionTransaction.getCost();
-			if (!tranCost.isZero())
-
+			if (log.isTraceEnabled() && !tranCost.isZero())
 				log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances transfers cost " + tranCost + " for " + transactionTransaction.getUuid()
-						+ " " + transactionTransaction.getAsset() + " added to transferCredits " + transferCredits);
-			transferCredits = transferCredits.plus(tranCost);
-			if (!tranCost.isZero())
-
-				log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances transfers cost " + transactionTransaction.getAmount() + " for "
-						+ transactionTransaction.getUuid() + " " + transactionTransaction.getCurrency() + " added to transferDebits " + transferDebits);
-			transferDebits = transferDebits.plus(transactionTransaction.getAmount());
-			bals.put(transactionTransaction.getCurrency(), transferDebits);
-			bals.put(transactionTransaction.getAsset(), transferCredits);
+						+ " " + transactionTransaction.getAsset() + " added to transferCredits, " + transactionTransaction.getAmount() + " to "
+						+ transactionTransaction.getCurrency() + " transferDebits");
+			cashSum(sums, transactionTransaction.getCurrency()).add(transactionTransaction.getAmount());
+			cashSum(sums, transactionTransaction.getAsset()).add(tranCost);
 		}
-		//
-		balances = bals;
-		// }
 
-		// }
+		Map<Asset, Amount> balances = new ConcurrentHashMap<Asset, Amount>();
+		for (Map.Entry<Asset, AmountAccumulator> sum : sums.entrySet())
+			balances.put(sum.getKey(), sum.getValue().toAmount());
 		log.trace(this.getClass().getSimpleName() + " - getCurrentCashBalances balances " + balances);
 
 		return balances;
 	}
 
+	private static AmountAccumulator cashSum(Map<Asset, AmountAccumulator> sums, Asset asset) {
+		AmountAccumulator sum = sums.get(asset);
+		if (sum == null) {
+			sum = new AmountAccumulator();
+			sums.put(asset, sum);
+		}
+		return sum;
+	}
+
 	@Transient
 	@SuppressWarnings("null")
 	private synchronized List<Transaction> getCashFlows() {
@@ -773,6 +781,44 @@ public class BasicPortfolioService implements PortfolioService {
 
 	}
 
+	@When("select * from Trade")
+	public void handleTrade(Trade trade) {
+		getMarkToMarket().mark(trade);
+	}
+
+	@When("select * from PositionUpdate")
+	public void handlePositionUpdate(PositionUpdate positionUpdate) {
+		if (positionUpdate.getMarket() != null)
+			getMarkToMarket().refresh(positionUpdate.getMarket(), positionUpdate.getTime());
+	}
+
+	@Override
+	public RiskSnapshot getRiskSnapshot() {
+		return getMarkToMarket().getSnapshot();
+	}
+
+	@Override
+	public long getMarks() {
+		return getMarkToMarket().getMarks();
+	}
+
+	@Override
+	public String getRisk() {
+		return getRiskSnapshot().toString();
+	}
+
+	private MarkToMarket getMarkToMarket() {
+		MarkToMarket engine = markToMarket;
+		if (engine == null)
+			synchronized (lock) {
+				if (markToMarket == null)
+					markToMarket = new MarkToMarket(this, quotes, ConfigUtil.combined() == null ? 1000 : ConfigUtil.combined().getLong(
+							"portfolio.risk.snapshot.ms", 1000));
+				engine = markToMarket;
+			}
+		return engine;
+	}
+
 	@Override
 	@Transient
 	public synchronized Map<Asset, Amount> getMarketValues() {
@@ -1294,21 +1340,9 @@ public class BasicPortfolioService implements PortfolioService {
 
 	@Override
 	@Transient
-	public synchronized Amount getCashBalance(Asset quoteAsset) {
-		Amount cashBalance = DecimalAmount.ZERO;
-		Map<Asset, Amount> cashBalances = getCashBalances();
-		for (Asset baseAsset : cashBalances.keySet()) {
-			if (baseAsset.equals(quoteAsset)) {
-				//	Listing listing = Listing.forPair(baseAsset, quoteAsset);
-				//Offer rate = quotes.getImpliedBestAskForListing(listing);
-				Amount localBalance = cashBalances.get(baseAsset);
-				//Amount baseBalance = localBalance.times(rate.getPrice(), Remainder.ROUND_EVEN);
-				cashBalance = cashBalance.plus(localBalance);
-			}
-
-		}
-
-		return cashBalance;
+	public Amount getCashBalance(Asset quoteAsset) {
+		Amount cashBalance = getCashBalances().get(quoteAsset);
+		return cashBalance == null ? DecimalAmount.ZERO : cashBalance;
 
 	}
 
@@ -1443,15 +1477,14 @@ public class BasicPortfolioService implements PortfolioService {
 
 	@Override
 	public synchronized void resetBalances() {
-		//
-		getCurrentCashBalances(true);
+		for (Portfolio portfolio : getPortfolios())
+			portfolio.getCashLedger().rebuild(portfolio.getTransactions());
+		getMarkToMarket().refreshAll(context == null ? null : context.getTime());
 
 	}
 
 	@Override
 	public synchronized void reset() {
-		if (balances != null)
-			balances.clear();
 		if (allPnLs != null)
 			allPnLs.clear();
 		resetBalances();
@@ -1509,12 +1542,13 @@ public class BasicPortfolioService implements PortfolioService {
 
 	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.portfolioService");
 
-	private static int transactionsHashCode;
-	private static int tradesHashCode;
-	private static int marginsHashCode;
+	private int transactionsHashCode;
+	private int tradesHashCode;
+	private int marginsHashCode;
 
-	private static Map<Asset, Amount> balances = new ConcurrentHashMap<Asset, Amount>();;
 	private Collection<Portfolio> portfolios;
+	private ObjectName objectName;
+	private volatile MarkToMarket markToMarket;
 
 	@Override
 	public Collection<Portfolio> getPortfolios() {
@@ -0,0 +1,23 @@
+package org.cryptocoinpartners.module;
+
+public interface BasicPortfolioServiceMBean {
+
+	/** cash balances as posted to the portfolios' ledgers */
+	String getLedgerBalances();
+
+	/** cash balances summed over every transaction */
+	String getRecomputedBalances();
+
+	/** transactions posted to or reversed from the ledgers */
+	long getLedgerPostings();
+
+	/** @return the assets whose ledger balance differs from the recomputed balance, or an empty string */
+	String verifyCashBalances();
+
+	/** the last published risk snapshot */
+	String getRisk();
+
+	/** trades which have revalued the open positions */
+	long getMarks();
+
+}
@@ -2,6 +2,7 @@ package org.cryptocoinpartners.module;
 
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -13,6 +14,7 @@ import org.cryptocoinpartners.esper.annotation.When;
 import org.cryptocoinpartners.schema.Bar;
 import org.cryptocoinpartners.schema.Book;
 import org.cryptocoinpartners.schema.DiscreteAmount;
+import org.cryptocoinpartners.schema.Exchange;
 import org.cryptocoinpartners.schema.Exchanges;
 import org.cryptocoinpartners.schema.Listing;
 import org.cryptocoinpartners.schema.Market;
@@ -20,7 +22,8 @@ import org.cryptocoinpartners.schema.Offer;
 import org.cryptocoinpartners.schema.Trade;
 import org.cryptocoinpartners.schema.Tradeable;
 import org.cryptocoinpartners.service.QuoteService;
-import org.cryptocoinpartners.util.ListingsMatrix;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.cryptocoinpartners.util.CrossRateGraph;
 import org.joda.time.Instant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,21 +90,13 @@ public class BasicQuoteService implements QuoteService {
 	public Trade getLastImpliedTrade(Listing listing) {
 		if (listing == null)
 			return null;
-		try {
-			DiscreteAmount impliedPrice = impliedTradeMatrix.getRate(listing.getBase(), listing.getQuote());
-			Market market = context.getInjector().getInstance(Market.class).findOrCreate(Exchanges.SELF, listing);
-			//long impliedPriceCount = impliedTradeMatrix.getRate(listing.getBase(), listing.getQuote()).getCount();
-
-			long impliedPriceCount = DiscreteAmount.roundedCountForBasis(impliedPrice.asBigDecimal(), market.getPriceBasis());
-			//issues is that implied price is in 0.001 baisis, and market is in in 0.01
-
-			Trade trade = new Trade(market, Instant.now(), Instant.now().toString(), impliedPriceCount, 0L);
-			log.debug(this.getClass().getSimpleName() + ":getLastImpliedTrade - Calcaulted implied trade=" + trade.getPrice() + ", listing=" + listing);
-			return trade;
-		} catch (java.lang.IllegalArgumentException e) {
+		double impliedPrice = current(impliedTrades).getMid(listing.getBase(), listing.getQuote(), null);
+		if (Double.isNaN(impliedPrice))
 			return null;
-		}
-
+		Market market = context.getInjector().getInstance(Market.class).findOrCreate(Exchanges.SELF, listing);
+		Trade trade = new Trade(market, Instant.now(), Instant.now().toString(), countForBasis(impliedPrice, market.getPriceBasis()), 0L);
+		log.debug(this.getClass().getSimpleName() + ":getLastImpliedTrade - Calcaulted implied trade=" + trade.getPrice() + ", listing=" + listing);
+		return trade;
 	}
 
 	@Override
@@ -209,23 +204,23 @@ public class BasicQuoteService implements QuoteService {
 	}
 
 	@Override
-	//TODO keep a map of markets so we don't hit the db each time.
 	public @Nullable Offer getImpliedBestAskForListing(Listing listing) {
+		return getImpliedBestAskForListing(listing, null);
+	}
+
+	@Override
+	//TODO keep a map of markets so we don't hit the db each time.
+	public @Nullable Offer getImpliedBestAskForListing(Listing listing, @Nullable Exchange exchange) {
 		if (listing == null)
 			return null;
-		try {
-			//we are getting the count and converting it
-			// we need to get the descrete amount and rebasis
-			DiscreteAmount bestImpliedAskAmount = impliedAskMatrix.getRate(listing.getBase(), listing.getQuote());
+		double impliedAsk = current(impliedBooks).getAsk(listing.getBase(), listing.getQuote(), exchange);
+		if (!Double.isNaN(impliedAsk)) {
 			Market market = context.getInjector().getInstance(Market.class).findOrCreate(Exchanges.SELF, listing);
-
-			long bestImpliedAsk = DiscreteAmount.roundedCountForBasis(bestImpliedAskAmount.asBigDecimal(), market.getPriceBasis());
-			//long bestImpliedAsk = impliedAskMatrix.getRate(listing.getBase(), listing.getQuote()).getCount();
-
-			Offer offer = new Offer(market, Instant.now(), Instant.now(), bestImpliedAsk, 0L);
-			log.debug(this.getClass().getSimpleName() + ":getImpliedBestAskForListing - Calcaulted implied ask=" + offer.getPrice() + ", listing=" + listing);
+			Offer offer = new Offer(market, Instant.now(), Instant.now(), countForBasis(impliedAsk, market.getPriceBasis()), 0L);
+			log.debug(this.getClass().getSimpleName() + ":getImpliedBestAskForListing - Calcaulted implied ask=" + offer.getPrice() + ", listing=" + listing
+					+ ", exchange=" + exchange);
 			return offer;
-		} catch (java.lang.IllegalArgumentException e) {
+		} else if (exchange == null) {
 			Trade lastImpliedTrade = getLastTrade(listing);
 			if (lastImpliedTrade != null) {
 				DiscreteAmount bestImpliedAskAmount = getLastTrade(listing).getPrice();
@@ -242,30 +237,32 @@ public class BasicQuoteService implements QuoteService {
 				return offer;
 			} else {
 				log.debug(this.getClass().getSimpleName() + ":getImpliedBestAskForListing - Unable to detreming implied ask " + listing
-						+ " from impliedAskMatrix: " + impliedAskMatrix + " or last trade " + lastTradeByListing + " or impliedTradeMatrix"
-						+ impliedTradeMatrix);
+						+ " from " + impliedBooks + " or last trade " + lastTradeByListing + " or implied trades " + impliedTrades);
 
 				return null;
 			}
 		}
+		return null;
 	}
 
 	@Override
 	public @Nullable Offer getImpliedBestBidForListing(Listing listing) {
+		return getImpliedBestBidForListing(listing, null);
+	}
+
+	@Override
+	public @Nullable Offer getImpliedBestBidForListing(Listing listing, @Nullable Exchange exchange) {
 		if (listing == null)
 			return null;
-		try {
-			DiscreteAmount bestImpliedBidAmount = impliedBidMatrix.getRate(listing.getBase(), listing.getQuote());
+		double impliedBid = current(impliedBooks).getBid(listing.getBase(), listing.getQuote(), exchange);
+		if (!Double.isNaN(impliedBid)) {
 			Market market = context.getInjector().getInstance(Market.class).findOrCreate(Exchanges.SELF, listing);
-
-			long bestImpliedBid = DiscreteAmount.roundedCountForBasis(bestImpliedBidAmount.asBigDecimal(), market.getPriceBasis());
-			//long bestImpliedBid = impliedBidMatrix.getRate(listing.getBase(), listing.getQuote()).getCount();
-
-			Offer offer = new Offer(market, Instant.now(), Instant.now(), bestImpliedBid, 0L);
-			log.debug(this.getClass().getSimpleName() + ":getImpliedBestBidForListing - Calcaulted implied bid=" + offer.getPrice() + ", listing=" + listing);
+			Offer offer = new Offer(market, Instant.now(), Instant.now(), countForBasis(impliedBid, market.getPriceBasis()), 0L);
+			log.debug(this.getClass().getSimpleName() + ":getImpliedBestBidForListing - Calcaulted implied bid=" + offer.getPrice() + ", listing=" + listing
+					+ ", exchange=" + exchange);
 			return offer;
 
-		} catch (java.lang.IllegalArgumentException e) {
+		} else if (exchange == null) {
 			Trade lastImpliedTrade = getLastTrade(listing);
 			if (lastImpliedTrade != null) {
 				DiscreteAmount bestImpliedBidAmount = getLastTrade(listing).getPrice();
@@ -282,16 +279,30 @@ public class BasicQuoteService implements QuoteService {
 				return offer;
 			} else {
 				log.debug(this.getClass().getSimpleName() + ":getImpliedBestBidForListing - Unable to detreming implied bid for " + listing
-						+ " from impliedBidMatrix: " + impliedBidMatrix + " or last trade " + lastTradeByListing + " or impliedTradeMatrix"
-						+ impliedTradeMatrix);
+						+ " from " + impliedBooks + " or last trade " + lastTradeByListing + " or implied trades " + impliedTrades);
 
 				return null;
 			}
 
 		}
+		return null;
 
 	}
 
+	@Override
+	public List<Market> getImpliedAskPath(Listing listing, @Nullable Exchange exchange) {
+		if (listing == null)
+			return Collections.emptyList();
+		return current(impliedBooks).getAskPath(listing.getBase(), listing.getQuote(), exchange);
+	}
+
+	@Override
+	public List<Market> getImpliedBidPath(Listing listing, @Nullable Exchange exchange) {
+		if (listing == null)
+			return Collections.emptyList();
+		return current(impliedBooks).getBidPath(listing.getBase(), listing.getQuote(), exchange);
+	}
+
 	@Override
 	public @Nullable Offer getLastAskForMarket(Tradeable market) {
 		if (market == null)
@@ -332,25 +343,9 @@ public class BasicQuoteService implements QuoteService {
 			Book lastBookForListing = lastBookByListing.get(listingSymbol);
 			if (lastBookForListing == null || !lastBookForListing.getTime().isAfter(b.getTime()))
 				lastBookByListing.put(listingSymbol, b);
-			try {
-				impliedBidMatrix.updateRates(marketToHandel.getBase(), marketToHandel.getQuote(), b.getBidPrice());
-			} catch (java.lang.IllegalArgumentException e) {
-				try {
-					impliedBidMatrix.addAsset(marketToHandel.getBase(), marketToHandel.getQuote(), b.getBidPrice());
-				} catch (java.lang.IllegalArgumentException e2) {
-				}
-			}
-			try {
-				impliedAskMatrix.updateRates(marketToHandel.getBase(), marketToHandel.getQuote(), b.getAskPrice());
-			} catch (java.lang.IllegalArgumentException e) {
-				try {
-					impliedAskMatrix.addAsset(marketToHandel.getBase(), marketToHandel.getQuote(), b.getAskPrice());
-				} catch (java.lang.IllegalArgumentException e2) {
-					log.error("Threw a Execption, full stack trace follows:", e2);
-
-				}
-
-			}
+			double priceBasis = marketToHandel.getPriceBasis();
+			impliedBooks.update(marketToHandel, b.getBidDepth() == 0 ? 0 : b.getBidPriceCount(0) * priceBasis,
+					b.getAskDepth() == 0 ? 0 : b.getAskPriceCount(0) * priceBasis, b.getTimestamp());
 
 		}
 
@@ -414,17 +409,9 @@ public class BasicQuoteService implements QuoteService {
 
 			}
 
-			try {
-				impliedTradeMatrix.updateRates(marketToHandle.getBase(), marketToHandle.getQuote(), t.getPrice());
-			} catch (java.lang.IllegalArgumentException e) {
-				try {
-					impliedTradeMatrix.addAsset(marketToHandle.getBase(), marketToHandle.getQuote(), t.getPrice());
-				} catch (java.lang.IllegalArgumentException e2) {
-
-					log.error("Threw a Execption, full stack trace follows:", e2);
-
-				}
-			}
+			// a trade is both sides of its market, so the implied trade price is the mid of the paths each way
+			double price = t.getPriceCount() * marketToHandle.getPriceBasis();
+			impliedTrades.update(marketToHandle, price, price, t.getTimestamp());
 		}
 
 		String marketSymbol = market.getSymbol();
@@ -503,9 +490,26 @@ public class BasicQuoteService implements QuoteService {
 
 	}
 
-	private final ListingsMatrix impliedBidMatrix = new ListingsMatrix();
-	private final ListingsMatrix impliedAskMatrix = new ListingsMatrix();
-	private final ListingsMatrix impliedTradeMatrix = new ListingsMatrix();
+	@Override
+	public void bookUnchanged(Market market, Instant time) {
+		impliedBooks.touch(market, time.getMillis());
+	}
+
+	/** advances the graph to the engine's clock, so markets which have stopped quoting drop out even if no other quote has arrived since */
+	private CrossRateGraph current(CrossRateGraph graph) {
+		if (context != null)
+			graph.advance(context.getTime().getMillis());
+		return graph;
+	}
+
+	private static long countForBasis(double price, double basis) {
+		return Math.round(price / basis);
+	}
+
+	private static final int impliedMaxHops = ConfigUtil.combined() == null ? 3 : ConfigUtil.combined().getInt("quotes.implied.max.hops", 3);
+	private static final long impliedStaleMillis = ConfigUtil.combined() == null ? 60000 : ConfigUtil.combined().getLong("quotes.implied.stale.ms", 60000);
+	private final CrossRateGraph impliedBooks = new CrossRateGraph(impliedMaxHops, impliedStaleMillis);
+	private final CrossRateGraph impliedTrades = new CrossRateGraph(impliedMaxHops, impliedStaleMillis);
 	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.quoteService");
 	@Inject
 	protected Context context;
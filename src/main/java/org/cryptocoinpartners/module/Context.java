@@ -4,7 +4,6 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.ArrayList;
@@ -12,10 +11,13 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import javax.annotation.Nullable;
 
@@ -73,7 +75,7 @@ public class Context {
 	 * method for construction.
 	 */
 	public static Context create() {
-		return new Context(null);
+		return new Context(null, null);
 	}
 
 	/**
@@ -81,7 +83,15 @@ public class Context {
 	 * of historical events.
 	 */
 	public static Context create(TimeProvider timeProvider) {
-		return new Context(timeProvider);
+		return new Context(timeProvider, null);
+	}
+
+	/**
+	 * Every Context runs in its own Esper engine, so several Contexts can run side by side in one JVM.  The name is used
+	 * as the prefix of the engine's provider URI, which shows up in Esper's logs and JMX beans.
+	 */
+	public static Context create(TimeProvider timeProvider, String name) {
+		return new Context(timeProvider, name);
 	}
 
 	public interface TimeProvider {
@@ -230,26 +240,15 @@ public class Context {
 		e.publishedAt(now);
 	}
 
-	private class publishRunnable implements Runnable {
-		private final Event event;
-
-		// protected Logger log;
-
-		public publishRunnable(Event event) {
-			this.event = event;
-
-		}
-
-		@Override
-		public void run() {
-			handlePublish(event);
-
-		}
-	}
-
+	/**
+	 * Sends the event into this Context's Esper engine.  If context.inbound.shards is set, live Contexts queue the event on the inbound pipeline
+	 * and it is sent on one of the pipeline's dispatch threads instead of the caller's.
+	 */
 	public void publish(Event e) {
-		//  contextService.submit(new publishRunnable(e));
-		handlePublish(e);
+		if (inbound != null)
+			inbound.publish(e);
+		else
+			handlePublish(e);
 	}
 
 	// time on the book is the time filed, now this is older than the current clock time
@@ -480,6 +479,13 @@ public class Context {
 		return injector;
 	}
 
+	/**
+	 * @return every method subscribed to a statement in this Context, with the number of rows delivered to it
+	 */
+	public List<Subscription> getSubscriptions() {
+		return Collections.unmodifiableList(subscriptions);
+	}
+
 	public Configuration getConfig() {
 		return config;
 	}
@@ -489,7 +495,10 @@ public class Context {
 	//
 
 	private void subscribe(Object listener, Method method, EPStatement statement) {
-		statement.setSubscriber(new Listener(listener, method, statement.getText()));
+		Subscription subscription = new Subscription(listener, method, statement.getText());
+		subscription.register(providerURI, subscriptions.size());
+		subscriptions.add(subscription);
+		statement.setSubscriber(subscription);
 	}
 
 	private Class<?> findModuleClass(String name) {
@@ -627,9 +636,19 @@ public class Context {
 		//epService.getEPRuntime().g
 	}
 
+	/** the URI of this Context's Esper engine */
+	public String getProviderURI() {
+		return providerURI;
+	}
+
 	@Inject
 	private Context(TimeProvider timeProvider) {
+		this(timeProvider, null);
+	}
+
+	private Context(TimeProvider timeProvider, @Nullable String name) {
 		this.timeProvider = timeProvider;
+		this.providerURI = (name == null ? "cointrader" : name) + "-" + contextCount.incrementAndGet();
 
 		// final com.espertech.esper.client.Configuration esperConfig = new com.espertech.esper.client.Configuration();
 		epConfig.configure("cointrader-esper.cfg.xml");
@@ -642,7 +661,7 @@ public class Context {
 		if (timeProvider != null) {
 			epConfig.getEngineDefaults().getThreading().setInternalTimerEnabled(false);
 		}
-		epService = EPServiceProviderManager.getDefaultProvider(epConfig);
+		epService = EPServiceProviderManager.getProvider(providerURI, epConfig);
 		if (timeProvider != null) {
 			lastTime = timeProvider.getInitialTime();
 			final EPServiceProviderImpl epService1 = (EPServiceProviderImpl) epService;
@@ -651,6 +670,19 @@ public class Context {
 		epRuntime = epService.getEPRuntime();
 		epAdministrator = epService.getEPAdministrator();
 		config = ConfigUtil.combined();
+		// replays publish in time order from one thread, and stay synchronous so they remain deterministic
+		int inboundShards = (config != null && timeProvider == null) ? config.getInt("context.inbound.shards", 0) : 0;
+		if (inboundShards > 0) {
+			InboundPipeline.WaitStrategy waitStrategy = InboundPipeline.WaitStrategy.valueOf(config.getString("context.inbound.wait", "park")
+					.toUpperCase());
+			inbound = new InboundPipeline(providerURI, inboundShards, config.getInt("context.inbound.capacity", 65536), waitStrategy,
+					new Consumer<Event>() {
+						@Override
+						public void accept(Event event) {
+							handlePublish(event);
+						}
+					}).register();
+		}
 		//injector = Injector.root().createChildInjector(subscribingModule,new Module()
 		injector = Injector.root().createChildInjector(new Module() {
 			@Override
@@ -662,40 +694,10 @@ public class Context {
 		injector.setConfig(config);
 	}
 
-	/**
-	 * this class conforms to the callback specs for an Esper subscriber
-	 * http://esper.codehaus.org/esper-4.11.0/doc/reference/en-US/html_single/index.html#api-admin-subscriber
-	 * then forwards that invocation to the original listener
-	 */
-	private class Listener {
-		public void update(Object[] row) {
-			boolean wasAccessible = method.isAccessible();
-			method.setAccessible(true);
-			try {
-				method.invoke(delegate, row);
-			} catch (IllegalAccessException | InvocationTargetException e) {
-				throw new EsperError("Could not invoke method " + method + " on statement trigger " + statement, e);
-			} catch (Throwable t) {
-				throw new Error("Error invoking " + delegate.getClass().getName() + "." + method.getName(), t);
-			} finally {
-				method.setAccessible(wasAccessible);
-			}
-		}
-
-		private Listener(Object delegate, Method method, String statement) {
-			this.delegate = delegate;
-			this.method = method;
-			this.statement = statement;
-		}
-
-		private final Object delegate;
-		private final Method method;
-		private final String statement;
-	}
-
 	protected transient static Logger log = LoggerFactory.getLogger(Context.class);
-	protected transient static ExecutorService contextService = Executors.newFixedThreadPool(1);
+	private static final AtomicInteger contextCount = new AtomicInteger();
 
+	private transient final String providerURI;
 	private transient Configuration config;
 	private transient Injector injector;
 	private transient TimeProvider timeProvider;
@@ -705,9 +707,15 @@ public class Context {
 	private transient EPAdministrator epAdministrator;
 	private transient final com.espertech.esper.client.Configuration epConfig = new com.espertech.esper.client.Configuration();
 	private transient HashSet<String> loadedModules = new HashSet<String>();
+	private transient InboundPipeline inbound;
+	private transient final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
 
 	private void privateDestroy() {
+		if (inbound != null)
+			inbound.shutdown();
 		epService.destroy();
+		for (Subscription subscription : subscriptions)
+			subscription.unregister();
 
 		// null all the variables here to eliminate any crazy cycles
 		config = null;
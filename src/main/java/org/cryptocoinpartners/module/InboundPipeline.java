@@ -0,0 +1,319 @@
+package org.cryptocoinpartners.module;
+
+import java.lang.management.ManagementFactory;
+import java.util.IdentityHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Fill;
+import org.cryptocoinpartners.schema.MarketData;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hands events published to a Context over to dispatch threads, so the thread publishing an event (an exchange poller, a fill handler) does not
+ * run the statements and strategies which consume it.
+ * <p>
+ * Events are sharded by market. Each shard is a pre-allocated ring of events with its own dispatch thread, so the events of one market are
+ * dispatched in the order they were published, while different markets are dispatched in parallel. Events without a market all go to the first
+ * shard. An event published from a dispatch thread, for example an order placed by a strategy, is dispatched immediately on that thread, as it
+ * would be without the pipeline.
+ * <p>
+ * A producer only waits when its shard is full, and those waits are counted.
+ */
+public class InboundPipeline implements InboundPipelineMBean {
+
+	/** what an idle dispatch thread, or a producer facing a full shard, does until it can continue */
+	public enum WaitStrategy {
+		/** lowest latency, but keeps a core busy per shard */
+		SPIN,
+		/** spins, giving up the core to other runnable threads */
+		YIELD,
+		/** sleeps briefly between checks */
+		PARK;
+
+		void idle(int attempt) {
+			switch (this) {
+				case SPIN:
+					break;
+				case YIELD:
+					Thread.yield();
+					break;
+				case PARK:
+					if (attempt < 100)
+						Thread.yield();
+					else
+						LockSupport.parkNanos(PARK_NANOS);
+					break;
+			}
+		}
+	}
+
+	public InboundPipeline(String name, int shards, int capacity, WaitStrategy waitStrategy, Consumer<Event> dispatcher) {
+		if (shards < 1)
+			throw new IllegalArgumentException("an inbound pipeline needs at least one shard");
+		if (capacity < 2)
+			throw new IllegalArgumentException("inbound shard capacity must be at least 2");
+		this.name = name;
+		this.waitStrategy = waitStrategy;
+		this.dispatcher = dispatcher;
+		this.shards = new Shard[shards];
+		for (int i = 0; i < shards; i++) {
+			this.shards[i] = new Shard(Integer.highestOneBit(capacity - 1) << 1);
+			Thread thread = new DispatchThread(this.shards[i], name + "-inbound-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Queues the event for dispatch on its market's shard, waiting only if that shard is full. Called from one of this pipeline's dispatch threads,
+	 * the event is dispatched before returning.
+	 */
+	public void publish(Event event) {
+		Thread current = Thread.currentThread();
+		if (current instanceof DispatchThread && ((DispatchThread) current).pipeline() == this) {
+			dispatcher.accept(event);
+			return;
+		}
+		if (!running) {
+			log.warn(name + " inbound pipeline is shut down; dropping " + event);
+			return;
+		}
+		Shard shard = shardFor(event);
+		published.increment();
+		if (shard.offer(event))
+			return;
+		producerWaits.increment();
+		for (int attempt = 0; !shard.offer(event); attempt++) {
+			if (!running) {
+				log.warn(name + " inbound pipeline shut down while waiting for room; dropping " + event);
+				return;
+			}
+			waitStrategy.idle(attempt);
+		}
+	}
+
+	/** stops accepting events and waits for the dispatch threads to finish the events already queued */
+	public void shutdown() {
+		running = false;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SHUTDOWN_SECONDS);
+		for (Shard shard : shards) {
+			while (shard.depth() > 0 && System.nanoTime() < deadline)
+				LockSupport.parkNanos(PARK_NANOS);
+			if (shard.depth() > 0)
+				log.warn(name + " inbound pipeline shut down with " + shard.depth() + " events undispatched");
+			shard.stopped = true;
+		}
+		unregister();
+	}
+
+	/** publishes this pipeline's metrics on the platform MBean server */
+	public InboundPipeline register() {
+		try {
+			objectName = new ObjectName("org.cryptocoinpartners.module:type=InboundPipeline,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		} catch (JMException e) {
+			objectName = null;
+			log.warn("Unable to register metrics for inbound pipeline " + name, e);
+		}
+		return this;
+	}
+
+	@Override
+	public String getWaitStrategy() {
+		return waitStrategy.name();
+	}
+
+	@Override
+	public int getShards() {
+		return shards.length;
+	}
+
+	@Override
+	public int getCapacity() {
+		return shards[0].slots.length;
+	}
+
+	@Override
+	public long getDepth() {
+		long depth = 0;
+		for (Shard shard : shards)
+			depth += shard.depth();
+		return depth;
+	}
+
+	@Override
+	public long[] getShardDepths() {
+		long[] depths = new long[shards.length];
+		for (int i = 0; i < shards.length; i++)
+			depths[i] = shards[i].depth();
+		return depths;
+	}
+
+	@Override
+	public long getPublished() {
+		return published.sum();
+	}
+
+	@Override
+	public long getDispatched() {
+		long dispatched = 0;
+		for (Shard shard : shards)
+			dispatched += shard.head;
+		return dispatched;
+	}
+
+	@Override
+	public long getProducerWaits() {
+		return producerWaits.sum();
+	}
+
+	private void unregister() {
+		if (objectName == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			log.debug("Unable to unregister metrics for inbound pipeline " + name, e);
+		}
+		objectName = null;
+	}
+
+	private Shard shardFor(Event event) {
+		Tradeable market = null;
+		if (event instanceof MarketData)
+			market = ((MarketData) event).getMarket();
+		else if (event instanceof Fill)
+			market = ((Fill) event).getMarket();
+		else if (event instanceof Order)
+			market = ((Order) event).getMarket();
+		if (market == null || shards.length == 1)
+			return shards[0];
+		Shard shard = marketShards.get(market);
+		if (shard == null) {
+			// markets are few, so each new instance copies the map rather than making every lookup concurrent
+			shard = shards[(market.getSymbol().hashCode() & Integer.MAX_VALUE) % shards.length];
+			synchronized (this) {
+				IdentityHashMap<Tradeable, Shard> copy = new IdentityHashMap<Tradeable, Shard>(marketShards);
+				copy.put(market, shard);
+				marketShards = copy;
+			}
+		}
+		return shard;
+	}
+
+	/**
+	 * A bounded ring for many producers and one consumer. Each slot has a sequence number saying whether it is free for the producer claiming
+	 * position n (sequence == n) or holds the event at position n (sequence == n + 1).
+	 */
+	private static class Shard {
+
+		Shard(int capacity) {
+			slots = new Event[capacity];
+			sequences = new AtomicLongArray(capacity);
+			mask = capacity - 1;
+			for (int i = 0; i < capacity; i++)
+				sequences.set(i, i);
+		}
+
+		boolean offer(Event event) {
+			while (true) {
+				long position = tail.get();
+				int index = (int) (position & mask);
+				long available = sequences.get(index) - position;
+				if (available == 0) {
+					if (tail.compareAndSet(position, position + 1)) {
+						slots[index] = event;
+						sequences.lazySet(index, position + 1);
+						return true;
+					}
+				} else if (available < 0)
+					return false;
+			}
+		}
+
+		/** only called by the shard's dispatch thread */
+		Event poll() {
+			long position = head;
+			int index = (int) (position & mask);
+			if (sequences.get(index) != position + 1)
+				return null;
+			Event event = slots[index];
+			slots[index] = null;
+			sequences.lazySet(index, position + slots.length);
+			head = position + 1;
+			return event;
+		}
+
+		long depth() {
+			return Math.max(0, tail.get() - head);
+		}
+
+		private final Event[] slots;
+		private final AtomicLongArray sequences;
+		private final int mask;
+		private final AtomicLong tail = new AtomicLong();
+		private volatile long head;
+		private volatile boolean stopped;
+
+	}
+
+	private class DispatchThread extends Thread {
+
+		DispatchThread(Shard shard, String threadName) {
+			super(threadName);
+			this.shard = shard;
+		}
+
+		InboundPipeline pipeline() {
+			return InboundPipeline.this;
+		}
+
+		@Override
+		public void run() {
+			int attempt = 0;
+			while (!shard.stopped) {
+				Event event = shard.poll();
+				if (event == null) {
+					waitStrategy.idle(attempt++);
+					continue;
+				}
+				attempt = 0;
+				try {
+					dispatcher.accept(event);
+				} catch (Throwable t) {
+					log.error(getName() + " unable to dispatch " + event, t);
+				}
+			}
+		}
+
+		private final Shard shard;
+
+	}
+
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.inboundPipeline");
+	private static final long PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private static final long SHUTDOWN_SECONDS = 5;
+
+	private final String name;
+	private final WaitStrategy waitStrategy;
+	private final Consumer<Event> dispatcher;
+	private final Shard[] shards;
+	private final LongAdder published = new LongAdder();
+	private final LongAdder producerWaits = new LongAdder();
+	private volatile IdentityHashMap<Tradeable, Shard> marketShards = new IdentityHashMap<Tradeable, Shard>();
+	private volatile boolean running = true;
+	private volatile ObjectName objectName;
+
+}
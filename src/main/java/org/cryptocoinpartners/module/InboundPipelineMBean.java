@@ -0,0 +1,24 @@
+package org.cryptocoinpartners.module;
+
+public interface InboundPipelineMBean {
+
+	String getWaitStrategy();
+
+	int getShards();
+
+	/** events each shard can hold */
+	int getCapacity();
+
+	/** events waiting to be dispatched, over all shards */
+	long getDepth();
+
+	long[] getShardDepths();
+
+	long getPublished();
+
+	long getDispatched();
+
+	/** times a producer found its shard full and had to wait */
+	long getProducerWaits();
+
+}
@@ -0,0 +1,282 @@
+package org.cryptocoinpartners.module;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.cryptocoinpartners.schema.Amount;
+import org.cryptocoinpartners.schema.AmountAccumulator;
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.DecimalAmount;
+import org.cryptocoinpartners.schema.DiscreteAmount;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.Position;
+import org.cryptocoinpartners.schema.RiskSnapshot;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.cryptocoinpartners.service.PortfolioService;
+import org.cryptocoinpartners.service.QuoteService;
+import org.cryptocoinpartners.util.Remainder;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the unrealised PnL and market value of a portfolio service's open positions up to date as trades arrive, instead of revaluing every
+ * position when they are asked for.
+ * <p>
+ * The open volume and volume weighted cost of each market are gathered when its positions change. A trade then revalues only its own market,
+ * with one multiply and subtract that sums to what BasicPortfolioService.getUnrealisedPnL(Position, Amount) gives leg by leg. Totals by
+ * currency and in the base asset are published as a {@link RiskSnapshot} when the positions change, and otherwise at most once per interval of
+ * event time.
+ */
+public class MarkToMarket {
+
+	public MarkToMarket(PortfolioService portfolioService, QuoteService quotes, long intervalMillis) {
+		this.portfolioService = portfolioService;
+		this.quotes = quotes;
+		this.intervalMillis = intervalMillis;
+	}
+
+	/** revalues the positions in the trade's market at its price, publishing a snapshot if one is due */
+	public void mark(Trade trade) {
+		Exposure exposure = exposures.get(trade.getMarket());
+		if (exposure == null || trade.getPrice() == null)
+			return;
+		exposure.revalue(trade.getPrice());
+		marks.increment();
+		Instant time = trade.getTime();
+		if (time != null && time.getMillis() >= nextPublish)
+			publish(time);
+	}
+
+	/** gathers the open positions of a market again, after a fill has changed them, and publishes a snapshot */
+	public void refresh(Market market, Instant time) {
+		gather(market);
+		publish(time);
+	}
+
+	/** gathers the open positions of every market again */
+	public void refreshAll(Instant time) {
+		Set<Market> markets = new HashSet<Market>();
+		for (Exposure exposure : exposures.values())
+			markets.add(exposure.market);
+		for (Portfolio portfolio : portfolioService.getPortfolios())
+			for (Position position : portfolio.getNetPositions())
+				if (position.getMarket() != null)
+					markets.add(position.getMarket());
+		for (Market market : markets)
+			gather(market);
+		publish(time);
+	}
+
+	/** the snapshot most recently published */
+	public RiskSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/** the number of trades which revalued a market */
+	public long getMarks() {
+		return marks.sum();
+	}
+
+	/** totals the markets' current values into a new snapshot */
+	public synchronized RiskSnapshot publish(Instant time) {
+		Asset baseAsset = getBaseAsset();
+		Map<Asset, AmountAccumulator> unrealisedPnLs = new HashMap<Asset, AmountAccumulator>();
+		Map<Asset, AmountAccumulator> marketValues = new HashMap<Asset, AmountAccumulator>();
+		Map<Tradeable, Amount> marketUnrealisedPnLs = new HashMap<Tradeable, Amount>();
+		for (Exposure exposure : exposures.values()) {
+			Amount unrealisedPnL = exposure.unrealisedPnL;
+			sum(unrealisedPnLs, exposure.pnlCurrency).add(unrealisedPnL);
+			sum(marketValues, exposure.valueCurrency).add(exposure.marketValue);
+			marketUnrealisedPnLs.put(exposure.market, unrealisedPnL);
+		}
+		AmountAccumulator baseUnrealisedPnL = new AmountAccumulator();
+		AmountAccumulator baseMarketValue = new AmountAccumulator();
+		RiskSnapshot published = new RiskSnapshot(time, ++sequence, baseAsset, toBase(unrealisedPnLs, baseAsset, baseUnrealisedPnL),
+				toBase(marketValues, baseAsset, baseMarketValue), marketUnrealisedPnLs, baseUnrealisedPnL.toAmount(), baseMarketValue.toAmount());
+		snapshot = published;
+		if (time != null)
+			nextPublish = time.getMillis() + intervalMillis;
+		if (log.isTraceEnabled())
+			log.trace(this.getClass().getSimpleName() + ":publish - " + published);
+		return published;
+	}
+
+	private void gather(Market market) {
+		Amount mark = null;
+		Exposure existing = exposures.get(market);
+		if (existing != null)
+			mark = existing.mark;
+		else if (quotes != null && quotes.getLastTrade(market) != null)
+			mark = quotes.getLastTrade(market).getPrice();
+
+		Exposure exposure = new Exposure(market);
+		for (Portfolio portfolio : portfolioService.getPortfolios())
+			for (Position position : portfolio.getNetPositions())
+				if (market.equals(position.getMarket()) && position.isOpen())
+					exposure.add(position);
+		if (exposure.isEmpty()) {
+			exposures.remove(market);
+			return;
+		}
+		exposure.revalue(mark);
+		exposures.put(market, exposure);
+	}
+
+	/** converts the sums to amounts, adding each converted to the base asset at its last trade rate, as getBaseUnrealisedPnL does */
+	private Map<Asset, Amount> toBase(Map<Asset, AmountAccumulator> sums, Asset baseAsset, AmountAccumulator baseTotal) {
+		Map<Asset, Amount> amounts = new HashMap<Asset, Amount>();
+		for (Map.Entry<Asset, AmountAccumulator> sum : sums.entrySet()) {
+			Amount amount = sum.getValue().toAmount();
+			amounts.put(sum.getKey(), amount);
+			Amount rate = baseAsset == null ? null : rate(sum.getKey(), baseAsset);
+			if (rate != null)
+				baseTotal.add(amount.times(rate, Remainder.ROUND_EVEN));
+		}
+		return amounts;
+	}
+
+	private Amount rate(Asset asset, Asset baseAsset) {
+		if (asset.equals(baseAsset))
+			return DecimalAmount.ONE;
+		if (quotes == null)
+			return null;
+		Listing listing = listings.get(asset);
+		if (listing == null) {
+			listing = Listing.forPair(asset, baseAsset);
+			listings.put(asset, listing);
+		}
+		Trade rate = quotes.getLastTrade(listing);
+		return rate == null || rate.getPrice() == null || rate.getPrice().isZero() ? null : rate.getPrice();
+	}
+
+	private Asset getBaseAsset() {
+		for (Portfolio portfolio : portfolioService.getPortfolios())
+			if (portfolio.getBaseAsset() != null)
+				return portfolio.getBaseAsset();
+		return null;
+	}
+
+	private static AmountAccumulator sum(Map<Asset, AmountAccumulator> sums, Asset asset) {
+		AmountAccumulator sum = sums.get(asset);
+		if (sum == null) {
+			sum = new AmountAccumulator();
+			sums.put(asset, sum);
+		}
+		return sum;
+	}
+
+	/**
+	 * the open long and short legs of one market, summed over the portfolios. A linear market's PnL is (price * volume - cost) * multiplier *
+	 * contract size, where cost sums each leg's average price times its volume. A market with a prompt is inverse, multiplying by 1 / (average
+	 * price * price), so its PnL is (the sum of volume / average price - volume / price) * contract size.
+	 */
+	private static class Exposure {
+
+		Exposure(Market market) {
+			this.market = market;
+			Asset tradedCurrency = market.getTradedCurrency(market);
+			this.pnlCurrency = tradedCurrency == null ? market.getQuote() : tradedCurrency;
+			this.valueCurrency = tradedCurrency == null ? market.getBase() : tradedCurrency;
+			this.contractSize = market.getContractSize(market);
+			this.inverse = market.getListing().getPrompt() != null;
+		}
+
+		void add(Position position) {
+			if (position.getLongVolume() != null && !position.getLongVolume().isZero())
+				addLeg(position.getLongAvgPrice(), position.getLongVolume());
+			if (position.getShortVolume() != null && !position.getShortVolume().isZero())
+				addLeg(position.getShortAvgPrice(), position.getShortVolume());
+			netVolume = netVolume.plus(position.getVolume());
+		}
+
+		boolean isEmpty() {
+			return legs == 0;
+		}
+
+		/** marks the legs at the price, or at their own average prices when there is no price yet */
+		synchronized void revalue(Amount price) {
+			if (price == null || price.isZero()) {
+				mark = null;
+				unrealisedPnL = DecimalAmount.ZERO;
+				marketValue = DecimalAmount.ZERO;
+				return;
+			}
+			if (volumeAmount == null) {
+				volumeAmount = volume.toAmount();
+				costAmount = cost.toAmount();
+			}
+			mark = price;
+			if (inverse)
+				unrealisedPnL = costAmount.minus(volumeAmount.divide(price, Remainder.ROUND_EVEN)).times(contractSize, Remainder.ROUND_EVEN);
+			else {
+				if (price instanceof DiscreteAmount && volume.isDiscrete())
+					scratch.reset().addProduct(((DiscreteAmount) price).getCount(), ((DiscreteAmount) price).getIBasis(), volume.getCount(),
+							volume.getIBasis());
+				else
+					scratch.reset().add(price.times(volumeAmount, Remainder.ROUND_EVEN));
+				Amount pnl = scratch.subtract(costAmount).toAmount();
+				unrealisedPnL = factor == null ? pnl : pnl.times(factor, Remainder.ROUND_EVEN);
+			}
+			if (contractSize == 1D)
+				marketValue = netVolume.times(price, Remainder.ROUND_EVEN);
+			else
+				marketValue = netVolume.times(contractSize, Remainder.ROUND_EVEN);
+		}
+
+		private void addLeg(Amount avgPrice, Amount legVolume) {
+			volume.add(legVolume);
+			if (inverse)
+				cost.add(legVolume.divide(avgPrice, Remainder.ROUND_EVEN));
+			else {
+				cost.add(avgPrice.times(legVolume, Remainder.ROUND_EVEN));
+				if (legs == 0) {
+					// without a prompt the multiplier does not depend on the prices
+					Amount multiplier = market.getMultiplier(market, avgPrice, avgPrice).times(contractSize, Remainder.ROUND_EVEN);
+					factor = multiplier.compareTo(DecimalAmount.ONE) == 0 ? null : multiplier;
+				}
+			}
+			legs++;
+		}
+
+		private final Market market;
+		private final Asset pnlCurrency;
+		private final Asset valueCurrency;
+		private final double contractSize;
+		private final boolean inverse;
+		/** the legs' volume, and their volume weighted cost or, for an inverse market, their volume over average price */
+		private final AmountAccumulator volume = new AmountAccumulator();
+		private final AmountAccumulator cost = new AmountAccumulator();
+		private final AmountAccumulator scratch = new AmountAccumulator();
+		private Amount volumeAmount;
+		private Amount costAmount;
+		/** the multiplier times the contract size of a linear market, or null when it is one */
+		private Amount factor;
+		private int legs;
+		private Amount netVolume = DecimalAmount.ZERO;
+		private volatile Amount mark;
+		private volatile Amount unrealisedPnL = DecimalAmount.ZERO;
+		private volatile Amount marketValue = DecimalAmount.ZERO;
+
+	}
+
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.markToMarket");
+
+	private final PortfolioService portfolioService;
+	private final QuoteService quotes;
+	private final long intervalMillis;
+	private final Map<Tradeable, Exposure> exposures = new ConcurrentHashMap<Tradeable, Exposure>();
+	private final Map<Asset, Listing> listings = new ConcurrentHashMap<Asset, Listing>();
+	private volatile RiskSnapshot snapshot = RiskSnapshot.EMPTY;
+	private volatile long nextPublish;
+	private final LongAdder marks = new LongAdder();
+	private long sequence;
+
+}
@@ -5,16 +5,20 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.cryptocoinpartners.enumeration.ExecutionInstruction;
 import org.cryptocoinpartners.enumeration.FillType;
 import org.cryptocoinpartners.enumeration.OrderState;
 import org.cryptocoinpartners.enumeration.TransactionType;
@@ -28,14 +32,19 @@ import org.cryptocoinpartners.schema.Offer;
 import org.cryptocoinpartners.schema.Order;
 import org.cryptocoinpartners.schema.OrderUpdate;
 import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.schema.TopOfBook;
 import org.cryptocoinpartners.schema.Trade;
 import org.cryptocoinpartners.schema.TradeFactory;
 import org.cryptocoinpartners.schema.Tradeable;
 import org.cryptocoinpartners.util.ConfigUtil;
 import org.cryptocoinpartners.util.EM;
+import org.joda.time.Instant;
 
 /**
  * MockOrderService simulates the Filling of Orders by looking at broadcast Book data for price and volume information.
+ * <p>
+ * With mock.exchange.fill.model=queue each market's orders are worked by a {@link SimulatedBook}, with queue position and latency. With touch
+ * resting orders fill as soon as a Book or Trade reaches their price, less mock.exchange.slippage.
  * 
  * @author Tim Olson
  */
@@ -52,6 +61,22 @@ public class MockOrderService extends BaseOrderService {
 
 	// protected final Lock orederMatchingLock = new ReentrantLock();
 
+	public enum FillModel {
+		/** price-time priority with queue position and latency, see {@link SimulatedBook} */
+		QUEUE,
+		/** fills resting orders as soon as the market reaches their price */
+		TOUCH
+	}
+
+	public FillModel getFillModel() {
+		return fillModel;
+	}
+
+	/** switches fill models, which should be done before any orders are placed */
+	public void setFillModel(FillModel fillModel) {
+		this.fillModel = fillModel;
+	}
+
 	@Override
 	protected void handleSpecificOrder(SpecificOrder specificOrder) {
 		if (specificOrder.getStopPrice() != null) {
@@ -59,6 +84,12 @@ public class MockOrderService extends BaseOrderService {
 			reject(specificOrder, "Stop prices unsupported");
 		}
 		specificOrder.setEntryTime(context.getTime());
+		if (fillModel == FillModel.QUEUE) {
+			updateOrderState(specificOrder, OrderState.PLACED, true);
+			specificOrder.merge();
+			simulated(specificOrder.getMarket()).submit(new Request(specificOrder, false, context.getTime()));
+			return;
+		}
 		//if we are trading the cash market, let's take off the fees.
 
 		addOrder(specificOrder);
@@ -99,6 +130,10 @@ public class MockOrderService extends BaseOrderService {
 	@When("@Priority(9) @Audit select * from LastBookWindow(market.synthetic=false,market in (BaseStrategy.getMarkets()))")
 	public void handleBook(Book b) {
 		//mockOrderService.submit(new updateBookRunnable(b));
+		if (fillModel == FillModel.QUEUE) {
+			simulate(b.getMarket(), b);
+			return;
+		}
 		updateBook(b);
 		//mockOrderService.submit(new updateBookRunnable(b));
 
@@ -109,6 +144,10 @@ public class MockOrderService extends BaseOrderService {
 	public void handleTrade(Trade t) {
 		if (t.getMarket() == null || (t.getMarket() != null && t.getMarket().isSynthetic()))
 			return;
+		if (fillModel == FillModel.QUEUE) {
+			simulate(t.getMarket(), t);
+			return;
+		}
 		updateBook(t);
 		//mockOrderService.submit(new updateBookRunnable(t));
 	}
@@ -142,30 +181,12 @@ public class MockOrderService extends BaseOrderService {
 		//   log.trace(this.getClass().getSimpleName() + " : updateBook to called from stack " + Thread.currentThread().getStackTrace()[2]);
 		synchronized (pendingOrders.get(market) == null ? this : pendingOrders.get(market)) {
 
-			List<Offer> asks = new ArrayList<>();
-
-			List<Offer> bids = new ArrayList<>();
-			if (b != null) {
-
-				asks = b.getAsks();
-				bids = b.getBids();
-			}
-
 			if (t != null) {
-				t = (Trade) event;
-
-				//if Trade is a sell then it must have big the ask
-				//Someone has sold, so this would has bit the bid
-				if (t.getVolume().isNegative()) {
-					Offer bestBid = new Offer(market, t.getTime(), t.getTimeReceived(), t.getPrice().getCount(), t.getVolume().negate().getCount());
-					bids.add(bestBid);
-
-				} else {
-					Offer bestAsk = new Offer(market, t.getTime(), t.getTimeReceived(), t.getPrice().getCount(), t.getVolume().negate().getCount());
-					asks.add(bestAsk);
-
-				}
+				updateBook(market, t);
+				return;
 			}
+			List<Offer> asks = b.getAsks();
+			List<Offer> bids = b.getBids();
 
 			List<Fill> fills = Collections.synchronizedList(new ArrayList<Fill>());
 
@@ -204,32 +225,8 @@ public class MockOrderService extends BaseOrderService {
 															+ order.getLimitPrice() + " for order " + order.getUuid());
 													break BIDORDERSLOOP;
 												}
-												//
-												//long buyOrderVolumeCount = order.getUnfilledVolumeCount();
-
-												if (t != null) {
-													log.debug("filled by a trade");
-												}
-
 												long buyFillVolume = Math.min(Math.abs(ask.getVolumeCount()), Math.abs(order.getUnfilledVolumeCount()));
-												long slippageDiff = Math.round(ask.getPriceCount() * slippage);
-												if (order.getLimitPrice() == null)
-													log.debug("tests");
-												//we are buying
-												long fillPriceCount = (ask.getPriceCount() + slippageDiff);
-
-												log.debug(this.getClass().getSimpleName() + ":updateBook - Calculated fillPriceCount=" + fillPriceCount
-														+ ", limitPrice=" + order.getLimitPrice() + ", limitPriceCount=" + order.getLimitPrice().getCount()
-														+ " , ask=" + ask + " , askCount=" + ask.getPriceCount() + ", slippageDiff=" + slippageDiff);
-
-												log.debug(this.getClass().getSimpleName() + ":updateBook - Creating fill with ask=" + ask + ", book="
-														+ quotes.getLastBook(market) + ", order=" + order.getUuid() + ",working volume="
-														+ order.getUnfilledVolumeCount() + ",fills= " + order.getFills());
-												Fill fill = fillFactory.create(order, ask.getTime(), ask.getTime(), order.getMarket(), fillPriceCount,
-														buyFillVolume, Long.toString(ask.getTime().getMillis()));
-												buyFillsToProcess.add(fill);
-												handleFillProcessing(fill);
-												logFill(order, ask, fill);
+												buyFillsToProcess.add(fillBuyOrder(order, ask.getPriceCount(), buyFillVolume, ask.getTime(), ask));
 
 												log.debug(this.getClass().getSimpleName() + ":UpdateBook - set askVolume " + ask.getVolumeCount() + " to "
 														+ (ask.getVolumeCount() < 0 ? -((Math.abs(ask.getVolumeCount()) - buyFillVolume))
@@ -238,10 +235,6 @@ public class MockOrderService extends BaseOrderService {
 												ask.setVolumeCount((ask.getVolumeCount() < 0 ? -((Math.abs(ask.getVolumeCount()) - buyFillVolume))
 														: (Math.abs(ask.getVolumeCount() - buyFillVolume))));
 
-												if (fill.getVolume() == null || (fill.getVolume() != null && fill.getVolume().isZero()))
-													log.debug("fill " + fill.getUuid() + " zero lots " + (order.getUnfilledVolumeCount()));
-												if (fill.getVolume().abs().compareTo(order.getVolume().abs()) > 0)
-													log.debug("overfilled " + fill.getUuid() + " " + (order.getUnfilledVolumeCount()));
 												if (ask.getVolumeCount() == 0) {
 													asksToRemove.add(ask);
 													continue ASKSLOOP;
@@ -300,33 +293,9 @@ public class MockOrderService extends BaseOrderService {
 															+ order.getLimitPrice() + " for order " + order.getUuid());
 													break ASKORDERSLOOP;
 												}
-												//long sellOrderVolumeCount = order.getUnfilledVolumeCount();
-
 												//	-30000000,-11
 												long askFillVolume = -Math.min(Math.abs(bid.getVolumeCount()), Math.abs(order.getUnfilledVolumeCount()));
-
-												long slippageDiff = Math.round(bid.getPriceCount() * slippage);
-												log.debug(this.getClass().getSimpleName() + ":updateBook - Calculated slippage=" + slippageDiff + ", slippage="
-														+ slippage + " , bid=" + bid);
-
-												if (order.getLimitPrice() == null)
-													log.debug("tests");
-												//I want to sell at 22.5 and buy order of only 10, will not get filled, but if it is market, I will get filled at fill count.
-												// I am selling so want to see at 24 or higher.
-												//if  order.getLimitPrice().getCount() > bid.getPriceCount()) if 24>22.
-												long fillPriceCount = (bid.getPriceCount() - slippageDiff);
-												log.debug(this.getClass().getSimpleName() + ":updateBook - Calculated fillPriceCount=" + fillPriceCount
-														+ ", limitPrice=" + order.getLimitPrice() + ", limitPriceCount=" + order.getLimitPrice().getCount()
-														+ " , bid=" + bid + " , bidCount=" + bid.getPriceCount() + ", slippageDiff=" + slippageDiff);
-												log.debug(this.getClass().getSimpleName() + ":updateBook - Creating fill with bid=" + bid + ", book="
-														+ quotes.getLastBook(market) + ", order=" + order.getUuid() + ",working volume="
-														+ order.getUnfilledVolumeCount() + ",fills= " + order.getFills());
-												Fill fill = fillFactory.create(order, context.getTime(), context.getTime(), order.getMarket(), fillPriceCount,
-														askFillVolume, Long.toString(bid.getTime().getMillis()));
-												sellFillsToProcess.add(fill);
-												handleFillProcessing(fill);
-												//	sellOrderVolumeCount = sellOrderVolumeCount - askFillVolume;
-												logFill(order, bid, fill);
+												sellFillsToProcess.add(fillSellOrder(order, bid.getPriceCount(), askFillVolume, bid.getTime(), bid));
 												log.debug(
 														this.getClass().getSimpleName() + ":UpdateBook - set bidVolume " + bid.getVolumeCount() + " to "
 																+ (bid.getVolumeCount() < 0 ? -((Math.abs(bid.getVolumeCount()) + askFillVolume))
@@ -335,12 +304,6 @@ public class MockOrderService extends BaseOrderService {
 												bid.setVolumeCount((bid.getVolumeCount() < 0 ? -((Math.abs(bid.getVolumeCount()) + askFillVolume))
 														: (Math.abs(bid.getVolumeCount() + askFillVolume))));
 
-												//bid.setVolumeCount(bid.getVolumeCount()>0 ? Math.abs(bid.getVolumeCount()) + askFillVolume : );
-
-												if (fill.getVolume() == null || (fill.getVolume() != null && fill.getVolume().isZero()))
-													log.debug("fill zero lots " + fill.getUuid() + " " + (order.getUnfilledVolumeCount()));
-												if (fill.getVolume().abs().compareTo(order.getVolume().abs()) > 0)
-													log.debug("overfilled " + fill.getUuid());
 
 												//if the bid is empty, move to next bid
 												if (bid.getVolumeCount() == 0) {
@@ -391,6 +354,13 @@ public class MockOrderService extends BaseOrderService {
 
 		}
 
+		if (fillModel == FillModel.QUEUE) {
+			// the exchange reports the cancel once it has taken the order off its book
+			updateOrderState(order, OrderState.CANCELLING, true);
+			simulated(order.getMarket()).submit(new Request(order, true, context.getTime()));
+			return true;
+		}
+
 		try {
 			if (pendingOrders == null || pendingOrders.get(order.getMarket()) == null
 					|| pendingOrders.get(order.getMarket()).get(order.getTransactionType()) == null)
@@ -517,15 +487,221 @@ public class MockOrderService extends BaseOrderService {
 
 	}
 
-	private void logFill(SpecificOrder order, Offer offer, Fill fill) {
+	/**
+	 * Fills resting orders against the one price level a Trade implies, without making a Book or an Offer for it. Someone has sold, so the
+	 * Trade hit a bid at its price, or someone has bought and it lifted an ask.
+	 */
+	private void updateBook(Tradeable market, Trade trade) {
+		TopOfBook quote = TopOfBook.of(trade);
+		boolean sold = trade.getVolumeCount() < 0;
+		List<SpecificOrder> orders = pendingOrders.get(market).get(sold ? TransactionType.SELL : TransactionType.BUY);
+		if (orders == null || orders.isEmpty())
+			return;
+		long priceCount = sold ? quote.getBidPriceCount() : quote.getAskPriceCount();
+		long remainingVolume = sold ? quote.getBidVolumeCount() : -quote.getAskVolumeCount();
+		try {
+			synchronized (orders) {
+				Set<SpecificOrder> ordersToRemove = new HashSet<SpecificOrder>();
+				for (SpecificOrder order : orders) {
+					if (remainingVolume == 0)
+						break;
+					synchronized (order) {
+						if (order.getUnfilledVolumeCount() == 0) {
+							ordersToRemove.add(order);
+							continue;
+						}
+						if (!order.getMarket().equals(market) || order.getTimestamp() > trade.getTimestamp())
+							continue;
+						if (order.getFillType() != null && !order.getFillType().equals(FillType.MARKET) && order.getLimitPrice() != null
+								&& (sold ? order.getLimitPrice().getCount() > priceCount : order.getLimitPrice().getCount() < priceCount)) {
+							log.trace(this.getClass().getSimpleName() + ":UpdateBook - trade " + trade + " outside limit price " + order.getLimitPrice()
+									+ " for order " + order.getUuid());
+							break;
+						}
+						long fillVolume = Math.min(remainingVolume, Math.abs(order.getUnfilledVolumeCount()));
+						if (sold)
+							fillSellOrder(order, priceCount, -fillVolume, quote.getTime(), trade);
+						else
+							fillBuyOrder(order, priceCount, fillVolume, quote.getTime(), trade);
+						remainingVolume -= fillVolume;
+						if (order.getUnfilledVolumeCount() == 0)
+							ordersToRemove.add(order);
+					}
+				}
+				orders.removeAll(ordersToRemove);
+			}
+		} catch (Exception e) {
+			log.error(this.getClass().getSimpleName() + ": updateBook - Unable to fill mock orders from trade " + trade + " stack trace: ", e);
+		}
+	}
+
+	/** fills a buy order against an ask, and returns the fill */
+	private Fill fillBuyOrder(SpecificOrder order, long askPriceCount, long fillVolume, Instant askTime, Object source) {
+		long slippageDiff = Math.round(askPriceCount * slippage);
+		//we are buying
+		long fillPriceCount = (askPriceCount + slippageDiff);
+		log.debug(this.getClass().getSimpleName() + ":updateBook - Calculated fillPriceCount=" + fillPriceCount + ", limitPrice=" + order.getLimitPrice()
+				+ " , ask=" + source + " , askCount=" + askPriceCount + ", slippageDiff=" + slippageDiff);
+		Fill fill = fillFactory.create(order, askTime, askTime, order.getMarket(), fillPriceCount, fillVolume, Long.toString(askTime.getMillis()));
+		handleFillProcessing(fill);
+		logFill(order, source, fill);
+		if (fill.getVolume() == null || (fill.getVolume() != null && fill.getVolume().isZero()))
+			log.debug("fill " + fill.getUuid() + " zero lots " + (order.getUnfilledVolumeCount()));
+		if (fill.getVolume().abs().compareTo(order.getVolume().abs()) > 0)
+			log.debug("overfilled " + fill.getUuid() + " " + (order.getUnfilledVolumeCount()));
+		return fill;
+	}
+
+	/** fills a sell order against a bid, and returns the fill. the fill volume is negative */
+	private Fill fillSellOrder(SpecificOrder order, long bidPriceCount, long fillVolume, Instant bidTime, Object source) {
+		long slippageDiff = Math.round(bidPriceCount * slippage);
+		// I am selling so want to see at 24 or higher.
+		long fillPriceCount = (bidPriceCount - slippageDiff);
+		log.debug(this.getClass().getSimpleName() + ":updateBook - Calculated fillPriceCount=" + fillPriceCount + ", limitPrice=" + order.getLimitPrice()
+				+ " , bid=" + source + " , bidCount=" + bidPriceCount + ", slippageDiff=" + slippageDiff);
+		Fill fill = fillFactory.create(order, context.getTime(), context.getTime(), order.getMarket(), fillPriceCount, fillVolume,
+				Long.toString(bidTime.getMillis()));
+		handleFillProcessing(fill);
+		logFill(order, source, fill);
+		if (fill.getVolume() == null || (fill.getVolume() != null && fill.getVolume().isZero()))
+			log.debug("fill zero lots " + fill.getUuid() + " " + (order.getUnfilledVolumeCount()));
+		if (fill.getVolume().abs().compareTo(order.getVolume().abs()) > 0)
+			log.debug("overfilled " + fill.getUuid());
+		return fill;
+	}
+
+	private void simulate(Tradeable market, Event event) {
+		if (market == null || market.isSynthetic() || !getTradingEnabled())
+			return;
+		// a market is only simulated once an order is placed on it, and starts from its last Book
+		SimulatedMarket simulatedMarket = simulatedMarkets.get(market);
+		if (simulatedMarket != null)
+			simulatedMarket.submit(event);
+		// entries, cancels and fill reports due on quiet markets follow the engine clock rather than waiting for their market's next event
+		long now = context.getTime().getMillis();
+		for (SimulatedMarket other : simulatedMarkets.values())
+			if (other != simulatedMarket && other.nextDue <= now)
+				other.submit(now);
+	}
+
+	private SimulatedMarket simulated(Market market) {
+		SimulatedMarket simulatedMarket = simulatedMarkets.get(market);
+		if (simulatedMarket == null) {
+			SimulatedMarket created = new SimulatedMarket(market);
+			simulatedMarket = simulatedMarkets.putIfAbsent(market, created);
+			if (simulatedMarket == null) {
+				simulatedMarket = created;
+				Book last = quotes == null ? null : quotes.getLastBook(market);
+				if (last != null)
+					simulatedMarket.submit(last);
+			}
+		}
+		return simulatedMarket;
+	}
+
+	/** an order to place on or cancel from a SimulatedBook */
+	private static class Request {
+
+		Request(SpecificOrder order, boolean cancel, Instant time) {
+			this.order = order;
+			this.cancel = cancel;
+			this.time = time;
+		}
+
+		private final SpecificOrder order;
+		private final boolean cancel;
+		private final Instant time;
+
+	}
+
+	/**
+	 * One market's SimulatedBook, and the Books, Trades, Requests and clock ticks waiting for it. Whichever thread finds the book idle works
+	 * through them all, so the book is used by one thread at a time without a lock. With context.inbound.shards set that is normally the thread
+	 * of the market's shard, and orders placed from other threads are handed to it.
+	 */
+	private class SimulatedMarket implements SimulatedBook.Listener {
+
+		SimulatedMarket(Market market) {
+			Random random = new Random(latencySeed * 31 + market.getSymbol().hashCode());
+			this.book = new SimulatedBook(entryLatency, cancelLatency, fillLatency, cancelAheadShare, random, this);
+		}
+
+		void submit(Object message) {
+			inbox.add(message);
+			if (wip.getAndIncrement() != 0)
+				return;
+			int missed = 1;
+			do {
+				Object next;
+				while ((next = inbox.poll()) != null)
+					try {
+						deliver(next);
+					} catch (Exception e) {
+						log.error(MockOrderService.this.getClass().getSimpleName() + ": simulate - Unable to process " + next + " stack trace: ", e);
+					}
+				nextDue = book.getNextDue();
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		private void deliver(Object message) {
+			if (message instanceof Book)
+				book.book((Book) message);
+			else if (message instanceof Trade)
+				book.trade((Trade) message);
+			else if (message instanceof Long)
+				book.advance((Long) message);
+			else {
+				Request request = (Request) message;
+				if (request.cancel)
+					book.cancel(request.order, request.time);
+				else
+					book.place(request.order, request.time);
+			}
+		}
+
+		@Override
+		public void filled(SpecificOrder order, long priceCount, long volumeCount, boolean maker, Instant time, Instant received) {
+			Fill fill = fillFactory.create(order, time, received, order.getMarket(), priceCount, volumeCount, Long.toString(time.getMillis()));
+			fill.chargeCommission(maker ? ExecutionInstruction.MAKER : ExecutionInstruction.TAKER);
+			handleFillProcessing(fill);
+			logFill(order, maker ? "resting order" : "the book", fill);
+		}
+
+		@Override
+		public void cancelled(SpecificOrder order, long volumeCount, Instant time) {
+			if (volumeCount == 0) {
+				log.info("Cancel of " + order.getUuid() + " reached the mock exchange after the order was done");
+				return;
+			}
+			log.debug(MockOrderService.this.getClass().getSimpleName() + ":cancelled - removed order " + order.getUuid() + " from mock exchange");
+			updateOrderState(order, OrderState.CANCELLED, true);
+		}
+
+		private final SimulatedBook book;
+		private final ConcurrentLinkedQueue<Object> inbox = new ConcurrentLinkedQueue<Object>();
+		private final AtomicInteger wip = new AtomicInteger();
+		/** when the book's next pending action is due, read by other threads to decide whether to advance it */
+		private volatile long nextDue = Long.MAX_VALUE;
+
+	}
+
+	private void logFill(SpecificOrder order, Object source, Fill fill) {
 		//  if (log.isDebugEnabled())
-		if (order != null && offer != null && fill != null)
-			log.info("Mock fill of Order " + order + " with Offer " + offer + ": " + fill);
+		if (order != null && source != null && fill != null)
+			log.info("Mock fill of Order " + order + " with " + source + ": " + fill);
 	}
 
 	// private static Object lock = new Object();
 	// private static ConcurrentHashMap<Market, ConcurrentHashMap<TransactionType, ArrayList<SpecificOrder>>> pendingOrders = new ConcurrentHashMap<Market, ConcurrentHashMap<TransactionType, ArrayList<SpecificOrder>>>();
-	private static transient Map<Market, Map<TransactionType, ArrayList<SpecificOrder>>> pendingOrders = new ConcurrentHashMap<Market, Map<TransactionType, ArrayList<SpecificOrder>>>();
+	private final transient Map<Market, Map<TransactionType, ArrayList<SpecificOrder>>> pendingOrders = new ConcurrentHashMap<Market, Map<TransactionType, ArrayList<SpecificOrder>>>();
+	private final ConcurrentHashMap<Tradeable, SimulatedMarket> simulatedMarkets = new ConcurrentHashMap<Tradeable, SimulatedMarket>();
+	private volatile FillModel fillModel = FillModel.valueOf(ConfigUtil.combined().getString("mock.exchange.fill.model", "queue").toUpperCase());
+	private final SimulatedLatency entryLatency = SimulatedLatency.parse(ConfigUtil.combined().getString("mock.exchange.latency.order", "0"));
+	private final SimulatedLatency cancelLatency = SimulatedLatency.parse(ConfigUtil.combined().getString("mock.exchange.latency.cancel", "0"));
+	private final SimulatedLatency fillLatency = SimulatedLatency.parse(ConfigUtil.combined().getString("mock.exchange.latency.fill", "0"));
+	private final double cancelAheadShare = ConfigUtil.combined().getDouble("mock.exchange.queue.cancel.share", 1.0);
+	private final long latencySeed = ConfigUtil.combined().getLong("mock.exchange.latency.seed", 1L);
 
 	//new ConcurrentSkipListSet<>
 	//  new ConcurrentLinkedQueue<SpecificOrder>();
@@ -544,18 +720,17 @@ public class MockOrderService extends BaseOrderService {
 
 		super.init();
 		// Once we have all the order loaded, let's add all the open specific orders to the mock order book (pendingOrders)
-		//if (stateOrderMap.get(OrderState.NEW) != null)
-		//    cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.NEW));
-		if (stateOrderMap.get(OrderState.PLACED) != null)
-			cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.PLACED));
-		if (stateOrderMap.get(OrderState.PARTFILLED) != null)
-			cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.PARTFILLED));
-		if (stateOrderMap.get(OrderState.ROUTED) != null)
-			cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.ROUTED));
-		if (stateOrderMap.get(OrderState.CANCELLING) != null)
-			cointraderOpenOrders.addAll(stateOrderMap.get(OrderState.CANCELLING));
+		//cointraderOpenOrders.addAll(orderStateMap.getOrders(OrderState.NEW));
+		cointraderOpenOrders.addAll(orderStateMap.getOrders(OrderState.PLACED));
+		cointraderOpenOrders.addAll(orderStateMap.getOrders(OrderState.PARTFILLED));
+		cointraderOpenOrders.addAll(orderStateMap.getOrders(OrderState.ROUTED));
+		cointraderOpenOrders.addAll(orderStateMap.getOrders(OrderState.CANCELLING));
 		for (org.cryptocoinpartners.schema.Order openOrder : cointraderOpenOrders) {
-			if (openOrder instanceof SpecificOrder)
+			if (!(openOrder instanceof SpecificOrder))
+				continue;
+			if (fillModel == FillModel.QUEUE)
+				simulated(openOrder.getMarket()).submit(new Request((SpecificOrder) openOrder, false, context.getTime()));
+			else
 				addOrder((SpecificOrder) openOrder);
 		}
 	}
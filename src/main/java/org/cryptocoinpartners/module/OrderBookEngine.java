@@ -0,0 +1,54 @@
+package org.cryptocoinpartners.module;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Singleton;
+
+import org.cryptocoinpartners.schema.BookSnapshot;
+import org.cryptocoinpartners.schema.LiveBook;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds one {@link LiveBook} per market. Market data sources apply their updates to the live book for a market and only build a {@link org.cryptocoinpartners.schema.Book}
+ * when something needs to be published, while readers can query best prices and depth directly or take a {@link BookSnapshot}.
+ */
+@Singleton
+public class OrderBookEngine {
+
+	/** @return the live book for the market, creating an empty one if needed */
+	public LiveBook getLiveBook(Tradeable market) {
+		LiveBook liveBook = liveBooks.get(market);
+		if (liveBook != null)
+			return liveBook;
+		LiveBook newBook = new LiveBook(market);
+		liveBook = liveBooks.putIfAbsent(market, newBook);
+		if (liveBook == null) {
+			log.debug("Created live book for " + market);
+			return newBook;
+		}
+		return liveBook;
+	}
+
+	/** @return the live book for the market, or null if no data has been applied for it */
+	public LiveBook findLiveBook(Tradeable market) {
+		return liveBooks.get(market);
+	}
+
+	/** @return a snapshot of the market's book, or null if no data has been applied for it */
+	public BookSnapshot snapshot(Tradeable market) {
+		LiveBook liveBook = liveBooks.get(market);
+		return liveBook == null ? null : liveBook.snapshot();
+	}
+
+	public Collection<LiveBook> getLiveBooks() {
+		return Collections.unmodifiableCollection(liveBooks.values());
+	}
+
+	private final ConcurrentHashMap<Tradeable, LiveBook> liveBooks = new ConcurrentHashMap<>();
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.orderBookEngine");
+
+}
@@ -0,0 +1,346 @@
+package org.cryptocoinpartners.module;
+
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.cryptocoinpartners.enumeration.OrderState;
+import org.cryptocoinpartners.enumeration.PositionEffect;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.schema.Tradeable;
+
+/**
+ * The state of every order an OrderService tracks. Besides the order to state map it keeps the orders in each state, the open and the
+ * closed ones, and indexes the open orders by portfolio, market, exchange, market and side, and market and position effect, and all of
+ * them by parent order and by exchange and remote key. Updates are serialised and move an order between all of its index sets before returning; reads
+ * take no lock and see the weakly consistent sets of a ConcurrentHashMap, which callers may iterate but not change. An order which has
+ * been in a terminal state for longer than the eviction window leaves the map and its indexes, and only its last state is archived by
+ * uuid, so get still answers for it while it can be garbage collected.
+ */
+public class OrderStateStore extends AbstractMap<Order, OrderState> {
+
+	public OrderStateStore() {
+		this(0);
+	}
+
+	/** @param evictAfterMillis how long an order stays in the map after it is filled, cancelled, rejected or expired, or 0 to keep it */
+	public OrderStateStore(long evictAfterMillis) {
+		this.evictAfterMillis = evictAfterMillis;
+		for (OrderState state : OrderState.values()) {
+			Set<Order> orders = ConcurrentHashMap.newKeySet();
+			byState.put(state, orders);
+			byStateView.put(state, Collections.unmodifiableSet(orders));
+		}
+	}
+
+	@Override
+	public OrderState get(Object key) {
+		OrderState state = states.get(key);
+		if (state == null && key instanceof Order && !archive.isEmpty())
+			state = archive.get(((Order) key).getUuid());
+		return state;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	/** the number of orders in memory, not counting archived ones */
+	@Override
+	public int size() {
+		return states.size();
+	}
+
+	/** the orders in memory and their states, not counting archived ones */
+	@Override
+	public Set<Entry<Order, OrderState>> entrySet() {
+		return view.entrySet();
+	}
+
+	@Override
+	public Set<Order> keySet() {
+		return view.keySet();
+	}
+
+	/**
+	 * Sets the state of an order and moves it to the index sets of that state, taking its portfolio, market, side, position effect, parent
+	 * and remote key as they are now.
+	 *
+	 * @param time when the order reached the state, in milliseconds. Orders older than the eviction window are evicted against it
+	 * @return the state the order had, or null if it was not tracked
+	 */
+	public synchronized OrderState update(Order order, OrderState state, long time) {
+		Keys keys = keysByOrder.get(order);
+		OrderState oldState;
+		if (keys == null) {
+			oldState = archive.remove(order.getUuid());
+			keys = new Keys(order);
+			keysByOrder.put(order, keys);
+		} else {
+			oldState = keys.state;
+			byState.get(oldState).remove(order);
+		}
+		states.put(order, state);
+		keys.state = state;
+		byState.get(state).add(order);
+		(state.isOpen() ? closed : open).remove(order);
+		(state.isOpen() ? open : closed).add(order);
+		reindex(keys);
+		if (isTerminal(state)) {
+			keys.terminalSince = time;
+			if (evictAfterMillis > 0)
+				terminal.add(new Terminal(keys, time));
+		}
+		if (evictAfterMillis > 0)
+			evict(time);
+		return oldState;
+	}
+
+	/** Re-reads the keys of an order whose portfolio, market, side, position effect, parent or remote key has changed since its last update. */
+	public synchronized void index(Order order) {
+		Keys keys = keysByOrder.get(order);
+		if (keys != null)
+			reindex(keys);
+	}
+
+	/** Drops the orders which have been terminal for longer than the eviction window at the given time, keeping their last state by uuid. */
+	public synchronized int evict(long time) {
+		int evicted = 0;
+		while (!terminal.isEmpty() && terminal.peek().since + evictAfterMillis <= time) {
+			Keys keys = terminal.poll().keys;
+			// the order may have been revived since, or queued again when it moved to another terminal state
+			if (keysByOrder.get(keys.order) != keys || !isTerminal(keys.state) || keys.terminalSince + evictAfterMillis > time)
+				continue;
+			keysByOrder.remove(keys.order);
+			archive.put(keys.order.getUuid(), keys.state);
+			states.remove(keys.order);
+			byState.get(keys.state).remove(keys.order);
+			closed.remove(keys.order);
+			keys.open = false;
+			keys.indexed = false;
+			unindex(keys);
+			evicted++;
+		}
+		return evicted;
+	}
+
+	public int getArchivedCount() {
+		return archive.size();
+	}
+
+	public Set<Order> getOrders(OrderState state) {
+		return byStateView.get(state);
+	}
+
+	/** orders which are new, triggered, routed, placed, part filled or cancelling */
+	public Set<Order> getOpenOrders() {
+		return openView;
+	}
+
+	public Set<Order> getClosedOrders() {
+		return closedView;
+	}
+
+	public Set<Order> getOpenOrders(Portfolio portfolio) {
+		return find(openByPortfolio, portfolio);
+	}
+
+	public Set<Order> getOpenOrders(Tradeable market) {
+		return find(openByMarket, market);
+	}
+
+	public Set<Order> getOpenOrders(Exchange exchange) {
+		return find(openByExchange, exchange);
+	}
+
+	public Set<Order> getOpenOrders(Tradeable market, boolean bid) {
+		return market == null ? Collections.<Order> emptySet() : find(openBySide, new Pair(market, bid));
+	}
+
+	public Set<Order> getOpenOrders(Tradeable market, PositionEffect positionEffect) {
+		return market == null || positionEffect == null ? Collections.<Order> emptySet() : find(openByPositionEffect, new Pair(market, positionEffect));
+	}
+
+	/** the children in memory of an order, open or not */
+	public Set<Order> getChildOrders(Order parent) {
+		return find(byParent, parent);
+	}
+
+	/** @return the order in memory with this remote key on the exchange, or null. Remote keys are only unique within an exchange */
+	public Order getOrder(Exchange exchange, String remoteKey) {
+		return exchange == null || remoteKey == null ? null : byRemoteKey.get(new Pair(exchange, remoteKey));
+	}
+
+	static boolean isTerminal(OrderState state) {
+		return state == OrderState.FILLED || state == OrderState.CANCELLED || state == OrderState.REJECTED || state == OrderState.EXPIRED;
+	}
+
+	private void reindex(Keys keys) {
+		Order order = keys.order;
+		Market market = order.getMarket();
+		Object portfolio = order.getPortfolio();
+		Object exchange = market == null ? null : market.getExchange();
+		Object side = market == null ? null : new Pair(market, order.isBid());
+		Object positionEffect = market == null || order.getPositionEffect() == null ? null : new Pair(market, order.getPositionEffect());
+		Object parent = order.getParentOrder();
+		String remoteId = order instanceof SpecificOrder ? ((SpecificOrder) order).getRemoteKey() : null;
+		Object remoteKey = exchange == null || remoteId == null ? null : new Pair(exchange, remoteId);
+		boolean isOpen = keys.state.isOpen();
+		if (keys.indexed && keys.open == isOpen && equal(keys.portfolio, portfolio) && equal(keys.market, market) && equal(keys.exchange, exchange)
+				&& equal(keys.side, side) && equal(keys.positionEffect, positionEffect) && equal(keys.parent, parent) && equal(keys.remoteKey, remoteKey))
+			return;
+		unindex(keys);
+		keys.portfolio = portfolio;
+		keys.market = market;
+		keys.exchange = exchange;
+		keys.side = side;
+		keys.positionEffect = positionEffect;
+		keys.parent = parent;
+		keys.remoteKey = remoteKey;
+		keys.open = isOpen;
+		keys.indexed = true;
+		if (isOpen) {
+			add(openByPortfolio, portfolio, order);
+			add(openByMarket, market, order);
+			add(openByExchange, exchange, order);
+			add(openBySide, side, order);
+			add(openByPositionEffect, positionEffect, order);
+		}
+		add(byParent, parent, order);
+		if (remoteKey != null)
+			byRemoteKey.put(remoteKey, order);
+	}
+
+	/** takes an order out of the sets it was last indexed in, by its old keys */
+	private void unindex(Keys keys) {
+		Order order = keys.order;
+		remove(openByPortfolio, keys.portfolio, order);
+		remove(openByMarket, keys.market, order);
+		remove(openByExchange, keys.exchange, order);
+		remove(openBySide, keys.side, order);
+		remove(openByPositionEffect, keys.positionEffect, order);
+		remove(byParent, keys.parent, order);
+		if (keys.remoteKey != null && byRemoteKey.get(keys.remoteKey) == order)
+			byRemoteKey.remove(keys.remoteKey);
+	}
+
+	private static void add(Map<Object, Set<Order>> index, Object key, Order order) {
+		if (key == null)
+			return;
+		Set<Order> orders = index.get(key);
+		if (orders == null) {
+			orders = ConcurrentHashMap.newKeySet();
+			index.put(key, orders);
+		}
+		orders.add(order);
+	}
+
+	private static void remove(Map<Object, Set<Order>> index, Object key, Order order) {
+		if (key == null)
+			return;
+		Set<Order> orders = index.get(key);
+		if (orders != null && orders.remove(order) && orders.isEmpty())
+			index.remove(key);
+	}
+
+	private static Set<Order> find(Map<Object, Set<Order>> index, Object key) {
+		Set<Order> orders = key == null ? null : index.get(key);
+		return orders == null ? Collections.<Order> emptySet() : Collections.unmodifiableSet(orders);
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/** the keys an order was last indexed under, so it can be taken out again after they change */
+	private static class Keys {
+
+		Keys(Order order) {
+			this.order = order;
+		}
+
+		private final Order order;
+		private OrderState state;
+		private boolean open;
+		private boolean indexed;
+		private long terminalSince;
+		private Object portfolio;
+		private Object market;
+		private Object exchange;
+		private Object side;
+		private Object positionEffect;
+		private Object parent;
+		private Object remoteKey;
+
+	}
+
+	private static class Terminal {
+
+		Terminal(Keys keys, long since) {
+			this.keys = keys;
+			this.since = since;
+		}
+
+		private final Keys keys;
+		private final long since;
+
+	}
+
+	private static class Pair {
+
+		Pair(Object first, Object second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Pair))
+				return false;
+			Pair that = (Pair) o;
+			return first.equals(that.first) && second.equals(that.second);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * first.hashCode() + second.hashCode();
+		}
+
+		private final Object first;
+		private final Object second;
+
+	}
+
+	private final long evictAfterMillis;
+	private final ConcurrentHashMap<Order, OrderState> states = new ConcurrentHashMap<Order, OrderState>();
+	private final Map<Order, OrderState> view = Collections.unmodifiableMap(states);
+	private final ConcurrentHashMap<UUID, OrderState> archive = new ConcurrentHashMap<UUID, OrderState>();
+	private final Map<OrderState, Set<Order>> byState = new EnumMap<OrderState, Set<Order>>(OrderState.class);
+	private final Map<OrderState, Set<Order>> byStateView = new EnumMap<OrderState, Set<Order>>(OrderState.class);
+	private final Set<Order> open = ConcurrentHashMap.newKeySet();
+	private final Set<Order> openView = Collections.unmodifiableSet(open);
+	private final Set<Order> closed = ConcurrentHashMap.newKeySet();
+	private final Set<Order> closedView = Collections.unmodifiableSet(closed);
+	private final Map<Object, Set<Order>> openByPortfolio = new ConcurrentHashMap<Object, Set<Order>>();
+	private final Map<Object, Set<Order>> openByMarket = new ConcurrentHashMap<Object, Set<Order>>();
+	private final Map<Object, Set<Order>> openByExchange = new ConcurrentHashMap<Object, Set<Order>>();
+	private final Map<Object, Set<Order>> openBySide = new ConcurrentHashMap<Object, Set<Order>>();
+	private final Map<Object, Set<Order>> openByPositionEffect = new ConcurrentHashMap<Object, Set<Order>>();
+	private final Map<Object, Set<Order>> byParent = new ConcurrentHashMap<Object, Set<Order>>();
+	private final Map<Object, Order> byRemoteKey = new ConcurrentHashMap<Object, Order>();
+	// only touched under the lock
+	private final Map<Order, Keys> keysByOrder = new HashMap<Order, Keys>();
+	private final ArrayDeque<Terminal> terminal = new ArrayDeque<Terminal>();
+
+}
@@ -15,6 +15,7 @@ import org.cryptocoinpartners.schema.ListingFactory;
 import org.cryptocoinpartners.schema.MarketFactory;
 import org.cryptocoinpartners.schema.OrderUpdateFactory;
 import org.cryptocoinpartners.schema.PositionFactory;
+import org.cryptocoinpartners.schema.ReferenceDataRegistry;
 import org.cryptocoinpartners.schema.ReplayFactory;
 import org.cryptocoinpartners.schema.SpecificOrderFactory;
 import org.cryptocoinpartners.schema.SyntheticMarketFactory;
@@ -46,6 +47,8 @@ import org.cryptocoinpartners.schema.dao.PositionDao;
 import org.cryptocoinpartners.schema.dao.PositionJpaDao;
 import org.cryptocoinpartners.schema.dao.PromptDao;
 import org.cryptocoinpartners.schema.dao.PromptJpaDao;
+import org.cryptocoinpartners.schema.dao.ReferenceDataDao;
+import org.cryptocoinpartners.schema.dao.ReferenceDataJpaDao;
 import org.cryptocoinpartners.schema.dao.ReportDao;
 import org.cryptocoinpartners.schema.dao.ReportJpaDao;
 import org.cryptocoinpartners.schema.dao.TradeDao;
@@ -149,6 +152,8 @@ public class PersistanceModule extends AbstractModule {
 		bind(TransactionDao.class).to(TransactionJpaDao.class);
 		bind(OrderUpdateDao.class).to(OrderUpdateJpaDao.class);
 		bind(ReportDao.class).to(ReportJpaDao.class);
+		bind(ReferenceDataDao.class).to(ReferenceDataJpaDao.class);
+		bind(ReferenceDataRegistry.class);
 
 		//  bind(OrderUpdateDao.class).to(OrderUpdateJpaDao.class);
 
@@ -1,5 +1,6 @@
 package org.cryptocoinpartners.module;
 
+import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 
@@ -15,6 +16,8 @@ import org.cryptocoinpartners.schema.dao.BarJpaDao;
 import org.cryptocoinpartners.schema.dao.BookJpaDao;
 import org.cryptocoinpartners.schema.dao.MarketDataJpaDao;
 import org.cryptocoinpartners.schema.dao.TradeJpaDao;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.cryptocoinpartners.util.TickStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -49,6 +52,9 @@ public class SaveMarketData {
 	@Inject
 	protected transient Context context;
 
+	@Inject
+	protected TickStore tickStore;
+
 	/*static {
 		tradeService = Executors.newFixedThreadPool(ConfigUtil.combined().getInt("db.trade.writer.threads", 1));
 		bookService = Executors.newFixedThreadPool(ConfigUtil.combined().getInt("db.book.writer.threads", 1));
@@ -64,6 +70,15 @@ public class SaveMarketData {
 		//  if (future == null || future.isDone()) {
 		//Future future = 
 		log.trace("book recieved: " + m.getUuid() + " thread: " + Thread.currentThread().getName());
+		if (saveToTickStore) {
+			try {
+				tickStore.write(m);
+			} catch (IOException ex) {
+				log.error("SaveMarketData:handleBook - Book " + m + " not written to tick store", ex);
+			}
+		}
+		if (!saveToDatabase)
+			return;
 		try {
 			m.persit();
 		} catch (Error | Exception ex) {
@@ -77,6 +92,15 @@ public class SaveMarketData {
 	public void handleTrade(Trade m) {
 
 		log.trace("trade recieved: " + m.getUuid() + " thread: " + Thread.currentThread().getName());
+		if (saveToTickStore) {
+			try {
+				tickStore.write(m);
+			} catch (IOException ex) {
+				log.error("SaveMarketData:handleTrade - Trade " + m + " not written to tick store", ex);
+			}
+		}
+		if (!saveToDatabase)
+			return;
 		try {
 			m.persit();
 		} catch (Error | Exception ex) {
@@ -102,5 +126,7 @@ public class SaveMarketData {
 	}
 
 	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.saveMarketData");
+	private static final boolean saveToDatabase = ConfigUtil.combined().getBoolean("save.db", true);
+	private static final boolean saveToTickStore = ConfigUtil.combined().getBoolean("save.tickstore", false);
 
 }
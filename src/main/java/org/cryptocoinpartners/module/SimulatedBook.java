@@ -0,0 +1,449 @@
+package org.cryptocoinpartners.module;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.cryptocoinpartners.enumeration.FillType;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.schema.Trade;
+import org.joda.time.Instant;
+
+/**
+ * A simulated exchange for one market. The orders working there rest in FIFO queues at their price levels and are matched with price-time
+ * priority against the market's Books and Trades, which are taken as the rest of the exchange's order book.
+ * <p>
+ * An order which reaches the other side of the last Book on entry takes its displayed volume as a taker. Otherwise it joins the back of its
+ * level, behind the volume the last Book displayed there. Trades at the level use up that queue before they fill the order, and when a Book
+ * shows less at the level than the trades since the last Book explain, the rest is taken as cancellations. cancelAheadShare scales the part of
+ * those taken from ahead of an order, relative to its share of the level: 1 spreads them evenly over the queue and 0 takes them all from behind.
+ * Orders which a Trade or Book trades through are filled as makers at their own price.
+ * <p>
+ * Entries, cancels and fill reports are delayed by their SimulatedLatency, measured on the event clock, so a replay gives the same fills every
+ * time. Requests reach the exchange in the order they were sent and fills are reported in the order they were made. They are carried out when
+ * the book next sees an event, or when its owner calls {@link #advance(long)} as the clock moves on.
+ * <p>
+ * Not thread safe.
+ */
+public class SimulatedBook {
+
+	public interface Listener {
+
+		/**
+		 * @param volumeCount negative for sells
+		 * @param maker true if the order was resting, false if it took liquidity
+		 * @param time when the exchange made the fill
+		 * @param received when the fill was reported
+		 */
+		void filled(SpecificOrder order, long priceCount, long volumeCount, boolean maker, Instant time, Instant received);
+
+		/** the exchange has taken the order off its book, with volumeCount unfilled; zero if it was not working there */
+		void cancelled(SpecificOrder order, long volumeCount, Instant time);
+
+	}
+
+	public SimulatedBook(SimulatedLatency entryLatency, SimulatedLatency cancelLatency, SimulatedLatency fillLatency, double cancelAheadShare,
+			Random random, Listener listener) {
+		this.entryLatency = entryLatency;
+		this.cancelLatency = cancelLatency;
+		this.fillLatency = fillLatency;
+		this.cancelAheadShare = cancelAheadShare;
+		this.random = random;
+		this.listener = listener;
+	}
+
+	/** sends the order to the exchange, which works it from time plus the entry latency */
+	public void place(SpecificOrder order, Instant time) {
+		request(ENTER, order, time.getMillis(), entryLatency);
+		advance(time.getMillis());
+	}
+
+	public void cancel(SpecificOrder order, Instant time) {
+		request(CANCEL, order, time.getMillis(), cancelLatency);
+		advance(time.getMillis());
+	}
+
+	public void book(Book book) {
+		long time = book.getTime().getMillis();
+		advance(time);
+		last = book;
+		bidsTaken = reset(bidsTaken, book.getBidDepth());
+		asksTaken = reset(asksTaken, book.getAskDepth());
+		cross(book, true, time);
+		cross(book, false, time);
+		requeue(book, true);
+		requeue(book, false);
+		advance(time);
+	}
+
+	public void trade(Trade trade) {
+		long time = trade.getTime().getMillis();
+		advance(time);
+		if (trade.getPriceCount() != null && trade.getVolumeCount() != null && trade.getVolumeCount() != 0)
+			match(trade.getPriceCount(), Math.abs(trade.getVolumeCount()), trade.getVolumeCount() < 0, time);
+		advance(time);
+	}
+
+	/** carries out the entries, cancels and fill reports due by time */
+	public void advance(long time) {
+		clock = Math.max(clock, time);
+		// fill reports can place or cancel orders, which join the actions this call is already working through
+		if (advancing)
+			return;
+		advancing = true;
+		try {
+			while (!actions.isEmpty() && actions.peek().due <= clock) {
+				Action action = actions.poll();
+				switch (action.kind) {
+					case ENTER:
+						enter(action.order, action.due);
+						break;
+					case CANCEL:
+						Resting resting = working.remove(action.order);
+						if (resting != null)
+							remove(resting);
+						listener.cancelled(action.order, resting == null ? 0 : resting.signed(resting.remaining), new Instant(action.due));
+						break;
+					case REPORT:
+						listener.filled(action.order, action.priceCount, action.volumeCount, action.maker, new Instant(action.time), new Instant(action.due));
+						break;
+				}
+			}
+		} finally {
+			advancing = false;
+		}
+	}
+
+	/** @return when the next entry, cancel or fill report is due, or Long.MAX_VALUE if none is waiting */
+	public long getNextDue() {
+		return actions.isEmpty() ? Long.MAX_VALUE : actions.peek().due;
+	}
+
+	/** @return true if the exchange is working the order */
+	public boolean isWorking(SpecificOrder order) {
+		return working.containsKey(order);
+	}
+
+	/** @return the displayed volume the order is estimated to have ahead of it, or -1 if it is not resting */
+	public long getQueueAhead(SpecificOrder order) {
+		Resting resting = working.get(order);
+		return resting == null ? -1 : resting.ahead;
+	}
+
+	/** @return the orders working on the exchange, and entries and cancels on their way to it */
+	public int size() {
+		return working.size() + actions.size();
+	}
+
+	private void request(int kind, SpecificOrder order, long time, SimulatedLatency latency) {
+		long due = Math.max(time + latency.sample(random), lastRequest);
+		lastRequest = due;
+		actions.add(new Action(kind, due, sequence++, order));
+	}
+
+	private void enter(SpecificOrder order, long time) {
+		long volume = Math.abs(order.getUnfilledVolumeCount());
+		if (volume == 0 || working.containsKey(order))
+			return;
+		boolean buy = order.isBid();
+		boolean market = order.getFillType() == FillType.MARKET || order.getLimitPrice() == null;
+		long price = market ? (buy ? Long.MAX_VALUE : Long.MIN_VALUE) : order.getLimitPriceCount();
+		Resting resting = new Resting(order, buy, market, price, volume);
+		if (last != null)
+			take(resting, time);
+		if (resting.remaining == 0)
+			return;
+		working.put(order, resting);
+		TreeMap<Long, Level> levels = buy ? bids : asks;
+		Level level = levels.get(price);
+		if (level == null) {
+			level = new Level(price);
+			if (!market && last != null)
+				level.displayed = displayed(last, buy, price);
+			levels.put(price, level);
+		}
+		resting.level = level;
+		resting.ahead = level.displayed;
+		level.queue.add(resting);
+	}
+
+	/** takes what is left of the last Book's other side, up to the order's limit */
+	private void take(Resting resting, long time) {
+		boolean bids = !resting.buy;
+		long[] taken = bids ? bidsTaken : asksTaken;
+		int depth = depth(last, bids);
+		for (int i = 0; i < depth && resting.remaining > 0; i++) {
+			long price = price(last, bids, i);
+			if (!reaches(resting.buy, resting.price, price))
+				break;
+			long volume = Math.min(volume(last, bids, i) - taken[i], resting.remaining);
+			if (volume <= 0)
+				continue;
+			taken[i] += volume;
+			fill(resting, price, volume, false, time);
+		}
+	}
+
+	/** fills the resting orders on one side which the Book's other side has traded through */
+	private void cross(Book book, boolean buy, long time) {
+		TreeMap<Long, Level> levels = buy ? bids : asks;
+		long[] taken = buy ? asksTaken : bidsTaken;
+		int depth = depth(book, !buy);
+		int i = 0;
+		Iterator<Level> it = levels.values().iterator();
+		while (it.hasNext() && i < depth) {
+			Level level = it.next();
+			while (i < depth && !level.queue.isEmpty()) {
+				long price = price(book, !buy, i);
+				if (!reaches(buy, level.price, price))
+					break;
+				long available = volume(book, !buy, i) - taken[i];
+				if (available <= 0) {
+					i++;
+					continue;
+				}
+				Resting resting = level.queue.peek();
+				long volume = Math.min(available, resting.remaining);
+				taken[i] += volume;
+				fill(resting, resting.market ? price : level.price, volume, !resting.market, time);
+				if (resting.remaining == 0)
+					level.queue.poll();
+			}
+			if (!level.queue.isEmpty())
+				break;
+			it.remove();
+		}
+	}
+
+	/** moves the resting orders on one side up their queues by what the Book says has gone from ahead of them */
+	private void requeue(Book book, boolean buy) {
+		int depth = depth(book, buy);
+		if (depth == 0)
+			return;
+		TreeMap<Long, Level> levels = buy ? bids : asks;
+		int i = 0;
+		// the Book shows every level up to its worst one, so a level it does not show there has emptied
+		for (Level level : levels.headMap(price(book, buy, depth - 1), true).values()) {
+			while (i < depth && reaches(buy, price(book, buy, i), level.price) && price(book, buy, i) != level.price)
+				i++;
+			long displayed = i < depth && price(book, buy, i) == level.price ? volume(book, buy, i) : 0;
+			// what the trades left at the level, less what the Book still shows
+			long left = level.displayed - level.traded;
+			long cancelled = left - displayed;
+			for (Resting resting : level.queue) {
+				if (cancelled > 0)
+					resting.ahead -= Math.round(cancelled * cancelAheadShare * Math.min(resting.ahead, left) / left);
+				resting.ahead = Math.max(0, Math.min(resting.ahead, displayed));
+			}
+			level.displayed = displayed;
+			level.traded = 0;
+		}
+	}
+
+	/** a trade of volume at price, which hit the bids if sold or lifted the asks if not */
+	private void match(long price, long volume, boolean sold, long time) {
+		TreeMap<Long, Level> levels = sold ? bids : asks;
+		long left = volume;
+		Iterator<Level> it = levels.headMap(price, true).values().iterator();
+		while (it.hasNext()) {
+			Level level = it.next();
+			if (level.price == price) {
+				level.traded += volume;
+				left = queue(level, volume, left, time);
+			} else if (left > 0)
+				// traded through, so nothing at this price is left ahead
+				for (Iterator<Resting> orders = level.queue.iterator(); orders.hasNext() && left > 0;) {
+					Resting resting = orders.next();
+					long filled = Math.min(left, resting.remaining);
+					left -= filled;
+					resting.ahead = 0;
+					fill(resting, resting.market ? price : level.price, filled, !resting.market, time);
+					if (resting.remaining == 0)
+						orders.remove();
+				}
+			if (level.queue.isEmpty())
+				it.remove();
+		}
+	}
+
+	/**
+	 * A trade of volume at the level's price uses up the queue in order, the displayed volume ahead of each order before the order itself.
+	 * Only left of it is still there to fill orders, as the rest has filled orders at better prices.
+	 *
+	 * @return what is left
+	 */
+	private long queue(Level level, long volume, long left, long time) {
+		long flow = volume;
+		long used = 0;
+		for (Iterator<Resting> orders = level.queue.iterator(); orders.hasNext();) {
+			Resting resting = orders.next();
+			long ahead = Math.max(0, resting.ahead - used);
+			long passed = Math.min(flow, ahead);
+			flow -= passed;
+			used += passed;
+			resting.ahead = ahead - passed;
+			long filled = Math.min(Math.min(flow, left), resting.remaining);
+			if (filled == 0)
+				continue;
+			flow -= filled;
+			left -= filled;
+			fill(resting, level.price, filled, true, time);
+			if (resting.remaining == 0)
+				orders.remove();
+		}
+		return left;
+	}
+
+	private void fill(Resting resting, long price, long volume, boolean maker, long time) {
+		resting.remaining -= volume;
+		if (resting.remaining == 0)
+			working.remove(resting.order);
+		long due = Math.max(time + fillLatency.sample(random), lastReport);
+		lastReport = due;
+		Action report = new Action(REPORT, due, sequence++, resting.order);
+		report.priceCount = price;
+		report.volumeCount = resting.signed(volume);
+		report.maker = maker;
+		report.time = time;
+		actions.add(report);
+	}
+
+	private void remove(Resting resting) {
+		Level level = resting.level;
+		level.queue.remove(resting);
+		if (level.queue.isEmpty())
+			(resting.buy ? bids : asks).remove(level.price);
+	}
+
+	private static long displayed(Book book, boolean bids, long price) {
+		for (int i = 0; i < depth(book, bids); i++)
+			if (price(book, bids, i) == price)
+				return volume(book, bids, i);
+		return 0;
+	}
+
+	private static int depth(Book book, boolean bids) {
+		return bids ? book.getBidDepth() : book.getAskDepth();
+	}
+
+	private static long price(Book book, boolean bids, int level) {
+		return bids ? book.getBidPriceCount(level) : book.getAskPriceCount(level);
+	}
+
+	private static long volume(Book book, boolean bids, int level) {
+		return Math.abs(bids ? book.getBidVolumeCount(level) : book.getAskVolumeCount(level));
+	}
+
+	/** @return true if a buy at price would trade with an ask at other, or a sell with a bid */
+	private static boolean reaches(boolean buy, long price, long other) {
+		return buy ? price >= other : price <= other;
+	}
+
+	private static long[] reset(long[] taken, int depth) {
+		if (taken.length < depth)
+			return new long[depth];
+		Arrays.fill(taken, 0, depth, 0);
+		return taken;
+	}
+
+	private static class Resting {
+
+		Resting(SpecificOrder order, boolean buy, boolean market, long price, long remaining) {
+			this.order = order;
+			this.buy = buy;
+			this.market = market;
+			this.price = price;
+			this.remaining = remaining;
+		}
+
+		long signed(long volume) {
+			return buy ? volume : -volume;
+		}
+
+		private final SpecificOrder order;
+		private final boolean buy;
+		private final boolean market;
+		private final long price;
+		private long remaining;
+		private long ahead;
+		private Level level;
+
+	}
+
+	/** the orders resting at one price, and what the Books and Trades have shown there */
+	private static class Level {
+
+		Level(long price) {
+			this.price = price;
+		}
+
+		private final long price;
+		private final ArrayDeque<Resting> queue = new ArrayDeque<Resting>();
+		private long displayed;
+		private long traded;
+
+	}
+
+	private static class Action {
+
+		Action(int kind, long due, long sequence, SpecificOrder order) {
+			this.kind = kind;
+			this.due = due;
+			this.sequence = sequence;
+			this.order = order;
+		}
+
+		private final int kind;
+		private final long due;
+		private final long sequence;
+		private final SpecificOrder order;
+		private long priceCount;
+		private long volumeCount;
+		private boolean maker;
+		private long time;
+
+	}
+
+	private static final int ENTER = 0;
+	private static final int CANCEL = 1;
+	private static final int REPORT = 2;
+
+	private static final Comparator<Action> dueOrder = new Comparator<Action>() {
+		@Override
+		public int compare(Action action, Action action2) {
+			if (action.due != action2.due)
+				return action.due < action2.due ? -1 : 1;
+			return Long.compare(action.sequence, action2.sequence);
+		}
+	};
+
+	private final SimulatedLatency entryLatency;
+	private final SimulatedLatency cancelLatency;
+	private final SimulatedLatency fillLatency;
+	private final double cancelAheadShare;
+	private final Random random;
+	private final Listener listener;
+	// best price first on both sides
+	private final TreeMap<Long, Level> bids = new TreeMap<Long, Level>(Collections.reverseOrder());
+	private final TreeMap<Long, Level> asks = new TreeMap<Long, Level>();
+	private final Map<SpecificOrder, Resting> working = new IdentityHashMap<SpecificOrder, Resting>();
+	private final PriorityQueue<Action> actions = new PriorityQueue<Action>(16, dueOrder);
+	private Book last;
+	// the volume of each level of the last Book which orders have already taken
+	private long[] bidsTaken = new long[0];
+	private long[] asksTaken = new long[0];
+	private long sequence;
+	private long lastRequest = Long.MIN_VALUE;
+	private long lastReport = Long.MIN_VALUE;
+	private long clock = Long.MIN_VALUE;
+	private boolean advancing;
+
+}
@@ -0,0 +1,119 @@
+package org.cryptocoinpartners.module;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A distribution of delays in milliseconds, for the time the simulated exchange takes to act on an order or report a fill. Specs are a
+ * number of milliseconds, <code>fixed:ms</code>, <code>uniform:min:max</code>, or <code>file:path</code> for an empirical distribution
+ * sampled from a file of one millisecond value per line, where lines starting with # are ignored. Samples come from a Random the caller
+ * owns, so a seeded Random replays the same delays.
+ */
+public abstract class SimulatedLatency {
+
+	public static final SimulatedLatency NONE = fixed(0);
+
+	public static SimulatedLatency parse(String spec) {
+		String trimmed = spec == null ? "" : spec.trim();
+		if (trimmed.isEmpty())
+			return NONE;
+		String[] parts = trimmed.split(":", 2);
+		try {
+			if (parts.length == 1)
+				return fixed(Long.parseLong(trimmed));
+			switch (parts[0].toLowerCase()) {
+				case "fixed":
+					return fixed(Long.parseLong(parts[1].trim()));
+				case "uniform":
+					String[] range = parts[1].split(":");
+					if (range.length == 2)
+						return uniform(Long.parseLong(range[0].trim()), Long.parseLong(range[1].trim()));
+					break;
+				case "file":
+					return empirical(load(parts[1].trim()));
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Bad latency " + spec, e);
+		}
+		throw new IllegalArgumentException("Bad latency " + spec + ". Use ms, fixed:ms, uniform:min:max or file:path");
+	}
+
+	public static SimulatedLatency fixed(final long millis) {
+		if (millis < 0)
+			throw new IllegalArgumentException("Negative latency " + millis);
+		return new SimulatedLatency() {
+			@Override
+			public long sample(Random random) {
+				return millis;
+			}
+
+			@Override
+			public String toString() {
+				return "fixed:" + millis;
+			}
+		};
+	}
+
+	public static SimulatedLatency uniform(final long min, final long max) {
+		if (min < 0 || max < min)
+			throw new IllegalArgumentException("Bad latency range " + min + " to " + max);
+		return new SimulatedLatency() {
+			@Override
+			public long sample(Random random) {
+				return min + (long) (random.nextDouble() * (max - min + 1));
+			}
+
+			@Override
+			public String toString() {
+				return "uniform:" + min + ":" + max;
+			}
+		};
+	}
+
+	/** draws with replacement from the given delays */
+	public static SimulatedLatency empirical(long[] millis) {
+		if (millis.length == 0)
+			throw new IllegalArgumentException("No latency samples");
+		final long[] samples = millis.clone();
+		Arrays.sort(samples);
+		if (samples[0] < 0)
+			throw new IllegalArgumentException("Negative latency " + samples[0]);
+		return new SimulatedLatency() {
+			@Override
+			public long sample(Random random) {
+				return samples[random.nextInt(samples.length)];
+			}
+
+			@Override
+			public String toString() {
+				return "empirical(" + samples.length + " samples, median " + samples[samples.length / 2] + ")";
+			}
+		};
+	}
+
+	/** @return a delay in milliseconds */
+	public abstract long sample(Random random);
+
+	private static long[] load(String path) {
+		long[] samples = new long[64];
+		int count = 0;
+		try (BufferedReader reader = new BufferedReader(new FileReader(path))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+				if (count == samples.length)
+					samples = Arrays.copyOf(samples, count * 2);
+				samples[count++] = Math.round(Double.parseDouble(line));
+			}
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Could not read latencies from " + path, e);
+		}
+		return Arrays.copyOf(samples, count);
+	}
+
+}
@@ -0,0 +1,104 @@
+package org.cryptocoinpartners.module;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An Esper subscriber which forwards each row of a statement to a method of a module, usually one annotated with @When.
+ * <p>
+ * The method is bound to its object and to the statement's row once, when subscribed, so delivering a row is a single call through a
+ * MethodHandle, rather than a reflective Method.invoke with its access checks on every event. Each Subscription counts the rows it has
+ * delivered, and can be published as an MBean to find the busiest statements.
+ */
+public class Subscription implements SubscriptionMBean {
+
+	/** called by Esper with the columns of each row the statement selects */
+	public void update(Object[] row) {
+		deliveries.increment();
+		try {
+			invoker.invokeExact(row);
+		} catch (Throwable t) {
+			throw new EsperError("Could not invoke method " + method + " on statement trigger " + statement, t);
+		}
+	}
+
+	@Override
+	public String getStatement() {
+		return statement;
+	}
+
+	@Override
+	public String getMethod() {
+		return method.getDeclaringClass().getName() + "." + method.getName();
+	}
+
+	@Override
+	public long getDeliveries() {
+		return deliveries.sum();
+	}
+
+	@Override
+	public String toString() {
+		return getMethod() + " " + getDeliveries() + " rows from " + statement;
+	}
+
+	/** publishes this subscription's counter on the platform MBean server, under the given Context's name */
+	void register(String contextName, int id) {
+		try {
+			objectName = new ObjectName("org.cryptocoinpartners.module:type=Subscription,context=" + ObjectName.quote(contextName) + ",name="
+					+ ObjectName.quote(getMethod()) + ",id=" + id);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		} catch (JMException e) {
+			objectName = null;
+			log.warn("Unable to register metrics for subscription " + this, e);
+		}
+	}
+
+	void unregister() {
+		if (objectName == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+		} catch (JMException e) {
+			log.debug("Unable to unregister metrics for subscription " + this, e);
+		}
+		objectName = null;
+	}
+
+	Subscription(Object delegate, Method method, String statement) {
+		this.method = method;
+		this.statement = statement;
+		// modules subscribe private methods, so access is checked once here instead of on every row
+		method.setAccessible(true);
+		MethodHandle handle;
+		try {
+			handle = MethodHandles.lookup().unreflect(method);
+		} catch (IllegalAccessException e) {
+			throw new EsperError("Could not bind method " + method + " to statement trigger " + statement, e);
+		}
+		if (!Modifier.isStatic(method.getModifiers()))
+			handle = handle.bindTo(delegate);
+		this.invoker = handle.asSpreader(Object[].class, method.getParameterTypes().length).asType(
+				MethodType.methodType(void.class, Object[].class));
+	}
+
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.subscription");
+
+	private final Method method;
+	private final String statement;
+	private final MethodHandle invoker;
+	private final LongAdder deliveries = new LongAdder();
+	private volatile ObjectName objectName;
+
+}
@@ -0,0 +1,13 @@
+package org.cryptocoinpartners.module;
+
+public interface SubscriptionMBean {
+
+	String getStatement();
+
+	/** the subscribed method, as declaringClass.methodName */
+	String getMethod();
+
+	/** rows Esper has delivered to the method */
+	long getDeliveries();
+
+}
@@ -0,0 +1,191 @@
+package org.cryptocoinpartners.module;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import org.cryptocoinpartners.enumeration.FillType;
+import org.cryptocoinpartners.enumeration.TransactionType;
+import org.cryptocoinpartners.schema.Amount;
+import org.cryptocoinpartners.schema.Order;
+import org.joda.time.Instant;
+
+/**
+ * The resting trigger orders of one market, side and fill type, kept sorted on their trigger price so that a quote only has to look at the
+ * orders it has crossed. Buy stops and sell targets are held lowest price first, sell stops and buy targets highest price first, which is the
+ * same order the price comparators in BaseOrderService give, so a TriggerBook can be handed to sortOrders() after trailing stops are moved.
+ * Orders without a trigger price sort last and are never crossed.
+ * <p>
+ * Callers synchronize on the TriggerBook, as they did on the ArrayLists it replaces.
+ */
+public class TriggerBook extends AbstractList<Order> implements RandomAccess {
+
+	public TriggerBook(TransactionType side, FillType fillType) {
+		this.side = side;
+		this.fillType = fillType;
+		this.ascending = (fillType == FillType.STOP_LIMIT) == (side == TransactionType.BUY);
+	}
+
+	public TransactionType getSide() {
+		return side;
+	}
+
+	public FillType getFillType() {
+		return fillType;
+	}
+
+	/**
+	 * @return a view of the orders which trigger at the given price, in trigger order. Removing through the view removes from the book.
+	 */
+	public List<Order> crossedBy(Amount price) {
+		int low = 0;
+		int high = orders.size();
+		// the crossed orders are a prefix, so find the first order which is not crossed
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (crosses(price, orders.get(mid)))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return subList(0, low);
+	}
+
+	/**
+	 * @return true if any order in the book has an expiry time before the given time. The earliest expiry is cached until the book is
+	 *         next modified.
+	 */
+	public boolean hasExpiredBy(Instant time) {
+		if (expiryModCount != modCount) {
+			earliestExpiry = null;
+			for (Order order : orders) {
+				Instant expiry = order.getExpiryTime();
+				if (expiry != null && (earliestExpiry == null || expiry.isBefore(earliestExpiry)))
+					earliestExpiry = expiry;
+			}
+			expiryModCount = modCount;
+		}
+		return earliestExpiry != null && time.isAfter(earliestExpiry);
+	}
+
+	@Override
+	public boolean add(Order order) {
+		add(insertionPoint(order), order);
+		return true;
+	}
+
+	@Override
+	public void add(int index, Order order) {
+		orders.add(index, order);
+		count(order, 1);
+		modCount++;
+	}
+
+	@Override
+	public Order get(int index) {
+		return orders.get(index);
+	}
+
+	@Override
+	public Order set(int index, Order order) {
+		Order previous = orders.set(index, order);
+		count(previous, -1);
+		count(order, 1);
+		modCount++;
+		return previous;
+	}
+
+	@Override
+	public Order remove(int index) {
+		Order removed = orders.remove(index);
+		count(removed, -1);
+		modCount++;
+		return removed;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return counts.containsKey(o);
+	}
+
+	@Override
+	public void clear() {
+		orders.clear();
+		counts.clear();
+		modCount++;
+	}
+
+	@Override
+	public int size() {
+		return orders.size();
+	}
+
+	/** re-sorts the book, which is needed after the trigger prices of orders already in it have been changed */
+	@Override
+	public void sort(Comparator<? super Order> comparator) {
+		Collections.sort(orders, comparator == null ? priceComparator : comparator);
+		modCount++;
+	}
+
+	private boolean crosses(Amount price, Order order) {
+		Amount key = key(order);
+		if (key == null)
+			return false;
+		int comp = price.compareTo(key);
+		return ascending ? comp >= 0 : comp <= 0;
+	}
+
+	private Amount key(Order order) {
+		return fillType == FillType.STOP_LIMIT ? order.getStopPrice() : order.getTargetPrice();
+	}
+
+	/** after any orders with the same trigger price, so orders at one price keep the order they were added in */
+	private int insertionPoint(Order order) {
+		int low = 0;
+		int high = orders.size();
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (priceComparator.compare(orders.get(mid), order) <= 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private void count(Order order, int delta) {
+		Integer current = counts.get(order);
+		int updated = (current == null ? 0 : current) + delta;
+		if (updated > 0)
+			counts.put(order, updated);
+		else
+			counts.remove(order);
+	}
+
+	private final Comparator<Order> priceComparator = new Comparator<Order>() {
+		@Override
+		public int compare(Order order, Order order2) {
+			Amount key = key(order);
+			Amount key2 = key(order2);
+			if (key == null)
+				return key2 == null ? 0 : 1;
+			if (key2 == null)
+				return -1;
+			return ascending ? key.compareTo(key2) : key2.compareTo(key);
+		}
+	};
+
+	private final TransactionType side;
+	private final FillType fillType;
+	private final boolean ascending;
+	private final ArrayList<Order> orders = new ArrayList<Order>();
+	private final Map<Order, Integer> counts = new HashMap<Order, Integer>();
+	private Instant earliestExpiry;
+	private int expiryModCount = -1;
+
+}
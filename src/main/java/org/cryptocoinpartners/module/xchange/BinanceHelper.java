@@ -1,9 +1,19 @@
 package org.cryptocoinpartners.module.xchange;
 
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.util.Date;
+import java.util.Map;
 
+import org.cryptocoinpartners.schema.DiscreteAmount;
 import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.LiveBook;
+import org.cryptocoinpartners.schema.Market;
 import org.cryptocoinpartners.util.XchangeUtil;
+import org.joda.time.Instant;
+import org.knowm.xchange.Exchange;
+import org.knowm.xchange.binance.dto.marketdata.BinanceOrderbook;
+import org.knowm.xchange.binance.service.BinanceMarketDataServiceRaw;
 import org.knowm.xchange.service.trade.params.TradeHistoryParams;
 import org.knowm.xchange.service.trade.params.TradeHistoryParamsAll;
 
@@ -22,6 +32,26 @@ public class BinanceHelper extends XchangeHelperBase {
 
 	}
 
+	/** the raw depth request, whose lastUpdateId is where the depth stream follows on from */
+	@Override
+	public long snapshotOrderBook(Exchange exchange, Market market, LiveBook book) throws IOException {
+		if (!(exchange.getMarketDataService() instanceof BinanceMarketDataServiceRaw))
+			return super.snapshotOrderBook(exchange, market, book);
+		BinanceOrderbook orderBook = ((BinanceMarketDataServiceRaw) exchange.getMarketDataService()).getBinanceOrderbook(
+				XchangeUtil.getCurrencyPairForListing(market.getListing()), SNAPSHOT_DEPTH);
+		synchronized (book) {
+			book.beginReplace();
+			for (Map.Entry<BigDecimal, BigDecimal> bid : orderBook.bids.entrySet())
+				book.stageBid(DiscreteAmount.roundedCountForBasis(bid.getKey(), market.getPriceBasis()),
+						DiscreteAmount.roundedCountForBasis(bid.getValue(), market.getVolumeBasis()));
+			for (Map.Entry<BigDecimal, BigDecimal> ask : orderBook.asks.entrySet())
+				book.stageAsk(DiscreteAmount.roundedCountForBasis(ask.getKey(), market.getPriceBasis()),
+						DiscreteAmount.roundedCountForBasis(ask.getValue(), market.getVolumeBasis()));
+			book.commitReplace(Instant.now(), Instant.now());
+		}
+		return orderBook.lastUpdateId;
+	}
+
 	@Override
 	public TradeHistoryParams getTradeHistoryParameters(Listing listing, long lastTradeTime, long lastTradeId) {
 
@@ -33,4 +63,7 @@ public class BinanceHelper extends XchangeHelperBase {
 
 	}
 
+	// deeper than the polled books, since the stream only sends changes to levels
+	private static final int SNAPSHOT_DEPTH = 1000;
+
 }
@@ -0,0 +1,72 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cryptocoinpartners.schema.Market;
+import org.joda.time.Instant;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Binance diff depth and trade streams. Each depth message carries the range of update ids it covers, U to u, which follow on from the previous
+ * message's u, and books are started from a REST snapshot.
+ */
+public class BinanceStreamMapper implements StreamMessageMapper {
+
+	@Override
+	public List<String> subscribe(Collection<Market> markets) {
+		marketsBySymbol.clear();
+		StringBuilder params = new StringBuilder();
+		for (Market market : markets) {
+			String symbol = symbol(market);
+			marketsBySymbol.put(symbol, market);
+			if (params.length() > 0)
+				params.append(',');
+			params.append('"').append(symbol.toLowerCase()).append("@depth@100ms\",\"").append(symbol.toLowerCase()).append("@trade\"");
+		}
+		return Collections.singletonList("{\"method\":\"SUBSCRIBE\",\"params\":[" + params + "],\"id\":1}");
+	}
+
+	@Override
+	public void map(String message, StreamingMarketDataSource.Listener listener) throws IOException {
+		JsonNode node = json.readTree(message);
+		// combined streams wrap each event
+		if (node.has("data"))
+			node = node.get("data");
+		Market market = marketsBySymbol.get(node.path("s").asText());
+		if (market == null)
+			return;
+		String event = node.path("e").asText();
+		if (event.equals("depthUpdate")) {
+			update.start(market, false, new Instant(node.path("E").asLong()));
+			update.setSequence(node.path("U").asLong(), node.path("u").asLong());
+			for (JsonNode level : node.path("b"))
+				update.bid(new BigDecimal(level.get(0).asText()), new BigDecimal(level.get(1).asText()));
+			for (JsonNode level : node.path("a"))
+				update.ask(new BigDecimal(level.get(0).asText()), new BigDecimal(level.get(1).asText()));
+			listener.depth(update);
+		} else if (event.equals("trade")) {
+			BigDecimal volume = new BigDecimal(node.path("q").asText());
+			// the buyer was the maker, so the taker sold
+			if (node.path("m").asBoolean())
+				volume = volume.negate();
+			listener.trade(market, new Instant(node.path("T").asLong()), node.path("t").asText(), new BigDecimal(node.path("p").asText()), volume);
+		}
+	}
+
+	static String symbol(Market market) {
+		return market.getBase().getSymbol() + market.getQuote().getSymbol();
+	}
+
+	private static final ObjectMapper json = new ObjectMapper();
+	private final Map<String, Market> marketsBySymbol = new HashMap<String, Market>();
+	private final DepthUpdate update = new DepthUpdate();
+
+}
@@ -0,0 +1,120 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cryptocoinpartners.schema.Market;
+import org.joda.time.Instant;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Bitfinex v2 raw price books and trades. Book channels start with a snapshot and then send one level at a time, with a count of zero removing
+ * it. The messages carry no per book sequence, so the mapper numbers each channel's updates itself and asks for the connection wide sequence
+ * numbers of the SEQ_ALL flag: when one of those is missed any book may have lost an update, so every book's numbering skips one and each
+ * book resyncs.
+ */
+public class BitfinexStreamMapper implements StreamMessageMapper {
+
+	@Override
+	public List<String> subscribe(Collection<Market> markets) {
+		marketsBySymbol.clear();
+		bookChannels.clear();
+		tradeChannels.clear();
+		sequences.clear();
+		lastSequence = -1;
+		List<String> messages = new ArrayList<String>();
+		messages.add("{\"event\":\"conf\",\"flags\":" + SEQ_ALL + "}");
+		for (Market market : markets) {
+			String symbol = "t" + market.getBase().getSymbol() + market.getQuote().getSymbol();
+			marketsBySymbol.put(symbol, market);
+			messages.add("{\"event\":\"subscribe\",\"channel\":\"book\",\"symbol\":\"" + symbol + "\",\"prec\":\"P0\",\"len\":\"25\"}");
+			messages.add("{\"event\":\"subscribe\",\"channel\":\"trades\",\"symbol\":\"" + symbol + "\"}");
+		}
+		return messages;
+	}
+
+	@Override
+	public void map(String message, StreamingMarketDataSource.Listener listener) throws IOException {
+		JsonNode node = json.readTree(message);
+		if (node.isObject()) {
+			if (node.path("event").asText().equals("subscribed")) {
+				Market market = marketsBySymbol.get(node.path("symbol").asText());
+				if (market != null)
+					(node.path("channel").asText().equals("book") ? bookChannels : tradeChannels).put(node.path("chanId").asLong(), market);
+			}
+			return;
+		}
+		long channel = node.path(0).asLong();
+		JsonNode payload = node.path(1);
+		// trade executions have their event name ahead of the payload
+		boolean execution = payload.asText().equals("te");
+		int fields = execution ? 3 : 2;
+		if (node.size() > fields && node.get(fields).isNumber())
+			sequenced(node.get(fields).asLong());
+
+		Market market = bookChannels.get(channel);
+		if (market != null) {
+			if (!payload.isArray())
+				return;
+			if (payload.path(0).isArray()) {
+				update.start(market, true, Instant.now());
+				for (JsonNode level : payload)
+					level(level);
+			} else {
+				update.start(market, false, Instant.now());
+				level(payload);
+			}
+			long sequence = next(market);
+			update.setSequence(sequence, sequence);
+			listener.depth(update);
+			return;
+		}
+		market = tradeChannels.get(channel);
+		if (market != null && execution) {
+			JsonNode trade = node.path(2);
+			listener.trade(market, new Instant(trade.path(1).asLong()), trade.path(0).asText(), trade.path(3).decimalValue(), trade.path(2).decimalValue());
+		}
+	}
+
+	/** [price, count, amount], with a positive amount on the bid side */
+	private void level(JsonNode level) {
+		BigDecimal price = level.path(0).decimalValue();
+		BigDecimal amount = level.path(2).decimalValue();
+		BigDecimal volume = level.path(1).asInt() == 0 ? BigDecimal.ZERO : amount;
+		if (amount.signum() > 0)
+			update.bid(price, volume);
+		else
+			update.ask(price, volume);
+	}
+
+	private void sequenced(long sequence) {
+		if (lastSequence >= 0 && sequence != lastSequence + 1)
+			for (Market market : sequences.keySet())
+				next(market);
+		lastSequence = sequence;
+	}
+
+	private long next(Market market) {
+		Long sequence = sequences.get(market);
+		long next = sequence == null ? 1 : sequence + 1;
+		sequences.put(market, next);
+		return next;
+	}
+
+	private static final int SEQ_ALL = 65536;
+	private static final ObjectMapper json = new ObjectMapper();
+	private final Map<String, Market> marketsBySymbol = new HashMap<String, Market>();
+	private final Map<Long, Market> bookChannels = new HashMap<Long, Market>();
+	private final Map<Long, Market> tradeChannels = new HashMap<Long, Market>();
+	private final Map<Market, Long> sequences = new HashMap<Market, Long>();
+	private final DepthUpdate update = new DepthUpdate();
+	private long lastSequence;
+
+}
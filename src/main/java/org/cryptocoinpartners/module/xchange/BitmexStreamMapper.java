@@ -0,0 +1,128 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cryptocoinpartners.schema.Market;
+import org.joda.time.Instant;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * BitMEX orderBookL2_25 and trade tables. A book starts with a partial, and later rows are inserted, updated and deleted by level id, the
+ * updates and deletes without their price. BitMEX does not number its messages, so the mapper numbers each book's updates itself, skipping one
+ * when a row names a level id it has not seen so the book resyncs.
+ */
+public class BitmexStreamMapper implements StreamMessageMapper {
+
+	@Override
+	public List<String> subscribe(Collection<Market> markets) {
+		marketsBySymbol.clear();
+		levels.clear();
+		sequences.clear();
+		StringBuilder args = new StringBuilder();
+		for (Market market : markets) {
+			String symbol = symbol(market);
+			marketsBySymbol.put(symbol, market);
+			levels.put(market, new HashMap<Long, Level>());
+			if (args.length() > 0)
+				args.append(',');
+			args.append("\"orderBookL2_25:").append(symbol).append("\",\"trade:").append(symbol).append('"');
+		}
+		return Collections.singletonList("{\"op\":\"subscribe\",\"args\":[" + args + "]}");
+	}
+
+	@Override
+	public void map(String message, StreamingMarketDataSource.Listener listener) throws IOException {
+		JsonNode node = json.readTree(message);
+		String table = node.path("table").asText();
+		String action = node.path("action").asText();
+		if (table.startsWith("orderBookL2")) {
+			Market market = null;
+			boolean broken = false;
+			for (JsonNode row : node.path("data")) {
+				Market rowMarket = marketsBySymbol.get(row.path("symbol").asText());
+				if (rowMarket == null)
+					continue;
+				if (rowMarket != market) {
+					if (market != null)
+						flush(market, broken, listener);
+					market = rowMarket;
+					broken = false;
+					if (action.equals("partial"))
+						levels.get(market).clear();
+					update.start(market, action.equals("partial"), Instant.now());
+				}
+				Map<Long, Level> marketLevels = levels.get(market);
+				long id = row.path("id").asLong();
+				Level level;
+				if (action.equals("partial") || action.equals("insert")) {
+					level = new Level(row.path("price").decimalValue(), row.path("side").asText().equals("Buy"));
+					marketLevels.put(id, level);
+				} else
+					level = action.equals("delete") ? marketLevels.remove(id) : marketLevels.get(id);
+				if (level == null) {
+					broken = true;
+					continue;
+				}
+				BigDecimal size = action.equals("delete") ? BigDecimal.ZERO : row.path("size").decimalValue();
+				if (level.bid)
+					update.bid(level.price, size);
+				else
+					update.ask(level.price, size);
+			}
+			if (market != null)
+				flush(market, broken, listener);
+		} else if (table.equals("trade") && action.equals("insert")) {
+			for (JsonNode row : node.path("data")) {
+				Market market = marketsBySymbol.get(row.path("symbol").asText());
+				if (market == null)
+					continue;
+				BigDecimal volume = row.path("size").decimalValue();
+				if (row.path("side").asText().equals("Sell"))
+					volume = volume.negate();
+				listener.trade(market, Instant.parse(row.path("timestamp").asText()), row.path("trdMatchID").asText(), row.path("price").decimalValue(),
+						volume);
+			}
+		}
+	}
+
+	private void flush(Market market, boolean broken, StreamingMarketDataSource.Listener listener) {
+		Long sequence = sequences.get(market);
+		long next = (sequence == null ? 0 : sequence) + (broken ? 2 : 1);
+		sequences.put(market, next);
+		update.setSequence(next, next);
+		listener.depth(update);
+	}
+
+	/** BitMEX calls bitcoin XBT */
+	static String symbol(Market market) {
+		String base = market.getBase().getSymbol();
+		return (base.equals("BTC") ? "XBT" : base) + market.getQuote().getSymbol();
+	}
+
+	private static class Level {
+
+		Level(BigDecimal price, boolean bid) {
+			this.price = price;
+			this.bid = bid;
+		}
+
+		private final BigDecimal price;
+		private final boolean bid;
+
+	}
+
+	private static final ObjectMapper json = new ObjectMapper();
+	private final Map<String, Market> marketsBySymbol = new HashMap<String, Market>();
+	private final Map<Market, Map<Long, Level>> levels = new HashMap<Market, Map<Long, Level>>();
+	private final Map<Market, Long> sequences = new HashMap<Market, Long>();
+	private final DepthUpdate update = new DepthUpdate();
+
+}
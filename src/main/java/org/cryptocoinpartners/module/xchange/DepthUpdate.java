@@ -0,0 +1,127 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+import org.cryptocoinpartners.schema.DiscreteAmount;
+import org.cryptocoinpartners.schema.Market;
+import org.joda.time.Instant;
+
+/**
+ * The level changes of one streamed book message, in counts of the market's price and volume basis. A volume of zero removes the level. Sources
+ * fill one DepthUpdate per connection and reuse it for every message, so a listener which keeps an update must {@link #copy()} it.
+ */
+public class DepthUpdate {
+
+	public DepthUpdate() {
+		this(16);
+	}
+
+	public DepthUpdate(int capacity) {
+		bids = new boolean[capacity];
+		priceCounts = new long[capacity];
+		volumeCounts = new long[capacity];
+	}
+
+	/** clears the levels and starts an update of the market, with its sequence numbers to be set once they are known */
+	public void start(Market market, boolean snapshot, Instant time) {
+		this.market = market;
+		this.snapshot = snapshot;
+		this.time = time;
+		firstSequence = 0;
+		lastSequence = 0;
+		size = 0;
+	}
+
+	public void setSequence(long firstSequence, long lastSequence) {
+		this.firstSequence = firstSequence;
+		this.lastSequence = lastSequence;
+	}
+
+	public void bid(BigDecimal price, BigDecimal volume) {
+		add(true, DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
+				DiscreteAmount.roundedCountForBasis(volume.abs(), market.getVolumeBasis()));
+	}
+
+	public void ask(BigDecimal price, BigDecimal volume) {
+		add(false, DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
+				DiscreteAmount.roundedCountForBasis(volume.abs(), market.getVolumeBasis()));
+	}
+
+	public void add(boolean bid, long priceCount, long volumeCount) {
+		if (size == priceCounts.length) {
+			bids = Arrays.copyOf(bids, size * 2);
+			priceCounts = Arrays.copyOf(priceCounts, size * 2);
+			volumeCounts = Arrays.copyOf(volumeCounts, size * 2);
+		}
+		bids[size] = bid;
+		priceCounts[size] = priceCount;
+		volumeCounts[size] = volumeCount;
+		size++;
+	}
+
+	public Market getMarket() {
+		return market;
+	}
+
+	/** true if the levels are the whole book rather than changes to it */
+	public boolean isSnapshot() {
+		return snapshot;
+	}
+
+	public Instant getTime() {
+		return time;
+	}
+
+	public long getFirstSequence() {
+		return firstSequence;
+	}
+
+	public long getLastSequence() {
+		return lastSequence;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isBid(int index) {
+		return bids[index];
+	}
+
+	public long getPriceCount(int index) {
+		return priceCounts[index];
+	}
+
+	/** positive on both sides */
+	public long getVolumeCount(int index) {
+		return volumeCounts[index];
+	}
+
+	public DepthUpdate copy() {
+		DepthUpdate copy = new DepthUpdate(Math.max(1, size));
+		copy.start(market, snapshot, time);
+		copy.setSequence(firstSequence, lastSequence);
+		System.arraycopy(bids, 0, copy.bids, 0, size);
+		System.arraycopy(priceCounts, 0, copy.priceCounts, 0, size);
+		System.arraycopy(volumeCounts, 0, copy.volumeCounts, 0, size);
+		copy.size = size;
+		return copy;
+	}
+
+	@Override
+	public String toString() {
+		return "DepthUpdate{" + market + (snapshot ? " snapshot" : "") + " seq=" + firstSequence + ".." + lastSequence + " levels=" + size + "}";
+	}
+
+	private Market market;
+	private boolean snapshot;
+	private Instant time;
+	private long firstSequence;
+	private long lastSequence;
+	private int size;
+	private boolean[] bids;
+	private long[] priceCounts;
+	private long[] volumeCounts;
+
+}
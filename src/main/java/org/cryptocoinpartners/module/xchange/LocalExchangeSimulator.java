@@ -0,0 +1,479 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.math.BigDecimal;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookSnapshot;
+import org.cryptocoinpartners.schema.LiveBook;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.RemoteEvent;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.util.EM;
+import org.cryptocoinpartners.util.MergingIterator;
+import org.cryptocoinpartners.util.QueryCursor;
+import org.java_websocket.WebSocket;
+import org.java_websocket.framing.CloseFrame;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An exchange on a localhost WebSocket which streams books and trades in Binance's diff depth and trade formats, for a
+ * {@link WebSocketMarketDataSource} with a {@link BinanceStreamMapper} to connect to without any network access. The data is either recorded
+ * Trades and Books, such as {@link #recorded} reads from the database, with each Book sent as its changes from the one before, or synthetic
+ * books on a random walk.
+ * <p>
+ * The simulator keeps the true book of each market, which it also serves as the snapshot a client resyncs from, and it can drop messages or
+ * connections to make gaps.
+ */
+public class LocalExchangeSimulator implements StreamingMarketDataSource.SnapshotSource, AutoCloseable {
+
+	/** @param messagesPerSecond the rate {@link #play} and {@link #send} keep to, or 0 for as fast as they can */
+	public LocalExchangeSimulator(Iterator<? extends RemoteEvent> events, double messagesPerSecond) {
+		this.events = events;
+		this.markets = null;
+		this.random = null;
+		this.nanosPerMessage = messagesPerSecond > 0 ? (long) (1e9 / messagesPerSecond) : 0;
+	}
+
+	/** synthetic books of twenty levels a side around a random walk, with a trade in about one message of ten */
+	public LocalExchangeSimulator(Collection<Market> markets, long seed, double messagesPerSecond) {
+		this.events = null;
+		this.markets = new ArrayList<Market>(markets);
+		this.random = new Random(seed);
+		this.nanosPerMessage = messagesPerSecond > 0 ? (long) (1e9 / messagesPerSecond) : 0;
+		for (Market market : markets) {
+			Venue venue = venue(market);
+			venue.mid = 10000;
+			for (int i = 1; i <= LEVELS; i++) {
+				venue.truth.updateBid(venue.mid - i, 1 + random.nextInt(1000));
+				venue.truth.updateAsk(venue.mid + i, 1 + random.nextInt(1000));
+			}
+		}
+	}
+
+	/** the Books and Trades of the markets between two times, in time order. Close the simulator to release the database cursors */
+	public static Iterator<RemoteEvent> recorded(Collection<Market> markets, Instant start, Instant stop, int fetchSize) {
+		List<Iterator<? extends RemoteEvent>> cursors = new ArrayList<Iterator<? extends RemoteEvent>>();
+		List<Market> marketList = new ArrayList<Market>(markets);
+		QueryCursor<Book> books = EM.queryCursor(Book.class, fetchSize, "select b from Book b where market in (?1) and time >= ?2 and time <= ?3 order by time",
+				marketList, start, stop);
+		if (books != null)
+			cursors.add(books);
+		QueryCursor<Trade> trades = EM.queryCursor(Trade.class, fetchSize,
+				"select t from Trade t where market in (?1) and time >= ?2 and time <= ?3 order by time", marketList, start, stop);
+		if (trades != null)
+			cursors.add(trades);
+		return new RecordedEvents(cursors);
+	}
+
+	/** listens on a free localhost port */
+	public void start() throws InterruptedException {
+		server = new Server();
+		server.start();
+		long deadline = System.currentTimeMillis() + 10000;
+		while (server.getPort() <= 0) {
+			if (System.currentTimeMillis() > deadline)
+				throw new IllegalStateException("LocalExchangeSimulator did not start listening");
+			Thread.sleep(10);
+		}
+		log.info("LocalExchangeSimulator listening on " + getUri());
+	}
+
+	public URI getUri() {
+		return URI.create("ws://127.0.0.1:" + server.getPort() + "/ws");
+	}
+
+	/** waits for this many connections to have subscribed */
+	public boolean awaitSubscribers(int count, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (getSubscriberCount() < count) {
+			if (System.currentTimeMillis() > deadline)
+				return false;
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	public int getSubscriberCount() {
+		int subscribers = 0;
+		for (Set<String> symbols : subscriptions.values())
+			if (!symbols.isEmpty())
+				subscribers++;
+		return subscribers;
+	}
+
+	/** sends the data on a thread of its own until it runs out or the simulator is closed */
+	public synchronized void play() {
+		if (player != null)
+			return;
+		player = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!closed && send(1000) == 1000)
+					;
+			}
+		}, "exchange-simulator");
+		player.setDaemon(true);
+		player.start();
+	}
+
+	/** sends the next messages on this thread, returning fewer than asked for if the data runs out */
+	public int send(int messages) {
+		int sent = 0;
+		long due = System.nanoTime();
+		while (sent < messages && step()) {
+			sent++;
+			if (nanosPerMessage > 0) {
+				due += nanosPerMessage;
+				long wait = due - System.nanoTime();
+				if (wait > 0)
+					LockSupport.parkNanos(wait);
+			}
+		}
+		return sent;
+	}
+
+	/** the next book messages are still applied to the true books, but not sent, so the markets they were for skip sequence numbers */
+	public synchronized void drop(int messages) {
+		dropping += messages;
+	}
+
+	/** closes every connection, as an exchange going away would */
+	public void disconnect() {
+		for (WebSocket connection : subscriptions.keySet())
+			connection.close(CloseFrame.GOING_AWAY);
+	}
+
+	/** fills the book with the true book of the market, as a REST snapshot would */
+	@Override
+	public long snapshot(Market market, LiveBook book) {
+		Venue venue = venue(market);
+		synchronized (venue) {
+			BookSnapshot truth = venue.truth.snapshot();
+			synchronized (book) {
+				book.beginReplace();
+				for (int i = 0; i < truth.getBidDepth(); i++)
+					book.stageBid(truth.getBidPriceCount(i), truth.getBidVolumeCount(i));
+				for (int i = 0; i < truth.getAskDepth(); i++)
+					book.stageAsk(truth.getAskPriceCount(i), truth.getAskVolumeCount(i));
+				book.commitReplace(truth.getTime() == null ? Instant.now() : truth.getTime(), Instant.now());
+			}
+			return venue.sequence;
+		}
+	}
+
+	/** the true book of the market */
+	public BookSnapshot getBook(Market market) {
+		Venue venue = venue(market);
+		synchronized (venue) {
+			return venue.truth.snapshot();
+		}
+	}
+
+	/** the last update id sent, or dropped, for the market */
+	public long getSequence(Market market) {
+		Venue venue = venue(market);
+		synchronized (venue) {
+			return venue.sequence;
+		}
+	}
+
+	public long getSentCount() {
+		return sentCount;
+	}
+
+	@Override
+	public void close() throws Exception {
+		closed = true;
+		if (server != null) {
+			// stopping with connections still open can deadlock the server against their selector thread, so let them close first
+			disconnect();
+			long deadline = System.currentTimeMillis() + 1000;
+			while (!subscriptions.isEmpty() && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			server.stop();
+		}
+		if (events instanceof AutoCloseable)
+			((AutoCloseable) events).close();
+	}
+
+	/** @return false when the recorded data has run out */
+	private boolean step() {
+		if (events == null) {
+			synthetic(venue(markets.get(random.nextInt(markets.size()))));
+			return true;
+		}
+		while (events.hasNext()) {
+			RemoteEvent event = events.next();
+			if (event instanceof Book) {
+				recorded((Book) event);
+				return true;
+			}
+			if (event instanceof Trade) {
+				Trade trade = (Trade) event;
+				Venue venue = venue((Market) trade.getMarket());
+				synchronized (venue) {
+					trade(venue, trade.getTime().getMillis(), trade.getPriceCount(), trade.getVolumeCount());
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void synthetic(Venue venue) {
+		synchronized (venue) {
+			if (random.nextInt(10) == 0) {
+				boolean sold = random.nextBoolean();
+				long price = sold ? venue.truth.getBestBidPriceCount() : venue.truth.getBestAskPriceCount();
+				trade(venue, System.currentTimeMillis(), price, (sold ? -1 : 1) * (1 + random.nextInt(100)));
+				return;
+			}
+			Changes changes = new Changes();
+			if (random.nextInt(10) == 0) {
+				// the walk takes out any levels it crosses
+				venue.mid += random.nextBoolean() ? 1 : -1;
+				BookSnapshot truth = venue.truth.snapshot();
+				for (int i = 0; i < truth.getBidDepth() && truth.getBidPriceCount(i) >= venue.mid; i++)
+					changes.add(true, truth.getBidPriceCount(i), 0);
+				for (int i = 0; i < truth.getAskDepth() && truth.getAskPriceCount(i) <= venue.mid; i++)
+					changes.add(false, truth.getAskPriceCount(i), 0);
+			}
+			for (int n = 1 + random.nextInt(3); n > 0; n--) {
+				boolean bid = random.nextBoolean();
+				long price = bid ? venue.mid - 1 - random.nextInt(LEVELS) : venue.mid + 1 + random.nextInt(LEVELS);
+				changes.add(bid, price, random.nextInt(4) == 0 ? 0 : 1 + random.nextInt(1000));
+			}
+			depth(venue, System.currentTimeMillis(), changes);
+		}
+	}
+
+	/** sends the levels which differ from the true book */
+	private void recorded(Book book) {
+		Venue venue = venue((Market) book.getMarket());
+		synchronized (venue) {
+			BookSnapshot truth = venue.truth.snapshot();
+			Changes changes = new Changes();
+			Map<Long, Long> levels = new HashMap<Long, Long>();
+			for (int i = 0; i < truth.getBidDepth(); i++)
+				levels.put(truth.getBidPriceCount(i), truth.getBidVolumeCount(i));
+			for (int i = 0; i < book.getBidDepth(); i++) {
+				Long volume = levels.remove(book.getBidPriceCount(i));
+				if (volume == null || volume != book.getBidVolumeCount(i))
+					changes.add(true, book.getBidPriceCount(i), book.getBidVolumeCount(i));
+			}
+			for (Long price : levels.keySet())
+				changes.add(true, price, 0);
+			levels.clear();
+			for (int i = 0; i < truth.getAskDepth(); i++)
+				levels.put(truth.getAskPriceCount(i), Math.abs(truth.getAskVolumeCount(i)));
+			for (int i = 0; i < book.getAskDepth(); i++) {
+				Long volume = levels.remove(book.getAskPriceCount(i));
+				if (volume == null || volume != Math.abs(book.getAskVolumeCount(i)))
+					changes.add(false, book.getAskPriceCount(i), Math.abs(book.getAskVolumeCount(i)));
+			}
+			for (Long price : levels.keySet())
+				changes.add(false, price, 0);
+			if (changes.size > 0)
+				depth(venue, book.getTime().getMillis(), changes);
+		}
+	}
+
+	/** applies the changes to the true book and sends them under update ids which follow on from the last, one per level */
+	private void depth(Venue venue, long time, Changes changes) {
+		long first = venue.sequence + 1;
+		venue.sequence += changes.size;
+		StringBuilder bids = new StringBuilder();
+		StringBuilder asks = new StringBuilder();
+		for (int i = 0; i < changes.size; i++) {
+			if (changes.bids[i])
+				venue.truth.updateBid(changes.prices[i], changes.volumes[i]);
+			else
+				venue.truth.updateAsk(changes.prices[i], changes.volumes[i]);
+			StringBuilder side = changes.bids[i] ? bids : asks;
+			if (side.length() > 0)
+				side.append(',');
+			side.append("[\"").append(amount(changes.prices[i], venue.market.getPriceBasis())).append("\",\"")
+					.append(amount(changes.volumes[i], venue.market.getVolumeBasis())).append("\"]");
+		}
+		venue.truth.setTime(new Instant(time), new Instant(time));
+		synchronized (this) {
+			if (dropping > 0) {
+				dropping--;
+				return;
+			}
+		}
+		broadcast(venue, "{\"e\":\"depthUpdate\",\"E\":" + time + ",\"s\":\"" + venue.symbol + "\",\"U\":" + first + ",\"u\":" + venue.sequence + ",\"b\":["
+				+ bids + "],\"a\":[" + asks + "]}");
+	}
+
+	/** @param volumeCount negative when the taker sold */
+	private void trade(Venue venue, long time, long priceCount, long volumeCount) {
+		broadcast(venue, "{\"e\":\"trade\",\"E\":" + time + ",\"s\":\"" + venue.symbol + "\",\"t\":" + (++venue.tradeId) + ",\"p\":\""
+				+ amount(priceCount, venue.market.getPriceBasis()) + "\",\"q\":\"" + amount(Math.abs(volumeCount), venue.market.getVolumeBasis())
+				+ "\",\"T\":" + time + ",\"m\":" + (volumeCount < 0) + "}");
+	}
+
+	private void broadcast(Venue venue, String message) {
+		for (Map.Entry<WebSocket, Set<String>> subscription : subscriptions.entrySet()) {
+			if (subscription.getValue().contains(venue.symbol) && subscription.getKey().isOpen()) {
+				subscription.getKey().send(message);
+				sentCount++;
+			}
+		}
+	}
+
+	private Venue venue(Market market) {
+		Venue venue = venues.get(market);
+		if (venue == null) {
+			venue = new Venue(market);
+			Venue existing = venues.putIfAbsent(market, venue);
+			if (existing != null)
+				venue = existing;
+		}
+		return venue;
+	}
+
+	private static String amount(long count, double basis) {
+		return BigDecimal.valueOf(count).multiply(BigDecimal.valueOf(basis)).toPlainString();
+	}
+
+	private class Server extends WebSocketServer {
+
+		Server() {
+			super(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		}
+
+		@Override
+		public void onOpen(WebSocket connection, ClientHandshake handshake) {
+			subscriptions.put(connection, ConcurrentHashMap.<String> newKeySet());
+		}
+
+		@Override
+		public void onClose(WebSocket connection, int code, String reason, boolean remote) {
+			subscriptions.remove(connection);
+		}
+
+		@Override
+		public void onMessage(WebSocket connection, String message) {
+			try {
+				JsonNode request = json.readTree(message);
+				Set<String> symbols = subscriptions.get(connection);
+				if (symbols == null || !request.path("method").asText().equals("SUBSCRIBE"))
+					return;
+				for (JsonNode stream : request.path("params")) {
+					String name = stream.asText();
+					symbols.add(name.substring(0, name.indexOf('@')).toUpperCase());
+				}
+				connection.send("{\"result\":null,\"id\":" + request.path("id").asLong() + "}");
+			} catch (Exception e) {
+				log.warn("LocalExchangeSimulator: could not handle " + message, e);
+			}
+		}
+
+		@Override
+		public void onError(WebSocket connection, Exception e) {
+			log.warn("LocalExchangeSimulator: " + e);
+		}
+
+	}
+
+	/** the simulator's side of a market */
+	private static class Venue {
+
+		Venue(Market market) {
+			this.market = market;
+			this.symbol = BinanceStreamMapper.symbol(market);
+			this.truth = new LiveBook(market);
+		}
+
+		private final Market market;
+		private final String symbol;
+		private final LiveBook truth;
+		private long sequence;
+		private long tradeId;
+		private long mid;
+
+	}
+
+	private static class Changes {
+
+		void add(boolean bid, long price, long volume) {
+			if (size == prices.length) {
+				bids = Arrays.copyOf(bids, size * 2);
+				prices = Arrays.copyOf(prices, size * 2);
+				volumes = Arrays.copyOf(volumes, size * 2);
+			}
+			bids[size] = bid;
+			prices[size] = price;
+			volumes[size] = volume;
+			size++;
+		}
+
+		private boolean[] bids = new boolean[8];
+		private long[] prices = new long[8];
+		private long[] volumes = new long[8];
+		private int size;
+
+	}
+
+	private static class RecordedEvents extends MergingIterator<RemoteEvent> implements AutoCloseable {
+
+		RecordedEvents(List<Iterator<? extends RemoteEvent>> cursors) {
+			super(cursors, timeComparator);
+			this.cursors = cursors;
+		}
+
+		@Override
+		public void close() throws Exception {
+			for (Iterator<? extends RemoteEvent> cursor : cursors)
+				((AutoCloseable) cursor).close();
+		}
+
+		private final List<Iterator<? extends RemoteEvent>> cursors;
+
+	}
+
+	private static final Comparator<RemoteEvent> timeComparator = new Comparator<RemoteEvent>() {
+		@Override
+		public int compare(RemoteEvent event, RemoteEvent event2) {
+			return event.getTime().compareTo(event2.getTime());
+		}
+	};
+	private static final int LEVELS = 20;
+	private static final ObjectMapper json = new ObjectMapper();
+	private static final Logger log = LoggerFactory.getLogger(LocalExchangeSimulator.class);
+	private final Iterator<? extends RemoteEvent> events;
+	private final List<Market> markets;
+	private final Random random;
+	private final long nanosPerMessage;
+	private final ConcurrentHashMap<Market, Venue> venues = new ConcurrentHashMap<Market, Venue>();
+	private final ConcurrentHashMap<WebSocket, Set<String>> subscriptions = new ConcurrentHashMap<WebSocket, Set<String>>();
+	private Server server;
+	private Thread player;
+	private volatile boolean closed;
+	private int dropping;
+	private volatile long sentCount;
+
+}
@@ -0,0 +1,26 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.cryptocoinpartners.schema.Market;
+
+/**
+ * Translates one exchange's streaming message format for a {@link WebSocketMarketDataSource}. Set the class name of the mapper for an exchange
+ * using the key:<br/>
+ * xchange.<marketname>.stream.mapper=com.foo.bar.MyMapper<br/>
+ * if you leave out the package name it is assumed to be the same as the XchangeData class. A mapper is only used by one connection at a time.
+ */
+public interface StreamMessageMapper {
+
+	/**
+	 * @return the messages which subscribe to the markets' books and trades, sent after every connect. The mapper forgets anything it kept from
+	 *         an earlier connection
+	 */
+	List<String> subscribe(Collection<Market> markets);
+
+	/** parses a message, passing each book update and trade in it to the listener. Messages it does not follow are ignored */
+	void map(String message, StreamingMarketDataSource.Listener listener) throws IOException;
+
+}
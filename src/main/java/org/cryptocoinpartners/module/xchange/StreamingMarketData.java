@@ -0,0 +1,304 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cryptocoinpartners.module.Context;
+import org.cryptocoinpartners.module.OrderBookEngine;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.BookSnapshot;
+import org.cryptocoinpartners.schema.LiveBook;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.MarketDataGapError;
+import org.cryptocoinpartners.schema.TradeFactory;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the {@link LiveBook} of each market up to date from a {@link StreamingMarketDataSource} and publishes its Books and Trades to a
+ * Context.
+ * <p>
+ * A book is only changed by updates which follow on from the last one applied. When an update skips sequence numbers, or the connection has
+ * dropped since the book was last in step, a {@link MarketDataGapError} is published and the book is refilled from the SnapshotSource, while
+ * the updates arriving meanwhile are held back. Those the snapshot already includes are then dropped and the rest applied. When the snapshot
+ * has no sequence number, the held updates are all applied over it, and the book follows on from the last of them.
+ * <p>
+ * Books are published after every update, or with a publish interval, at most once per interval for each market which has changed, so a busy
+ * market does not flood the Context.
+ */
+public class StreamingMarketData implements StreamingMarketDataSource.Listener {
+
+	/** @param publishMillis the least time between Books of one market, or 0 to publish a Book for every update */
+	public StreamingMarketData(Context context, OrderBookEngine orderBookEngine, BookFactory bookFactory, TradeFactory tradeFactory,
+			StreamingMarketDataSource.SnapshotSource snapshots, long publishMillis) {
+		this.context = context;
+		this.orderBookEngine = orderBookEngine;
+		this.bookFactory = bookFactory;
+		this.tradeFactory = tradeFactory;
+		this.snapshots = snapshots;
+		this.publishMillis = publishMillis;
+		scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "streaming-market-data");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		if (publishMillis > 0)
+			scheduler.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					for (MarketBook book : books.values())
+						publish(book);
+				}
+			}, publishMillis, publishMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void depth(DepthUpdate update) {
+		MarketBook book = book(update.getMarket());
+		synchronized (book) {
+			if (update.isSnapshot()) {
+				replace(book, update);
+				book.pending.clear();
+			} else if (book.resyncing)
+				book.pending.add(update.copy());
+			else
+				apply(book, update);
+		}
+		if (publishMillis == 0)
+			publish(book);
+	}
+
+	@Override
+	public void trade(Market market, Instant time, String remoteKey, BigDecimal price, BigDecimal volume) {
+		context.publish(tradeFactory.create(market, time, remoteKey, price, volume));
+		tradeCount.incrementAndGet();
+	}
+
+	@Override
+	public void connected() {
+	}
+
+	@Override
+	public void disconnected() {
+		for (MarketBook book : books.values())
+			synchronized (book) {
+				book.synced = false;
+			}
+	}
+
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	/** true if the market's book is following the stream, rather than waiting for its first update or a snapshot */
+	public boolean isSynced(Market market) {
+		MarketBook book = books.get(market);
+		if (book == null)
+			return false;
+		synchronized (book) {
+			return book.synced && !book.resyncing;
+		}
+	}
+
+	/** @return the sequence number of the last update applied to the market's book, or -1 if it is not known */
+	public long getSequence(Market market) {
+		MarketBook book = books.get(market);
+		if (book == null)
+			return -1;
+		synchronized (book) {
+			return book.synced ? book.sequence : -1;
+		}
+	}
+
+	public long getUpdateCount() {
+		return updateCount.get();
+	}
+
+	public long getTradeCount() {
+		return tradeCount.get();
+	}
+
+	public long getGapCount() {
+		return gapCount.get();
+	}
+
+	public long getResyncCount() {
+		return resyncCount.get();
+	}
+
+	public long getPublishedCount() {
+		return publishedCount.get();
+	}
+
+	private MarketBook book(Market market) {
+		MarketBook book = books.get(market);
+		if (book == null) {
+			book = new MarketBook(market, orderBookEngine.getLiveBook(market));
+			MarketBook existing = books.putIfAbsent(market, book);
+			if (existing != null)
+				book = existing;
+		}
+		return book;
+	}
+
+	/** applies an update which is not a snapshot to a book which is not resyncing */
+	private void apply(MarketBook book, DepthUpdate update) {
+		if (!book.synced) {
+			if (book.lastUpdate != 0)
+				gap(book, update);
+			else
+				resync(book, update);
+			return;
+		}
+		if (book.sequence >= 0) {
+			// already in the book
+			if (update.getLastSequence() <= book.sequence)
+				return;
+			if (update.getFirstSequence() > book.sequence + 1) {
+				gap(book, update);
+				return;
+			}
+		}
+		LiveBook liveBook = book.liveBook;
+		synchronized (liveBook) {
+			for (int i = 0; i < update.size(); i++) {
+				if (update.isBid(i))
+					liveBook.updateBid(update.getPriceCount(i), update.getVolumeCount(i));
+				else
+					liveBook.updateAsk(update.getPriceCount(i), update.getVolumeCount(i));
+			}
+			liveBook.setTime(update.getTime(), Instant.now());
+		}
+		followOn(book, update.getLastSequence());
+		updateCount.incrementAndGet();
+	}
+
+	private void replace(MarketBook book, DepthUpdate update) {
+		LiveBook liveBook = book.liveBook;
+		synchronized (liveBook) {
+			liveBook.beginReplace();
+			for (int i = 0; i < update.size(); i++) {
+				if (update.isBid(i))
+					liveBook.stageBid(update.getPriceCount(i), update.getVolumeCount(i));
+				else
+					liveBook.stageAsk(update.getPriceCount(i), update.getVolumeCount(i));
+			}
+			liveBook.commitReplace(update.getTime(), Instant.now());
+		}
+		followOn(book, update.getLastSequence());
+		updateCount.incrementAndGet();
+	}
+
+	private void followOn(MarketBook book, long sequence) {
+		book.synced = true;
+		book.sequence = sequence;
+		book.lastUpdate = System.currentTimeMillis();
+		book.changed = true;
+	}
+
+	private void gap(MarketBook book, DepthUpdate update) {
+		gapCount.incrementAndGet();
+		long missing = book.lastUpdate == 0 ? 0 : System.currentTimeMillis() - book.lastUpdate;
+		log.warn(this.getClass().getSimpleName() + ": " + update + " does not follow on from " + (book.synced ? book.sequence : "the last connection")
+				+ ", resyncing " + book.market);
+		context.publish(new MarketDataGapError(book.market, Duration.millis(missing)));
+		resync(book, update);
+	}
+
+	/** holds back the update, and any which follow, until the book has been refilled */
+	private void resync(final MarketBook book, DepthUpdate update) {
+		book.synced = false;
+		book.resyncing = true;
+		book.pending.clear();
+		book.pending.add(update.copy());
+		scheduler.execute(new Runnable() {
+			@Override
+			public void run() {
+				long sequence;
+				try {
+					sequence = snapshots.snapshot(book.market, book.liveBook);
+				} catch (Exception e) {
+					log.warn(StreamingMarketData.this.getClass().getSimpleName() + ": could not get a snapshot of " + book.market + ", retrying", e);
+					scheduler.schedule(this, RESYNC_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+					return;
+				}
+				resyncCount.incrementAndGet();
+				synchronized (book) {
+					book.resyncing = false;
+					followOn(book, sequence);
+					List<DepthUpdate> pending = new ArrayList<DepthUpdate>(book.pending);
+					book.pending.clear();
+					for (DepthUpdate held : pending) {
+						if (book.resyncing)
+							book.pending.add(held);
+						else
+							apply(book, held);
+					}
+				}
+				publish(book);
+			}
+		});
+	}
+
+	private void publish(MarketBook book) {
+		BookSnapshot snapshot;
+		synchronized (book) {
+			if (!book.changed || book.resyncing)
+				return;
+			book.changed = false;
+			snapshot = book.liveBook.snapshot();
+		}
+		if (snapshot.getBidDepth() == 0 || snapshot.getAskDepth() == 0)
+			return;
+		context.publish(snapshot.toBook(bookFactory));
+		publishedCount.incrementAndGet();
+	}
+
+	private static class MarketBook {
+
+		MarketBook(Market market, LiveBook liveBook) {
+			this.market = market;
+			this.liveBook = liveBook;
+		}
+
+		private final Market market;
+		private final LiveBook liveBook;
+		private final List<DepthUpdate> pending = new ArrayList<DepthUpdate>();
+		private boolean synced;
+		private boolean resyncing;
+		// -1 when the snapshot the book was filled from had no sequence number
+		private long sequence;
+		private long lastUpdate;
+		private boolean changed;
+
+	}
+
+	private static final long RESYNC_RETRY_MILLIS = 1000;
+	private static final Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.xchangeData");
+	private final Context context;
+	private final OrderBookEngine orderBookEngine;
+	private final BookFactory bookFactory;
+	private final TradeFactory tradeFactory;
+	private final StreamingMarketDataSource.SnapshotSource snapshots;
+	private final long publishMillis;
+	private final ScheduledExecutorService scheduler;
+	private final ConcurrentHashMap<Market, MarketBook> books = new ConcurrentHashMap<Market, MarketBook>();
+	private final AtomicLong updateCount = new AtomicLong();
+	private final AtomicLong tradeCount = new AtomicLong();
+	private final AtomicLong gapCount = new AtomicLong();
+	private final AtomicLong resyncCount = new AtomicLong();
+	private final AtomicLong publishedCount = new AtomicLong();
+
+}
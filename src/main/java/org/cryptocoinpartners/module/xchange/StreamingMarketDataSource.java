@@ -0,0 +1,57 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.math.BigDecimal;
+import java.util.Collection;
+
+import org.cryptocoinpartners.schema.LiveBook;
+import org.cryptocoinpartners.schema.Market;
+import org.joda.time.Instant;
+
+/**
+ * A push feed of book changes and trades for a set of markets, the streaming counterpart of polling an exchange's REST market data service.
+ * Sources deliver on their own threads, but never concurrently for one connection, and keep themselves connected until stopped.
+ *
+ * @see WebSocketMarketDataSource
+ * @see StreamingMarketData
+ */
+public interface StreamingMarketDataSource {
+
+	/** starts delivering the markets' book changes and trades to the listener, connecting in the background */
+	void start(Collection<Market> markets, Listener listener);
+
+	void stop();
+
+	boolean isConnected();
+
+	public interface Listener {
+
+		/**
+		 * Level changes which take a market's book from sequence number <code>update.getFirstSequence() - 1</code> to
+		 * <code>update.getLastSequence()</code>, or a whole book if <code>update.isSnapshot()</code>. The update is reused by the source once this
+		 * returns.
+		 */
+		void depth(DepthUpdate update);
+
+		/** @param volume negative when the taker sold */
+		void trade(Market market, Instant time, String remoteKey, BigDecimal price, BigDecimal volume);
+
+		void connected();
+
+		/** the connection dropped; sequence numbers may not carry on from where they were once it is back */
+		void disconnected();
+
+	}
+
+	/** fills a book from outside the stream, typically a REST request, when the streamed changes can no longer be applied to it */
+	public interface SnapshotSource {
+
+		/**
+		 * Replaces the levels of the book with the exchange's current ones.
+		 *
+		 * @return the sequence number of the last change the snapshot includes, or -1 if the exchange does not say
+		 */
+		long snapshot(Market market, LiveBook book) throws Exception;
+
+	}
+
+}
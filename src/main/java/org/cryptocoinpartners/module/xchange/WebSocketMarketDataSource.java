@@ -0,0 +1,224 @@
+package org.cryptocoinpartners.module.xchange;
+
+import java.net.URI;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+
+import org.cryptocoinpartners.schema.Market;
+import org.java_websocket.WebSocket;
+import org.java_websocket.client.DefaultSSLWebSocketClientFactory;
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft_17;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.framing.FramedataImpl1;
+import org.java_websocket.handshake.ServerHandshake;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Streams market data from a JSON over WebSocket feed, with a {@link StreamMessageMapper} for the exchange's message format. The source pings
+ * the server every heartbeat and drops a connection it has heard nothing on for two heartbeats. Dropped connections are reconnected after a
+ * backoff which doubles with each failed attempt, up to a maximum, and the mapper's subscriptions are sent again on every connect.
+ */
+public class WebSocketMarketDataSource implements StreamingMarketDataSource {
+
+	/**
+	 * @param heartbeatMillis how often to ping the server, or 0 to rely on the server's own heartbeats
+	 * @param backoffMillis the wait before the first reconnect attempt
+	 */
+	public WebSocketMarketDataSource(URI uri, StreamMessageMapper mapper, long heartbeatMillis, long backoffMillis, long maxBackoffMillis) {
+		this.uri = uri;
+		this.mapper = mapper;
+		this.heartbeatMillis = heartbeatMillis;
+		this.backoffMillis = backoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	@Override
+	public synchronized void start(Collection<Market> markets, Listener listener) {
+		if (scheduler != null)
+			throw new IllegalStateException(this + " is already started");
+		this.markets = new ArrayList<Market>(markets);
+		this.listener = listener;
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "stream-" + uri.getHost());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		if (heartbeatMillis > 0)
+			heartbeat = scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					heartbeat();
+				}
+			}, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+		connect();
+	}
+
+	@Override
+	public void stop() {
+		Client stopped;
+		synchronized (this) {
+			if (scheduler == null)
+				return;
+			if (heartbeat != null)
+				heartbeat.cancel(false);
+			scheduler.shutdownNow();
+			scheduler = null;
+			stopped = client;
+			client = null;
+		}
+		// closing calls back into onClose, which takes this lock
+		if (stopped != null)
+			stopped.close();
+	}
+
+	@Override
+	public boolean isConnected() {
+		return connected;
+	}
+
+	public URI getUri() {
+		return uri;
+	}
+
+	public long getMessageCount() {
+		return messageCount;
+	}
+
+	public int getReconnectCount() {
+		return reconnectCount;
+	}
+
+	@Override
+	public String toString() {
+		return "WebSocketMarketDataSource{" + uri + "}";
+	}
+
+	private synchronized void connect() {
+		if (scheduler == null)
+			return;
+		client = new Client(uri);
+		if (uri.getScheme().equals("wss")) {
+			try {
+				client.setWebSocketFactory(new DefaultSSLWebSocketClientFactory(SSLContext.getDefault()));
+			} catch (NoSuchAlgorithmException e) {
+				log.error(this + ": no SSL context for " + uri, e);
+				return;
+			}
+		}
+		client.connect();
+	}
+
+	private synchronized void reconnect(Client closed) {
+		if (scheduler == null || closed != client)
+			return;
+		long delay = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempts, 20));
+		attempts++;
+		reconnectCount++;
+		log.info(this + ": reconnecting in " + delay + "ms, attempt " + attempts);
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				connect();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void heartbeat() {
+		Client current = client;
+		if (current == null || !connected)
+			return;
+		if (System.currentTimeMillis() - lastHeard > 2 * heartbeatMillis) {
+			log.warn(this + ": nothing heard for " + (System.currentTimeMillis() - lastHeard) + "ms, reconnecting");
+			current.close();
+			return;
+		}
+		FramedataImpl1 ping = new FramedataImpl1(Framedata.Opcode.PING);
+		ping.setFin(true);
+		current.getConnection().sendFrame(ping);
+	}
+
+	private class Client extends WebSocketClient {
+
+		Client(URI uri) {
+			super(uri, new Draft_17());
+		}
+
+		@Override
+		public void onOpen(ServerHandshake handshake) {
+			log.info(WebSocketMarketDataSource.this + ": connected");
+			attempts = 0;
+			lastHeard = System.currentTimeMillis();
+			opened = true;
+			connected = true;
+			for (String subscription : mapper.subscribe(markets))
+				send(subscription);
+			listener.connected();
+		}
+
+		@Override
+		public void onMessage(String message) {
+			lastHeard = System.currentTimeMillis();
+			messageCount++;
+			try {
+				mapper.map(message, listener);
+			} catch (Exception e) {
+				log.warn(WebSocketMarketDataSource.this + ": could not handle " + message, e);
+			}
+		}
+
+		@Override
+		public void onWebsocketPong(WebSocket connection, Framedata pong) {
+			lastHeard = System.currentTimeMillis();
+		}
+
+		@Override
+		public void onClose(int code, String reason, boolean remote) {
+			log.info(WebSocketMarketDataSource.this + ": closed " + code + " " + reason);
+			if (opened) {
+				connected = false;
+				listener.disconnected();
+			}
+			reconnect(this);
+		}
+
+		@Override
+		public void onError(Exception e) {
+			log.warn(WebSocketMarketDataSource.this + ": " + e);
+		}
+
+		private boolean opened;
+
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(WebSocketMarketDataSource.class);
+	private final URI uri;
+	private final StreamMessageMapper mapper;
+	private final long heartbeatMillis;
+	private final long backoffMillis;
+	private final long maxBackoffMillis;
+	private List<Market> markets;
+	private Listener listener;
+	private ScheduledExecutorService scheduler;
+	private ScheduledFuture<?> heartbeat;
+	private volatile Client client;
+	private int attempts;
+	private int reconnectCount;
+	private volatile boolean connected;
+	private volatile long lastHeard;
+	private volatile long messageCount;
+
+}
@@ -1,6 +1,8 @@
 package org.cryptocoinpartners.module.xchange;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.net.URI;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -10,10 +12,15 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -23,18 +30,23 @@ import javax.persistence.NoResultException;
 import org.apache.commons.configuration.Configuration;
 import org.cryptocoinpartners.module.ApplicationInitializer;
 import org.cryptocoinpartners.module.Context;
-import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.module.OrderBookEngine;
 import org.cryptocoinpartners.schema.Book;
 import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.BookSnapshot;
+import org.cryptocoinpartners.schema.DiscreteAmount;
 import org.cryptocoinpartners.schema.Exchange;
 import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.LiveBook;
 import org.cryptocoinpartners.schema.Market;
 import org.cryptocoinpartners.schema.Prompt;
 import org.cryptocoinpartners.schema.SpecificOrder;
 import org.cryptocoinpartners.schema.TradeFactory;
+import org.cryptocoinpartners.service.QuoteService;
 import org.cryptocoinpartners.util.ConfigUtil;
 import org.cryptocoinpartners.util.EM;
-import org.cryptocoinpartners.util.RateLimiter;
+import org.cryptocoinpartners.util.RateLimitBucket;
+import org.cryptocoinpartners.util.RateLimitService;
 import org.cryptocoinpartners.util.XchangeUtil;
 import org.joda.time.Duration;
 import org.joda.time.Instant;
@@ -49,6 +61,8 @@ import org.knowm.xchange.service.trade.params.TradeHistoryParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.inject.Key;
+
 /**
  * @author Tim Olson
  */
@@ -56,10 +70,12 @@ import org.slf4j.LoggerFactory;
 public class XchangeData {
 
 	@Inject
-	public XchangeData(Context context, Configuration config, BookFactory bookFactory, TradeFactory tradeFactory) {
+	public XchangeData(Context context, Configuration config, BookFactory bookFactory, TradeFactory tradeFactory, OrderBookEngine orderBookEngine) {
 		instanceExists = true;
 		this.context = context;
 		this.bookFactory = bookFactory;
+		this.orderBookEngine = orderBookEngine;
+		this.publishUnchangedBooks = config.getBoolean("xchange.book.publish.unchanged", false);
 		this.tradeFactory = tradeFactory;
 		final String configPrefix = "xchange";
 		Set<String> exchangeTags = XchangeUtil.getExchangeTags();
@@ -70,6 +86,7 @@ public class XchangeData {
 			// .class the full classname of the Xchange implementation
 			// .rate.queries rate limit the number of queries to this many (default: 1)
 			// .rate.period rate limit the number of queries during this period of time (default: 1 second)
+			// .rate.weight.data the queries taken by each poll of a market's book and trades, and by each stream snapshot (default: 1)
 			// .listings identifies which Listings should be fetched from this exchange
 			Exchange exchange = XchangeUtil.getExchangeForTag(tag);
 			String prefix = configPrefix + "." + tag + '.';
@@ -81,8 +98,14 @@ public class XchangeData {
 				int lagPeriod = config.getInt(prefix + "log.lag", 0);
 				int retryCount = config.getInt(prefix + "retry", 10);
 				Duration period = Duration.millis((long) (1000 * config.getDouble(prefix + "rate.period", 1))); // rate.period in seconds
+				int weight = config.getInt(prefix + "rate.weight.data", 1);
 				final List listings = config.getList(prefix + "listings");
-				initExchange(helperClassName, streamingConfigClassName, queries, period, exchange, listings, retryCount, lagPeriod);
+				List<Market> markets = initExchange(helperClassName, streamingConfigClassName, queries, period, weight, exchange, listings, retryCount,
+						lagPeriod);
+				String streamUri = config.getString(prefix + "stream.uri", null);
+				if (markets != null && streamUri != null && !streamUri.isEmpty())
+					initStream(config, prefix, streamUri, exchange, markets, RateLimitService.getInstance().getBucket(exchange.getSymbol(), queries, period),
+							weight);
 			} else {
 				log.warn("Could not find Exchange for property \"xchange." + tag + ".*\"");
 			}
@@ -118,10 +141,17 @@ public class XchangeData {
 
 		void handleOrderBook(OrderBook orderBook);
 
+		/**
+		 * Replaces the levels of the book with the exchange's current ones, when a stream has fallen out of step with it.
+		 *
+		 * @return the sequence number of the exchange's last change the levels include, or -1 if its REST book does not say
+		 */
+		long snapshotOrderBook(org.knowm.xchange.Exchange exchange, Market market, LiveBook book) throws IOException;
+
 	}
 
-	private void initExchange(@Nullable String helperClassName, @Nullable String streamingConfigClassName, int queries, Duration per,
-			Exchange coinTraderExchange, List listings, int retryCount, int lagPeriod) {
+	private List<Market> initExchange(@Nullable String helperClassName, @Nullable String streamingConfigClassName, int queries, Duration per,
+			int weight, Exchange coinTraderExchange, List listings, int retryCount, int lagPeriod) {
 		org.knowm.xchange.Exchange xchangeExchange = XchangeUtil.getExchangeForMarket(coinTraderExchange);
 		Helper helper = null;
 		if (helperClassName != null && !helperClassName.isEmpty()) {
@@ -135,14 +165,14 @@ public class XchangeData {
 
 				} catch (InstantiationException | IllegalAccessException e) {
 					log.error("Could not initialize XchangeData because helper class " + helperClassName + " could not be instantiated ", e);
-					return;
+					return null;
 				} catch (ClassCastException e) {
 					log.error("Could not initialize XchangeData because helper class " + helperClassName + " does not implement " + Helper.class);
-					return;
+					return null;
 				}
 			} catch (ClassNotFoundException e) {
 				log.error("Could not initialize XchangeData because helper class " + helperClassName + " was not found");
-				return;
+				return null;
 			}
 		}
 
@@ -162,7 +192,8 @@ public class XchangeData {
 			markets.add(market);
 		}
 
-		RateLimiter rateLimiter = new RateLimiter(queries, per);
+		// shared with the order service for this exchange, which is served first
+		RateLimitBucket rateLimiter = RateLimitService.getInstance().getBucket(coinTraderExchange.getSymbol(), queries, per);
 
 		//   initExchange(helperClassName, streamingConfigClassName, queries, period, exchange, listings);
 
@@ -183,19 +214,22 @@ public class XchangeData {
 			logLags.put(cointraderMarket, lagPeriod);
 			//Create queues to perist trades and books.
 			if (!ApplicationInitializer.getMarketTradeQueueMap().containsKey(cointraderMarket)) {
-				ApplicationInitializer.getMarketTradeQueueMap().put(cointraderMarket, new ArrayBlockingQueue<Bar>(queueSize));
-				mergeMarketDataService.submit(context.getInjector().getInstance(ApplicationInitializer.class).new bulkMergeRunnable(
+				ApplicationInitializer.getMarketTradeQueueMap().put(cointraderMarket,
+						ApplicationInitializer.createQueue("trade", "trades-" + cointraderMarket.getSymbol()));
+				mergeMarketDataService.submit(new ApplicationInitializer.batchMergeRunnable(
 						ApplicationInitializer.getMarketTradeQueueMap().get(cointraderMarket)));
 			}
 			if (!ApplicationInitializer.getMarketBookQueueMap().containsKey(cointraderMarket)) {
 
-				ApplicationInitializer.getMarketBookQueueMap().put(cointraderMarket, new ArrayBlockingQueue<Bar>(queueSize));
-				mergeMarketDataService.submit(context.getInjector().getInstance(ApplicationInitializer.class).new bulkMergeRunnable(
+				ApplicationInitializer.getMarketBookQueueMap().put(cointraderMarket,
+						ApplicationInitializer.createQueue("book", "books-" + cointraderMarket.getSymbol()));
+				mergeMarketDataService.submit(new ApplicationInitializer.batchMergeRunnable(
 						ApplicationInitializer.getMarketBookQueueMap().get(cointraderMarket)));
 				//mergeRunnable runable = new ApplicationInitializer().new mergeRunnable( new ArrayBlockingQueue<Bar>(queueSize));
 			}
 
-			rateLimiter.execute(new FetchTradesRunnable(context, coinTraderExchange, cointraderMarket, rateLimiter));
+			rateLimiter.execute(new FetchTradesRunnable(context, coinTraderExchange, cointraderMarket, rateLimiter, weight),
+					weight, RateLimitBucket.Priority.MARKET_DATA);
 		}
 
 		// for (Iterator<Market> im = markets.iterator(); im.hasNext(); )
@@ -206,10 +240,85 @@ public class XchangeData {
 		// for (Iterator<Market> im = markets.iterator(); im.hasNext(); )
 		//   market = im.next();
 
-		return;
+		return markets;
 
 	}
 
+	/**
+	 * Streams the exchange's books and trades over a WebSocket, with the StreamMessageMapper for its message format set in the module
+	 * configuration using the key:<br/>
+	 * xchange.<marketname>.stream.mapper=com.foo.bar.MyMapper<br/>
+	 * Books which fall out of step with the stream are refilled by a REST poll.
+	 */
+	private void initStream(Configuration config, String prefix, String streamUri, final Exchange coinTraderExchange, List<Market> markets,
+			final RateLimitBucket rateLimiter, final int weight) {
+		String mapperClassName = config.getString(prefix + "stream.mapper", null);
+		if (mapperClassName == null || mapperClassName.isEmpty()) {
+			log.error("Could not stream " + coinTraderExchange + " because " + prefix + "stream.mapper is not set");
+			return;
+		}
+		if (mapperClassName.indexOf('.') == -1)
+			mapperClassName = XchangeData.class.getPackage().getName() + '.' + mapperClassName;
+		StreamMessageMapper mapper;
+		try {
+			mapper = (StreamMessageMapper) getClass().getClassLoader().loadClass(mapperClassName).newInstance();
+		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+			log.error("Could not stream " + coinTraderExchange + " because mapper class " + mapperClassName + " could not be instantiated", e);
+			return;
+		}
+		long publishMillis = config.getLong(prefix + "stream.publish.ms", config.getLong("xchange.stream.publish.ms", 100));
+		long heartbeatMillis = config.getLong(prefix + "stream.heartbeat.ms", config.getLong("xchange.stream.heartbeat.ms", 10000));
+		long backoffMillis = config.getLong(prefix + "stream.backoff.ms", config.getLong("xchange.stream.backoff.ms", 500));
+		long maxBackoffMillis = config.getLong(prefix + "stream.backoff.max.ms", config.getLong("xchange.stream.backoff.max.ms", 30000));
+		StreamingMarketDataSource.SnapshotSource snapshots = new StreamingMarketDataSource.SnapshotSource() {
+			@Override
+			public long snapshot(Market market, LiveBook book) throws Exception {
+				// a snapshot is a book query like a poll's, so it waits its turn in the exchange's rate limit
+				rateLimiter.acquire(weight, RateLimitBucket.Priority.MARKET_DATA);
+				Helper helper = XchangeUtil.getHelperForExchange(coinTraderExchange);
+				return (helper == null ? defaultHelper : helper).snapshotOrderBook(XchangeUtil.getExchangeForMarket(coinTraderExchange), market, book);
+			}
+		};
+		final StreamingMarketData handler = new StreamingMarketData(context, orderBookEngine, bookFactory, tradeFactory, snapshots, publishMillis);
+		StreamingMarketDataSource stream = new WebSocketMarketDataSource(URI.create(streamUri), mapper, heartbeatMillis, backoffMillis,
+				maxBackoffMillis);
+		stream.start(markets, new StreamingMarketDataSource.Listener() {
+			@Override
+			public void depth(DepthUpdate update) {
+				handler.depth(update);
+			}
+
+			@Override
+			public void trade(Market market, Instant time, String remoteKey, BigDecimal price, BigDecimal volume) {
+				handler.trade(market, time, remoteKey, price, volume);
+				// so polling carries on from the last streamed trade if the stream drops
+				try {
+					raise(lastTradeIds, market, Long.parseLong(remoteKey));
+				} catch (NumberFormatException e) {
+					// not every exchange numbers its trades
+				}
+				raise(lastTradeTimes, market, time.getMillis());
+			}
+
+			@Override
+			public void connected() {
+				handler.connected();
+			}
+
+			@Override
+			public void disconnected() {
+				handler.disconnected();
+			}
+		});
+		streams.put(coinTraderExchange, stream);
+		log.info("Streaming " + markets + " from " + streamUri);
+	}
+
+	/** sets the market's value if it has none or the new one is higher, without losing a concurrent update */
+	private static void raise(ConcurrentHashMap<Market, Long> values, Market market, long value) {
+		values.merge(market, value, max);
+	}
+
 	public Collection<org.cryptocoinpartners.schema.Trade> getTrades(Market market, Exchange coinTraderExchange) throws Throwable {
 
 		Prompt prompt = market.getListing().getPrompt();
@@ -395,27 +504,32 @@ public class XchangeData {
 			if (XchangeUtil.getHelperForExchange(coinTraderExchange) != null)
 				XchangeUtil.getHelperForExchange(coinTraderExchange).handleOrderBook(orderBook);
 			log.trace("Attempting create book from: " + orderBook);
-			Book book = bookFactory.create(new Instant(orderBook.getTimeStamp()), market);
-			LimitOrder limitOrder;
-			// sort lowerst to highest limit price
-			List<LimitOrder> asks = orderBook.getAsks();
-			log.trace("Attempting to sort asks: " + asks);
-
-			Collections.sort(asks, limitPriceComparator);
-			// sort highest to lowest limit price
-			List<LimitOrder> bids = orderBook.getBids();
-			log.trace("Attempting to sort bids: " + bids);
-
-			Collections.sort(bids, Collections.reverseOrder(limitPriceComparator));
-			// need to sort bids
-			for (Iterator<LimitOrder> itb = bids.iterator(); itb.hasNext(); book.addBid(limitOrder.getLimitPrice(), limitOrder.getOriginalAmount()))
-				limitOrder = itb.next();
-
-			// neet to sort asks
-			for (Iterator<LimitOrder> ita = asks.iterator(); ita.hasNext(); book.addAsk(limitOrder.getLimitPrice(), limitOrder.getOriginalAmount()))
-				limitOrder = ita.next();
-
-			book.build();
+			// apply the snapshot to the live book for the market, only materialising a Book when the levels have changed
+			LiveBook liveBook = orderBookEngine.getLiveBook(market);
+			BookSnapshot snapshot;
+			synchronized (liveBook) {
+				liveBook.beginReplace();
+				for (LimitOrder bid : orderBook.getBids())
+					liveBook.stageBid(DiscreteAmount.roundedCountForBasis(bid.getLimitPrice(), market.getPriceBasis()),
+							DiscreteAmount.roundedCountForBasis(bid.getOriginalAmount(), market.getVolumeBasis()));
+				for (LimitOrder ask : orderBook.getAsks())
+					liveBook.stageAsk(DiscreteAmount.roundedCountForBasis(ask.getLimitPrice(), market.getPriceBasis()),
+							DiscreteAmount.roundedCountForBasis(ask.getOriginalAmount(), market.getVolumeBasis()));
+				Instant bookTime = orderBook.getTimeStamp() == null ? Instant.now() : new Instant(orderBook.getTimeStamp());
+				Instant timeReceived = Instant.now();
+				int changes = liveBook.commitReplace(bookTime, timeReceived);
+				if (changes == 0 && !publishUnchangedBooks) {
+					log.trace("Book for " + market + " unchanged since last poll");
+					failedBookCounts.put(market, 0);
+					// nothing is published, so tell the quote service the market is still live
+					QuoteService quotes = getQuoteService();
+					if (quotes != null)
+						quotes.bookUnchanged(market, timeReceived);
+					return null;
+				}
+				snapshot = liveBook.snapshot();
+			}
+			Book book = snapshot.toBook(bookFactory);
 			//        log.debug("publish book:" + book.getId());
 
 			failedBookCounts.put(market, 0);
@@ -453,25 +567,39 @@ public class XchangeData {
 
 	}
 
+	/** the quote service when one is attached, looked up on first use since it may be attached after this module */
+	private QuoteService getQuoteService() {
+		if (quoteService == null && context.getInjector().getInjector().getExistingBinding(Key.get(QuoteService.class)) != null)
+			quoteService = context.getInjector().getInstance(QuoteService.class);
+		return quoteService;
+	}
+
 	private class FetchTradesRunnable implements Runnable {
 		DateFormat dateFormat = new SimpleDateFormat("ddMMyy");
 
 		//    @Nullable String helperClassName, @Nullable String streamingConfigClassName, int queries, Duration per,
 		//  Exchange coinTraderExchange, List listings
 
-		public FetchTradesRunnable(Context context, Exchange coinTraderExchange, Market market, RateLimiter rateLimiter) {
+		public FetchTradesRunnable(Context context, Exchange coinTraderExchange, Market market, RateLimitBucket rateLimiter, int weight) {
 
 			this.coinTraderExchange = coinTraderExchange;
 			this.context = context;
 			this.market = market;
 			this.rateLimiter = rateLimiter;
+			this.weight = weight;
 
 		}
 
 		@Override
 		public void run() {
+			StreamingMarketDataSource stream = streams.get(coinTraderExchange);
+			if (stream != null && stream.isConnected()) {
+				// the stream is delivering, so wait for it to drop without spending queries
+				awaitStreamDrop(stream);
+				return;
+			}
 			try {
-				rateLimiter.execute(this); // run again. requeue in case we die!
+				rateLimiter.execute(this, weight, RateLimitBucket.Priority.MARKET_DATA); // run again. requeue in case we die!
 				//   Thread.sleep(15000);
 				Book book = getBook(market, coinTraderExchange);
 				Collection<org.cryptocoinpartners.schema.Trade> trades = getTrades(market, coinTraderExchange);
@@ -492,20 +620,33 @@ public class XchangeData {
 			}
 		}
 
+		private void awaitStreamDrop(final StreamingMarketDataSource stream) {
+			streamChecks.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (stream.isConnected())
+						streamChecks.schedule(this, STREAM_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+					else
+						rateLimiter.execute(FetchTradesRunnable.this, weight, RateLimitBucket.Priority.MARKET_DATA);
+				}
+			}, STREAM_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+		}
+
 		// private final Book.Builder bookBuilder = new Book.Builder();
 
 		private final Exchange coinTraderExchange;
 
-		private final RateLimiter rateLimiter;
+		private final RateLimitBucket rateLimiter;
+		private final int weight;
 		private final Context context;
 		private final Market market;
 
 	}
 
-	private static final Comparator<LimitOrder> limitPriceComparator = new Comparator<LimitOrder>() {
+	private static final BiFunction<Long, Long, Long> max = new BiFunction<Long, Long, Long>() {
 		@Override
-		public int compare(LimitOrder event, LimitOrder event2) {
-			return event.getLimitPrice().compareTo(event2.getLimitPrice());
+		public Long apply(Long current, Long value) {
+			return Math.max(current, value);
 		}
 	};
 
@@ -523,20 +664,34 @@ public class XchangeData {
 	};
 	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.xchangeData");
 	private final BookFactory bookFactory;
+	private final OrderBookEngine orderBookEngine;
+	private final boolean publishUnchangedBooks;
 	private final boolean orderByTime = true;
 	private final TradeFactory tradeFactory;
 
-	private static int queueSize = ConfigUtil.combined().getInt("db.writer.queue.length", 10000);
 	private static ExecutorService mergeMarketDataService = Executors.newCachedThreadPool();
+	private static final long STREAM_CHECK_MILLIS = 5000;
+	private static final ScheduledExecutorService streamChecks = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "xchange-stream-checks");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
 
 	//  @Inject
 	//protected EntityManager entityManager;
-	private final HashMap<Market, Long> lastTradeIds = new HashMap<Market, Long>();
-	private final HashMap<Market, Long> lastTradeTimes = new HashMap<Market, Long>();
+	// written by the stream's thread as well as the polling one
+	private final ConcurrentHashMap<Market, Long> lastTradeIds = new ConcurrentHashMap<Market, Long>();
+	private final ConcurrentHashMap<Market, Long> lastTradeTimes = new ConcurrentHashMap<Market, Long>();
+	private final Helper defaultHelper = new XchangeHelperBase();
 	private final HashMap<Market, Integer> failedTradeCounts = new HashMap<Market, Integer>();
 	private final HashMap<Market, Integer> failedBookCounts = new HashMap<Market, Integer>();
 	private final HashMap<Market, Integer> retryCounts = new HashMap<Market, Integer>();
 	private final HashMap<Market, Integer> logLags = new HashMap<Market, Integer>();
+	private final Map<Exchange, StreamingMarketDataSource> streams = new ConcurrentHashMap<Exchange, StreamingMarketDataSource>();
 	private final Context context;
+	private volatile QuoteService quoteService;
 	private static boolean instanceExists = false;
 }
@@ -1,13 +1,21 @@
 package org.cryptocoinpartners.module.xchange;
 
+import java.io.IOException;
 import java.util.Collection;
 
+import org.cryptocoinpartners.schema.DiscreteAmount;
 import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.LiveBook;
+import org.cryptocoinpartners.schema.Market;
 import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.util.XchangeUtil;
+import org.joda.time.Instant;
+import org.knowm.xchange.Exchange;
 import org.knowm.xchange.dto.Order;
 import org.knowm.xchange.dto.Order.OrderType;
 import org.knowm.xchange.dto.marketdata.OrderBook;
 import org.knowm.xchange.dto.marketdata.Trades;
+import org.knowm.xchange.dto.trade.LimitOrder;
 import org.knowm.xchange.service.trade.TradeService;
 import org.knowm.xchange.service.trade.params.TradeHistoryParams;
 import org.knowm.xchange.service.trade.params.TradeHistoryParamsAll;
@@ -48,6 +56,25 @@ public class XchangeHelperBase implements XchangeData.Helper {
 	public void handleOrderBook(OrderBook orderBook) {
 	}
 
+	/** polls the exchange's generic order book, which has no sequence number */
+	@Override
+	public long snapshotOrderBook(Exchange exchange, Market market, LiveBook book) throws IOException {
+		OrderBook orderBook = exchange.getMarketDataService().getOrderBook(XchangeUtil.getCurrencyPairForListing(market.getListing()),
+				getOrderBookParameters(market.getListing()));
+		handleOrderBook(orderBook);
+		synchronized (book) {
+			book.beginReplace();
+			for (LimitOrder bid : orderBook.getBids())
+				book.stageBid(DiscreteAmount.roundedCountForBasis(bid.getLimitPrice(), market.getPriceBasis()),
+						DiscreteAmount.roundedCountForBasis(bid.getOriginalAmount(), market.getVolumeBasis()));
+			for (LimitOrder ask : orderBook.getAsks())
+				book.stageAsk(DiscreteAmount.roundedCountForBasis(ask.getLimitPrice(), market.getPriceBasis()),
+						DiscreteAmount.roundedCountForBasis(ask.getOriginalAmount(), market.getVolumeBasis()));
+			book.commitReplace(orderBook.getTimeStamp() == null ? Instant.now() : new Instant(orderBook.getTimeStamp()), Instant.now());
+		}
+		return -1;
+	}
+
 	@Override
 	public org.knowm.xchange.dto.Order adjustOrder(SpecificOrder specificOrder, org.knowm.xchange.dto.Order xchangeOrder) {
 		return xchangeOrder;
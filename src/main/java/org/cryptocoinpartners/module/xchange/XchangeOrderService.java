@@ -46,7 +46,8 @@ import org.cryptocoinpartners.schema.SpecificOrder;
 import org.cryptocoinpartners.schema.Tradeable;
 import org.cryptocoinpartners.service.PortfolioService;
 import org.cryptocoinpartners.util.EM;
-import org.cryptocoinpartners.util.RateLimiter;
+import org.cryptocoinpartners.util.RateLimitBucket;
+import org.cryptocoinpartners.util.RateLimitService;
 import org.cryptocoinpartners.util.Remainder;
 import org.cryptocoinpartners.util.XchangeUtil;
 import org.joda.time.Duration;
@@ -63,7 +64,6 @@ import org.knowm.xchange.exceptions.NotYetImplementedForExchangeException;
 import org.knowm.xchange.service.trade.TradeService;
 import org.knowm.xchange.service.trade.params.TradeHistoryParams;
 
-import com.google.common.collect.HashBiMap;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Sets.SetView;
 
@@ -84,7 +84,9 @@ public class XchangeOrderService extends BaseOrderService {
 
 	private final Context context;
 	private static final HashMap<Market, Long> lastFillTimes = new HashMap<Market, Long>();
-	private static final HashMap<Exchange, RateLimiter> rateLimiters = new HashMap<Exchange, RateLimiter>();
+	private static final HashMap<Exchange, RateLimitBucket> rateLimiters = new HashMap<Exchange, RateLimitBucket>();
+	private static final HashMap<Exchange, Duration> pollPeriods = new HashMap<Exchange, Duration>();
+	private static final HashMap<Exchange, Integer> tradeWeights = new HashMap<Exchange, Integer>();
 
 	@Inject
 	public XchangeOrderService(Context context, Configuration config, FillFactory fillFactory) {
@@ -99,6 +101,8 @@ public class XchangeOrderService extends BaseOrderService {
 			// .class the full classname of the Xchange implementation
 			// .rate.queries rate limit the number of queries to this many (default: 1)
 			// .rate.period rate limit the number of queries during this period of time (default: 1 second)
+			// .rate.weight.orders the queries taken by each poll of a market's orders and fills (default: 2)
+			// .rate.weight.trade the queries taken by placing or cancelling an order (default: 1)
 			// .listings identifies which Listings should be fetched from this exchange
 			org.cryptocoinpartners.schema.Exchange exchange = XchangeUtil.getExchangeForTag(tag);
 			String prefix = configPrefix + "." + tag + '.';
@@ -109,10 +113,12 @@ public class XchangeOrderService extends BaseOrderService {
 				int queries = config.getInt(prefix + "rate.queries", 1);
 				int retryCount = config.getInt(prefix + "retry", 10);
 
-				Duration period = Duration.millis((long) (2000 * config.getDouble(prefix + "rate.period", 1))); // rate.period in seconds
+				Duration period = Duration.millis((long) (1000 * config.getDouble(prefix + "rate.period", 1))); // rate.period in seconds
+				int ordersWeight = config.getInt(prefix + "rate.weight.orders", 2);
+				tradeWeights.put(exchange, config.getInt(prefix + "rate.weight.trade", 1));
 				final List listings = config.getList(prefix + "listings");
 
-				initExchange(helperClassName, streamingConfigClassName, retryCount, queries, period, exchange, listings);
+				initExchange(helperClassName, streamingConfigClassName, retryCount, queries, period, ordersWeight, exchange, listings);
 			} else {
 				log.warn("Could not find Exchange for property \"xchange." + tag + ".*\"");
 			}
@@ -120,7 +126,7 @@ public class XchangeOrderService extends BaseOrderService {
 	}
 
 	private void initExchange(@Nullable String helperClassName, @Nullable String streamingConfigClassName, int retryCount, int queries, Duration per,
-			Exchange coinTraderExchange, List listings) {
+			int ordersWeight, Exchange coinTraderExchange, List listings) {
 		org.knowm.xchange.Exchange xchangeExchange = XchangeUtil.getExchangeForMarket(coinTraderExchange);
 		Helper helper = null;
 		if (helperClassName != null && !helperClassName.isEmpty()) {
@@ -156,14 +162,18 @@ public class XchangeOrderService extends BaseOrderService {
 
 		//    PollingTradeService dataService = xchangeExchange.getPollingTradeService();
 		// when 
-		RateLimiter rateLimiter = new RateLimiter(queries, per);
+		// shared with the market data service for this exchange, but orders are served first
+		RateLimitBucket rateLimiter = RateLimitService.getInstance().getBucket(coinTraderExchange.getSymbol(), queries, per);
 		rateLimiters.put(coinTraderExchange, rateLimiter);
+		// orders used to be polled on a limiter of their own with twice the period, which helpers still use as the poll window
+		pollPeriods.put(coinTraderExchange, per.multipliedBy(2));
 		for (Market cointraderMarket : markets) {
 
 			// add to various shared mapps
 			lastFillTimes.put(cointraderMarket, 0L);
 
-			rateLimiter.execute(new FetchOrdersRunnable(context, cointraderMarket, rateLimiter, coinTraderExchange, retryCount, helper));
+			rateLimiter.execute(new FetchOrdersRunnable(context, cointraderMarket, rateLimiter, ordersWeight, coinTraderExchange, retryCount, helper),
+					ordersWeight, RateLimitBucket.Priority.ORDERS);
 		}
 
 		return;
@@ -215,6 +225,7 @@ public class XchangeOrderService extends BaseOrderService {
 			// todo put on a queue
 			try {
 				//TODO if this failed like we place a clsoing order it jsut get's rejected but we have not reverted teh stack correctly
+				acquireTradingPermit(specificOrder.getMarket().getExchange());
 				synchronized (tradeService) {
 
 					specificOrder.setRemoteKey(tradeService.placeLimitOrder(limitOrder));
@@ -270,6 +281,7 @@ public class XchangeOrderService extends BaseOrderService {
 			//			MarketOrder marketOrder = new MarketOrder(orderType, tradeableVolume, currencyPair, id, timestamp);
 			// todo put on a queue
 			try {
+				acquireTradingPermit(specificOrder.getMarket().getExchange());
 				synchronized (tradeService) {
 
 					specificOrder.setRemoteKey(tradeService.placeMarketOrder(marketOrder));
@@ -331,23 +343,21 @@ public class XchangeOrderService extends BaseOrderService {
 				openOrders = tradeService.getOpenOrders();
 			}
 			for (LimitOrder xchangeOrder : openOrders.getOpenOrders()) {
-				for (org.cryptocoinpartners.schema.Order cointraderOrder : orderStateMap.keySet()) {
-					if (cointraderOrder instanceof SpecificOrder) {
-						specificOrder = (SpecificOrder) cointraderOrder;
-						if (xchangeOrder.getId().equals(specificOrder.getRemoteKey()) && specificOrder.getMarket().equals(market)) {
-							Fill fill = createFill(xchangeOrder, specificOrder);
-							if (fill != null)
-								handleFillProcessing(fill);
-
-							if (!adaptOrderState(xchangeOrder.getStatus()).equals(orderStateMap.get(specificOrder)))
-								if (adaptOrderState(xchangeOrder.getStatus()) != OrderState.FILLED
-										|| adaptOrderState(xchangeOrder.getStatus()) != OrderState.PARTFILLED)
-									updateOrderState(specificOrder, adaptOrderState(xchangeOrder.getStatus()), true);
-
-							pendingOrders.add(specificOrder);
-							exists = true;
-							break;
-						}
+				org.cryptocoinpartners.schema.Order cointraderOrder = orderStateMap.getOrder(market.getExchange(), xchangeOrder.getId());
+				if (cointraderOrder instanceof SpecificOrder) {
+					specificOrder = (SpecificOrder) cointraderOrder;
+					if (specificOrder.getMarket().equals(market)) {
+						Fill fill = createFill(xchangeOrder, specificOrder);
+						if (fill != null)
+							handleFillProcessing(fill);
+
+						if (!adaptOrderState(xchangeOrder.getStatus()).equals(orderStateMap.get(specificOrder)))
+							if (adaptOrderState(xchangeOrder.getStatus()) != OrderState.FILLED
+									|| adaptOrderState(xchangeOrder.getStatus()) != OrderState.PARTFILLED)
+								updateOrderState(specificOrder, adaptOrderState(xchangeOrder.getStatus()), true);
+
+						pendingOrders.add(specificOrder);
+						exists = true;
 					}
 				}
 
@@ -397,7 +407,7 @@ public class XchangeOrderService extends BaseOrderService {
 			Map<Listing, List<String>> openOrdersXchangeIds = new HashMap<Listing, List<String>>();
 			//		new ArrayList<String>();
 
-			for (org.cryptocoinpartners.schema.Order cointraderOrder : getPendingOrders()) {
+			for (org.cryptocoinpartners.schema.Order cointraderOrder : orderStateMap.getOpenOrders(coinTraderExchange)) {
 				if (XchangeUtil.getCurrencyPairForListing(cointraderOrder.getMarket().getListing()).equals(pair)
 						&& cointraderOrder.getMarket().getExchange().equals(coinTraderExchange)) {
 
@@ -608,6 +618,7 @@ public class XchangeOrderService extends BaseOrderService {
 										long updateVolumeCount = DiscreteAmount.roundedCountForBasis(xchangeOrder.getOriginalAmount(), market.getVolumeBasis());
 										specificOpenOrder.setVolumeCount(updateVolumeCount);
 										specificOpenOrder.setUnfilledVolumeCount(updateVolumeCount);
+										orderStateMap.index(specificOpenOrder);
 									}
 									cointraderXchangeOrders.add(xchangeOrder);
 									isOpen = true;
@@ -711,6 +722,13 @@ public class XchangeOrderService extends BaseOrderService {
 
 	//  FetchOrdersRunnable.
 
+	/** waits for the exchange's rate limit, ahead of any queued polls */
+	private static void acquireTradingPermit(Exchange exchange) throws InterruptedException {
+		RateLimitBucket rateLimiter = rateLimiters.get(exchange);
+		if (rateLimiter != null)
+			rateLimiter.acquire(tradeWeights.get(exchange), RateLimitBucket.Priority.TRADING);
+	}
+
 	private class FetchOrdersRunnable implements Runnable {
 
 		private final Helper helper;
@@ -718,11 +736,12 @@ public class XchangeOrderService extends BaseOrderService {
 		private boolean firstRun;
 		private long period;
 
-		public FetchOrdersRunnable(Context context, Market market, RateLimiter rateLimiter, Exchange coinTraderExchange, int restartCount,
-				@Nullable Helper helper) {
+		public FetchOrdersRunnable(Context context, Market market, RateLimitBucket rateLimiter, int weight, Exchange coinTraderExchange,
+				int restartCount, @Nullable Helper helper) {
 			this.context = context;
 			this.market = market;
 			this.rateLimiter = rateLimiter;
+			this.weight = weight;
 			this.coinTraderExchange = coinTraderExchange;
 			//   this.tradeService = tradeService;
 			this.helper = helper;
@@ -735,7 +754,7 @@ public class XchangeOrderService extends BaseOrderService {
 			lastTradeTime = 0;
 			lastTradeId = 0;
 			this.firstRun = true;
-			this.period = rateLimiter.getPeriod().getStandardSeconds();
+			this.period = pollPeriods.get(coinTraderExchange).getStandardSeconds();
 
 			// EntityManager entityManager = PersistUtil.createEntityManager();
 
@@ -745,6 +764,7 @@ public class XchangeOrderService extends BaseOrderService {
 			this.context = context;
 			this.market = market;
 			this.rateLimiter = null;
+			this.weight = 0;
 			this.coinTraderExchange = coinTraderExchange;
 			//   this.tradeService = tradeService;
 			this.helper = XchangeUtil.getHelperForExchange(coinTraderExchange);
@@ -768,7 +788,7 @@ public class XchangeOrderService extends BaseOrderService {
 		public void run() {
 			try {
 				if (resubmitable)
-					rateLimiter.execute(this); // requeue in case we die!
+					rateLimiter.execute(this, weight, RateLimitBucket.Priority.ORDERS); // requeue in case we die!
 				if (!getTradingEnabled())
 					return;
 				if (lastFillTimes.get(market) == null || lastFillTimes.get(market) == 0 || lastFillTimes.get(market) == null
@@ -836,7 +856,8 @@ public class XchangeOrderService extends BaseOrderService {
 
 		// private final Book.Builder bookBuilder = new Book.Builder();
 		private final boolean getTradesNext = true;
-		private final RateLimiter rateLimiter;
+		private final RateLimitBucket rateLimiter;
+		private final int weight;
 		private final Exchange coinTraderExchange;
 		private final int restartCount;
 		private final int tradeFailureCount = 0;
@@ -988,7 +1009,6 @@ public class XchangeOrderService extends BaseOrderService {
 	}
 
 	protected static final Collection<SpecificOrder> pendingOrders = new ArrayList<SpecificOrder>();
-	protected static final HashBiMap<org.knowm.xchange.dto.Order, org.knowm.xchange.dto.Order> externalOrderMap = HashBiMap.create();
 
 	@Override
 	public void init() {
@@ -1030,7 +1050,7 @@ public class XchangeOrderService extends BaseOrderService {
 			return deleted;
 		}
 		try {
-
+			acquireTradingPermit(order.getMarket().getExchange());
 			synchronized (tradeService) {
 
 				if (XchangeUtil.getHelperForExchange(order.getMarket().getExchange()) != null)
@@ -1055,8 +1075,8 @@ public class XchangeOrderService extends BaseOrderService {
 			// lets kick of a new thread to check that it is canclled we need to wait for this to complete before returning
 			getOrders(XchangeUtil.getHelperForExchange(order.getMarket().getExchange()), order.getMarket(), pair, 0, 0, contract, false,
 					order.getMarket().getExchange(), 0,
-					(rateLimiters.get(order.getMarket().getExchange()) != null
-							? rateLimiters.get(order.getMarket().getExchange()).getPeriod().getStandardSeconds()
+					(pollPeriods.get(order.getMarket().getExchange()) != null
+							? pollPeriods.get(order.getMarket().getExchange()).getStandardSeconds()
 							: 5L));
 			if (orderStateMap.get(order) != null && orderStateMap.get(order).equals(OrderState.CANCELLED))
 				deleted = true;
@@ -0,0 +1,220 @@
+package org.cryptocoinpartners.schema;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+import org.cryptocoinpartners.util.RemainderHandler;
+
+/**
+ * A mutable fixed-point sum for accounting loops, which would otherwise allocate a new Amount, and often a BigDecimal, for every plus() or
+ * times(). The sum is held as a long count of an inverted basis, like a {@link DiscreteAmount}.
+ * <p>
+ * Adding a count of a coarser basis, or of a finer basis which is a multiple of the current one, is exact: the accumulator moves to the finer
+ * basis itself. Only {@link #rescale} rounds, using the rounding mode of its RemainderHandler; remainders are not passed to the handler, as that
+ * would allocate. Anything which cannot be added exactly as a count, such as a DecimalAmount, an unrelated basis or an overflowing count, is kept
+ * aside as a BigDecimal, so the sum stays exact and only those cases allocate.
+ */
+public class AmountAccumulator {
+
+	/** starts at zero with a basis of 1, which any discrete amount refines */
+	public AmountAccumulator() {
+		this(1);
+	}
+
+	public AmountAccumulator(long iBasis) {
+		if (iBasis <= 0)
+			throw new IllegalArgumentException("iBasis must be positive: " + iBasis);
+		this.iBasis = iBasis;
+	}
+
+	public AmountAccumulator reset() {
+		count = 0;
+		spill = null;
+		return this;
+	}
+
+	public AmountAccumulator reset(long iBasis) {
+		if (iBasis <= 0)
+			throw new IllegalArgumentException("iBasis must be positive: " + iBasis);
+		this.iBasis = iBasis;
+		return reset();
+	}
+
+	public AmountAccumulator add(Amount amount) {
+		if (amount instanceof DiscreteAmount) {
+			DiscreteAmount discrete = (DiscreteAmount) amount;
+			return add(discrete.getCount(), discrete.getIBasis());
+		}
+		addSpill(amount.asBigDecimal());
+		return this;
+	}
+
+	public AmountAccumulator subtract(Amount amount) {
+		if (amount instanceof DiscreteAmount) {
+			DiscreteAmount discrete = (DiscreteAmount) amount;
+			if (discrete.getCount() != Long.MIN_VALUE)
+				return add(-discrete.getCount(), discrete.getIBasis());
+		}
+		addSpill(amount.asBigDecimal().negate());
+		return this;
+	}
+
+	/** adds count/countIBasis */
+	public AmountAccumulator add(long count, long countIBasis) {
+		try {
+			if (countIBasis != iBasis) {
+				if (iBasis % countIBasis == 0)
+					count = Math.multiplyExact(count, iBasis / countIBasis);
+				else if (countIBasis % iBasis == 0) {
+					this.count = Math.multiplyExact(this.count, countIBasis / iBasis);
+					iBasis = countIBasis;
+				} else {
+					addSpill(decimal(count, countIBasis));
+					return this;
+				}
+			}
+			this.count = Math.addExact(this.count, count);
+		} catch (ArithmeticException e) {
+			addSpill(decimal(count, countIBasis));
+		}
+		return this;
+	}
+
+	public AmountAccumulator subtract(long count, long countIBasis) {
+		if (count == Long.MIN_VALUE) {
+			addSpill(decimal(count, countIBasis).negate());
+			return this;
+		}
+		return add(-count, countIBasis);
+	}
+
+	/** adds (countA/iBasisA) * (countB/iBasisB), for example a price times a volume */
+	public AmountAccumulator addProduct(long countA, long iBasisA, long countB, long iBasisB) {
+		long product;
+		long productIBasis;
+		try {
+			product = Math.multiplyExact(countA, countB);
+			productIBasis = Math.multiplyExact(iBasisA, iBasisB);
+		} catch (ArithmeticException e) {
+			addSpill(new BigDecimal(BigInteger.valueOf(countA).multiply(BigInteger.valueOf(countB))).divide(
+					new BigDecimal(iBasisA).multiply(new BigDecimal(iBasisB)), Amount.mc));
+			return this;
+		}
+		return add(product, productIBasis);
+	}
+
+	/** converts the sum to a count of another basis, rounding with the handler's rounding mode */
+	public AmountAccumulator rescale(long newIBasis, RemainderHandler remainderHandler) {
+		if (newIBasis <= 0)
+			throw new IllegalArgumentException("iBasis must be positive: " + newIBasis);
+		RoundingMode mode = remainderHandler.getRoundingMode();
+		if (spill == null) {
+			try {
+				if (newIBasis % iBasis == 0)
+					count = Math.multiplyExact(count, newIBasis / iBasis);
+				else if (iBasis % newIBasis == 0)
+					count = divide(count, iBasis / newIBasis, mode);
+				else
+					count = divide(Math.multiplyExact(count, newIBasis), iBasis, mode);
+				iBasis = newIBasis;
+				return this;
+			} catch (ArithmeticException e) {
+				// fall through to the exact decimal conversion
+			}
+		}
+		BigDecimal total = asBigDecimal();
+		count = total.multiply(new BigDecimal(newIBasis)).setScale(0, mode).longValueExact();
+		iBasis = newIBasis;
+		spill = null;
+		return this;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getIBasis() {
+		return iBasis;
+	}
+
+	/** @return true if the whole sum is the count, with nothing kept aside as a BigDecimal */
+	public boolean isDiscrete() {
+		return spill == null;
+	}
+
+	public boolean isZero() {
+		return signum() == 0;
+	}
+
+	public int signum() {
+		if (spill == null)
+			return Long.signum(count);
+		return asBigDecimal().signum();
+	}
+
+	public BigDecimal asBigDecimal() {
+		BigDecimal total = decimal(count, iBasis);
+		return spill == null ? total : total.add(spill);
+	}
+
+	/** the sum as a DiscreteAmount when it is a count, otherwise as a DecimalAmount */
+	public Amount toAmount() {
+		if (spill == null)
+			return new DiscreteAmount(count, iBasis);
+		return new DecimalAmount(asBigDecimal());
+	}
+
+	/** divides this sum by another, as {@link Amount#divide(Amount, RemainderHandler)} does */
+	public DecimalAmount divide(AmountAccumulator divisor, RemainderHandler remainderHandler) {
+		return DecimalAmount.of(asBigDecimal().divide(divisor.asBigDecimal(), Amount.mc.getPrecision(), remainderHandler.getRoundingMode()));
+	}
+
+	/** dividend / divisor rounded with the given mode, without leaving long arithmetic */
+	public static long divide(long dividend, long divisor, RoundingMode mode) {
+		long quotient = dividend / divisor;
+		long remainder = dividend % divisor;
+		if (remainder == 0)
+			return quotient;
+		int sign = Long.signum(dividend) * Long.signum(divisor);
+		long absRemainder = Math.abs(remainder);
+		long absDivisor = Math.abs(divisor);
+		switch (mode) {
+			case DOWN:
+				return quotient;
+			case UP:
+				return quotient + sign;
+			case FLOOR:
+				return sign < 0 ? quotient - 1 : quotient;
+			case CEILING:
+				return sign > 0 ? quotient + 1 : quotient;
+			case HALF_UP:
+			case HALF_DOWN:
+			case HALF_EVEN:
+				int half = Long.compare(absRemainder, absDivisor - absRemainder);
+				if (half > 0 || (half == 0 && (mode == RoundingMode.HALF_UP || (mode == RoundingMode.HALF_EVEN && (quotient & 1) != 0))))
+					return quotient + sign;
+				return quotient;
+			default:
+				throw new ArithmeticException("rounding necessary for " + dividend + " / " + divisor);
+		}
+	}
+
+	private static BigDecimal decimal(long count, long iBasis) {
+		// the usual decimal bases convert exactly, by scale alone
+		int scale = 0;
+		for (long power = 1; power <= iBasis && power > 0; power *= 10, scale++)
+			if (power == iBasis)
+				return BigDecimal.valueOf(count, scale);
+		return new BigDecimal(count).divide(new BigDecimal(iBasis), Amount.mc);
+	}
+
+	private void addSpill(BigDecimal value) {
+		spill = spill == null ? value : spill.add(value);
+	}
+
+	private long count;
+	private long iBasis;
+	private BigDecimal spill;
+
+}
@@ -1,17 +1,13 @@
 package org.cryptocoinpartners.schema;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.math.BigDecimal;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
 
 import javax.annotation.Nullable;
 import javax.persistence.Entity;
@@ -28,6 +24,7 @@ import javax.persistence.Transient;
 import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.schema.dao.BookDao;
 import org.cryptocoinpartners.schema.dao.Dao;
+import org.cryptocoinpartners.util.ConfigUtil;
 import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.Visitor;
 import org.joda.time.Instant;
@@ -56,6 +53,8 @@ public class Book extends MarketData implements Spread {
 	 * previous full Book reaches MAX_PARENT_CHAIN_LENGTH
 	 */
 	private static final int MAX_PARENT_CHAIN_LENGTH = 20;
+	private static final BookKeyframes keyframes = new BookKeyframes(
+			ConfigUtil.combined() == null ? 32 : ConfigUtil.combined().getInt("db.book.keyframe.cache.size", 32)).register();
 	@Inject
 	protected static transient BookFactory bookFactory;
 
@@ -69,146 +68,163 @@ public class Book extends MarketData implements Spread {
 
 	private static final Object lock = new Object();
 
+	/**
+	 * The bids as Offers, highest price first. The list is a view over the primitive bid levels and only creates an Offer for a level when that
+	 * level is read. Offers added through the list are inserted where they are added, without reordering the levels.
+	 */
 	@Transient
 	public List<Offer> getBids() {
-		// synchronized (lock) {
 		resolveDiff();
 		if (bids == null)
 			return (new ArrayList<>());
-		return bids;
-		//}
+		if (bidOffers == null)
+			bidOffers = new OfferList(bids);
+		return bidOffers;
 	}
 
+	/** the asks as Offers, lowest price first. see {@link #getBids()} */
 	@Transient
 	public List<Offer> getAsks() {
-		//  synchronized (lock) {
 		resolveDiff();
 		if (asks == null)
 			return (new ArrayList<>());
-		return asks;
-		// }
+		if (askOffers == null)
+			askOffers = new OfferList(asks);
+		return askOffers;
 	}
 
-	@Override
+	/** the number of bid levels */
 	@Transient
-	public Offer getBestBid() {
-		if ((getBids() == null || getBids().isEmpty()))
-			return new Offer(getMarket(), getTime(), getTimeReceived(), 0L, 0L);
-		return getBids().get(0);
+	public int getBidDepth() {
+		resolveDiff();
+		return bids == null ? 0 : bids.size();
 	}
 
-	@Override
+	/** the number of ask levels */
 	@Transient
-	public Offer getBestBidByVolume(DiscreteAmount volume) {
-		long remainingVolume = Math.abs(volume.getCount());
+	public int getAskDepth() {
+		resolveDiff();
+		return asks == null ? 0 : asks.size();
+	}
 
-		Offer bid = getBestBid();
+	public long getBidPriceCount(int level) {
+		resolveDiff();
+		return bids.getPriceCount(level);
+	}
 
-		if (getBids() != null && !getBids().isEmpty()) {
+	public long getBidVolumeCount(int level) {
+		resolveDiff();
+		return bids.getVolumeCount(level);
+	}
 
-			bid = getBids().get(getBids().size() - 1);
+	public long getAskPriceCount(int level) {
+		resolveDiff();
+		return asks.getPriceCount(level);
+	}
 
-			for (Offer bookBid : getBids()) {
-				if (bookBid.getVolumeCount() >= remainingVolume) {
-					bid = bookBid;
-					break;
-				} else
-					remainingVolume = Math.max(remainingVolume - bid.getVolumeCount(), 0);
-			}
-		}
+	/** negative, as for ask Offers */
+	public long getAskVolumeCount(int level) {
+		resolveDiff();
+		return asks.getVolumeCount(level);
+	}
 
-		return bid;
+	@Override
+	@Transient
+	public Offer getBestBid() {
+		if (getBidDepth() == 0)
+			return new Offer(getMarket(), getTime(), getTimeReceived(), 0L, 0L);
+		return getBids().get(0);
+	}
 
+	/** @return the bid at which the cumulative bid volume reaches <code>volume</code>, or the last bid if the book is not that deep */
+	@Override
+	@Transient
+	public Offer getBestBidByVolume(DiscreteAmount volume) {
+		if (getBidDepth() == 0)
+			return getBestBid();
+		int level = bids.indexForVolume(volume.getCount());
+		return getBids().get(level < 0 ? bids.size() - 1 : level);
 	}
 
 	@Override
 	@Transient
 	public Offer getBestAsk() {
-		if ((getAsks() == null || getAsks().isEmpty())) {
+		if (getAskDepth() == 0) {
 			return new Offer(getMarket(), getTime(), getTimeReceived(), 0L, 0L);
 		}
 		return getAsks().get(0);
 	}
 
+	/** @return the ask at which the cumulative ask volume reaches <code>volume</code>, or the last ask if the book is not that deep */
 	@Override
 	@Transient
 	public Offer getBestAskByVolume(DiscreteAmount volume) {
-		long remainingVolume = Math.abs(volume.getCount()) * -1;
-		// what about not enough volume on book!
-		Offer ask = getBestAsk();
-		if (getAsks() != null && !getAsks().isEmpty()) {
-			ask = getAsks().get(getAsks().size() - 1);
-			for (Offer bookAsk : getAsks()) {
-				if (bookAsk.getVolumeCount() <= remainingVolume) {
-					ask = bookAsk;
-					break;
-				} else
-					remainingVolume = Math.min(remainingVolume - ask.getVolumeCount(), 0);
-			}
-		}
-		return ask;
+		if (getAskDepth() == 0)
+			return getBestAsk();
+		int level = asks.indexForVolume(volume.getCount());
+		return getAsks().get(level < 0 ? asks.size() - 1 : level);
 	}
 
 	@Nullable
 	@Transient
 	public DiscreteAmount getBidPrice() {
-		if (getBids().isEmpty())
+		if (getBidDepth() == 0)
 			return new DiscreteAmount(0, (getMarket()).getPriceBasis());
-		return getBids().get(0).getPrice();
+		return new DiscreteAmount(bids.getBestPriceCount(), getMarket().getPriceBasis());
 	}
 
 	@Nullable
 	@Transient
 	public DiscreteAmount getBidVolume() {
-		if (getBids().isEmpty())
+		if (getBidDepth() == 0)
 			return new DiscreteAmount(0, getMarket().getVolumeBasis());
-		return getBids().get(0).getVolume();
+		return new DiscreteAmount(bids.getBestVolumeCount(), getMarket().getVolumeBasis());
 	}
 
 	@Nullable
 	public Double getBidPriceAsDouble() {
-		if (getBids() == null || getBids().isEmpty())
+		if (getBidDepth() == 0)
 			return 0d;
-		return getBids().get(0).getPriceAsDouble();
+		return countAsDouble(bids.getBestPriceCount(), getMarket().getPriceBasis());
 	}
 
 	@Nullable
 	@Transient
 	public Double getBidPriceCountAsDouble() {
-		if (getBids() == null || getBids().isEmpty())
+		if (getBidDepth() == 0)
 			return 0d;
-		return getBids().get(0).getPriceCountAsDouble();
+		return (double) bids.getBestPriceCount();
 	}
 
 	@Nullable
 	public Double getBidVolumeAsDouble() {
-		if (getBids() == null || getBids().isEmpty())
+		if (getBidDepth() == 0)
 			return 0d;
-		return getBids().get(0).getVolumeAsDouble();
+		return countAsDouble(bids.getBestVolumeCount(), getMarket().getVolumeBasis());
 	}
 
 	@Nullable
 	@Transient
 	public Double getBidVolumeCountAsDouble() {
-		if (getBids() == null || getBids().isEmpty())
+		if (getBidDepth() == 0)
 			return 0d;
-		return getBids().get(0).getVolumeCountAsDouble();
+		return (double) bids.getBestVolumeCount();
 	}
 
 	@Nullable
 	@Transient
 	public DiscreteAmount getAskPrice() {
-		if (getAsks() == null || getAsks().isEmpty())
+		if (getAskDepth() == 0)
 			return new DiscreteAmount(0L, getMarket().getPriceBasis());
-		return getAsks().get(0).getPrice();
+		return new DiscreteAmount(asks.getBestPriceCount(), getMarket().getPriceBasis());
 	}
 
 	@Nullable
 	@Transient
 	public DiscreteAmount getAskVolume() {
-		if (getAsks() == null || getAsks().isEmpty())
+		if (getAskDepth() == 0)
 			return new DiscreteAmount(0, getMarket().getVolumeBasis());
-		return getAsks().get(0).getVolume();
+		return new DiscreteAmount(asks.getBestVolumeCount(), getMarket().getVolumeBasis());
 	}
 
 	@Override
@@ -230,33 +246,37 @@ public class Book extends MarketData implements Spread {
 	/** saved to the db for query convenience */
 	@Nullable
 	public Double getAskPriceAsDouble() {
-		if (getAsks() == null || getAsks().isEmpty())
+		if (getAskDepth() == 0)
 			return 0d;
-		return getAsks().get(0).getPriceAsDouble();
+		return countAsDouble(asks.getBestPriceCount(), getMarket().getPriceBasis());
 	}
 
 	@Nullable
 	@Transient
 	public Double getAskPriceCountAsDouble() {
-		if (getAsks() == null || getAsks().isEmpty())
+		if (getAskDepth() == 0)
 			return 0d;
-		return getAsks().get(0).getPriceCountAsDouble();
+		return (double) asks.getBestPriceCount();
 	}
 
 	/** saved to the db for query convenience */
 	@Nullable
 	public Double getAskVolumeAsDouble() {
-		if (getAsks() == null || getAsks().isEmpty())
+		if (getAskDepth() == 0)
 			return 0d;
-		return getAsks().get(0).getVolumeAsDouble();
+		return countAsDouble(asks.getBestVolumeCount(), getMarket().getVolumeBasis());
 	}
 
 	@Nullable
 	@Transient
 	public Double getAskVolumeCountAsDouble() {
-		if (getAsks() == null || getAsks().isEmpty())
+		if (getAskDepth() == 0)
 			return 0d;
-		return getAsks().get(0).getVolumeCountAsDouble();
+		return (double) asks.getBestVolumeCount();
+	}
+
+	private static double countAsDouble(long count, double basis) {
+		return ((double) count) / DiscreteAmount.invertBasis(basis);
 	}
 
 	public static class DiffResult {
@@ -266,10 +286,12 @@ public class Book extends MarketData implements Spread {
 
 	public DiffResult diff(Book previousBook) {
 		DiffResult result = new DiffResult();
-		//   synchronized (lock) {
-		diff(result, getBids(), previousBook.getBids());
-		diff(result, getAsks(), previousBook.getAsks());
-		//  }
+		getBids();
+		getAsks();
+		previousBook.getBids();
+		previousBook.getAsks();
+		diff(result, bids, bidOffers, previousBook.bids, previousBook.bidOffers);
+		diff(result, asks, askOffers, previousBook.asks, previousBook.askOffers);
 		return result;
 	}
 
@@ -281,8 +303,8 @@ public class Book extends MarketData implements Spread {
 			log.debug("test");
 		this.uuid = getUuid();
 
-		this.bids = new ArrayList<>();
-		this.asks = new ArrayList<>();
+		this.bids = new BookLevels(true);
+		this.asks = new BookLevels(false);
 		this.setTime(time);
 		this.setTimeReceived(Instant.now());
 		this.setRemoteKey(null);
@@ -296,8 +318,8 @@ public class Book extends MarketData implements Spread {
 		if (time.getMillis() == 1391306423000L)
 			log.debug("test");
 		this.uuid = getUuid();
-		this.bids = new ArrayList<>();
-		this.asks = new ArrayList<>();
+		this.bids = new BookLevels(true);
+		this.asks = new BookLevels(false);
 		this.setTime(time);
 		this.setTimeReceived(Instant.now());
 		this.setRemoteKey(remoteKey);
@@ -309,8 +331,8 @@ public class Book extends MarketData implements Spread {
 		if (time.getMillis() == 1391306423000L)
 			log.debug("test");
 		this.uuid = getUuid();
-		this.bids = new ArrayList<>();
-		this.asks = new ArrayList<>();
+		this.bids = new BookLevels(true);
+		this.asks = new BookLevels(false);
 		this.setTime(time);
 		this.setTimeReceived(timeReceived);
 		this.setRemoteKey(remoteKey);
@@ -323,8 +345,8 @@ public class Book extends MarketData implements Spread {
 			log.debug("test");
 		Tradeable market = this.getMarket();
 		synchronized (this.bids) {
-			this.bids.add(Offer.bid(market, this.getTime(), this.getTimeReceived(), DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
-					DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis())));
+			this.bids.append(DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
+					DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis()));
 		}
 		return this;
 
@@ -344,8 +366,8 @@ public class Book extends MarketData implements Spread {
 			log.debug("test");
 		Tradeable market = this.getMarket();
 		synchronized (this.asks) {
-			this.asks.add(Offer.ask(market, this.getTime(), this.getTimeReceived(), DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
-					DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis())));
+			this.asks.append(DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
+					-DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis()));
 		}
 		return this;
 
@@ -353,6 +375,40 @@ public class Book extends MarketData implements Spread {
 
 	}
 
+	/** adds a bid from counts already expressed in the market's price and volume basis */
+	public synchronized Book addBid(long priceCount, long volumeCount) {
+		synchronized (this.bids) {
+			this.bids.append(priceCount, volumeCount);
+		}
+		return this;
+	}
+
+	/** adds an ask from counts already expressed in the market's price and volume basis. the volume is given as a positive count */
+	public synchronized Book addAsk(long priceCount, long volumeCount) {
+		synchronized (this.asks) {
+			this.asks.append(priceCount, -volumeCount);
+		}
+		return this;
+	}
+
+	/** replaces all levels of this book with copies of the given sides, which must already be ordered best first */
+	public synchronized Book setLevels(BookLevels bidLevels, BookLevels askLevels) {
+		resolveDiff();
+		synchronized (this.bids) {
+			this.bids.copyFrom(bidLevels);
+		}
+		synchronized (this.asks) {
+			this.asks.copyFrom(askLevels);
+		}
+		return this;
+	}
+
+	/** a new Book with the same times, market and levels as this one, which can be handed to another Context without sharing any state */
+	public synchronized Book copy(BookFactory bookFactory) {
+		resolveDiff();
+		return bookFactory.create(getTime(), getTimeReceived(), getRemoteKey(), getMarket()).setLevels(bids, asks);
+	}
+
 	public Book build() {
 		this.sortBook();
 
@@ -413,8 +469,8 @@ public class Book extends MarketData implements Spread {
 
 			Tradeable market = book.getMarket();
 			//   synchronized (lock) {
-			book.bids.add(Offer.bid(market, book.getTime(), book.getTimeReceived(), DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
-					DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis())));
+			book.bids.append(DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
+					DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis()));
 
 			return this;
 		}
@@ -422,8 +478,8 @@ public class Book extends MarketData implements Spread {
 		public Builder addAsk(BigDecimal price, BigDecimal volume) {
 			Tradeable market = book.getMarket();
 			// synchronized (lock) {
-			book.asks.add(Offer.ask(market, book.getTime(), book.getTimeReceived(), DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
-					DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis())));
+			book.asks.append(DiscreteAmount.roundedCountForBasis(price, market.getPriceBasis()),
+					-DiscreteAmount.roundedCountForBasis(volume, market.getVolumeBasis()));
 			//  }
 
 			return this;
@@ -482,26 +538,22 @@ public class Book extends MarketData implements Spread {
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder(getMarket().toString() + " Book at " + getTime() + " bids={");
-		boolean first = true;
-		for (Offer bid : getBids()) {
-			if (first)
-				first = false;
-			else
+		double priceBasis = getMarket().getPriceBasis();
+		double volumeBasis = getMarket().getVolumeBasis();
+		for (int i = 0; i < getBidDepth(); i++) {
+			if (i > 0)
 				sb.append(';');
-			sb.append(bid.getVolumeAsDouble());
+			sb.append(countAsDouble(bids.getVolumeCount(i), volumeBasis));
 			sb.append('@');
-			sb.append(bid.getPriceAsDouble());
+			sb.append(countAsDouble(bids.getPriceCount(i), priceBasis));
 		}
 		sb.append("} asks={");
-		first = true;
-		for (Offer ask : getAsks()) {
-			if (first)
-				first = false;
-			else
+		for (int i = 0; i < getAskDepth(); i++) {
+			if (i > 0)
 				sb.append(';');
-			sb.append(ask.getVolumeAsDouble());
+			sb.append(countAsDouble(asks.getVolumeCount(i), volumeBasis));
 			sb.append('@');
-			sb.append(ask.getPriceAsDouble());
+			sb.append(countAsDouble(asks.getPriceCount(i), priceBasis));
 		}
 		sb.append('}');
 		return sb.toString();
@@ -607,15 +659,15 @@ public class Book extends MarketData implements Spread {
 	// this is separate from the empty JPA constructor.  it allows Book.Builder to start with a minimally initialized Book
 	private static Book create() {
 		Book result = new Book();
-		result.bids = new ArrayList<>();
-		result.asks = new ArrayList<>();
+		result.bids = new BookLevels(true);
+		result.asks = new BookLevels(false);
 		return result;
 	}
 
 	private Book(boolean init) {
 		Book result = new Book();
-		result.bids = new ArrayList<>();
-		result.asks = new ArrayList<>();
+		result.bids = new BookLevels(true);
+		result.asks = new BookLevels(false);
 
 	}
 
@@ -630,9 +682,9 @@ public class Book extends MarketData implements Spread {
 
 			//PersistUtil.insert(getMarket());
 			if (bids != null)
-				bidInsertionsBlob = convertQuotesToDatabaseBlob(bids);
+				bidInsertionsBlob = BookCodec.encodeLevels(bids);
 			if (asks != null)
-				askInsertionsBlob = convertQuotesToDatabaseBlob(asks);
+				askInsertionsBlob = BookCodec.encodeLevels(asks);
 			bidDeletionsBlob = null;
 			askDeletionsBlob = null;
 		} else {
@@ -651,25 +703,18 @@ public class Book extends MarketData implements Spread {
 			//.refresh(getParentBook());
 			//PersistUtil.detach(parent);
 			//  PersistUtil.refresh(getParentBook());
-			DiffBlobs bidBlobs = diff(parent.getBids(), getBids());
+			parent.resolveDiff();
+			resolveDiff();
+			DiffBlobs bidBlobs = diff(parent.bids, bids);
 			bidInsertionsBlob = bidBlobs.insertBlob;
 			bidDeletionsBlob = bidBlobs.deleteBlob;
-			DiffBlobs askBlobs = diff(parent.getAsks(), getAsks());
+			DiffBlobs askBlobs = diff(parent.asks, asks);
 			askInsertionsBlob = askBlobs.insertBlob;
 			askDeletionsBlob = askBlobs.deleteBlob;
 
 		}
 	}
 
-	@SuppressWarnings("ConstantConditions")
-	private boolean hasQuote(List<? extends Offer> list, Offer offer) {
-		for (Offer item : list) {
-			if (Long.compare(item.getPriceCount(), offer.getPriceCount()) == 0 && Long.compare(item.getVolumeCount(), offer.getVolumeCount()) == 0)
-				return true;
-		}
-		return false;
-	}
-
 	@Override
 	@PostPersist
 	public synchronized void postPersist() {
@@ -686,22 +731,38 @@ public class Book extends MarketData implements Spread {
 	private void postLoad() {
 		if (time.getMillis() == 1391306423000L)
 			log.debug("test");
-		bids = convertDatabaseBlobToQuoteList(bidInsertionsBlob);
-		asks = convertDatabaseBlobToQuoteList(askInsertionsBlob);
+		bidOffers = null;
+		askOffers = null;
+		BookKeyframes.Keyframe keyframe = parent == null ? null : keyframes.get(this);
+		if (keyframe != null) {
+			// already resolved as the parent of an earlier Book
+			bids = keyframe.bids.copy();
+			asks = keyframe.asks.copy();
+			clearBlobs();
+			parent.detach();
+			return;
+		}
+		bids = BookCodec.decodeLevels(bidInsertionsBlob, true);
+		asks = BookCodec.decodeLevels(askInsertionsBlob, false);
 		if (parent != null) {
 			needToResolveDiff = true;
 
 			parent.detach();
 
-		}
+		} else
+			keyframes.put(this, bids, asks);
 		//if (this.parent != null)
 
 		// detach();
 		// detach();
 	}
 
+	/**
+	 * Applies a Book loaded as a diff to its parent's levels. The parent's levels come from the keyframe cache when it holds them, otherwise the
+	 * parent chain is resolved. Resolving Books in the order they were persisted therefore applies each diff once.
+	 */
 	// if this is implemented as a @PostLoad, the transitive dependencies for the parent's parent are not resolved
-	private void resolveDiff() {
+	public void resolveDiff() {
 		if (time.getMillis() == 1391306423000L)
 			log.debug("test");
 		if (!needToResolveDiff)
@@ -712,25 +773,40 @@ public class Book extends MarketData implements Spread {
 		if (bidDeletionsBlob == null || askDeletionsBlob == null)
 			Log.debug("null blob");
 		// add any non-deleted entries from the parent
-		List<Integer> bidDeletionIndexes = convertDatabaseBlobToIndexList(bidDeletionsBlob); // these should be already sorted
-		List<Offer> parentBids = parent.getBids();
-		for (int i = 0; i < parentBids.size(); i++) {
-			if (!bidDeletionIndexes.contains(i))
-				//  synchronized (lock) {
-				bids.add(parentBids.get(i));
-			// }
-		}
-		List<Integer> askDeletionIndexes = convertDatabaseBlobToIndexList(askDeletionsBlob); // these should be already sorted
-		List<Offer> parentAsks = parent.getAsks();
-		for (int i = 0; i < parentAsks.size(); i++) {
-			if (!askDeletionIndexes.contains(i))
-				//   synchronized (lock) {
-				asks.add(parentAsks.get(i));
-			//    }
+		BookLevels parentBids;
+		BookLevels parentAsks;
+		BookKeyframes.Keyframe keyframe = keyframes.get(parent);
+		if (keyframe != null) {
+			parentBids = keyframe.bids;
+			parentAsks = keyframe.asks;
+		} else {
+			parent.resolveDiff();
+			parentBids = parent.bids;
+			parentAsks = parent.asks;
 		}
+		appendRetained(bids, parentBids, BookCodec.decodeIndexes(bidDeletionsBlob));
+		appendRetained(asks, parentAsks, BookCodec.decodeIndexes(askDeletionsBlob));
+		needToResolveDiff = false;
 		sortBook();
 		clearBlobs();
-		needToResolveDiff = false;
+		keyframes.put(this, bids, asks);
+	}
+
+	/** the cache of resolved Books consulted when Books stored as diffs are loaded */
+	public static BookKeyframes getKeyframes() {
+		return keyframes;
+	}
+
+	/** appends the parent levels which are not listed in the deletion indexes */
+	private static void appendRetained(BookLevels levels, BookLevels parentLevels, int[] deletionIndexes) {
+		boolean[] deleted = new boolean[parentLevels.size()];
+		for (int index : deletionIndexes)
+			if (index >= 0 && index < deleted.length)
+				deleted[index] = true;
+		for (int i = 0; i < parentLevels.size(); i++) {
+			if (!deleted[i])
+				levels.append(parentLevels.getPriceCount(i), parentLevels.getVolumeCount(i));
+		}
 	}
 
 	private void clearBlobs() {
@@ -741,167 +817,179 @@ public class Book extends MarketData implements Spread {
 		askInsertionsBlob = null;
 	}
 
-	@SuppressWarnings("ConstantConditions")
-	private static <T extends Offer> byte[] convertQuotesToDatabaseBlob(List<T> quotes) {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		try {
-			ObjectOutputStream out = new ObjectOutputStream(bos);
-			out.writeInt(quotes.size());
-			for (T quote : quotes) {
-				out.writeLong(quote.getPriceCount());
-				out.writeLong(quote.getVolumeCount());
-			}
-			out.close();
-			bos.close();
-		} catch (IOException e) {
-			throw new Error(e);
-		}
-		return bos.toByteArray();
-	}
-
-	private List<Offer> convertDatabaseBlobToQuoteList(byte[] bytes) {
-
-		if (bytes == null)
-			return new ArrayList<>();
-		if (time.getMillis() == 1391306423000L)
-			log.debug("test");
-		List<Offer> result = new ArrayList<>();
-		ByteArrayInputStream bin = new ByteArrayInputStream(bytes);
-		//noinspection EmptyCatchBlock
-		try {
-			ObjectInputStream in = new ObjectInputStream(bin);
-			int size = in.readInt();
-			for (int i = 0; i < size; i++) {
-				long price = in.readLong();
-				long volume = in.readLong();
-
-				result.add(new Offer(getMarket(), getTime(), getTimeReceived(), price, volume));
-
-			}
-			in.close();
-			bin.close();
-		} catch (IOException e) {
-			throw new Error(e);
-		}
-		return result;
+	/** this implements the public diff() */
+	private static void diff(DiffResult result, BookLevels childLevels, List<Offer> childOffers, BookLevels parentLevels, List<Offer> parentOffers) {
+		boolean[] childRetained = new boolean[childLevels.size()];
+		boolean[] parentRetained = new boolean[parentLevels.size()];
+		matchLevels(childLevels, parentLevels, childRetained, parentRetained);
+		for (int i = 0; i < childRetained.length; i++)
+			if (!childRetained[i])
+				result.newOffers.add(childOffers.get(i));
+		for (int i = 0; i < parentRetained.length; i++)
+			if (!parentRetained[i])
+				result.removedOffers.add(parentOffers.get(i));
 	}
 
-	@SuppressWarnings("ConstantConditions")
-	private static byte[] convertIndexesToDatabaseBlob(List<Integer> indexes) {
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		try {
-			ObjectOutputStream out = new ObjectOutputStream(bos);
-			out.writeInt(indexes.size());
-			for (Integer index : indexes)
-				out.writeInt(index);
-			out.close();
-			bos.close();
-		} catch (IOException e) {
-			throw new Error(e);
-		}
-		return bos.toByteArray();
+	private static class DiffBlobs {
+		byte[] insertBlob;
+		byte[] deleteBlob;
 	}
 
-	private static List<Integer> convertDatabaseBlobToIndexList(byte[] bytes) {
-		List<Integer> result = new ArrayList<>();
-		if (bytes == null)
-			return result;
-		ByteArrayInputStream bin = new ByteArrayInputStream(bytes);
-		try {
-			ObjectInputStream in = new ObjectInputStream(bin);
-			int size = in.readInt();
-			for (int i = 0; i < size; i++)
-				result.add(in.readInt());
-			in.close();
-			bin.close();
-		} catch (IOException e) {
-			throw new Error(e);
-		}
+	/** this is separate from the public diff for efficiency */
+	private static DiffBlobs diff(BookLevels parentLevels, BookLevels childLevels) {
+		boolean[] childRetained = new boolean[childLevels.size()];
+		boolean[] parentRetained = new boolean[parentLevels.size()];
+		matchLevels(childLevels, parentLevels, childRetained, parentRetained);
+		BookLevels insertions = new BookLevels(childLevels.isDescending());
+		for (int i = 0; i < childRetained.length; i++)
+			if (!childRetained[i])
+				insertions.append(childLevels.getPriceCount(i), childLevels.getVolumeCount(i));
+		int[] deletionIndexes = new int[parentRetained.length];
+		int deletions = 0;
+		for (int i = 0; i < parentRetained.length; i++)
+			if (!parentRetained[i])
+				deletionIndexes[deletions++] = i;
+		DiffBlobs result = new DiffBlobs();
+		result.insertBlob = BookCodec.encodeLevels(insertions);
+		result.deleteBlob = BookCodec.encodeIndexes(deletionIndexes, deletions);
 		return result;
 	}
 
-	/** this implements the public diff() */
-	private void diff(DiffResult result, List<? extends Offer> childQuotes, List<? extends Offer> parentQuotes) {
-		for (Offer childOffer : childQuotes) {
-			if (!hasQuote(parentQuotes, childOffer))
-				result.newOffers.add(childOffer);
+	/**
+	 * Marks the levels of each side which also appear, with the same price and volume, in the other. Both sides are normally sorted, and are
+	 * then matched in a single merge pass; otherwise each level is looked up in the other side.
+	 */
+	static void matchLevels(BookLevels a, BookLevels b, boolean[] aMatched, boolean[] bMatched) {
+		if (!a.isSorted() || !b.isSorted()) {
+			for (int i = 0; i < a.size(); i++)
+				for (int j = 0; j < b.size(); j++)
+					if (a.getPriceCount(i) == b.getPriceCount(j) && a.getVolumeCount(i) == b.getVolumeCount(j)) {
+						aMatched[i] = true;
+						bMatched[j] = true;
+					}
+			return;
 		}
-		for (Offer parentOffer : parentQuotes) {
-			if (!hasQuote(childQuotes, parentOffer))
-				result.removedOffers.add(parentOffer);
+		int i = 0;
+		int j = 0;
+		while (i < a.size() && j < b.size()) {
+			int order = a.compareLevels(i, b, j);
+			if (order < 0)
+				i++;
+			else if (order > 0)
+				j++;
+			else {
+				aMatched[i] = true;
+				bMatched[j] = true;
+				// repeated levels all match, so only move past a level once the next one differs from it
+				if (i + 1 < a.size() && a.compareLevels(i + 1, b, j) == 0)
+					i++;
+				else
+					j++;
+			}
 		}
 	}
 
-	private static class DiffBlobs {
-		byte[] insertBlob;
-		byte[] deleteBlob;
+	/**
+	 * sorts bids price high to low and asks price low to high, then by largest volume. all levels of a Book share the Book's time, so the
+	 * oldest-first ordering by time which Offers used to need is implied.
+	 */
+	public void sortBook() {
+		if (bids != null)
+			synchronized (bids) {
+				bids.sort();
+			}
+		if (asks != null)
+			synchronized (asks) {
+				asks.sort();
+			}
 	}
 
-	/** this is separate from the public diff for efficiency */
-	private DiffBlobs diff(List<? extends Offer> parentQuotes, List<? extends Offer> childQuotes) {
-		List<Offer> insertions = new ArrayList<>();
-		for (Offer childOffer : childQuotes) {
-			if (!hasQuote(parentQuotes, childOffer))
-				insertions.add(childOffer);
+	/**
+	 * List view of one side of the Book. Offers are created on first access to a level and cached until the levels change underneath the view.
+	 */
+	private class OfferList extends AbstractList<Offer> implements RandomAccess {
+
+		private OfferList(BookLevels levels) {
+			this.levels = levels;
 		}
 
-		List<Integer> deletionIndexes = new ArrayList<>();
-		for (int i = 0; i < parentQuotes.size(); i++) {
-			Offer offer = parentQuotes.get(i);
-			if (!hasQuote(childQuotes, offer))
-				deletionIndexes.add(i);
+		@Override
+		public Offer get(int index) {
+			synchronized (levels) {
+				long priceCount = levels.getPriceCount(index);
+				Offer[] cache = validCache();
+				Offer offer = cache[index];
+				if (offer == null) {
+					offer = new Offer(getMarket(), getTime(), getTimeReceived(), priceCount, levels.getVolumeCount(index));
+					cache[index] = offer;
+				}
+				return offer;
+			}
 		}
-		DiffBlobs result = new DiffBlobs();
-		result.insertBlob = convertQuotesToDatabaseBlob(insertions);
-		result.deleteBlob = convertIndexesToDatabaseBlob(deletionIndexes);
-		return result;
-	}
 
-	public void sortBook() {
-		//sort price high to low, then by oldest fist, then by largest volumes
-		Collections.sort(bids, new Comparator<Offer>() {
-			@Override
-			@SuppressWarnings("ConstantConditions")
-			public int compare(Offer bid, Offer bid2) {
+		@Override
+		public int size() {
+			return levels.size();
+		}
 
-				int pComp = bid2.getPriceCount().compareTo(bid.getPriceCount()); // high to low
-				if (pComp != 0)
-					return pComp;
+		@Override
+		public Offer set(int index, Offer offer) {
+			synchronized (levels) {
+				Offer previous = get(index);
+				levels.replaceAt(index, offer.getPriceCount(), offer.getVolumeCount());
+				Offer[] cache = validCache();
+				cache[index] = offer;
+				return previous;
+			}
+		}
 
-				int tComp = bid.getTime().compareTo(bid2.getTime()); // oldest to newest
-				if (tComp != 0)
-					return tComp;
+		@Override
+		public void add(int index, Offer offer) {
+			synchronized (levels) {
+				Offer[] cache = validCache();
+				int size = levels.size();
+				levels.insertAt(index, offer.getPriceCount(), offer.getVolumeCount());
+				if (cache.length < levels.size())
+					cache = Arrays.copyOf(cache, Math.max(levels.size(), cache.length * 2));
+				System.arraycopy(cache, index, cache, index + 1, size - index);
+				cache[index] = offer;
+				offers = cache;
+				modCount = levels.getModCount();
+			}
+		}
 
-				int vComp = bid2.getVolumeCount().compareTo(bid.getVolumeCount()); // biggest to smallest
-				if (vComp != 0)
-					return vComp;
+		@Override
+		public Offer remove(int index) {
+			synchronized (levels) {
+				Offer previous = get(index);
+				Offer[] cache = offers;
+				levels.removeAt(index);
+				System.arraycopy(cache, index + 1, cache, index, cache.length - index - 1);
+				cache[cache.length - 1] = null;
+				modCount = levels.getModCount();
+				return previous;
+			}
+		}
 
-				return System.identityHashCode(bid) - System.identityHashCode(bid2);
+		@Override
+		public void clear() {
+			synchronized (levels) {
+				levels.clear();
+				offers = null;
 			}
-		});
-		//    }
-		//sort price low to high, then by oldest fist, then by largest volume
-		Collections.sort(asks, new Comparator<Offer>() {
-			@Override
-			@SuppressWarnings("ConstantConditions")
-			public int compare(Offer ask, Offer ask2) {
-
-				int pComp = ask.getPriceCount().compareTo(ask2.getPriceCount()); // low to high
-				if (pComp != 0)
-					return pComp;
-
-				int tComp = ask.getTime().compareTo(ask2.getTime()); // oldest to newest
-				if (tComp != 0)
-					return tComp;
-
-				int vComp = ask2.getVolumeCount().compareTo(ask.getVolumeCount()); // biggest to smallest
-				if (vComp != 0)
-					return vComp;
-
-				return System.identityHashCode(ask) - System.identityHashCode(ask2);
+		}
+
+		private Offer[] validCache() {
+			if (offers == null || modCount != levels.getModCount() || offers.length < levels.size()) {
+				offers = new Offer[Math.max(levels.size(), 1)];
+				modCount = levels.getModCount();
 			}
-		});
-		//   }
+			return offers;
+		}
+
+		private final BookLevels levels;
+		private Offer[] offers;
+		private int modCount;
 	}
 
 	public <T> T find() {
@@ -978,8 +1066,10 @@ public class Book extends MarketData implements Spread {
 	// private FillJpaDao fillDao;
 	@Inject
 	protected transient BookDao bookDao;
-	private List<Offer> bids;
-	private List<Offer> asks;
+	private BookLevels bids;
+	private BookLevels asks;
+	private transient OfferList bidOffers;
+	private transient OfferList askOffers;
 	private List<Book> children;
 	private Book parent;// if this is not null, then the Book is persisted as a diff against the parent Book
 	private byte[] bidDeletionsBlob;
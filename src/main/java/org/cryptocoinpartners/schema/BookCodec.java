@@ -0,0 +1,210 @@
+package org.cryptocoinpartners.schema;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.Arrays;
+
+import org.cryptocoinpartners.util.ConfigUtil;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Encodes the levels and deletion indexes of a Book for its database blobs.
+ * <p>
+ * A blob starts with a format byte. Levels are written as a varint count followed by, for each level, the zig-zag varint difference from the
+ * previous level's price count and the zig-zag varint volume count; levels are sorted by price, so the price differences are small. Deletion
+ * indexes are written the same way as differences from the previous index. Larger blobs are LZ4 compressed when db.book.compression is lz4 and
+ * that makes them smaller.
+ * <p>
+ * Blobs written before the format byte was introduced are Java serialization streams of fixed width ints and longs, and are still read.
+ */
+final class BookCodec {
+
+	/** varint levels or indexes */
+	static final byte VARINT = 1;
+	/** VARINT, compressed with LZ4 after a varint uncompressed length */
+	static final byte VARINT_LZ4 = 2;
+	/** first byte of a Java serialization stream, which the legacy blobs are */
+	private static final byte LEGACY = (byte) 0xAC;
+
+	private static final int COMPRESSION_THRESHOLD = 128;
+	private static final boolean compress = ConfigUtil.combined() == null
+			|| ConfigUtil.combined().getString("db.book.compression", "lz4").equalsIgnoreCase("lz4");
+
+	static byte[] encodeLevels(BookLevels levels) {
+		Writer out = new Writer(1 + 5 + levels.size() * 6);
+		out.writeByte(VARINT);
+		out.writeVarLong(levels.size());
+		long previousPrice = 0;
+		for (int i = 0; i < levels.size(); i++) {
+			long price = levels.getPriceCount(i);
+			out.writeSignedVarLong(price - previousPrice);
+			out.writeSignedVarLong(levels.getVolumeCount(i));
+			previousPrice = price;
+		}
+		return out.finish();
+	}
+
+	static BookLevels decodeLevels(byte[] bytes, boolean descending) {
+		if (bytes == null || bytes.length == 0)
+			return new BookLevels(descending);
+		if (bytes[0] == LEGACY)
+			return decodeLegacyLevels(bytes, descending);
+		Reader in = new Reader(bytes);
+		int size = (int) in.readVarLong();
+		BookLevels levels = new BookLevels(descending, size);
+		long price = 0;
+		for (int i = 0; i < size; i++) {
+			price += in.readSignedVarLong();
+			levels.append(price, in.readSignedVarLong());
+		}
+		return levels;
+	}
+
+	static byte[] encodeIndexes(int[] indexes, int count) {
+		Writer out = new Writer(1 + 5 + count * 2);
+		out.writeByte(VARINT);
+		out.writeVarLong(count);
+		int previous = 0;
+		for (int i = 0; i < count; i++) {
+			out.writeSignedVarLong(indexes[i] - previous);
+			previous = indexes[i];
+		}
+		return out.finish();
+	}
+
+	static int[] decodeIndexes(byte[] bytes) {
+		if (bytes == null || bytes.length == 0)
+			return new int[0];
+		if (bytes[0] == LEGACY)
+			return decodeLegacyIndexes(bytes);
+		Reader in = new Reader(bytes);
+		int[] indexes = new int[(int) in.readVarLong()];
+		int index = 0;
+		for (int i = 0; i < indexes.length; i++) {
+			index += (int) in.readSignedVarLong();
+			indexes[i] = index;
+		}
+		return indexes;
+	}
+
+	private static BookLevels decodeLegacyLevels(byte[] bytes, boolean descending) {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			int size = in.readInt();
+			BookLevels levels = new BookLevels(descending, size);
+			for (int i = 0; i < size; i++) {
+				long price = in.readLong();
+				long volume = in.readLong();
+				levels.append(price, volume);
+			}
+			return levels;
+		} catch (IOException e) {
+			throw new Error(e);
+		}
+	}
+
+	private static int[] decodeLegacyIndexes(byte[] bytes) {
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			int[] indexes = new int[in.readInt()];
+			for (int i = 0; i < indexes.length; i++)
+				indexes[i] = in.readInt();
+			return indexes;
+		} catch (IOException e) {
+			throw new Error(e);
+		}
+	}
+
+	private static class Writer {
+
+		Writer(int capacity) {
+			buffer = new byte[capacity];
+		}
+
+		void writeByte(int b) {
+			if (position == buffer.length)
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			buffer[position++] = (byte) b;
+		}
+
+		void writeVarLong(long value) {
+			while ((value & ~0x7FL) != 0) {
+				writeByte((int) ((value & 0x7F) | 0x80));
+				value >>>= 7;
+			}
+			writeByte((int) value);
+		}
+
+		void writeSignedVarLong(long value) {
+			writeVarLong((value << 1) ^ (value >> 63));
+		}
+
+		/** @return the encoded blob, compressed if that is enabled and worthwhile */
+		byte[] finish() {
+			int length = position - 1;
+			if (!compress || length < COMPRESSION_THRESHOLD)
+				return Arrays.copyOf(buffer, position);
+			LZ4Compressor compressor = lz4.fastCompressor();
+			Writer out = new Writer(1 + 5 + compressor.maxCompressedLength(length));
+			out.writeByte(VARINT_LZ4);
+			out.writeVarLong(length);
+			int compressed = compressor.compress(buffer, 1, length, out.buffer, out.position, out.buffer.length - out.position);
+			if (out.position + compressed >= position)
+				return Arrays.copyOf(buffer, position);
+			return Arrays.copyOf(out.buffer, out.position + compressed);
+		}
+
+		private byte[] buffer;
+		private int position;
+
+	}
+
+	private static class Reader {
+
+		/** positions a reader at the first level or index of a VARINT or VARINT_LZ4 blob */
+		Reader(byte[] blob) {
+			if (blob[0] == VARINT) {
+				buffer = blob;
+				position = 1;
+			} else if (blob[0] == VARINT_LZ4) {
+				buffer = blob;
+				position = 1;
+				int length = (int) readVarLong();
+				LZ4FastDecompressor decompressor = lz4.fastDecompressor();
+				byte[] payload = new byte[length];
+				decompressor.decompress(blob, position, payload, 0, length);
+				buffer = payload;
+				position = 0;
+			} else
+				throw new IllegalArgumentException("unknown book blob format " + blob[0]);
+		}
+
+		long readVarLong() {
+			long value = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				byte b = buffer[position++];
+				value |= (long) (b & 0x7F) << shift;
+				if ((b & 0x80) == 0)
+					return value;
+			}
+			throw new IllegalArgumentException("malformed varint in book blob");
+		}
+
+		long readSignedVarLong() {
+			long value = readVarLong();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		private byte[] buffer;
+		private int position;
+
+	}
+
+	private static final LZ4Factory lz4 = LZ4Factory.fastestInstance();
+
+	private BookCodec() {
+	}
+
+}
@@ -0,0 +1,146 @@
+package org.cryptocoinpartners.schema;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The levels of recently resolved Books, kept per market so a Book loaded as a diff can be resolved against its parent's cached levels instead of
+ * walking and resolving the parent chain again. Each market keeps its most recently used Books, up to the capacity.
+ */
+public class BookKeyframes implements BookKeyframesMBean {
+
+	public BookKeyframes(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/** @return the cached levels of the Book with this id, or null */
+	@Nullable
+	Keyframe get(Book book) {
+		if (capacity <= 0 || book.getId() == null)
+			return null;
+		Map<Long, Keyframe> market = market(book, false);
+		Keyframe keyframe;
+		if (market == null)
+			keyframe = null;
+		else
+			synchronized (market) {
+				keyframe = market.get(book.getId());
+			}
+		if (keyframe == null)
+			misses.increment();
+		else
+			hits.increment();
+		return keyframe;
+	}
+
+	/** keeps a copy of the resolved levels of the Book */
+	void put(Book book, BookLevels bids, BookLevels asks) {
+		if (capacity <= 0 || book.getId() == null)
+			return;
+		Map<Long, Keyframe> market = market(book, true);
+		Keyframe keyframe = new Keyframe(bids.copy(), asks.copy());
+		synchronized (market) {
+			market.put(book.getId(), keyframe);
+		}
+	}
+
+	/** publishes the cache statistics on the platform MBean server */
+	public BookKeyframes register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("org.cryptocoinpartners.schema:type=BookKeyframes"));
+		} catch (JMException e) {
+			log.warn("Unable to register book keyframe cache metrics", e);
+		}
+		return this;
+	}
+
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public int getSize() {
+		int size = 0;
+		synchronized (markets) {
+			for (Map<Long, Keyframe> market : markets.values())
+				synchronized (market) {
+					size += market.size();
+				}
+		}
+		return size;
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	@Override
+	public void clear() {
+		synchronized (markets) {
+			markets.clear();
+		}
+	}
+
+	private Map<Long, Keyframe> market(Book book, boolean create) {
+		String symbol = book.getMarket() == null ? "" : book.getMarket().getSymbol();
+		synchronized (markets) {
+			Map<Long, Keyframe> market = markets.get(symbol);
+			if (market == null && create) {
+				market = new LinkedHashMap<Long, Keyframe>(16, 0.75f, true) {
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<Long, Keyframe> eldest) {
+						if (size() <= capacity)
+							return false;
+						evictions.increment();
+						return true;
+					}
+				};
+				markets.put(symbol, market);
+			}
+			return market;
+		}
+	}
+
+	/** the resolved levels of a Book, which are only read once cached */
+	static class Keyframe {
+
+		Keyframe(BookLevels bids, BookLevels asks) {
+			this.bids = bids;
+			this.asks = asks;
+		}
+
+		final BookLevels bids;
+		final BookLevels asks;
+
+	}
+
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.bookKeyframes");
+	private final int capacity;
+	private final Map<String, Map<Long, Keyframe>> markets = new HashMap<String, Map<Long, Keyframe>>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+}
@@ -0,0 +1,20 @@
+package org.cryptocoinpartners.schema;
+
+public interface BookKeyframesMBean {
+
+	/** resolved Books kept for each market */
+	int getCapacity();
+
+	/** resolved Books currently kept, over all markets */
+	int getSize();
+
+	/** Books or parents whose levels were taken from the cache instead of being resolved */
+	long getHits();
+
+	long getMisses();
+
+	long getEvictions();
+
+	void clear();
+
+}
@@ -0,0 +1,358 @@
+package org.cryptocoinpartners.schema;
+
+import java.util.Arrays;
+
+/**
+ * One side of an order book held as parallel primitive arrays of price and volume counts, ordered best price first. Bids are kept highest price
+ * first and asks lowest price first. Volumes use the same sign convention as {@link Offer}: positive for bids and negative for asks.
+ *
+ * Levels are located by binary search on the price count, so an update costs O(log n) to find plus a single {@link System#arraycopy} to open or
+ * close a slot. A level whose volume falls to zero is removed. Cumulative volumes used by the depth queries are computed lazily and only from the
+ * first level touched since the last query.
+ *
+ * Instances are not thread safe; callers are expected to guard them, see {@link LiveBook}.
+ */
+public class BookLevels {
+
+	private static final int DEFAULT_CAPACITY = 32;
+
+	public BookLevels(boolean descending) {
+		this(descending, DEFAULT_CAPACITY);
+	}
+
+	public BookLevels(boolean descending, int capacity) {
+		this.descending = descending;
+		this.priceCounts = new long[Math.max(capacity, 1)];
+		this.volumeCounts = new long[Math.max(capacity, 1)];
+		this.cumulativeVolumes = new long[Math.max(capacity, 1)];
+	}
+
+	/** true for a bid side, where the best price is the highest */
+	public boolean isDescending() {
+		return descending;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public long getPriceCount(int index) {
+		checkIndex(index);
+		return priceCounts[index];
+	}
+
+	public long getVolumeCount(int index) {
+		checkIndex(index);
+		return volumeCounts[index];
+	}
+
+	/** @return the best price count, or 0 when the side is empty */
+	public long getBestPriceCount() {
+		return size == 0 ? 0L : priceCounts[0];
+	}
+
+	/** @return the volume count at the best price, or 0 when the side is empty */
+	public long getBestVolumeCount() {
+		return size == 0 ? 0L : volumeCounts[0];
+	}
+
+	/**
+	 * Binary search for a price level.
+	 *
+	 * @return the index of the level, or <code>-(insertionPoint) - 1</code> when there is no level at that price
+	 */
+	public int indexOf(long priceCount) {
+		int low = 0;
+		int high = size - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midPrice = priceCounts[mid];
+			if (midPrice == priceCount)
+				return mid;
+			if (isBetter(midPrice, priceCount))
+				low = mid + 1;
+			else
+				high = mid - 1;
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Replaces the volume at a price level, inserting the level if needed. A zero volume removes the level.
+	 *
+	 * @return the index the level now occupies, or -1 if the level was removed or never existed
+	 */
+	public int set(long priceCount, long volumeCount) {
+		int index = indexOf(priceCount);
+		if (index >= 0) {
+			if (volumeCount == 0) {
+				removeAt(index);
+				return -1;
+			}
+			volumeCounts[index] = volumeCount;
+			touched(index);
+			return index;
+		}
+		if (volumeCount == 0)
+			return -1;
+		index = -index - 1;
+		insertAt(index, priceCount, volumeCount);
+		return index;
+	}
+
+	/**
+	 * Adds to the volume at a price level, inserting the level if needed. The level is removed if its volume nets to zero.
+	 *
+	 * @return the index the level now occupies, or -1 if the level was removed
+	 */
+	public int increment(long priceCount, long volumeCount) {
+		int index = indexOf(priceCount);
+		if (index >= 0)
+			return set(priceCount, volumeCounts[index] + volumeCount);
+		return set(priceCount, volumeCount);
+	}
+
+	/** @return true if a level existed at the price and was removed */
+	public boolean remove(long priceCount) {
+		int index = indexOf(priceCount);
+		if (index < 0)
+			return false;
+		removeAt(index);
+		return true;
+	}
+
+	public void removeAt(int index) {
+		checkIndex(index);
+		int tail = size - index - 1;
+		if (tail > 0) {
+			System.arraycopy(priceCounts, index + 1, priceCounts, index, tail);
+			System.arraycopy(volumeCounts, index + 1, volumeCounts, index, tail);
+		}
+		size--;
+		touched(index);
+	}
+
+	/**
+	 * Appends a level without keeping the side ordered. Used when loading a whole side at once; call {@link #sort()} once all levels have been
+	 * appended. Duplicate prices are kept as separate levels.
+	 */
+	public void append(long priceCount, long volumeCount) {
+		ensureCapacity(size + 1);
+		priceCounts[size] = priceCount;
+		volumeCounts[size] = volumeCount;
+		size++;
+		touched(size - 1);
+	}
+
+	/**
+	 * Orders the levels best price first. Levels at the same price are ordered by descending volume count, matching the ordering {@link Book} has
+	 * always used. Input from exchanges is nearly always already ordered, so an insertion sort is used, which is linear in that case.
+	 */
+	public void sort() {
+		for (int i = 1; i < size; i++) {
+			long price = priceCounts[i];
+			long volume = volumeCounts[i];
+			int j = i - 1;
+			while (j >= 0 && comesAfter(priceCounts[j], volumeCounts[j], price, volume)) {
+				priceCounts[j + 1] = priceCounts[j];
+				volumeCounts[j + 1] = volumeCounts[j];
+				j--;
+			}
+			priceCounts[j + 1] = price;
+			volumeCounts[j + 1] = volume;
+		}
+		touched(0);
+	}
+
+	/** @return true if the levels are in the order {@link #sort()} puts them in */
+	public boolean isSorted() {
+		for (int i = 1; i < size; i++)
+			if (comesAfter(priceCounts[i - 1], volumeCounts[i - 1], priceCounts[i], volumeCounts[i]))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Compares a level of this side with a level of another side of the same kind, in the order {@link #sort()} uses.
+	 *
+	 * @return negative if this side's level sorts first, positive if the other's does, and 0 if they have the same price and volume
+	 */
+	public int compareLevels(int index, BookLevels other, int otherIndex) {
+		long price = getPriceCount(index);
+		long volume = getVolumeCount(index);
+		long otherPrice = other.getPriceCount(otherIndex);
+		long otherVolume = other.getVolumeCount(otherIndex);
+		if (price == otherPrice && volume == otherVolume)
+			return 0;
+		return comesAfter(price, volume, otherPrice, otherVolume) ? 1 : -1;
+	}
+
+	/** overwrites a level in place without reordering the side, as {@link #append} does */
+	public void replaceAt(int index, long priceCount, long volumeCount) {
+		checkIndex(index);
+		priceCounts[index] = priceCount;
+		volumeCounts[index] = volumeCount;
+		touched(index);
+	}
+
+	public void clear() {
+		size = 0;
+		touched(0);
+	}
+
+	/** incremented on every change, so views over the levels can tell when they are stale */
+	int getModCount() {
+		return modCount;
+	}
+
+	/** replaces the contents of this side with a copy of <code>other</code> */
+	public void copyFrom(BookLevels other) {
+		if (other.descending != descending)
+			throw new IllegalArgumentException("cannot copy " + (other.descending ? "bids" : "asks") + " into " + (descending ? "bids" : "asks"));
+		ensureCapacity(other.size);
+		System.arraycopy(other.priceCounts, 0, priceCounts, 0, other.size);
+		System.arraycopy(other.volumeCounts, 0, volumeCounts, 0, other.size);
+		size = other.size;
+		touched(0);
+	}
+
+	public BookLevels copy() {
+		BookLevels copy = new BookLevels(descending, size);
+		copy.copyFrom(this);
+		return copy;
+	}
+
+	/** @return a trimmed copy of the price counts, best first */
+	public long[] copyPriceCounts() {
+		return Arrays.copyOf(priceCounts, size);
+	}
+
+	/** @return a trimmed copy of the volume counts, best first */
+	public long[] copyVolumeCounts() {
+		return Arrays.copyOf(volumeCounts, size);
+	}
+
+	/** @return the sum of the absolute volume counts of the first <code>levels</code> levels */
+	public long getCumulativeVolumeCount(int levels) {
+		if (levels <= 0)
+			return 0L;
+		levels = Math.min(levels, size);
+		extendCumulative(levels);
+		return cumulativeVolumes[levels - 1];
+	}
+
+	/**
+	 * Finds the level at which the absolute volume available from the best price reaches <code>volumeCount</code>.
+	 *
+	 * @return the index of that level, or -1 if the whole side holds less than the requested volume
+	 */
+	public int indexForVolume(long volumeCount) {
+		if (size == 0)
+			return -1;
+		long target = Math.abs(volumeCount);
+		if (target == 0)
+			return 0;
+		// the cumulative array is only extended as far as the query needs
+		while (cumulativeValid < size && (cumulativeValid == 0 || cumulativeVolumes[cumulativeValid - 1] < target))
+			extendCumulative(cumulativeValid + 1);
+		if (cumulativeVolumes[cumulativeValid - 1] < target)
+			return -1;
+		int low = 0;
+		int high = cumulativeValid - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulativeVolumes[mid] >= target)
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		return low;
+	}
+
+	/** @return the price count of the level at which <code>volumeCount</code> would be filled, or 0 if there is not enough depth */
+	public long getPriceCountForVolume(long volumeCount) {
+		int index = indexForVolume(volumeCount);
+		return index < 0 ? 0L : priceCounts[index];
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(descending ? "bids[" : "asks[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0)
+				sb.append(", ");
+			sb.append(priceCounts[i]).append('@').append(volumeCounts[i]);
+		}
+		return sb.append(']').toString();
+	}
+
+	/** @return true if price a is strictly better than price b for this side */
+	private boolean isBetter(long a, long b) {
+		return descending ? a > b : a < b;
+	}
+
+	private boolean comesAfter(long price, long volume, long otherPrice, long otherVolume) {
+		if (price != otherPrice)
+			return isBetter(otherPrice, price);
+		return volume < otherVolume;
+	}
+
+	/** inserts a level at the index, as {@link #append} does at the end, without keeping the side ordered */
+	public void insertAt(int index, long priceCount, long volumeCount) {
+		if (index < 0 || index > size)
+			throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+		ensureCapacity(size + 1);
+		int tail = size - index;
+		if (tail > 0) {
+			System.arraycopy(priceCounts, index, priceCounts, index + 1, tail);
+			System.arraycopy(volumeCounts, index, volumeCounts, index + 1, tail);
+		}
+		priceCounts[index] = priceCount;
+		volumeCounts[index] = volumeCount;
+		size++;
+		touched(index);
+	}
+
+	private void extendCumulative(int levels) {
+		long running = cumulativeValid == 0 ? 0L : cumulativeVolumes[cumulativeValid - 1];
+		for (int i = cumulativeValid; i < levels; i++) {
+			running += Math.abs(volumeCounts[i]);
+			cumulativeVolumes[i] = running;
+		}
+		if (levels > cumulativeValid)
+			cumulativeValid = levels;
+	}
+
+	private void touched(int index) {
+		modCount++;
+		if (index < cumulativeValid)
+			cumulativeValid = index;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= priceCounts.length)
+			return;
+		int newCapacity = Math.max(capacity, priceCounts.length + (priceCounts.length >> 1));
+		priceCounts = Arrays.copyOf(priceCounts, newCapacity);
+		volumeCounts = Arrays.copyOf(volumeCounts, newCapacity);
+		cumulativeVolumes = Arrays.copyOf(cumulativeVolumes, newCapacity);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("level " + index + " of " + size);
+	}
+
+	private final boolean descending;
+	private long[] priceCounts;
+	private long[] volumeCounts;
+	private long[] cumulativeVolumes;
+	private int cumulativeValid;
+	private int size;
+	private int modCount;
+
+}
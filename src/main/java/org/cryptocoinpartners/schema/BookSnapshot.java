@@ -0,0 +1,97 @@
+package org.cryptocoinpartners.schema;
+
+import org.joda.time.Instant;
+
+/**
+ * An immutable copy of a {@link LiveBook} taken at a point in time. Snapshots hold only primitive arrays, so they are cheap to take and to hand
+ * between threads. A {@link Book} is only materialised when one is actually needed, for example to publish or persist it.
+ */
+public class BookSnapshot {
+
+	BookSnapshot(Tradeable market, Instant time, Instant timeReceived, long sequence, BookLevels bids, BookLevels asks) {
+		this.market = market;
+		this.time = time;
+		this.timeReceived = timeReceived;
+		this.sequence = sequence;
+		this.bids = bids;
+		this.asks = asks;
+	}
+
+	public Tradeable getMarket() {
+		return market;
+	}
+
+	public Instant getTime() {
+		return time;
+	}
+
+	public Instant getTimeReceived() {
+		return timeReceived;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public int getBidDepth() {
+		return bids.size();
+	}
+
+	public int getAskDepth() {
+		return asks.size();
+	}
+
+	public long getBidPriceCount(int level) {
+		return bids.getPriceCount(level);
+	}
+
+	public long getBidVolumeCount(int level) {
+		return bids.getVolumeCount(level);
+	}
+
+	public long getAskPriceCount(int level) {
+		return asks.getPriceCount(level);
+	}
+
+	/** @return the volume count at an ask level, negative as for {@link Offer} asks */
+	public long getAskVolumeCount(int level) {
+		return asks.getVolumeCount(level);
+	}
+
+	public long getBestBidPriceCount() {
+		return bids.getBestPriceCount();
+	}
+
+	public long getBestAskPriceCount() {
+		return asks.getBestPriceCount();
+	}
+
+	public long getBestBidVolumeCount() {
+		return bids.getBestVolumeCount();
+	}
+
+	public long getBestAskVolumeCount() {
+		return asks.getBestVolumeCount();
+	}
+
+	/** builds and chains a Book holding the levels of this snapshot */
+	public Book toBook(BookFactory bookFactory) {
+		Instant bookTime = time == null ? Instant.now() : time;
+		Book book = bookFactory.create(bookTime, timeReceived == null ? Instant.now() : timeReceived, null, market);
+		return book.setLevels(bids, asks).build();
+	}
+
+	@Override
+	public String toString() {
+		return "BookSnapshot{" + market + " seq=" + sequence + " " + bids + " " + asks + "}";
+	}
+
+	private final Tradeable market;
+	private final Instant time;
+	private final Instant timeReceived;
+	private final long sequence;
+	// private copies owned by the snapshot, never mutated after construction
+	private final BookLevels bids;
+	private final BookLevels asks;
+
+}
@@ -0,0 +1,127 @@
+package org.cryptocoinpartners.schema;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cryptocoinpartners.enumeration.TransactionType;
+
+/**
+ * Running cash balances per asset of a Portfolio, posted as each Transaction is added rather than summed over every transaction on each read.
+ * <p>
+ * Postings follow the same rules as the full recomputation in BasicPortfolioService: trades move their cost in the traded asset, cash flows
+ * their cost in the currency, realised profit and loss its amount in the currency, and rebalances their amount in the currency and cost in the
+ * asset. Writers are serialized; after each posting an immutable copy of the balances is published, so readers never lock.
+ */
+public class CashLedger {
+
+	/** posts the transaction's cash movements; transactions which do not move cash are ignored */
+	public void post(Transaction transaction) {
+		apply(transaction, false);
+	}
+
+	/** undoes an earlier {@link #post(Transaction)} of the same transaction */
+	public void reverse(Transaction transaction) {
+		apply(transaction, true);
+	}
+
+	/** replaces the balances with the postings of the given transactions */
+	public synchronized void rebuild(Collection<Transaction> transactions) {
+		sums.clear();
+		for (Transaction transaction : transactions)
+			if (transaction != null)
+				accumulate(transaction, false);
+		publish();
+	}
+
+	public synchronized void clear() {
+		sums.clear();
+		publish();
+	}
+
+	/** @return an immutable snapshot of the balance of each asset posted to */
+	public Map<Asset, Amount> getBalances() {
+		return balances;
+	}
+
+	/** @return the balance of the asset, or zero if nothing has been posted to it */
+	public Amount getBalance(Asset asset) {
+		Amount balance = balances.get(asset);
+		return balance == null ? DecimalAmount.ZERO : balance;
+	}
+
+	/** @return the number of transactions posted or reversed since the ledger was created */
+	public long getPostings() {
+		return postings;
+	}
+
+	@Override
+	public String toString() {
+		return "CashLedger" + balances;
+	}
+
+	private synchronized void apply(Transaction transaction, boolean reverse) {
+		if (transaction == null || !accumulate(transaction, reverse))
+			return;
+		postings++;
+		publish();
+	}
+
+	/** @return true if the transaction moves cash */
+	private boolean accumulate(Transaction transaction, boolean reverse) {
+		TransactionType type = transaction.getType();
+		if (type == null)
+			return false;
+		switch (type) {
+			case BUY:
+			case SELL:
+				accumulate(transaction.getAsset(), transaction.getCost(), reverse);
+				return true;
+			case CREDIT:
+			case DEBIT:
+			case INTREST:
+			case FEES:
+				accumulate(transaction.getCurrency(), transaction.getCost(), reverse);
+				return true;
+			case REALISED_PROFIT_LOSS:
+				// the portfolio only books realised profit and loss which has a fill to attribute it to
+				if (transaction.getFill() == null)
+					return false;
+				accumulate(transaction.getCurrency(), transaction.getAmount(), reverse);
+				return true;
+			case REBALANCE:
+				accumulate(transaction.getCurrency(), transaction.getAmount(), reverse);
+				accumulate(transaction.getAsset(), transaction.getCost(), reverse);
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private void accumulate(Asset asset, Amount amount, boolean reverse) {
+		if (asset == null || amount == null)
+			return;
+		AmountAccumulator sum = sums.get(asset);
+		if (sum == null) {
+			sum = new AmountAccumulator();
+			sums.put(asset, sum);
+		}
+		if (reverse)
+			sum.subtract(amount);
+		else
+			sum.add(amount);
+	}
+
+	private void publish() {
+		Map<Asset, Amount> snapshot = new HashMap<Asset, Amount>(sums.size() * 2);
+		for (Map.Entry<Asset, AmountAccumulator> sum : sums.entrySet())
+			snapshot.put(sum.getKey(), sum.getValue().toAmount());
+		balances = Collections.unmodifiableMap(snapshot);
+	}
+
+	private final Map<Asset, AmountAccumulator> sums = new HashMap<Asset, AmountAccumulator>();
+	private volatile Map<Asset, Amount> balances = Collections.emptyMap();
+	private volatile long postings;
+
+}
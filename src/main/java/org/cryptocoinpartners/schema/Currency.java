@@ -1,9 +1,7 @@
 package org.cryptocoinpartners.schema;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.function.Supplier;
 
 import javax.persistence.Cacheable;
 import javax.persistence.Entity;
@@ -13,7 +11,6 @@ import javax.persistence.Transient;
 import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.schema.dao.CurrencyJpaDao;
 import org.cryptocoinpartners.schema.dao.Dao;
-import org.cryptocoinpartners.util.EM;
 
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
@@ -39,35 +36,23 @@ public class Currency extends Asset {
 	@Inject
 	protected transient static CurrencyFactory currencyFactory;
 
-	private static Map<String, Currency> currencyMap = new HashMap<String, Currency>();
+	@Inject
+	protected transient static ReferenceDataRegistry registry;
 
 	public boolean isFiat() {
 		return fiat;
 	}
 
+	/** @throws NoResultException if there is no Currency with this symbol */
 	public static Currency forSymbol(String symbol) {
-		if (currencyMap.isEmpty())
-			allSymbols();
-		if (currencyMap.get(symbol) == null) {
-			Currency currency = EM.queryOne(Currency.class, "select c from Currency c where symbol=?1", symbol);
-			if (currency != null) {
-				currencyMap.put(symbol, currency);
-				currency.setPersisted(true);
-			}
-		}
-		return currencyMap.get(symbol);
-
+		Currency currency = registry.findCurrency(symbol);
+		if (currency == null)
+			throw new NoResultException("No Currency " + symbol);
+		return currency;
 	}
 
 	public static Collection<String> allSymbols() {
-		if (currencyMap.isEmpty()) {
-			List<Currency> currencies = EM.queryList(Currency.class, "select c from Currency c");
-			for (Currency currency : currencies) {
-				currency.setPersisted(true);
-				currencyMap.put(currency.getSymbol(), currency);
-			}
-		}
-		return currencyMap.keySet();
+		return registry.getCurrencySymbols();
 	}
 
 	@Override
@@ -86,44 +71,29 @@ public class Currency extends Asset {
 	}
 
 	// used by Currencies
-	static Currency forSymbolOrCreate(String symbol, boolean isFiat, double basis) {
-		try {
-			Currency currency = forSymbol(symbol);
-			return currency;
-		} catch (NoResultException e) {
-
-			//
-			final Currency currency = new Currency(isFiat, symbol, basis);
-			//Injector.root().injectMembers(currency);
-			// final Currency currency = currencyFactory.create(isFiat, symbol, basis);
-			currency.setRevision(currency.getRevision() + 1);
-			currencyMap.put(symbol, currency);
-			try {
-				currencyDao.persistEntities(false, currency);
-			} catch (Throwable e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
+	static Currency forSymbolOrCreate(final String symbol, final boolean isFiat, final double basis) {
+		return registry.findOrCreateCurrency(symbol, new Supplier<Currency>() {
+			@Override
+			public Currency get() {
+				//Injector.root().injectMembers(currency);
+				// final Currency currency = currencyFactory.create(isFiat, symbol, basis);
+				Currency currency = new Currency(isFiat, symbol, basis);
+				currency.setRevision(currency.getRevision() + 1);
+				return currency;
 			}
-			return currency;
-		}
+		});
 	}
 
 	// used by Currencies
-	static Currency forSymbolOrCreate(String symbol, boolean isFiat, double basis, double multiplier) {
-		try {
-			return forSymbol(symbol);
-		} catch (NoResultException e) {
-			final Currency currency = new Currency(isFiat, symbol, basis, multiplier);
-			currency.setRevision(currency.getRevision() + 1);
-			currencyMap.put(symbol, currency);
-			try {
-				currencyDao.persistEntities(false, currency);
-			} catch (Throwable e1) {
-				// TODO Auto-generated catch block
-
+	static Currency forSymbolOrCreate(final String symbol, final boolean isFiat, final double basis, final double multiplier) {
+		return registry.findOrCreateCurrency(symbol, new Supplier<Currency>() {
+			@Override
+			public Currency get() {
+				Currency currency = new Currency(isFiat, symbol, basis, multiplier);
+				currency.setRevision(currency.getRevision() + 1);
+				return currency;
 			}
-			return currency;
-		}
+		});
 	}
 
 	@AssistedInject
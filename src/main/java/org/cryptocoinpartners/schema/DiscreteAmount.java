@@ -75,6 +75,12 @@ public class DiscreteAmount extends Amount {
     this.count = count;
   }
 
+  /** the inverted basis, 1/basis, without the BigDecimal division {@link #getBasis()} does */
+  @Transient
+  public long getIBasis() {
+    return iBasis;
+  }
+
   /** adds one basis to the value by incrementing the count */
   public DiscreteAmount increment() {
     return new DiscreteAmount(count + 1, iBasis);
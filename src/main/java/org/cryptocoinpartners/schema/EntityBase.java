@@ -326,6 +326,15 @@ public abstract class EntityBase implements java.io.Serializable, Cloneable, Com
 
 	public abstract void merge();
 
+	/** @return the dense index the ReferenceDataRegistry gave this instance, or -1 if it is not the registered instance */
+	int registryOrdinal() {
+		return registryIndex - 1;
+	}
+
+	void setRegistryOrdinal(int ordinal) {
+		registryIndex = ordinal + 1;
+	}
+
 	private void ensureId() {
 		if (uuid == null)
 			setUuid(UUID.randomUUID());
@@ -342,6 +351,8 @@ public abstract class EntityBase implements java.io.Serializable, Cloneable, Com
 	protected boolean persisted = false;
 	protected EntityBase originalEntity;
 	protected Integer retryCount;
+	// offset by one so that new and deserialized instances read as unregistered
+	private transient int registryIndex;
 
 	public abstract void prePersist();
 
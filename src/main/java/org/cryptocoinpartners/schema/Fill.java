@@ -28,6 +28,7 @@ import javax.persistence.PrePersist;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 
+import org.cryptocoinpartners.enumeration.ExecutionInstruction;
 import org.cryptocoinpartners.enumeration.FillType;
 import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.enumeration.PositionEffect;
@@ -1017,6 +1018,11 @@ public class Fill extends RemoteEvent {
 
 	}
 
+	/** charges the commission for the side of the book the fill was actually on */
+	public void chargeCommission(ExecutionInstruction executionInstruction) {
+		setCommission(FeesUtil.getCommission(this, executionInstruction));
+	}
+
 	protected synchronized void setCommission(Amount commission) {
 		this.commission = commission;
 	}
@@ -1,9 +1,7 @@
 package org.cryptocoinpartners.schema;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import javax.persistence.Cacheable;
 import javax.persistence.Entity;
@@ -12,7 +10,6 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
-import javax.persistence.NoResultException;
 import javax.persistence.PostPersist;
 import javax.persistence.QueryHint;
 import javax.persistence.Table;
@@ -46,10 +43,11 @@ import com.google.inject.assistedinject.AssistedInject;
 public class Listing extends EntityBase {
 	@Inject
 	protected transient static ListingJpaDao listingDao;
-	protected static Set<Listing> listings = new HashSet<Listing>();
 
 	@Inject
 	protected transient static ListingFactory listingFactory;
+	@Inject
+	protected transient static ReferenceDataRegistry registry;
 
 	@ManyToOne(optional = false)
 	@JoinColumn(name = "base")
@@ -84,90 +82,11 @@ public class Listing extends EntityBase {
 
 	/** will create the listing if it doesn't exist */
 	public static Listing forPair(Asset base, Asset quote) {
-		Listing listing = null;
-		for (Listing mappedListing : listings) {
-			if (mappedListing.getBase().equals(base) && mappedListing.getQuote().equals(quote) && mappedListing.getPrompt() == null)
-				return mappedListing;
-		}
-		//this is very slow, we should cache it in a map!
-		try {
-
-			listing = EM.namedQueryZeroOne(Listing.class, "Listing.findByQuoteBase", base, quote);
-			if (listing == null) {
-				listing = listingFactory.create(base, quote);
-
-				try {
-					listingDao.persistEntities(false, listing);
-					if (listing != null)
-						listings.add(listing);
-				} catch (Throwable e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-
-			} else {
-				listing.setPersisted(true);
-				if (listing != null)
-					listings.add(listing);
-			}
-
-			return listing;
-		} catch (NoResultException e) {
-			listing = listingFactory.create(base, quote);
-
-			try {
-				listingDao.persistEntities(false, listing);
-				if (listing != null)
-					listings.add(listing);
-			} catch (Throwable ex) {
-				// TODO Auto-generated catch block
-				ex.printStackTrace();
-			}
-
-			return listing;
-		}
+		return registry.findOrCreateListing(base, quote, null);
 	}
 
 	public static Listing forPair(Asset base, Asset quote, Prompt prompt) {
-		Listing listing = null;
-		for (Listing mappedListing : listings) {
-			if (mappedListing.getBase().equals(base) && mappedListing.getQuote().equals(quote)
-					&& (mappedListing.getPrompt() != null && mappedListing.getPrompt().equals(prompt)))
-				return mappedListing;
-		}
-		try {
-
-			listing = EM.namedQueryZeroOne(Listing.class, "Listing.findByQuoteBasePrompt", base, quote, prompt);
-			if (listing == null) {
-				listing = listingFactory.create(base, quote, prompt);
-
-				try {
-					listingDao.persistEntities(false, listing);
-					if (listing != null)
-						listings.add(listing);
-				} catch (Throwable e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			} else {
-				listing.setPersisted(true);
-				if (listing != null)
-					listings.add(listing);
-			}
-			return listing;
-		} catch (NoResultException e) {
-			try {
-				listing = listingFactory.create(base, quote, prompt);
-				listingDao.persistEntities(false, listing);
-				if (listing != null)
-					listings.add(listing);
-			} catch (Throwable ex) {
-				// TODO Auto-generated catch block
-				ex.printStackTrace();
-			}
-
-			return listing;
-		}
+		return registry.findOrCreateListing(base, quote, prompt);
 	}
 
 	@Override
@@ -334,25 +253,7 @@ public class Listing extends EntityBase {
 	}
 
 	public static Listing forSymbol(String symbol) {
-		symbol = symbol.toUpperCase();
-		final int dot = symbol.indexOf('.');
-		if (dot == -1)
-			throw new IllegalArgumentException("Invalid Listing symbol: \"" + symbol + "\"");
-		final String baseSymbol = symbol.substring(0, dot);
-		Asset base = Asset.forSymbol(baseSymbol);
-		if (base == null)
-			throw new IllegalArgumentException("Invalid base symbol: \"" + baseSymbol + "\"");
-		int len = symbol.substring(dot + 1, symbol.length()).indexOf('.');
-		len = (len != -1) ? Math.min(symbol.length(), dot + 1 + symbol.substring(dot + 1, symbol.length()).indexOf('.')) : symbol.length();
-		final String quoteSymbol = symbol.substring(dot + 1, len);
-		final String promptSymbol = (symbol.length() > len) ? symbol.substring(len + 1, symbol.length()) : null;
-		Asset quote = Asset.forSymbol(quoteSymbol);
-		if (quote == null)
-			throw new IllegalArgumentException("Invalid quote symbol: \"" + quoteSymbol + "\"");
-		if (promptSymbol == null)
-			return Listing.forPair(base, quote);
-		Prompt prompt = Prompt.forSymbol(promptSymbol);
-		return Listing.forPair(base, quote, prompt);
+		return registry.forSymbol(symbol);
 	}
 
 	@Override
@@ -0,0 +1,215 @@
+package org.cryptocoinpartners.schema;
+
+import org.joda.time.Instant;
+
+/**
+ * A mutable order book for a single market which is updated in place, level by level, instead of being rebuilt from a full list of Offers on
+ * every update. Prices and volumes are held as counts of the market's price and volume basis.
+ *
+ * All methods synchronize on the LiveBook, so each market has its own lock. To apply several changes atomically, for example when replacing the
+ * whole book from an exchange snapshot, hold the LiveBook's monitor around the calls.
+ *
+ * Consumers which need a stable view should take a {@link #snapshot()}, and a persistable {@link Book} can be produced from the snapshot when
+ * needed.
+ */
+public class LiveBook {
+
+	public LiveBook(Tradeable market) {
+		this.market = market;
+		this.bids = new BookLevels(true);
+		this.asks = new BookLevels(false);
+	}
+
+	public Tradeable getMarket() {
+		return market;
+	}
+
+	public synchronized Instant getTime() {
+		return time;
+	}
+
+	public synchronized Instant getTimeReceived() {
+		return timeReceived;
+	}
+
+	public synchronized void setTime(Instant time, Instant timeReceived) {
+		this.time = time;
+		this.timeReceived = timeReceived;
+	}
+
+	/** incremented on every change to the book, but not by removing a level which is not there */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/** sets the resting volume at a bid price. a zero volume deletes the level */
+	public synchronized void updateBid(long priceCount, long volumeCount) {
+		bids.set(priceCount, Math.abs(volumeCount));
+		sequence++;
+	}
+
+	/** sets the resting volume at an ask price. a zero volume deletes the level. the volume may be given with either sign */
+	public synchronized void updateAsk(long priceCount, long volumeCount) {
+		asks.set(priceCount, -Math.abs(volumeCount));
+		sequence++;
+	}
+
+	/** adds volume to a bid level, used when an exchange snapshot has more than one order at the same rounded price */
+	public synchronized void addBid(long priceCount, long volumeCount) {
+		bids.increment(priceCount, Math.abs(volumeCount));
+		sequence++;
+	}
+
+	/** adds volume to an ask level, used when an exchange snapshot has more than one order at the same rounded price */
+	public synchronized void addAsk(long priceCount, long volumeCount) {
+		asks.increment(priceCount, -Math.abs(volumeCount));
+		sequence++;
+	}
+
+	/** @return false, leaving the sequence as it was, if there was no level at the price */
+	public synchronized boolean removeBid(long priceCount) {
+		if (!bids.remove(priceCount))
+			return false;
+		sequence++;
+		return true;
+	}
+
+	/** @return false, leaving the sequence as it was, if there was no level at the price */
+	public synchronized boolean removeAsk(long priceCount) {
+		if (!asks.remove(priceCount))
+			return false;
+		sequence++;
+		return true;
+	}
+
+	/**
+	 * Starts replacing the whole book from a full exchange snapshot. Levels are staged with {@link #stageBid} and {@link #stageAsk} and take effect
+	 * on {@link #commitReplace}. The caller must hold the LiveBook's monitor for the whole sequence.
+	 */
+	public synchronized void beginReplace() {
+		if (stagedBids == null) {
+			stagedBids = new BookLevels(true);
+			stagedAsks = new BookLevels(false);
+		}
+		stagedBids.clear();
+		stagedAsks.clear();
+	}
+
+	public synchronized void stageBid(long priceCount, long volumeCount) {
+		stagedBids.increment(priceCount, Math.abs(volumeCount));
+	}
+
+	public synchronized void stageAsk(long priceCount, long volumeCount) {
+		stagedAsks.increment(priceCount, -Math.abs(volumeCount));
+	}
+
+	/**
+	 * Swaps the staged levels in as the current book.
+	 *
+	 * @return the number of levels which were added, removed or changed volume compared to the previous book
+	 */
+	public synchronized int commitReplace(Instant time, Instant timeReceived) {
+		int changes = countChanges(bids, stagedBids) + countChanges(asks, stagedAsks);
+		bids.copyFrom(stagedBids);
+		asks.copyFrom(stagedAsks);
+		this.time = time;
+		this.timeReceived = timeReceived;
+		if (changes > 0)
+			sequence++;
+		return changes;
+	}
+
+	public synchronized void clear() {
+		bids.clear();
+		asks.clear();
+		sequence++;
+	}
+
+	public synchronized int getBidDepth() {
+		return bids.size();
+	}
+
+	public synchronized int getAskDepth() {
+		return asks.size();
+	}
+
+	/** @return the highest bid price count, or 0 if there are no bids */
+	public synchronized long getBestBidPriceCount() {
+		return bids.getBestPriceCount();
+	}
+
+	/** @return the lowest ask price count, or 0 if there are no asks */
+	public synchronized long getBestAskPriceCount() {
+		return asks.getBestPriceCount();
+	}
+
+	public synchronized long getBestBidVolumeCount() {
+		return bids.getBestVolumeCount();
+	}
+
+	/** @return the (negative) volume count at the best ask */
+	public synchronized long getBestAskVolumeCount() {
+		return asks.getBestVolumeCount();
+	}
+
+	/** @return the lowest bid price count which must be hit to sell <code>volumeCount</code>, or 0 if the bids are not deep enough */
+	public synchronized long getBidPriceCountForVolume(long volumeCount) {
+		return bids.getPriceCountForVolume(volumeCount);
+	}
+
+	/** @return the highest ask price count which must be lifted to buy <code>volumeCount</code>, or 0 if the asks are not deep enough */
+	public synchronized long getAskPriceCountForVolume(long volumeCount) {
+		return asks.getPriceCountForVolume(volumeCount);
+	}
+
+	/** the best bid and ask only, which is all the order services need and much cheaper than a snapshot */
+	public synchronized TopOfBook topOfBook() {
+		return new TopOfBook(market, time, timeReceived, bids.getBestPriceCount(), bids.getBestVolumeCount(), asks.getBestPriceCount(),
+				asks.getBestVolumeCount());
+	}
+
+	public synchronized BookSnapshot snapshot() {
+		return new BookSnapshot(market, time, timeReceived, sequence, bids.copy(), asks.copy());
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "LiveBook{" + market + " seq=" + sequence + " " + bids + " " + asks + "}";
+	}
+
+	/** merge walk over two sides in the same order, counting levels present in only one side or with different volumes */
+	private static int countChanges(BookLevels current, BookLevels next) {
+		int changes = 0;
+		int i = 0;
+		int j = 0;
+		while (i < current.size() && j < next.size()) {
+			long currentPrice = current.getPriceCount(i);
+			long nextPrice = next.getPriceCount(j);
+			if (currentPrice == nextPrice) {
+				if (current.getVolumeCount(i) != next.getVolumeCount(j))
+					changes++;
+				i++;
+				j++;
+			} else if (current.isDescending() ? currentPrice > nextPrice : currentPrice < nextPrice) {
+				// level removed
+				changes++;
+				i++;
+			} else {
+				// level added
+				changes++;
+				j++;
+			}
+		}
+		return changes + (current.size() - i) + (next.size() - j);
+	}
+
+	private final Tradeable market;
+	private final BookLevels bids;
+	private final BookLevels asks;
+	private BookLevels stagedBids;
+	private BookLevels stagedAsks;
+	private Instant time;
+	private Instant timeReceived;
+	private long sequence;
+
+}
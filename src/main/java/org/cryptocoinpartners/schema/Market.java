@@ -2,9 +2,7 @@ package org.cryptocoinpartners.schema;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import javax.persistence.Basic;
 import javax.persistence.Cacheable;
@@ -16,7 +14,6 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToMany;
 import javax.persistence.ManyToOne;
 import javax.persistence.NamedQuery;
-import javax.persistence.NoResultException;
 import javax.persistence.PostPersist;
 import javax.persistence.QueryHint;
 import javax.persistence.Table;
@@ -24,7 +21,6 @@ import javax.persistence.Transient;
 
 import org.cryptocoinpartners.enumeration.ExecutionInstruction;
 import org.cryptocoinpartners.enumeration.FeeMethod;
-import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.schema.dao.MarketJpaDao;
 import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.RemainderHandler;
@@ -47,22 +43,21 @@ import com.google.inject.assistedinject.AssistedInject;
 public class Market extends Tradeable {
 
 	protected List<SyntheticMarket> syntheticMarkets = new ArrayList<>();
-	protected static Set<Market> markets = new HashSet<Market>();
 	@Inject
 	protected transient static MarketFactory marketFactory;
 	@Inject
 	protected transient static ExchangeFactory exchangeFactory;
 	@Inject
 	protected transient static MarketJpaDao marketDao;
+	@Inject
+	protected transient static ReferenceDataRegistry registry;
 
-	//TODO
-	//add a set of markets, that we keep and get from here, if not presnet in set go to db
 	/** adds the Market to the database if it does not already exist */
-	public synchronized static Market findOrCreate(Exchange exchange, Listing listing) {
-		return findOrCreate(exchange, listing, listing.getPriceBasis(), listing.getVolumeBasis());
+	public static Market findOrCreate(Exchange exchange, Listing listing) {
+		return registry.findOrCreateMarket(exchange, listing);
 	}
 
-	public synchronized static Market findOrCreate(Exchange exchange, Listing listing, double minOrderSize) {
+	public static Market findOrCreate(Exchange exchange, Listing listing, double minOrderSize) {
 		return findOrCreate(exchange, listing, listing.getPriceBasis(), listing.getVolumeBasis(), minOrderSize);
 	}
 
@@ -97,119 +92,12 @@ public class Market extends Tradeable {
 
 	}
 
-	public synchronized static Market findOrCreate(Exchange exchange, Listing listing, double quoteBasis, double volumeBasis) {
-		// final String queryStr = "select m from Market m where exchange=?1 and listing=?2";
-		try {
-			for (Market market : markets) {
-				if (market.getExchange().equals(exchange) && market.getListing().equals(listing))
-					return market;
-			}
-			List<Market> results = EM.namedQueryList(Market.class, "Market.findByMarket", exchange, listing);
-			if (results != null && !results.isEmpty() && results.get(0) != null) {
-				for (Market result : results) {
-					result.setPersisted(true);
-					if (result != null)
-						markets.add(result);
-				}
-				return results.get(0);
-			} else {
-				Market ml = marketFactory.create(exchange, listing, quoteBasis, volumeBasis);
-				ml.setPeristanceAction(PersistanceAction.NEW);
-				ml.setRevision(ml.getRevision() + 1);
-				ml.getDao().persistEntities(false, ml);
-				if (ml != null)
-					markets.add(ml);
-				//  Market ml = new Market(exchange, listing, quoteBasis, volumeBasis);
-
-				// marketDao.persist(ml);
-				return ml;
-			}
-
-		} catch (NoResultException e) {
-
-			Market ml = marketFactory.create(exchange, listing, quoteBasis, volumeBasis);
-			try {
-				ml.setPeristanceAction(PersistanceAction.NEW);
-				ml.setRevision(ml.getRevision() + 1);
-				marketDao.persistEntities(false, ml);
-				if (ml != null)
-					markets.add(ml);
-			} catch (Throwable e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
-			}
-
-			//  Market ml = new Market(exchange, listing, quoteBasis, volumeBasis);
-
-			// marketDao.persist(ml);
-			return ml;
-		} catch (Throwable e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			return null;
-		}
+	public static Market findOrCreate(Exchange exchange, Listing listing, double quoteBasis, double volumeBasis) {
+		return registry.findOrCreateMarket(exchange, listing, quoteBasis, volumeBasis);
 	}
 
-	public synchronized static Market findOrCreate(Exchange exchange, Listing listing, double quoteBasis, double volumeBasis, double minOrderSize) {
-		// final String queryStr = "select m from Market m where exchange=?1 and listing=?2";
-		try {
-			for (Market market : markets) {
-				if (market.getExchange().equals(exchange) && market.getListing().equals(listing))
-					return market;
-			}
-			List<Market> results = EM.namedQueryList(Market.class, "Market.findByMarket", exchange, listing);
-			if (results != null && !results.isEmpty() && results.get(0) != null) {
-				for (Market result : results) {
-					result.setPersisted(true);
-					if (result != null)
-						markets.add(result);
-				}
-
-				if (results.get(0).getMinimumOrderSize(results.get(0)) == minOrderSize)
-					return results.get(0);
-				else {
-					results.get(0).setMinimumOrderSize(minOrderSize);
-					results.get(0).merge();
-					return results.get(0);
-				}
-			} else {
-				Market ml = marketFactory.create(exchange, listing, quoteBasis, volumeBasis, minOrderSize);
-				try {
-					ml.setPeristanceAction(PersistanceAction.NEW);
-					ml.setRevision(ml.getRevision() + 1);
-					marketDao.persistEntities(false, ml);
-					if (ml != null)
-						markets.add(ml);
-				} catch (Throwable e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-
-				//  Market ml = new Market(exchange, listing, quoteBasis, volumeBasis);
-
-				// marketDao.persist(ml);
-				return ml;
-			}
-
-		} catch (NoResultException e) {
-
-			Market ml = marketFactory.create(exchange, listing, quoteBasis, volumeBasis, minOrderSize);
-			try {
-				ml.setPeristanceAction(PersistanceAction.NEW);
-				ml.setRevision(ml.getRevision() + 1);
-				marketDao.persistEntities(false, ml);
-				if (ml != null)
-					markets.add(ml);
-			} catch (Throwable e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
-			}
-
-			//  Market ml = new Market(exchange, listing, quoteBasis, volumeBasis);
-
-			// marketDao.persist(ml);
-			return ml;
-		}
+	public static Market findOrCreate(Exchange exchange, Listing listing, double quoteBasis, double volumeBasis, double minOrderSize) {
+		return registry.findOrCreateMarket(exchange, listing, quoteBasis, volumeBasis, minOrderSize);
 	}
 
 	/**
@@ -359,6 +359,7 @@ public class Portfolio extends EntityBase {
 			for (Exchange exchange : transactions.get(asset).keySet())
 				for (TransactionType type : transactions.get(asset).get(exchange).keySet())
 					transactions.get(asset).get(exchange).get(type).clear();
+		cashLedger.clear();
 
 	}
 
@@ -906,7 +907,8 @@ public class Portfolio extends EntityBase {
 		if (transactions.get(reservation.getCurrency()).get(reservation.getExchange()).get(reservation.getType()) == null)
 			return;
 		// synchronized (lock) {
-		transactions.get(reservation.getCurrency()).get(reservation.getExchange()).get(reservation.getType()).remove(reservation);
+		if (transactions.get(reservation.getCurrency()).get(reservation.getExchange()).get(reservation.getType()).remove(reservation))
+			cashLedger.reverse(reservation);
 
 	}
 
@@ -1041,8 +1043,26 @@ public class Portfolio extends EntityBase {
 		}
 	}
 
+	/**
+	 * Adds the transaction, unless it has already been added, and posts it to the cash ledger.
+	 * 
+	 * @return true iff the transaction was added
+	 */
 	@Transient
 	public synchronized boolean addTransaction(Transaction transaction) {
+		if (!storeTransaction(transaction))
+			return false;
+		cashLedger.post(transaction);
+		return true;
+	}
+
+	/** @return the running cash balances of this portfolio's transactions */
+	@Transient
+	public CashLedger getCashLedger() {
+		return cashLedger;
+	}
+
+	private boolean storeTransaction(Transaction transaction) {
 
 		Map<Exchange, Map<TransactionType, ConcurrentLinkedQueue<Transaction>>> assetTransactions = transactions.get(transaction.getCurrency());
 
@@ -2398,6 +2418,7 @@ public class Portfolio extends EntityBase {
 
 	private transient Map<Asset, Map<Exchange, Map<Listing, Amount>>> commissionsAndFees;
 	private transient Map<Asset, Map<Exchange, Map<TransactionType, ConcurrentLinkedQueue<Transaction>>>> transactions;
+	private final transient CashLedger cashLedger = new CashLedger();
 	private transient List<Stake> stakes;
 
 	private transient Set<Position> positions;
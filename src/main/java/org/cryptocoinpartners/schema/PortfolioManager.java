@@ -314,17 +314,18 @@ public class PortfolioManager extends EntityBase implements Context.AttachListen
 			QuoteService quoteService = portfolio.context.getInjector().getInstance(QuoteService.class);
 			//      ..getManager().getPortfolioService();
 			//portfolio.getPositions();
+			// the open trade equity and market value come from the last mark to market, when it is in this portfolio's base asset
+			RiskSnapshot risk = portfolioService.getRiskSnapshot();
+			boolean marked = risk != null && portfolio.getBaseAsset() != null && portfolio.getBaseAsset().equals(risk.getBaseAsset());
+			Amount unrealisedPnL = marked ? risk.getBaseUnrealisedPnL() : portfolioService.getBaseUnrealisedPnL(portfolio.getBaseAsset());
+			Amount marketValue = marked ? risk.getBaseMarketValue() : portfolioService.getBaseMarketValue(portfolio.getBaseAsset());
+			Amount cashBalance = portfolioService.getBaseCashBalance(portfolio.getBaseAsset());
 			log.info("Date: " + (Timestamp != null ? (FORMAT.print(Timestamp)) : "") + " Portfolio: " + portfolio + " Total Cash Value ("
-					+ portfolio.getBaseAsset() + "):"
-					+ portfolioService.getBaseCashBalance(portfolio.getBaseAsset()).plus(portfolioService.getBaseUnrealisedPnL(portfolio.getBaseAsset()))
-					+ ", Total Notional Value (" + portfolio.getBaseAsset() + "):"
-					+ portfolio.getStartingBaseNotionalBalance().plus(portfolioService.getBaseCashBalance(portfolio.getBaseAsset()))
-							.plus(portfolioService.getBaseUnrealisedPnL(portfolio.getBaseAsset())).minus(portfolio.getStartingBaseCashBalance())
-					+ " (Cash Balance:" + portfolioService.getBaseCashBalance(portfolio.getBaseAsset()) + " Realised PnL (M2M):"
-					+ portfolioService.getBaseRealisedPnL(portfolio.getBaseAsset()) + " Commissions And Fees:"
-					+ portfolioService.getBaseComissionAndFee(portfolio.getBaseAsset()) + " Open Trade Equity:"
-					+ portfolioService.getBaseUnrealisedPnL(portfolio.getBaseAsset()) + " MarketValue:"
-					+ portfolioService.getBaseMarketValue(portfolio.getBaseAsset()) + ")");
+					+ portfolio.getBaseAsset() + "):" + cashBalance.plus(unrealisedPnL) + ", Total Notional Value (" + portfolio.getBaseAsset() + "):"
+					+ portfolio.getStartingBaseNotionalBalance().plus(cashBalance).plus(unrealisedPnL).minus(portfolio.getStartingBaseCashBalance())
+					+ " (Cash Balance:" + cashBalance + " Realised PnL (M2M):" + portfolioService.getBaseRealisedPnL(portfolio.getBaseAsset())
+					+ " Commissions And Fees:" + portfolioService.getBaseComissionAndFee(portfolio.getBaseAsset()) + " Open Trade Equity:" + unrealisedPnL
+					+ " MarketValue:" + marketValue + ")");
 			for (Position position : portfolio.getNetPositions()) {
 				log.info("Date: " + (Timestamp != null ? (FORMAT.print(Timestamp)) : "") + " Portfolio: " + portfolio + " Instrument: " + position.getAsset()
 						+ " Last trade time "
@@ -341,22 +341,7 @@ public class Position extends Holding {
 	public Amount getLongAvgPrice() {
 		if (longAvgPrice != null)
 			return longAvgPrice;
-		longCumVolume = DecimalAmount.ZERO;
-		Amount longAvgPriceTmp = null;
-		synchronized (getFills()) {
-			Iterator<Fill> itf = getFills().iterator();
-			while (itf.hasNext() && longAvgPrice == null) {
-				Fill pos = itf.next();
-				if (pos.isLong() && pos.getPrice() != null) {
-					longAvgPriceTmp = longAvgPriceTmp == null ? pos.getPrice()
-							: ((longAvgPriceTmp.times(longCumVolume, Remainder.ROUND_EVEN))
-									.plus(pos.getOpenVolume().times(pos.getPrice(), Remainder.ROUND_EVEN))).divide(longCumVolume.plus(pos.getOpenVolume()),
-											Remainder.ROUND_EVEN);
-					longCumVolume = longCumVolume.plus(pos.getOpenVolume());
-				}
-
-			}
-		}
+		Amount longAvgPriceTmp = averageFillPrice(true);
 		if (longAvgPriceTmp == null && longAvgPrice == null)
 			longAvgPrice = DecimalAmount.ZERO;
 		else if (longAvgPriceTmp != null && longAvgPrice == null)
@@ -365,6 +350,39 @@ public class Position extends Holding {
 
 	}
 
+	/**
+	 * the open volume weighted average price of the long or short fills, summed as counts rather than a chain of Amounts. also sets the long or
+	 * short cumulative volume. null if there are no such fills
+	 */
+	private Amount averageFillPrice(boolean isLong) {
+		AmountAccumulator notional = new AmountAccumulator();
+		AmountAccumulator cumVolume = new AmountAccumulator();
+		Amount firstPrice = null;
+		int priced = 0;
+		synchronized (getFills()) {
+			for (Fill fill : getFills()) {
+				if ((isLong ? !fill.isLong() : !fill.isShort()) || fill.getMarket().getPriceBasis() == 0)
+					continue;
+				long priceIBasis = DiscreteAmount.invertBasis(fill.getMarket().getPriceBasis());
+				long volumeIBasis = DiscreteAmount.invertBasis(fill.getMarket().getVolumeBasis());
+				if (firstPrice == null)
+					firstPrice = fill.getPrice();
+				priced++;
+				notional.addProduct(fill.getPriceCount(), priceIBasis, fill.getOpenVolumeCount(), volumeIBasis);
+				cumVolume.add(fill.getOpenVolumeCount(), volumeIBasis);
+			}
+		}
+		if (isLong)
+			longCumVolume = priced == 0 ? DecimalAmount.ZERO : cumVolume.toAmount();
+		else
+			shortCumVolume = priced == 0 ? DecimalAmount.ZERO : cumVolume.toAmount();
+		// a single fill is its own average, as is the first fill when the fills have no open volume between them
+		if (priced <= 1 || cumVolume.isZero())
+			return firstPrice;
+		// as before, the long average keeps DECIMAL64 precision while the short one is rounded to the scale of the notional
+		return isLong ? notional.divide(cumVolume, Remainder.ROUND_EVEN) : notional.toAmount().dividedBy(cumVolume.toAmount(), Remainder.ROUND_EVEN);
+	}
+
 	public <T> T find() {
 		//   synchronized (persistanceLock) {
 		try {
@@ -382,23 +400,7 @@ public class Position extends Holding {
 	public Amount getShortAvgPrice() {
 		if (shortAvgPrice != null)
 			return shortAvgPrice;
-		shortCumVolume = DecimalAmount.ZERO;
-		Amount shortAvgPriceTmp = null;
-		synchronized (getFills()) {
-			Iterator<Fill> itf = getFills().iterator();
-
-			while (itf.hasNext() && shortAvgPrice == null) {
-				Fill pos = itf.next();
-				if (pos.isShort() && pos.getPrice() != null) {
-					shortAvgPriceTmp = shortAvgPriceTmp == null ? pos.getPrice()
-							: ((shortAvgPriceTmp.times(shortCumVolume, Remainder.ROUND_EVEN))
-									.plus(pos.getOpenVolume().times(pos.getPrice(), Remainder.ROUND_EVEN))).dividedBy(shortCumVolume.plus(pos.getOpenVolume()),
-											Remainder.ROUND_EVEN);
-					shortCumVolume = shortCumVolume.plus(pos.getOpenVolume());
-
-				}
-			}
-		}
+		Amount shortAvgPriceTmp = averageFillPrice(false);
 
 		if (shortAvgPriceTmp == null && shortAvgPrice == null)
 			shortAvgPrice = DecimalAmount.ZERO;
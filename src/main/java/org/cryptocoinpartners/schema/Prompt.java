@@ -1,9 +1,7 @@
 package org.cryptocoinpartners.schema;
 
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
 import javax.persistence.Basic;
@@ -19,7 +17,6 @@ import org.cryptocoinpartners.enumeration.FeeMethod;
 import org.cryptocoinpartners.enumeration.PersistanceAction;
 import org.cryptocoinpartners.schema.dao.Dao;
 import org.cryptocoinpartners.schema.dao.PromptJpaDao;
-import org.cryptocoinpartners.util.EM;
 import org.cryptocoinpartners.util.Remainder;
 
 import com.google.inject.Inject;
@@ -32,18 +29,15 @@ import com.google.inject.Inject;
 public class Prompt extends EntityBase {
 	@Inject
 	protected transient static PromptJpaDao promptDao;
-	private static Map<String, Prompt> promptMap = new HashMap<String, Prompt>();
+	@Inject
+	protected transient static ReferenceDataRegistry registry;
 
+	/** @throws NoResultException if there is no Prompt with this symbol */
 	public static Prompt forSymbol(String symbol) {
-		if (promptMap.isEmpty())
-			allSymbols();
-		if (promptMap.get(symbol) == null) {
-			Prompt prompt = EM.queryOne(Prompt.class, "select c from Prompt c where symbol=?1", symbol);
-			if (prompt != null)
-				promptMap.put(symbol, prompt);
-		}
-		return promptMap.get(symbol);
-
+		Prompt prompt = registry.findPrompt(symbol);
+		if (prompt == null)
+			throw new NoResultException("No Prompt " + symbol);
+		return prompt;
 	}
 
 	@Override
@@ -54,13 +48,7 @@ public class Prompt extends EntityBase {
 	}
 
 	public static Collection<String> allSymbols() {
-		if (promptMap.isEmpty()) {
-			List<Prompt> prompts = EM.queryList(Prompt.class, "select p from Prompt p");
-			for (Prompt prompt : prompts)
-				promptMap.put(prompt.getSymbol(), prompt);
-		}
-		return promptMap.keySet();
-
+		return registry.getPromptSymbols();
 	}
 
 	// JPA
@@ -231,43 +219,35 @@ public class Prompt extends EntityBase {
 
 	// used by Currencies
 
-	static Prompt forSymbolOrCreate(String symbol, double tickValue, double tickSize, String currency, double volumeBasis, double priceBasis, int margin,
-			FeeMethod marginMethod, double makerFeeRate, double takerFeeRate, FeeMethod feeMethod, FeeMethod marginFeeMethod) {
-		try {
-			return forSymbol(symbol);
-		} catch (NoResultException e) {
-			Asset tradedCurrency = null;
-			if (currency != null)
-				tradedCurrency = Currency.forSymbol(currency);
-			final Prompt prompt = new Prompt(symbol, tickValue, tickSize, tradedCurrency, volumeBasis, priceBasis, margin, marginMethod, makerFeeRate,
-					takerFeeRate, feeMethod, marginFeeMethod);
-			prompt.setRevision(prompt.getRevision() + 1);
-			try {
-				promptDao.persistEntities(false, prompt);
-			} catch (Throwable e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
+	static Prompt forSymbolOrCreate(final String symbol, final double tickValue, final double tickSize, final String currency, final double volumeBasis,
+			final double priceBasis, final int margin, final FeeMethod marginMethod, final double makerFeeRate, final double takerFeeRate,
+			final FeeMethod feeMethod, final FeeMethod marginFeeMethod) {
+		return registry.findOrCreatePrompt(symbol, new Supplier<Prompt>() {
+			@Override
+			public Prompt get() {
+				Asset tradedCurrency = null;
+				if (currency != null)
+					tradedCurrency = Currency.forSymbol(currency);
+				Prompt prompt = new Prompt(symbol, tickValue, tickSize, tradedCurrency, volumeBasis, priceBasis, margin, marginMethod, makerFeeRate,
+						takerFeeRate, feeMethod, marginFeeMethod);
+				prompt.setRevision(prompt.getRevision() + 1);
+				return prompt;
 			}
-			return prompt;
-		}
-	}
-
-	static Prompt forSymbolOrCreate(String symbol, double tickValue, double tickSize, double volumeBasis, double priceBasis, int margin, FeeMethod marginMethod,
-			double makerfeeRate, double takerfeeRate, FeeMethod feeMethod, FeeMethod marginFeeMethod) {
-		try {
-			return forSymbol(symbol);
-		} catch (NoResultException e) {
-			final Prompt prompt = new Prompt(symbol, tickValue, tickSize, volumeBasis, priceBasis, margin, marginMethod, makerfeeRate, takerfeeRate, feeMethod,
-					marginFeeMethod);
-			prompt.setRevision(prompt.getRevision() + 1);
-			try {
-				promptDao.persistEntities(false, prompt);
-			} catch (Throwable e1) {
-				// TODO Auto-generated catch block
-				e1.printStackTrace();
+		});
+	}
+
+	static Prompt forSymbolOrCreate(final String symbol, final double tickValue, final double tickSize, final double volumeBasis, final double priceBasis,
+			final int margin, final FeeMethod marginMethod, final double makerfeeRate, final double takerfeeRate, final FeeMethod feeMethod,
+			final FeeMethod marginFeeMethod) {
+		return registry.findOrCreatePrompt(symbol, new Supplier<Prompt>() {
+			@Override
+			public Prompt get() {
+				Prompt prompt = new Prompt(symbol, tickValue, tickSize, volumeBasis, priceBasis, margin, marginMethod, makerfeeRate, takerfeeRate, feeMethod,
+						marginFeeMethod);
+				prompt.setRevision(prompt.getRevision() + 1);
+				return prompt;
 			}
-			return prompt;
-		}
+		});
 	}
 
 	@ManyToOne(optional = false)
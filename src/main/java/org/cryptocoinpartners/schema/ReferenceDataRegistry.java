@@ -0,0 +1,547 @@
+package org.cryptocoinpartners.schema;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.inject.Singleton;
+
+import org.cryptocoinpartners.enumeration.PersistanceAction;
+import org.cryptocoinpartners.schema.dao.ReferenceDataDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.inject.Inject;
+
+/**
+ * Holds the one registered instance of every Exchange, Currency, Prompt, Listing and Market, which the static lookups on those classes delegate
+ * to. Lookups are ConcurrentHashMap reads keyed by symbol, or by the ordinals of the parts for Listings and Markets, and a Market whose Exchange
+ * and Listing are registered instances is found in a copy-on-write table without locking or allocating.
+ * <p>
+ * Each registered instance is given a dense ordinal for its type, so other code can keep per-market state in arrays. The first miss for a type
+ * loads every entity of that type in one query, which {@link #warm()} does for all of them at startup. A key still missing is looked up in the
+ * database without holding any lock, and created and persisted under a lock for its type, so concurrent callers share one instance and it is
+ * inserted once. An entity which fails to insert is not registered and the failure is thrown to the caller.
+ */
+@Singleton
+public class ReferenceDataRegistry {
+
+	@Inject
+	public ReferenceDataRegistry(ReferenceDataDao dao, ListingFactory listingFactory, MarketFactory marketFactory) {
+		this.dao = dao;
+		this.listingFactory = listingFactory;
+		this.marketFactory = marketFactory;
+	}
+
+	/** loads every persisted Exchange, Currency, Prompt, Listing and Market, with one query for each */
+	public void warm() {
+		exchanges.loadOnce();
+		currencies.loadOnce();
+		prompts.loadOnce();
+		listings.loadOnce();
+		markets.loadOnce();
+		log.info("Registered " + exchanges.size() + " exchanges, " + currencies.size() + " currencies, " + prompts.size() + " prompts, " + listings.size()
+				+ " listings and " + markets.size() + " markets");
+	}
+
+	/** @return null if there is no Exchange with this symbol */
+	public Exchange findExchange(String symbol) {
+		return findOrCreateExchange(symbol, null);
+	}
+
+	/** @param creator makes the Exchange if there is none with this symbol, which is then persisted */
+	public Exchange findOrCreateExchange(String symbol, Supplier<Exchange> creator) {
+		return symbol == null ? null : lookup(exchanges, symbol, exchangeFinder, creator);
+	}
+
+	/** @return null if there is no Currency with this symbol */
+	public Currency findCurrency(String symbol) {
+		return findOrCreateCurrency(symbol, null);
+	}
+
+	public Currency findOrCreateCurrency(String symbol, Supplier<Currency> creator) {
+		return symbol == null ? null : lookup(currencies, symbol, currencyFinder, creator);
+	}
+
+	public Collection<String> getCurrencySymbols() {
+		currencies.loadOnce();
+		return currencies.byKey.keySet();
+	}
+
+	/** @return null if there is no Prompt with this symbol */
+	public Prompt findPrompt(String symbol) {
+		return findOrCreatePrompt(symbol, null);
+	}
+
+	public Prompt findOrCreatePrompt(String symbol, Supplier<Prompt> creator) {
+		return symbol == null ? null : lookup(prompts, symbol, promptFinder, creator);
+	}
+
+	public Collection<String> getPromptSymbols() {
+		prompts.loadOnce();
+		return prompts.byKey.keySet();
+	}
+
+	/**
+	 * @param prompt null for a spot listing
+	 * @return the Listing for these assets, created and persisted if there is none
+	 */
+	public Listing findOrCreateListing(Asset base, Asset quote, Prompt prompt) {
+		final Currency registeredBase = intern(base);
+		final Currency registeredQuote = intern(quote);
+		final Prompt registeredPrompt = prompt == null ? null : intern(prompt);
+		return lookup(listings, listingKey(registeredBase, registeredQuote, registeredPrompt), listingFinder(registeredBase, registeredQuote,
+				registeredPrompt), new Supplier<Listing>() {
+			@Override
+			public Listing get() {
+				return registeredPrompt == null ? listingFactory.create(registeredBase, registeredQuote) : listingFactory.create(registeredBase,
+						registeredQuote, registeredPrompt);
+			}
+		});
+	}
+
+	/**
+	 * Parses symbols like BTC.USD or BTC.USD.THIS_WEEK in any case, creating the Listing if need be. Parsed symbols are cached, so looking one up
+	 * again is a single map read.
+	 *
+	 * @throws IllegalArgumentException if the symbol is malformed or names an unknown Currency or Prompt
+	 */
+	public Listing forSymbol(String symbol) {
+		Listing listing = listingsBySymbol.get(symbol);
+		if (listing != null)
+			return listing;
+		listing = parse(symbol);
+		Listing cached = listingsBySymbol.putIfAbsent(symbol, listing);
+		return cached == null ? listing : cached;
+	}
+
+	/** finds the Market, creating it with the Listing's price and volume bases if need be */
+	public Market findOrCreateMarket(Exchange exchange, Listing listing) {
+		Market market = registered(exchange, listing);
+		if (market != null)
+			return market;
+		return market(exchange, listing, listing.getPriceBasis(), listing.getVolumeBasis(), Double.NaN);
+	}
+
+	public Market findOrCreateMarket(Exchange exchange, Listing listing, double priceBasis, double volumeBasis) {
+		return market(exchange, listing, priceBasis, volumeBasis, Double.NaN);
+	}
+
+	/** A Market which already exists in the database has its minimum order size updated if it differs. */
+	public Market findOrCreateMarket(Exchange exchange, Listing listing, double priceBasis, double volumeBasis, double minimumOrderSize) {
+		return market(exchange, listing, priceBasis, volumeBasis, minimumOrderSize);
+	}
+
+	/** @return the ordinal of a registered Exchange, Currency, Prompt, Listing or Market, or -1 for any other instance */
+	public int getOrdinal(EntityBase entity) {
+		return entity.registryOrdinal();
+	}
+
+	public Exchange getExchange(int ordinal) {
+		return exchanges.byOrdinal(ordinal);
+	}
+
+	public Currency getCurrency(int ordinal) {
+		return currencies.byOrdinal(ordinal);
+	}
+
+	public Prompt getPrompt(int ordinal) {
+		return prompts.byOrdinal(ordinal);
+	}
+
+	public Listing getListing(int ordinal) {
+		return listings.byOrdinal(ordinal);
+	}
+
+	public Market getMarket(int ordinal) {
+		return markets.byOrdinal(ordinal);
+	}
+
+	/** one more than the highest Market ordinal, for sizing side tables */
+	public int getMarketCount() {
+		return markets.size();
+	}
+
+	public int getListingCount() {
+		return listings.size();
+	}
+
+	private Market market(Exchange exchange, Listing listing, final double priceBasis, final double volumeBasis, final double minimumOrderSize) {
+		Market market = registered(exchange, listing);
+		if (market != null)
+			return market;
+		final Exchange registeredExchange = intern(exchange);
+		final Listing registeredListing = intern(listing);
+		market = registered(registeredExchange, registeredListing);
+		if (market != null)
+			return market;
+		return lookup(markets, marketKey(registeredExchange, registeredListing), new Function<Long, Market>() {
+			@Override
+			public Market apply(Long key) {
+				Market found = dao.findMarket(registeredExchange, registeredListing);
+				if (found != null) {
+					found.setExchange(registeredExchange);
+					found.setListing(registeredListing);
+					if (!Double.isNaN(minimumOrderSize) && found.getMinimumOrderSize(found) != minimumOrderSize) {
+						found.setMinimumOrderSize(minimumOrderSize);
+						found.merge();
+					}
+				}
+				return found;
+			}
+		}, new Supplier<Market>() {
+			@Override
+			public Market get() {
+				Market created = Double.isNaN(minimumOrderSize) ? marketFactory.create(registeredExchange, registeredListing, priceBasis, volumeBasis)
+						: marketFactory.create(registeredExchange, registeredListing, priceBasis, volumeBasis, minimumOrderSize);
+				created.setPeristanceAction(PersistanceAction.NEW);
+				created.setRevision(created.getRevision() + 1);
+				return created;
+			}
+		});
+	}
+
+	/** the hit path: reads the published table, so takes no monitor and allocates nothing */
+	private Market registered(Exchange exchange, Listing listing) {
+		int exchangeOrdinal = exchange.registryOrdinal();
+		int listingOrdinal = listing.registryOrdinal();
+		if (exchangeOrdinal < 0 || listingOrdinal < 0)
+			return null;
+		Market[][] table = marketTable;
+		if (exchangeOrdinal >= table.length)
+			return null;
+		Market[] row = table[exchangeOrdinal];
+		if (row == null || listingOrdinal >= row.length)
+			return null;
+		Market market = row[listingOrdinal];
+		// the ordinals could belong to another registry, e.g. in tests
+		return market != null && market.getExchange() == exchange && market.getListing() == listing ? market : null;
+	}
+
+	private synchronized void publish(Market market) {
+		int exchangeOrdinal = market.getExchange().registryOrdinal();
+		int listingOrdinal = market.getListing().registryOrdinal();
+		Market[][] table = exchangeOrdinal < marketTable.length ? marketTable.clone() : Arrays.copyOf(marketTable, Math.max(exchangeOrdinal + 1,
+				marketTable.length * 2));
+		Market[] row = table[exchangeOrdinal];
+		if (row == null)
+			row = new Market[Math.max(listingOrdinal + 1, 16)];
+		else
+			row = listingOrdinal < row.length ? row.clone() : Arrays.copyOf(row, Math.max(listingOrdinal + 1, row.length * 2));
+		row[listingOrdinal] = market;
+		table[exchangeOrdinal] = row;
+		marketTable = table;
+	}
+
+	private Listing parse(String symbol) {
+		// one pass to find the dots, upper casing only symbols which need it
+		int firstDot = -1;
+		int secondDot = -1;
+		boolean lowerCase = false;
+		for (int i = 0; i < symbol.length(); i++) {
+			char c = symbol.charAt(i);
+			if (c == '.') {
+				if (firstDot == -1)
+					firstDot = i;
+				else if (secondDot == -1)
+					secondDot = i;
+			} else if (Character.isLowerCase(c))
+				lowerCase = true;
+		}
+		if (firstDot == -1)
+			throw new IllegalArgumentException("Invalid Listing symbol: \"" + symbol + "\"");
+		String upperCase = lowerCase ? symbol.toUpperCase() : symbol;
+		String baseSymbol = upperCase.substring(0, firstDot);
+		Currency base = findCurrency(baseSymbol);
+		if (base == null)
+			throw new IllegalArgumentException("Invalid base symbol: \"" + baseSymbol + "\"");
+		String quoteSymbol = upperCase.substring(firstDot + 1, secondDot == -1 ? upperCase.length() : secondDot);
+		Currency quote = findCurrency(quoteSymbol);
+		if (quote == null)
+			throw new IllegalArgumentException("Invalid quote symbol: \"" + quoteSymbol + "\"");
+		if (secondDot == -1)
+			return findOrCreateListing(base, quote, null);
+		String promptSymbol = upperCase.substring(secondDot + 1);
+		Prompt prompt = findPrompt(promptSymbol);
+		if (prompt == null)
+			throw new IllegalArgumentException("Invalid prompt symbol: \"" + promptSymbol + "\"");
+		return findOrCreateListing(base, quote, prompt);
+	}
+
+	/**
+	 * @return the registered entity for the key, loading the type if it has not been, then querying and at last creating and persisting it.
+	 *         Null if it is not found and there is no creator.
+	 */
+	private <K, T extends EntityBase> T lookup(Entries<K, T> entries, K key, Function<K, T> finder, Supplier<T> creator) {
+		T entity = entries.byKey.get(key);
+		if (entity != null)
+			return entity;
+		if (!entries.loaded) {
+			entries.loadOnce();
+			if ((entity = entries.byKey.get(key)) != null)
+				return entity;
+		}
+		// the query runs outside the map, so lookups of other keys are not held up by the database; if two callers find the entity the first
+		// to register it wins
+		entity = finder.apply(key);
+		if (entity != null) {
+			entity.setPersisted(true);
+			return entries.register(key, entity);
+		}
+		if (creator == null)
+			return entries.byKey.get(key);
+		synchronized (entries.creationLock) {
+			// another caller may have created it while this one queried
+			if ((entity = entries.byKey.get(key)) != null)
+				return entity;
+			if ((entity = creator.get()) == null)
+				return null;
+			dao.persist(entity);
+			return entries.register(key, entity);
+		}
+	}
+
+	/** @return the registered instance equal to the given one, which is registered itself if the database has none */
+	private <K, T extends EntityBase> T adopt(Entries<K, T> entries, K key, T entity, Function<K, T> finder) {
+		T registered = lookup(entries, key, finder, null);
+		return registered != null ? registered : entries.register(key, entity);
+	}
+
+	private Exchange intern(Exchange exchange) {
+		if (exchanges.isRegistered(exchange))
+			return exchange;
+		return adopt(exchanges, exchange.getSymbol(), exchange, exchangeFinder);
+	}
+
+	private Currency intern(Asset asset) {
+		if (asset instanceof Currency && currencies.isRegistered((Currency) asset))
+			return (Currency) asset;
+		Currency registered = findCurrency(asset.getSymbol());
+		if (registered != null)
+			return registered;
+		if (!(asset instanceof Currency))
+			throw new IllegalArgumentException("Unknown asset " + asset);
+		return currencies.register(asset.getSymbol(), (Currency) asset);
+	}
+
+	private Prompt intern(Prompt prompt) {
+		if (prompts.isRegistered(prompt))
+			return prompt;
+		return adopt(prompts, prompt.getSymbol(), prompt, promptFinder);
+	}
+
+	private Listing intern(Listing listing) {
+		if (listings.isRegistered(listing))
+			return listing;
+		Currency base = intern(listing.getBase());
+		Currency quote = intern(listing.getQuote());
+		Prompt prompt = listing.getPrompt() == null ? null : intern(listing.getPrompt());
+		Listing registered = adopt(listings, listingKey(base, quote, prompt), listing, listingFinder(base, quote, prompt));
+		if (registered == listing)
+			canonicalize(registered, base, quote, prompt);
+		return registered;
+	}
+
+	private Function<Long, Listing> listingFinder(final Currency base, final Currency quote, final Prompt prompt) {
+		return new Function<Long, Listing>() {
+			@Override
+			public Listing apply(Long key) {
+				Listing found = dao.findListing(base, quote, prompt);
+				if (found != null)
+					canonicalize(found, base, quote, prompt);
+				return found;
+			}
+		};
+	}
+
+	private static void canonicalize(Listing listing, Currency base, Currency quote, Prompt prompt) {
+		if (listing.getBase() != base)
+			listing.setBase(base);
+		if (listing.getQuote() != quote)
+			listing.setQuote(quote);
+		if (listing.getPrompt() != prompt)
+			listing.setPrompt(prompt);
+	}
+
+	/** 21 bits for each part, the prompt offset by one so spot listings have zero */
+	private static Long listingKey(Currency base, Currency quote, Prompt prompt) {
+		long promptPart = prompt == null ? 0 : prompt.registryOrdinal() + 1;
+		return ((long) base.registryOrdinal() << 42) | ((long) quote.registryOrdinal() << 21) | promptPart;
+	}
+
+	private static Long marketKey(Exchange exchange, Listing listing) {
+		return ((long) exchange.registryOrdinal() << 32) | listing.registryOrdinal();
+	}
+
+	/**
+	 * The registered entities of one type, by key and by ordinal. Ordinals are given out under a private lock which is never held while calling
+	 * out, so registering is safe inside computeIfAbsent and while another thread loads the type.
+	 */
+	private abstract static class Entries<K, T extends EntityBase> {
+
+		/** registers every persisted entity of the type */
+		protected abstract void load();
+
+		/** called once each entity has its ordinal */
+		protected void added(T entity) {
+		}
+
+		void loadOnce() {
+			if (loaded)
+				return;
+			synchronized (this) {
+				if (!loaded) {
+					load();
+					loaded = true;
+				}
+			}
+		}
+
+		/** @return the instance registered for the key, registering this one if there is none */
+		T register(K key, final T entity) {
+			T registered = byKey.get(key);
+			if (registered != null)
+				return registered;
+			return byKey.computeIfAbsent(key, new Function<K, T>() {
+				@Override
+				public T apply(K key) {
+					add(entity);
+					return entity;
+				}
+			});
+		}
+
+		void add(T entity) {
+			synchronized (ordinalLock) {
+				int ordinal = size;
+				EntityBase[] table = ordinal < entities.length ? entities : Arrays.copyOf(entities, entities.length * 2);
+				table[ordinal] = entity;
+				entity.setRegistryOrdinal(ordinal);
+				entities = table;
+				size = ordinal + 1;
+			}
+			added(entity);
+		}
+
+		boolean isRegistered(T entity) {
+			int ordinal = entity.registryOrdinal();
+			return ordinal >= 0 && byOrdinal(ordinal) == entity;
+		}
+
+		@SuppressWarnings("unchecked")
+		T byOrdinal(int ordinal) {
+			// size is written last, so reading it first makes the entity at any smaller ordinal visible
+			if (ordinal < 0 || ordinal >= size)
+				return null;
+			return (T) entities[ordinal];
+		}
+
+		int size() {
+			return size;
+		}
+
+		final ConcurrentHashMap<K, T> byKey = new ConcurrentHashMap<K, T>();
+		volatile boolean loaded;
+		/** held while an entity of the type is created and persisted, so each is inserted once */
+		final Object creationLock = new Object();
+		private final Object ordinalLock = new Object();
+		private volatile EntityBase[] entities = new EntityBase[16];
+		private volatile int size;
+
+	}
+
+	private final Entries<String, Exchange> exchanges = new Entries<String, Exchange>() {
+		@Override
+		protected void load() {
+			for (Exchange exchange : dao.findAll(Exchange.class)) {
+				exchange.setPersisted(true);
+				register(exchange.getSymbol(), exchange);
+			}
+		}
+	};
+
+	private final Entries<String, Currency> currencies = new Entries<String, Currency>() {
+		@Override
+		protected void load() {
+			for (Currency currency : dao.findAll(Currency.class)) {
+				currency.setPersisted(true);
+				register(currency.getSymbol(), currency);
+			}
+		}
+	};
+
+	private final Entries<String, Prompt> prompts = new Entries<String, Prompt>() {
+		@Override
+		protected void load() {
+			for (Prompt prompt : dao.findAll(Prompt.class)) {
+				prompt.setPersisted(true);
+				register(prompt.getSymbol(), prompt);
+			}
+		}
+	};
+
+	private final Entries<Long, Listing> listings = new Entries<Long, Listing>() {
+		@Override
+		protected void load() {
+			for (Listing listing : dao.findAll(Listing.class)) {
+				listing.setPersisted(true);
+				Currency base = intern(listing.getBase());
+				Currency quote = intern(listing.getQuote());
+				Prompt prompt = listing.getPrompt() == null ? null : intern(listing.getPrompt());
+				if (register(listingKey(base, quote, prompt), listing) == listing)
+					canonicalize(listing, base, quote, prompt);
+			}
+		}
+	};
+
+	private final Entries<Long, Market> markets = new Entries<Long, Market>() {
+		@Override
+		protected void load() {
+			for (Market market : dao.findAll(Market.class)) {
+				market.setPersisted(true);
+				Exchange exchange = intern(market.getExchange());
+				Listing listing = intern(market.getListing());
+				market.setExchange(exchange);
+				market.setListing(listing);
+				register(marketKey(exchange, listing), market);
+			}
+		}
+
+		@Override
+		protected void added(Market market) {
+			publish(market);
+		}
+	};
+
+	private final Function<String, Exchange> exchangeFinder = new Function<String, Exchange>() {
+		@Override
+		public Exchange apply(String symbol) {
+			return dao.findExchange(symbol);
+		}
+	};
+
+	private final Function<String, Currency> currencyFinder = new Function<String, Currency>() {
+		@Override
+		public Currency apply(String symbol) {
+			return dao.findCurrency(symbol);
+		}
+	};
+
+	private final Function<String, Prompt> promptFinder = new Function<String, Prompt>() {
+		@Override
+		public Prompt apply(String symbol) {
+			return dao.findPrompt(symbol);
+		}
+	};
+
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.referenceData");
+
+	private final ReferenceDataDao dao;
+	private final ListingFactory listingFactory;
+	private final MarketFactory marketFactory;
+	private final ConcurrentHashMap<String, Listing> listingsBySymbol = new ConcurrentHashMap<String, Listing>();
+	private volatile Market[][] marketTable = new Market[0][];
+
+}
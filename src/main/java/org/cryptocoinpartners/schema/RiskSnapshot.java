@@ -0,0 +1,86 @@
+package org.cryptocoinpartners.schema;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.joda.time.Instant;
+
+/**
+ * The unrealised PnL and market value of a portfolio service's open positions, marked at the last trade price of each market. Snapshots are
+ * immutable, so risk checks and strategies can read one without locking the portfolio service or walking its positions.
+ */
+public class RiskSnapshot {
+
+	public static final RiskSnapshot EMPTY = new RiskSnapshot(null, 0, null, Collections.<Asset, Amount> emptyMap(),
+			Collections.<Asset, Amount> emptyMap(), Collections.<Tradeable, Amount> emptyMap(), DecimalAmount.ZERO, DecimalAmount.ZERO);
+
+	public RiskSnapshot(Instant time, long sequence, Asset baseAsset, Map<Asset, Amount> unrealisedPnLs, Map<Asset, Amount> marketValues,
+			Map<Tradeable, Amount> marketUnrealisedPnLs, Amount baseUnrealisedPnL, Amount baseMarketValue) {
+		this.time = time;
+		this.sequence = sequence;
+		this.baseAsset = baseAsset;
+		this.unrealisedPnLs = Collections.unmodifiableMap(unrealisedPnLs);
+		this.marketValues = Collections.unmodifiableMap(marketValues);
+		this.marketUnrealisedPnLs = Collections.unmodifiableMap(marketUnrealisedPnLs);
+		this.baseUnrealisedPnL = baseUnrealisedPnL;
+		this.baseMarketValue = baseMarketValue;
+	}
+
+	/** the event time the snapshot was taken at, or null for the empty snapshot */
+	public Instant getTime() {
+		return time;
+	}
+
+	/** increases with each snapshot published */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/** the asset the base figures are converted to */
+	public Asset getBaseAsset() {
+		return baseAsset;
+	}
+
+	/** unrealised PnL by the currency it is earned in, as from PortfolioService.getUnrealisedPnLs() */
+	public Map<Asset, Amount> getUnrealisedPnLs() {
+		return unrealisedPnLs;
+	}
+
+	public Amount getUnrealisedPnL(Asset currency) {
+		Amount unrealisedPnL = unrealisedPnLs.get(currency);
+		return unrealisedPnL == null ? DecimalAmount.ZERO : unrealisedPnL;
+	}
+
+	/** market value by traded currency, as from PortfolioService.getMarketValues() */
+	public Map<Asset, Amount> getMarketValues() {
+		return marketValues;
+	}
+
+	public Map<Tradeable, Amount> getMarketUnrealisedPnLs() {
+		return marketUnrealisedPnLs;
+	}
+
+	public Amount getBaseUnrealisedPnL() {
+		return baseUnrealisedPnL;
+	}
+
+	public Amount getBaseMarketValue() {
+		return baseMarketValue;
+	}
+
+	@Override
+	public String toString() {
+		return "RiskSnapshot " + sequence + " at " + time + " unrealised PnL " + baseUnrealisedPnL + " " + baseAsset + " " + unrealisedPnLs
+				+ ", market value " + baseMarketValue + " " + baseAsset + " " + marketValues;
+	}
+
+	private final Instant time;
+	private final long sequence;
+	private final Asset baseAsset;
+	private final Map<Asset, Amount> unrealisedPnLs;
+	private final Map<Asset, Amount> marketValues;
+	private final Map<Tradeable, Amount> marketUnrealisedPnLs;
+	private final Amount baseUnrealisedPnL;
+	private final Amount baseMarketValue;
+
+}
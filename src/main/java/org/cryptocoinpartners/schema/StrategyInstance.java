@@ -41,6 +41,15 @@ public class StrategyInstance extends PortfolioManager implements Context.Attach
 		this.config = config;
 	}
 
+	/**
+	 * @param portfolioName the name of the Portfolio to find or create, so several instances of the same strategy can trade separate
+	 *            Portfolios
+	 */
+	public StrategyInstance(String moduleName, String portfolioName, Map<String, String> config) {
+		this(moduleName, config);
+		this.portfolioName = portfolioName;
+	}
+
 	public StrategyInstance(String moduleName, Configuration configuration) {
 		super(moduleName + " Portfolio");
 		this.moduleName = moduleName;
@@ -78,10 +87,11 @@ public class StrategyInstance extends PortfolioManager implements Context.Attach
 		// Set ourselves as the StrategyInstance
 		//      context.loadStatements("BasicPortfolioService");
 
-		portfolio = Portfolio.findOrCreate(getModuleName(), context);
+		String name = portfolioName == null ? getModuleName() : portfolioName;
+		portfolio = Portfolio.findOrCreate(name, context);
 		if (portfolio == null) {
 			portfolio = context.getInjector().getInstance(Portfolio.class);
-			portfolio.setName(getModuleName());
+			portfolio.setName(name);
 			portfolio.persit();
 		} else {
 			portfolio.setPersisted(true);
@@ -153,4 +163,5 @@ public class StrategyInstance extends PortfolioManager implements Context.Attach
 	//private Portfolio portfolio;
 	private Map<String, String> config;
 	private Object strategy;
+	private String portfolioName;
 }
@@ -0,0 +1,106 @@
+package org.cryptocoinpartners.schema;
+
+import org.joda.time.Instant;
+
+/**
+ * The best bid and ask of a market at one moment, as counts of the market's price and volume bases. Unlike a Book this is a plain value, not
+ * an entity, so it is cheap enough to make for every Trade and Book the order services see. Volumes follow the {@link Offer} convention: the
+ * bid volume is positive and the ask volume negative. A side with no price has a price count of zero. See also {@link LiveBook#topOfBook()}.
+ */
+public final class TopOfBook {
+
+	/** a Trade is taken as both the best bid and the best ask, for the traded volume */
+	public static TopOfBook of(Trade trade) {
+		long priceCount = trade.getPriceCount() == null ? 0L : trade.getPriceCount();
+		long volumeCount = trade.getVolumeCount() == null ? 0L : Math.abs(trade.getVolumeCount());
+		return new TopOfBook(trade.getMarket(), trade.getTime(), trade.getTimeReceived(), priceCount, volumeCount, priceCount, -volumeCount);
+	}
+
+	public static TopOfBook of(Book book) {
+		boolean hasBids = book.getBidDepth() > 0;
+		boolean hasAsks = book.getAskDepth() > 0;
+		return new TopOfBook(book.getMarket(), book.getTime(), book.getTimeReceived(), hasBids ? book.getBidPriceCount(0) : 0L,
+				hasBids ? book.getBidVolumeCount(0) : 0L, hasAsks ? book.getAskPriceCount(0) : 0L, hasAsks ? book.getAskVolumeCount(0) : 0L);
+	}
+
+	public TopOfBook(Tradeable market, Instant time, Instant timeReceived, long bidPriceCount, long bidVolumeCount, long askPriceCount,
+			long askVolumeCount) {
+		this.market = market;
+		this.time = time;
+		this.timeReceived = timeReceived;
+		this.bidPriceCount = bidPriceCount;
+		this.bidVolumeCount = bidVolumeCount;
+		this.askPriceCount = askPriceCount;
+		this.askVolumeCount = askVolumeCount;
+	}
+
+	public Tradeable getMarket() {
+		return market;
+	}
+
+	public Instant getTime() {
+		return time;
+	}
+
+	public Instant getTimeReceived() {
+		return timeReceived;
+	}
+
+	public long getTimestamp() {
+		return time.getMillis();
+	}
+
+	public boolean hasBid() {
+		return bidPriceCount != 0;
+	}
+
+	public boolean hasAsk() {
+		return askPriceCount != 0;
+	}
+
+	public long getBidPriceCount() {
+		return bidPriceCount;
+	}
+
+	public long getBidVolumeCount() {
+		return bidVolumeCount;
+	}
+
+	public long getAskPriceCount() {
+		return askPriceCount;
+	}
+
+	/** negative, as for ask Offers */
+	public long getAskVolumeCount() {
+		return askVolumeCount;
+	}
+
+	public DiscreteAmount getBidPrice() {
+		if (bidPrice == null)
+			bidPrice = new DiscreteAmount(bidPriceCount, market.getPriceBasis());
+		return bidPrice;
+	}
+
+	public DiscreteAmount getAskPrice() {
+		if (askPrice == null)
+			askPrice = new DiscreteAmount(askPriceCount, market.getPriceBasis());
+		return askPrice;
+	}
+
+	@Override
+	public String toString() {
+		return "TopOfBook{market=" + market + ", time=" + time + ", bid=" + bidVolumeCount + "@" + bidPriceCount + ", ask=" + askVolumeCount + "@"
+				+ askPriceCount + '}';
+	}
+
+	private final Tradeable market;
+	private final Instant time;
+	private final Instant timeReceived;
+	private final long bidPriceCount;
+	private final long bidVolumeCount;
+	private final long askPriceCount;
+	private final long askVolumeCount;
+	private DiscreteAmount bidPrice;
+	private DiscreteAmount askPrice;
+
+}
@@ -33,6 +33,9 @@ public interface Dao {
 
 	void persistEntities(boolean bulkInsert, EntityBase... entities) throws Throwable;
 
+	/** inserts all the entities in one transaction, or none of them if any insert fails */
+	void insertBatch(List<? extends EntityBase> entities) throws Throwable;
+
 	<T> EntityBase mergeEntities(boolean bulkInsert, EntityBase... entities) throws Throwable;
 
 	void deleteEntities(EntityBase... entities);
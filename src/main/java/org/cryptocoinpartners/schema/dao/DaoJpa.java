@@ -946,6 +946,21 @@ public abstract class DaoJpa implements Dao, java.io.Serializable {
 
 	}
 
+	/**
+	 * the inserts are sent in JDBC batches of hibernate.jdbc.batch_size when the transaction commits. Entities are not marked as persisted here, as
+	 * the caller only knows the batch succeeded once this returns
+	 */
+	@Override
+	@Transactional
+	public void insertBatch(List<? extends EntityBase> entities) throws Throwable {
+		EntityManager em = entityManager.get();
+		for (EntityBase entity : entities) {
+			synchronized (entity) {
+				em.persist(entity);
+			}
+		}
+	}
+
 	@Transactional
 	public void bulkInsert(EntityBase entity) throws Throwable {
 		synchronized (bulkInsertEntities) {
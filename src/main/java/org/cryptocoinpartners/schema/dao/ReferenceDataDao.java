@@ -0,0 +1,40 @@
+package org.cryptocoinpartners.schema.dao;
+
+import java.util.List;
+
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.EntityBase;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Prompt;
+
+/**
+ * The queries the ReferenceDataRegistry falls back to when an Exchange, Currency, Prompt, Listing or Market is not yet registered. The finders
+ * return null rather than throwing when nothing matches.
+ */
+public interface ReferenceDataDao {
+
+	/** @return every persisted entity of the type, in one query */
+	<T extends EntityBase> List<T> findAll(Class<T> type);
+
+	Exchange findExchange(String symbol);
+
+	Currency findCurrency(String symbol);
+
+	Prompt findPrompt(String symbol);
+
+	/** @param prompt null for a spot listing */
+	Listing findListing(Asset base, Asset quote, Prompt prompt);
+
+	Market findMarket(Exchange exchange, Listing listing);
+
+	/**
+	 * inserts a newly created entity
+	 *
+	 * @throws RuntimeException if it could not be inserted
+	 */
+	void persist(EntityBase entity);
+
+}
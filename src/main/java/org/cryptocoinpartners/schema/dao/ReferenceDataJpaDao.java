@@ -0,0 +1,67 @@
+package org.cryptocoinpartners.schema.dao;
+
+import java.util.List;
+
+import javax.persistence.NoResultException;
+import javax.persistence.PersistenceException;
+
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.EntityBase;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Prompt;
+import org.cryptocoinpartners.util.EM;
+
+public class ReferenceDataJpaDao implements ReferenceDataDao {
+
+	@Override
+	public <T extends EntityBase> List<T> findAll(Class<T> type) {
+		return EM.queryList(type, "select x from " + type.getSimpleName() + " x");
+	}
+
+	@Override
+	public Exchange findExchange(String symbol) {
+		return EM.queryZeroOne(Exchange.class, "select e from Exchange e where symbol=?1", symbol);
+	}
+
+	@Override
+	public Currency findCurrency(String symbol) {
+		return EM.queryZeroOne(Currency.class, "select c from Currency c where symbol=?1", symbol);
+	}
+
+	@Override
+	public Prompt findPrompt(String symbol) {
+		return EM.queryZeroOne(Prompt.class, "select p from Prompt p where symbol=?1", symbol);
+	}
+
+	@Override
+	public Listing findListing(Asset base, Asset quote, Prompt prompt) {
+		if (prompt == null)
+			return EM.namedQueryZeroOne(Listing.class, "Listing.findByQuoteBase", base, quote);
+		return EM.namedQueryZeroOne(Listing.class, "Listing.findByQuoteBasePrompt", base, quote, prompt);
+	}
+
+	@Override
+	public Market findMarket(Exchange exchange, Listing listing) {
+		try {
+			List<Market> results = EM.namedQueryList(Market.class, "Market.findByMarket", exchange, listing);
+			return results == null || results.isEmpty() ? null : results.get(0);
+		} catch (NoResultException e) {
+			return null;
+		}
+	}
+
+	@Override
+	public void persist(EntityBase entity) {
+		try {
+			entity.getDao().persistEntities(false, entity);
+		} catch (RuntimeException | Error e) {
+			throw e;
+		} catch (Throwable e) {
+			throw new PersistenceException("Unable to persist " + entity.getClass().getSimpleName() + " " + entity, e);
+		}
+	}
+
+}
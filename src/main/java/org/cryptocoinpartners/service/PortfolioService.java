@@ -14,6 +14,7 @@ import org.cryptocoinpartners.schema.Listing;
 import org.cryptocoinpartners.schema.Market;
 import org.cryptocoinpartners.schema.Portfolio;
 import org.cryptocoinpartners.schema.Position;
+import org.cryptocoinpartners.schema.RiskSnapshot;
 import org.cryptocoinpartners.schema.Trade;
 
 /**
@@ -63,6 +64,9 @@ public interface PortfolioService {
 
 	Map<Asset, Amount> getMarketValues();
 
+	/** the unrealised PnL and market values of the open positions as last marked to market, read without revaluing them */
+	RiskSnapshot getRiskSnapshot();
+
 	Map<Asset, Amount> getCashBalances();
 
 	Map<Asset, Amount> getRealisedPnLs();
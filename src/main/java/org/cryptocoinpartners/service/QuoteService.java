@@ -1,16 +1,19 @@
 package org.cryptocoinpartners.service;
 
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.Nullable;
 
 import org.cryptocoinpartners.schema.Bar;
 import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Exchange;
 import org.cryptocoinpartners.schema.Listing;
 import org.cryptocoinpartners.schema.Market;
 import org.cryptocoinpartners.schema.Offer;
 import org.cryptocoinpartners.schema.Trade;
 import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.Instant;
 
 /**
  * QuoteService provides the latest MarketData for a given Listing or Market
@@ -58,10 +61,29 @@ public interface QuoteService {
 	public @Nullable
 	org.cryptocoinpartners.schema.Offer getLastAskForMarket(Tradeable market);
 
+	/** returns the best ask for the listing implied by chains of up to quotes.implied.max.hops markets on any exchanges */
 	Offer getImpliedBestAskForListing(Listing listing);
 
+	/** returns the best bid for the listing implied by chains of up to quotes.implied.max.hops markets on any exchanges */
 	Offer getImpliedBestBidForListing(Listing listing);
 
+	/** returns the best implied ask using only markets on the given exchange, or on any exchanges if it is null */
+	@Nullable
+	Offer getImpliedBestAskForListing(Listing listing, @Nullable Exchange exchange);
+
+	/** returns the best implied bid using only markets on the given exchange, or on any exchanges if it is null */
+	@Nullable
+	Offer getImpliedBestBidForListing(Listing listing, @Nullable Exchange exchange);
+
+	/** returns the markets behind the implied ask, in the order they would be traded starting by spending the quote.  empty if there is none */
+	List<Market> getImpliedAskPath(Listing listing, @Nullable Exchange exchange);
+
+	/** returns the markets behind the implied bid, in the order they would be traded starting by selling the base.  empty if there is none */
+	List<Market> getImpliedBidPath(Listing listing, @Nullable Exchange exchange);
+
 	Trade getLastImpliedTrade(Listing listing);
 
+	/** records that a poll found the market's book unchanged at the time, so its last book still counts towards the implied rates */
+	void bookUnchanged(Market market, Instant time);
+
 }
@@ -0,0 +1,586 @@
+package org.cryptocoinpartners.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.Nullable;
+
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Market;
+
+/**
+ * The best implied bid and ask between every pair of assets, through chains of at most maxHops markets, replacing the ListingsMatrix cross
+ * rates. Assets are nodes and each market is two edges: base to quote weighted by the log of its bid, and quote to base weighted by minus the
+ * log of its ask. The best implied bid of X in Y is then the heaviest simple path from X to Y, and the best implied ask is one over the heaviest
+ * path from Y to X. Rates are kept across all exchanges and, separately, within each exchange.
+ * <p>
+ * Updates are serialised and only recompute the source assets an edge change can affect: those whose best paths used the edge and, when the
+ * edge improved, those within maxHops - 1 hops of its start. A market whose last update is older than staleMillis, in event time, drops out of
+ * every path. The best paths from each source asset are published together as an immutable row, so readers never lock.
+ */
+public class CrossRateGraph {
+
+	public CrossRateGraph(int maxHops, long staleMillis) {
+		this.maxHops = Math.max(maxHops, 1);
+		this.staleMillis = staleMillis;
+		this.stack = new int[this.maxHops];
+		this.prefix = new int[this.maxHops];
+		this.any = new Layer(capacity);
+	}
+
+	/**
+	 * Sets the market's top of book. A bid or ask which is not positive takes that side out of the graph.
+	 *
+	 * @param time the event time of the quote, which also advances the graph's clock
+	 */
+	public synchronized void update(Market market, double bid, double ask, long time) {
+		int m = marketId(market);
+		if (m < 0)
+			return;
+		if (time > clock)
+			clock = time;
+		marketTime[m] = time;
+		marketBid[m] = bid;
+		marketAsk[m] = ask;
+		boolean live = clock - time <= staleMillis;
+		setWeight(2 * m, live && bid > 0 && bid < Double.POSITIVE_INFINITY ? Math.log(bid) : NONE);
+		setWeight(2 * m + 1, live && ask > 0 && ask < Double.POSITIVE_INFINITY ? -Math.log(ask) : NONE);
+		if (live && time < oldest)
+			oldest = time;
+		if (clock - staleMillis > oldest)
+			expire();
+	}
+
+	/**
+	 * Keeps the market's last quote, as when a poll finds its book unchanged, so a market which is quiet but still live does not go stale. Does
+	 * nothing for a market which has never been quoted or has a later quote.
+	 */
+	public synchronized void touch(Market market, long time) {
+		Integer m = marketIds.get(market);
+		if (m != null && time > marketTime[m])
+			update(market, marketBid[m], marketAsk[m], time);
+	}
+
+	/**
+	 * advances the clock without a quote, dropping markets which have gone stale by now. Only takes the lock when a market is due to expire, so it
+	 * can be called before every read.
+	 */
+	public void advance(long now) {
+		if (now - staleMillis <= oldest)
+			return;
+		synchronized (this) {
+			if (now > clock)
+				clock = now;
+			if (clock - staleMillis > oldest)
+				expire();
+		}
+	}
+
+	/** @return how much quote selling one base would raise, or NaN if there is no path */
+	public double getBid(Asset base, Asset quote, @Nullable Exchange exchange) {
+		return Math.exp(best(base, quote, exchange));
+	}
+
+	/** @return how much quote buying one base would cost, or NaN if there is no path */
+	public double getAsk(Asset base, Asset quote, @Nullable Exchange exchange) {
+		return Math.exp(-best(quote, base, exchange));
+	}
+
+	/** @return the geometric mean of the bid and ask, or NaN if either is missing */
+	public double getMid(Asset base, Asset quote, @Nullable Exchange exchange) {
+		return Math.exp((best(base, quote, exchange) - best(quote, base, exchange)) / 2);
+	}
+
+	/**
+	 * @return the markets behind getBid in the order they would be traded, starting by selling base. Each leg sells the asset in hand if it is
+	 *         the market's base and buys the market's base with it otherwise. Empty if there is no path or base is quote.
+	 */
+	public List<Market> getBidPath(Asset base, Asset quote, @Nullable Exchange exchange) {
+		return path(base, quote, exchange);
+	}
+
+	/** @return the markets behind getAsk in the order they would be traded, starting by spending quote */
+	public List<Market> getAskPath(Asset base, Asset quote, @Nullable Exchange exchange) {
+		return path(quote, base, exchange);
+	}
+
+	public int getMaxHops() {
+		return maxHops;
+	}
+
+	public long getStaleMillis() {
+		return staleMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "CrossRateGraph[" + nodes.size() + " assets, " + marketCount + " markets, " + layers.size() + " exchanges, " + maxHops + " hops]";
+	}
+
+	/** @return the log of the best conversion from one unit of from into to, NaN if there is none */
+	private double best(Asset from, Asset to, @Nullable Exchange exchange) {
+		if (from == null || to == null)
+			return Double.NaN;
+		if (from.equals(to))
+			return 0;
+		Integer source = nodes.get(from);
+		Integer target = nodes.get(to);
+		if (source == null || target == null)
+			return Double.NaN;
+		Row row = row(source, exchange);
+		if (row == null || target >= row.weights.length || row.weights[target] == NONE)
+			return Double.NaN;
+		return row.weights[target];
+	}
+
+	private List<Market> path(Asset from, Asset to, @Nullable Exchange exchange) {
+		Integer source = from == null ? null : nodes.get(from);
+		Integer target = to == null ? null : nodes.get(to);
+		if (source == null || target == null)
+			return Collections.emptyList();
+		Row row = row(source, exchange);
+		if (row == null || target >= row.weights.length || row.weights[target] == NONE)
+			return Collections.emptyList();
+		Market[] markets = this.markets;
+		List<Market> legs = new ArrayList<Market>(row.hops[target]);
+		for (int i = 0; i < row.hops[target]; i++)
+			legs.add(markets[row.legs[target * maxHops + i] >> 1]);
+		return Collections.unmodifiableList(legs);
+	}
+
+	private Row row(int source, @Nullable Exchange exchange) {
+		Layer layer = exchange == null ? any : layers.get(exchange);
+		if (layer == null)
+			return null;
+		AtomicReferenceArray<Row> rows = layer.rows;
+		return source < rows.length() ? rows.get(source) : null;
+	}
+
+	// the rest runs on the update thread, holding the lock
+
+	private int marketId(Market market) {
+		Integer id = marketIds.get(market);
+		if (id != null)
+			return id;
+		Asset base = market.getBase();
+		Asset quote = market.getQuote();
+		if (base == null || quote == null || base.equals(quote) || market.getExchange() == null)
+			return -1;
+		int m = marketCount;
+		if (m == marketBase.length) {
+			int length = m * 2;
+			marketBase = Arrays.copyOf(marketBase, length);
+			marketQuote = Arrays.copyOf(marketQuote, length);
+			marketLayer = Arrays.copyOf(marketLayer, length);
+			marketTime = Arrays.copyOf(marketTime, length);
+			marketBid = Arrays.copyOf(marketBid, length);
+			marketAsk = Arrays.copyOf(marketAsk, length);
+			weights = Arrays.copyOf(weights, 2 * length);
+		}
+		marketBase[m] = nodeId(base);
+		marketQuote[m] = nodeId(quote);
+		Layer layer = layers.get(market.getExchange());
+		if (layer == null) {
+			layer = new Layer(capacity);
+			layerList.add(layer);
+			layers.put(market.getExchange(), layer);
+		}
+		marketLayer[m] = layerList.indexOf(layer);
+		weights[2 * m] = NONE;
+		weights[2 * m + 1] = NONE;
+		Market[] markets = Arrays.copyOf(this.markets, m + 1);
+		markets[m] = market;
+		this.markets = markets;
+		marketCount = m + 1;
+		any.add(2 * m);
+		any.add(2 * m + 1);
+		layer.add(2 * m);
+		layer.add(2 * m + 1);
+		marketIds.put(market, m);
+		return m;
+	}
+
+	private int nodeId(Asset asset) {
+		Integer id = nodes.get(asset);
+		if (id != null)
+			return id;
+		int node = nodes.size();
+		if (node == capacity) {
+			capacity *= 2;
+			visited = new boolean[capacity];
+			any.resize(capacity);
+			for (Layer layer : layerList)
+				layer.resize(capacity);
+		}
+		nodes.put(asset, node);
+		return node;
+	}
+
+	private void setWeight(int edge, double weight) {
+		if (weights[edge] == weight)
+			return;
+		weights[edge] = weight;
+		any.changed(edge);
+		layerList.get(marketLayer[edge >> 1]).changed(edge);
+	}
+
+	private void expire() {
+		long cutoff = clock - staleMillis;
+		long oldest = Long.MAX_VALUE;
+		for (int m = 0; m < marketCount; m++) {
+			if (weights[2 * m] == NONE && weights[2 * m + 1] == NONE)
+				continue;
+			if (marketTime[m] < cutoff) {
+				setWeight(2 * m, NONE);
+				setWeight(2 * m + 1, NONE);
+			} else if (marketTime[m] < oldest)
+				oldest = marketTime[m];
+		}
+		this.oldest = oldest;
+	}
+
+	private int from(int edge) {
+		return (edge & 1) == 0 ? marketBase[edge >> 1] : marketQuote[edge >> 1];
+	}
+
+	private int to(int edge) {
+		return (edge & 1) == 0 ? marketQuote[edge >> 1] : marketBase[edge >> 1];
+	}
+
+	/** the pairwise best edges over one set of markets, and the best paths from each source through them */
+	private class Layer {
+
+		Layer(int capacity) {
+			allocate(capacity);
+			rows = new AtomicReferenceArray<Row>(capacity);
+		}
+
+		/** adds an edge with no weight yet */
+		void add(int edge) {
+			int pair = from(edge) * size + to(edge);
+			int[] edges = pairEdges[pair];
+			if (edges == null)
+				edges = new int[] { edge };
+			else {
+				edges = Arrays.copyOf(edges, edges.length + 1);
+				edges[edges.length - 1] = edge;
+			}
+			pairEdges[pair] = edges;
+		}
+
+		void changed(int edge) {
+			int from = from(edge);
+			int pair = from * size + to(edge);
+			double best = NONE;
+			int bestEdge = -1;
+			for (int candidate : pairEdges[pair])
+				if (weights[candidate] > best) {
+					best = weights[candidate];
+					bestEdge = candidate;
+				}
+			double previous = pairWeight[pair];
+			if (best == previous && bestEdge == pairEdge[pair])
+				return;
+			pairWeight[pair] = best;
+			pairEdge[pair] = bestEdge;
+			if (previous == NONE)
+				link(from, to(edge));
+			else if (best == NONE)
+				unlink(from, to(edge));
+
+			System.arraycopy(users, pair * words, dirty, 0, words);
+			if (best < previous) {
+				// the sources whose best paths used the pair may now do better without it
+				for (int w = 0; w < words; w++)
+					for (long bits = dirty[w]; bits != 0; bits &= bits - 1)
+						recompute(w * 64 + Long.numberOfTrailingZeros(bits));
+				return;
+			}
+			// every path through the pair gained the same, so paths which were best through it still are, and the only new bests are through it
+			for (int w = 0; w < words; w++)
+				for (long bits = dirty[w]; bits != 0; bits &= bits - 1)
+					repath(w * 64 + Long.numberOfTrailingZeros(bits), pair);
+			if (best > previous) {
+				visited[from] = true;
+				extend(from, 0, 0, from, to(edge));
+				visited[from] = false;
+			}
+			publish();
+		}
+
+		void resize(int capacity) {
+			int oldSize = size;
+			int[][] oldEdges = pairEdges;
+			allocate(capacity);
+			for (int from = 0; from < oldSize; from++)
+				for (int to = 0; to < oldSize; to++) {
+					int[] edges = oldEdges[from * oldSize + to];
+					if (edges == null)
+						continue;
+					int pair = from * size + to;
+					pairEdges[pair] = edges;
+					for (int edge : edges)
+						if (weights[edge] > pairWeight[pair]) {
+							pairWeight[pair] = weights[edge];
+							pairEdge[pair] = edge;
+						}
+					if (pairWeight[pair] != NONE)
+						link(from, to);
+				}
+			AtomicReferenceArray<Row> previous = rows;
+			AtomicReferenceArray<Row> resized = new AtomicReferenceArray<Row>(capacity);
+			for (int source = 0; source < previous.length(); source++)
+				resized.set(source, previous.get(source));
+			rows = resized;
+			for (int source = 0; source < oldSize; source++)
+				recompute(source);
+		}
+
+		private void allocate(int capacity) {
+			size = capacity;
+			words = (capacity + 63) >>> 6;
+			pairEdges = new int[capacity * capacity][];
+			pairWeight = new double[capacity * capacity];
+			Arrays.fill(pairWeight, NONE);
+			pairEdge = new int[capacity * capacity];
+			Arrays.fill(pairEdge, -1);
+			out = new int[capacity][capacity];
+			in = new int[capacity][capacity];
+			outCount = new int[capacity];
+			inCount = new int[capacity];
+			users = new long[capacity * capacity * words];
+			dirty = new long[words];
+			pending = new Row[capacity];
+			touched = new int[capacity];
+		}
+
+		private void link(int from, int to) {
+			out[from][outCount[from]++] = to;
+			in[to][inCount[to]++] = from;
+		}
+
+		private void unlink(int from, int to) {
+			remove(out[from], outCount[from]--, to);
+			remove(in[to], inCount[to]--, from);
+		}
+
+		private void remove(int[] nodes, int count, int node) {
+			for (int i = 0; i < count; i++)
+				if (nodes[i] == node) {
+					nodes[i] = nodes[count - 1];
+					return;
+				}
+		}
+
+		/** gives the paths from source which go through pair its current best edge and weight */
+		private void repath(int source, int pair) {
+			Row row = pending(source);
+			for (int target = 0; target < row.hops.length; target++) {
+				int legs = target * maxHops;
+				boolean through = false;
+				for (int i = 0; i < row.hops[target]; i++)
+					if (from(row.legs[legs + i]) * size + to(row.legs[legs + i]) == pair) {
+						row.legs[legs + i] = pairEdge[pair];
+						through = true;
+					}
+				if (through) {
+					double weight = 0;
+					for (int i = 0; i < row.hops[target]; i++)
+						weight += weights[row.legs[legs + i]];
+					row.weights[target] = weight;
+				}
+			}
+		}
+
+		/**
+		 * Relaxes every simple path which reaches from through the prefix and then takes the pair from, to. The prefix is grown backwards, so
+		 * node is its first asset and the path's source, prefix[depth - 1] its first edge, and weight its total.
+		 */
+		private void extend(int node, int depth, double weight, int from, int to) {
+			if (!visited[to]) {
+				for (int i = 0; i < depth; i++)
+					stack[i] = prefix[depth - 1 - i];
+				int pair = from * size + to;
+				stack[depth] = pairEdge[pair];
+				Row row = pending(node);
+				double reached = weight + pairWeight[pair];
+				relax(row, to, depth + 1, reached);
+				if (depth + 1 < maxHops) {
+					visited[to] = true;
+					search(row, to, depth + 1, reached);
+					visited[to] = false;
+				}
+			}
+			if (depth + 2 <= maxHops)
+				for (int i = 0; i < inCount[node]; i++) {
+					int source = in[node][i];
+					if (visited[source] || source == to)
+						continue;
+					int pair = source * size + node;
+					prefix[depth] = pairEdge[pair];
+					visited[source] = true;
+					extend(source, depth + 1, pairWeight[pair] + weight, from, to);
+					visited[source] = false;
+				}
+		}
+
+		/** @return a copy of source's row to change, published with the others by publish */
+		private Row pending(int source) {
+			Row row = pending[source];
+			if (row == null) {
+				Row current = rows.get(source);
+				row = current == null ? new Row(size, maxHops) : new Row(current);
+				pending[source] = row;
+				touched[touchedCount++] = source;
+			}
+			return row;
+		}
+
+		private void publish() {
+			for (int i = 0; i < touchedCount; i++) {
+				int source = touched[i];
+				Row previous = rows.get(source);
+				if (previous != null)
+					use(previous, source, false);
+				use(pending[source], source, true);
+				rows.set(source, pending[source]);
+				pending[source] = null;
+			}
+			touchedCount = 0;
+		}
+
+		private void recompute(int source) {
+			Row row = new Row(size, maxHops);
+			visited[source] = true;
+			search(row, source, 0, 0);
+			visited[source] = false;
+			Row previous = rows.get(source);
+			if (previous != null)
+				use(previous, source, false);
+			use(row, source, true);
+			rows.set(source, row);
+		}
+
+		/** depth first over the simple paths from node, which was reached with weight so far through stack[0, depth) */
+		private void search(Row row, int node, int depth, double weight) {
+			int[] targets = out[node];
+			for (int i = 0; i < outCount[node]; i++) {
+				int to = targets[i];
+				if (visited[to])
+					continue;
+				int pair = node * size + to;
+				double reached = weight + pairWeight[pair];
+				stack[depth] = pairEdge[pair];
+				relax(row, to, depth + 1, reached);
+				if (depth + 1 < maxHops) {
+					visited[to] = true;
+					search(row, to, depth + 1, reached);
+					visited[to] = false;
+				}
+			}
+		}
+
+		/** records the path in stack[0, hops) to target if it beats the best so far */
+		private void relax(Row row, int target, int hops, double weight) {
+			if (weight > row.weights[target]) {
+				row.weights[target] = weight;
+				row.hops[target] = hops;
+				System.arraycopy(stack, 0, row.legs, target * maxHops, hops);
+			}
+		}
+
+		/** sets or clears source's bit in the users of every pair its paths go through */
+		private void use(Row row, int source, boolean set) {
+			long bit = 1L << source;
+			int word = source >>> 6;
+			for (int target = 0; target < row.hops.length; target++)
+				for (int i = 0; i < row.hops[target]; i++) {
+					int edge = row.legs[target * maxHops + i];
+					int index = (from(edge) * size + to(edge)) * words + word;
+					if (set)
+						users[index] |= bit;
+					else
+						users[index] &= ~bit;
+				}
+		}
+
+		private int size;
+		private int words;
+		/** the edges between each ordered pair of nodes, the weight of the best live one and which it is */
+		private int[][] pairEdges;
+		private double[] pairWeight;
+		private int[] pairEdge;
+		/** live pairs as adjacency lists */
+		private int[][] out;
+		private int[][] in;
+		private int[] outCount;
+		private int[] inCount;
+		/** for each pair, a bitset of the sources whose best paths go through it */
+		private long[] users;
+		private long[] dirty;
+		private Row[] pending;
+		private int[] touched;
+		private int touchedCount;
+		private volatile AtomicReferenceArray<Row> rows;
+
+	}
+
+	/** the best paths from one source, published whole */
+	private static class Row {
+
+		Row(int size, int maxHops) {
+			weights = new double[size];
+			Arrays.fill(weights, NONE);
+			hops = new int[size];
+			legs = new int[size * maxHops];
+		}
+
+		Row(Row row) {
+			weights = row.weights.clone();
+			hops = row.hops.clone();
+			legs = row.legs.clone();
+		}
+
+		private final double[] weights;
+		private final int[] hops;
+		private final int[] legs;
+
+	}
+
+	private static final double NONE = Double.NEGATIVE_INFINITY;
+
+	private final int maxHops;
+	private final long staleMillis;
+	private final Map<Asset, Integer> nodes = new ConcurrentHashMap<Asset, Integer>();
+	private final Map<Exchange, Layer> layers = new ConcurrentHashMap<Exchange, Layer>();
+	private final Layer any;
+	private volatile Market[] markets = new Market[0];
+
+	// update thread only.  markets come from the reference data registry, so identity saves hashing them on every quote
+	private final Map<Market, Integer> marketIds = new IdentityHashMap<Market, Integer>();
+	private final List<Layer> layerList = new ArrayList<Layer>();
+	private int capacity = 16;
+	private int marketCount;
+	private int[] marketBase = new int[16];
+	private int[] marketQuote = new int[16];
+	private int[] marketLayer = new int[16];
+	private long[] marketTime = new long[16];
+	private double[] marketBid = new double[16];
+	private double[] marketAsk = new double[16];
+	/** the log weight of each market's two edges, 2m selling base and 2m + 1 buying it */
+	private double[] weights = new double[32];
+	private long clock = Long.MIN_VALUE;
+	/** the time of the least recently updated live market, read without the lock by {@link #advance(long)} */
+	private volatile long oldest = Long.MAX_VALUE;
+	private boolean[] visited = new boolean[capacity];
+	private final int[] stack;
+	private final int[] prefix;
+
+}
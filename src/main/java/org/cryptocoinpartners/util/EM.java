@@ -9,12 +9,15 @@ import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.persistence.EntityGraph;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 import javax.persistence.NoResultException;
 import javax.persistence.OptimisticLockException;
 import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
 import org.cryptocoinpartners.schema.EntityBase;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -729,6 +732,44 @@ public class EM {
 
 	}
 
+	/**
+	 * Opens a forward-only cursor over a query. Unlike the other query methods the cursor has its own EntityManager, which stays open until the
+	 * cursor is closed, and rows are only read from the database <code>fetchSize</code> at a time.
+	 *
+	 * @return the cursor, or null if the query could not be executed
+	 */
+	public static <T> QueryCursor<T> queryCursor(Class<T> resultType, int fetchSize, String queryStr, Object... params) {
+		EntityManagerFactory entityManagerFactory;
+		try {
+			beginUnitOfWork();
+			entityManagerFactory = em().getEntityManagerFactory();
+		} finally {
+			unitOfWork.end();
+		}
+		EntityManager cursorEntityManager = entityManagerFactory.createEntityManager();
+		try {
+			final TypedQuery<T> query = cursorEntityManager.createQuery(queryStr, resultType);
+			if (params != null) {
+				for (int i = 0; i < params.length; i++) {
+					Object param = params[i];
+					query.setParameter(i + 1, param); // JPA uses 1-based indexes
+				}
+			}
+			@SuppressWarnings("unchecked")
+			org.hibernate.query.Query<T> hibernateQuery = query.unwrap(org.hibernate.query.Query.class);
+			hibernateQuery.setFetchSize(fetchSize);
+			hibernateQuery.setReadOnly(true);
+			hibernateQuery.setCacheable(false);
+			ScrollableResults results = hibernateQuery.scroll(ScrollMode.FORWARD_ONLY);
+			return new QueryCursor<T>(cursorEntityManager, results, resultType, fetchSize);
+		} catch (Error | Exception e) {
+			log.error(EM.class.getClass().getSimpleName() + " - queryCursor Unable to complete query " + queryStr + " for  " + resultType.getSimpleName()
+					+ ", full stack trace follows:", e);
+			cursorEntityManager.close();
+			return null;
+		}
+	}
+
 	//   @Transactional
 	public static <T> void queryEach(Class<T> resultType, Visitor<T> handler, String queryStr, Object... params) {
 		queryEach(resultType, handler, defaultBatchSize, queryStr, params);
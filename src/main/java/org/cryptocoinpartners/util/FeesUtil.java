@@ -24,7 +24,12 @@ public class FeesUtil {
 	protected transient QuoteService quotes;
 
 	public static Amount getCommission(Fill fill) {
-		double rate = fill.getMarket().getFeeRate(fill.getOrder().getExecutionInstruction());
+		return getCommission(fill, fill.getOrder().getExecutionInstruction());
+	}
+
+	/** the commission on the fill at the maker or taker rate, whichever the fill actually was, rather than the one its order asked for */
+	public static Amount getCommission(Fill fill, ExecutionInstruction executionInstruction) {
+		double rate = fill.getMarket().getFeeRate(executionInstruction);
 		//* fill.getMarket().getContractSize();
 		//* fill.getMarket().getMargin();
 		FeeMethod method = fill.getMarket().getFeeMethod();
@@ -120,9 +120,11 @@ public class Injector {
 		properties.put("hibernate.flushMode", "COMMIT");
 		properties.put("hibernate.jdbc.fetch_size", ConfigUtil.combined().getString("db.fetch_size", "10000"));
 		properties.put("hibernate.connection.release_mode", "auto");
-		//properties.put("hibernate.jdbc.batch_size", ConfigUtil.combined().getString("db.batch_size", "1000000000"));
-		//properties.put("hibernate.order_inserts", "true");
-		//properties.put("hibernate.order_updates", "true");
+		// statements of the same type in one transaction are sent to the database together
+		properties.put("hibernate.jdbc.batch_size", ConfigUtil.combined().getString("db.jdbc.batch_size", "50"));
+		properties.put("hibernate.order_inserts", "true");
+		properties.put("hibernate.order_updates", "true");
+		properties.put("hibernate.jdbc.batch_versioned_data", "true");
 
 		properties.put("hibernate.connection.provider_class", "org.hibernate.connection.C3P0ConnectionProvider");
 		properties.put("hibernate.cache.region.factory_class", "org.hibernate.cache.ehcache.EhCacheRegionFactory");
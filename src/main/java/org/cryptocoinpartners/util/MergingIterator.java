@@ -0,0 +1,66 @@
+package org.cryptocoinpartners.util;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges several iterators, each already ordered by the same comparator, into one ordered iterator. Only the head element of each source is held,
+ * in a heap of size k, so merging costs O(log k) per element and memory does not depend on the length of the sources. When heads compare equal the
+ * source listed first wins, which keeps the merge stable.
+ */
+public class MergingIterator<T> implements Iterator<T> {
+
+	public MergingIterator(List<? extends Iterator<? extends T>> sources, final Comparator<? super T> comparator) {
+		this.heads = new PriorityQueue<Head<T>>(Math.max(sources.size(), 1), new Comparator<Head<T>>() {
+			@Override
+			public int compare(Head<T> head, Head<T> head2) {
+				int comp = comparator.compare(head.element, head2.element);
+				if (comp != 0)
+					return comp;
+				return Integer.compare(head.sourceIndex, head2.sourceIndex);
+			}
+		});
+		for (int i = 0; i < sources.size(); i++) {
+			Iterator<? extends T> source = sources.get(i);
+			if (source != null && source.hasNext())
+				heads.add(new Head<T>(source, i, source.next()));
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		return !heads.isEmpty();
+	}
+
+	@Override
+	public T next() {
+		Head<T> head = heads.poll();
+		if (head == null)
+			throw new NoSuchElementException();
+		T element = head.element;
+		if (head.source.hasNext()) {
+			// reuse the head for the next element of the same source
+			head.element = head.source.next();
+			heads.add(head);
+		}
+		return element;
+	}
+
+	private static class Head<T> {
+		private Head(Iterator<? extends T> source, int sourceIndex, T element) {
+			this.source = source;
+			this.sourceIndex = sourceIndex;
+			this.element = element;
+		}
+
+		private final Iterator<? extends T> source;
+		private final int sourceIndex;
+		private T element;
+	}
+
+	private final PriorityQueue<Head<T>> heads;
+
+}
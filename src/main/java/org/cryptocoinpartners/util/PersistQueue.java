@@ -0,0 +1,563 @@
+package org.cryptocoinpartners.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.EntityBase;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.TradeFactory;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Iterators;
+
+/**
+ * A bounded queue of entities waiting to be written to the database, with a {@link Policy} deciding what happens when the writers fall behind and
+ * the queue is full. The depth, drops and spill of each queue can be watched over JMX once it has been {@link #register()}ed.
+ *
+ * Spilled entities are written to tick files under the spill directory and read back, as new Trades and Books, once the entities ahead of them
+ * have been taken, Trades with their remote keys and Books without. Only Trades and Books can be spilled, other entities wait for room as they
+ * would with {@link Policy#BLOCK}. The same applies to entities other than Books under {@link Policy#COALESCE}, and to Books of a market with
+ * none queued. {@link #iterator()} and {@link #size()} only cover the entities held in memory.
+ */
+public class PersistQueue<E extends EntityBase> extends AbstractQueue<E> implements BlockingQueue<E>, PersistQueueMBean {
+
+	public enum Policy {
+		/** producers wait for room */
+		BLOCK,
+		/** the oldest queued entity is discarded to make room */
+		DROP_OLDEST,
+		/** entities are written to a journal on disk until the writers catch up */
+		SPILL,
+		/** the last queued Book of a market is replaced by any later Book of the same market, other entities wait for room */
+		COALESCE
+	}
+
+	public PersistQueue(String name, Policy policy, int capacity) {
+		this(name, policy, capacity, new File("spill"), null, null);
+	}
+
+	/**
+	 * @param spillRoot the directory under which this queue keeps its journal, in a subdirectory named after the queue
+	 * @param tradeFactory used to read spilled Trades back, or null to use the root injector's
+	 * @param bookFactory used to read spilled Books back, or null to use the root injector's
+	 */
+	public PersistQueue(String name, Policy policy, int capacity, File spillRoot, TradeFactory tradeFactory, BookFactory bookFactory) {
+		this.name = name;
+		this.policy = policy;
+		this.capacity = Math.max(capacity, 1);
+		this.spillDirectory = new File(spillRoot, name.replaceAll("[^A-Za-z0-9._-]", "_"));
+		this.tradeFactory = tradeFactory;
+		this.bookFactory = bookFactory;
+		this.queue = new ArrayDeque<E>(Math.min(this.capacity, 1024));
+	}
+
+	/** publishes this queue's metrics on the platform MBean server */
+	public PersistQueue<E> register() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+					new ObjectName("org.cryptocoinpartners.util:type=PersistQueue,name=" + ObjectName.quote(name)));
+		} catch (JMException e) {
+			log.warn("Unable to register metrics for persist queue " + name, e);
+		}
+		return this;
+	}
+
+	@Override
+	public void put(E entity) throws InterruptedException {
+		insert(entity, false, 0);
+	}
+
+	@Override
+	public boolean offer(E entity, long timeout, TimeUnit unit) throws InterruptedException {
+		return insert(entity, true, unit.toNanos(timeout));
+	}
+
+	@Override
+	public boolean offer(E entity) {
+		try {
+			return insert(entity, true, 0);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	@Override
+	public E take() throws InterruptedException {
+		return next(false, 0);
+	}
+
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return next(true, unit.toNanos(timeout));
+	}
+
+	@Override
+	public E poll() {
+		lock.lock();
+		try {
+			E entity = extract();
+			if (entity != null || !hasSpilled())
+				return entity;
+		} finally {
+			lock.unlock();
+		}
+		return unspill();
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public E peek() {
+		lock.lock();
+		try {
+			E entity = queue.peek();
+			if (entity instanceof Book && policy == Policy.COALESCE)
+				return latest((Book) entity);
+			return entity;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c) {
+		return drainTo(c, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public int drainTo(Collection<? super E> c, int maxElements) {
+		if (c == this)
+			throw new IllegalArgumentException();
+		int drained = 0;
+		E entity;
+		while (drained < maxElements && (entity = poll()) != null) {
+			c.add(entity);
+			drained++;
+		}
+		return drained;
+	}
+
+	@Override
+	public int remainingCapacity() {
+		lock.lock();
+		try {
+			return Math.max(capacity - queue.size(), 0);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** a snapshot of the entities held in memory */
+	@Override
+	public Iterator<E> iterator() {
+		lock.lock();
+		try {
+			List<E> snapshot = new ArrayList<E>(queue.size());
+			for (E entity : queue)
+				snapshot.add(entity instanceof Book && policy == Policy.COALESCE ? latest((Book) entity) : entity);
+			return snapshot.iterator();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public String getPolicy() {
+		return policy.name();
+	}
+
+	@Override
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public long getDepth() {
+		lock.lock();
+		try {
+			return queue.size() + spilled;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getDropped() {
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getCoalesced() {
+		lock.lock();
+		try {
+			return coalesced;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getSpilled() {
+		lock.lock();
+		try {
+			return spilled;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getTotalSpilled() {
+		lock.lock();
+		try {
+			return totalSpilled;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public long getSpillBytes() {
+		return sizeOf(spillDirectory);
+	}
+
+	private boolean insert(E entity, boolean timed, long nanos) throws InterruptedException {
+		if (entity == null)
+			throw new NullPointerException();
+		lock.lockInterruptibly();
+		try {
+			// a full queue is the only time a Book may stand in for an earlier one
+			if (policy == Policy.COALESCE && entity instanceof Book && queue.size() >= capacity && coalesce((Book) entity))
+				return true;
+			if (policy == Policy.SPILL && isSpillable(entity) && (spilled > 0 || queue.size() >= capacity))
+				// once spilling has started later entities follow the journal, so they are still written in order
+				spill(entity);
+			else {
+				if (policy == Policy.DROP_OLDEST && queue.size() >= capacity) {
+					queue.poll();
+					if (dropped++ == 0)
+						log.warn("Persist queue " + name + " is full, dropping the oldest entities");
+				}
+				while (queue.size() >= capacity) {
+					if (!timed)
+						notFull.await();
+					else if (nanos <= 0)
+						return false;
+					else
+						nanos = notFull.awaitNanos(nanos);
+				}
+				queue.add(entity);
+				if (policy == Policy.COALESCE && entity instanceof Book)
+					lastQueuedBooks.put(((Book) entity).getMarket(), (Book) entity);
+			}
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** replaces the last queued Book of the same market when the queue is full, or returns false if there is none */
+	private boolean coalesce(Book book) {
+		Book queued = lastQueuedBooks.get(book.getMarket());
+		if (queued == null)
+			return false;
+		replacedBooks.put(queued, book);
+		coalesced++;
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private E latest(Book queued) {
+		Book replacement = replacedBooks.get(queued);
+		return (E) (replacement != null ? replacement : queued);
+	}
+
+	/** the next entity held in memory, or else the next spilled one, waiting for either unless timed out */
+	private E next(boolean timed, long nanos) throws InterruptedException {
+		while (true) {
+			lock.lockInterruptibly();
+			try {
+				E entity;
+				while ((entity = extract()) == null && !hasSpilled()) {
+					if (!timed)
+						notEmpty.await();
+					else if (nanos <= 0)
+						return null;
+					else
+						nanos = notEmpty.awaitNanos(nanos);
+				}
+				if (entity != null)
+					return entity;
+			} finally {
+				lock.unlock();
+			}
+			E entity = unspill();
+			if (entity != null)
+				return entity;
+		}
+	}
+
+	/** the next entity held in memory */
+	@SuppressWarnings("unchecked")
+	private E extract() {
+		E entity = queue.poll();
+		if (entity != null) {
+			if (entity instanceof Book && policy == Policy.COALESCE) {
+				Book queued = (Book) entity;
+				if (lastQueuedBooks.get(queued.getMarket()) == queued)
+					lastQueuedBooks.remove(queued.getMarket());
+				entity = latest(queued);
+				replacedBooks.remove(queued);
+			}
+			notFull.signal();
+		}
+		return entity;
+	}
+
+	private boolean hasSpilled() {
+		return spilled > 0 || writeSegment != null;
+	}
+
+	private void spill(E entity) {
+		try {
+			if (writeSegment == null) {
+				if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs())
+					throw new IOException("could not create spill directory " + spillDirectory);
+				writeSegment = new Segment(Files.createTempDirectory(spillDirectory.toPath(), "segment").toFile());
+			}
+			if (spilled == 0)
+				log.warn("Persist queue " + name + " is full, spilling to " + spillDirectory);
+			writeSegment.write(entity);
+			spilled++;
+			totalSpilled++;
+		} catch (IOException | RuntimeException e) {
+			dropped++;
+			log.error("Unable to spill " + entity + " from persist queue " + name + ", dropping it", e);
+		}
+	}
+
+	/**
+	 * the next spilled entity, moving on to the segment being written once the one being read is used up, or null once every spilled entity has
+	 * been taken. The journal is read without holding the queue lock, so producers are not held up by the disk.
+	 */
+	@SuppressWarnings("unchecked")
+	private E unspill() {
+		spillLock.lock();
+		try {
+			while (true) {
+				if (readSegment != null) {
+					E entity = null;
+					boolean more = false;
+					try {
+						if (reader.hasNext()) {
+							entity = (E) reader.next();
+							more = reader.hasNext();
+						}
+					} catch (RuntimeException e) {
+						log.error("Unable to read back spilled entities of persist queue " + name, e);
+					}
+					lock.lock();
+					try {
+						if (entity != null) {
+							readSegment.remaining--;
+							spilled--;
+						}
+						if (!more) {
+							// records which could not be read back are lost
+							spilled -= readSegment.remaining;
+							dropped += readSegment.remaining;
+							if (writeSegment == null)
+								log.info("Persist queue " + name + " has written all spilled entities");
+						}
+					} finally {
+						lock.unlock();
+					}
+					if (!more) {
+						readSegment.delete();
+						readSegment = null;
+						reader = null;
+					}
+					if (entity != null)
+						return entity;
+				}
+				lock.lock();
+				try {
+					if (writeSegment == null) {
+						spilled = 0;
+						return null;
+					}
+					readSegment = writeSegment;
+					writeSegment = null;
+				} finally {
+					lock.unlock();
+				}
+				try {
+					reader = readSegment.read(tradeFactory(), bookFactory());
+				} catch (RuntimeException e) {
+					log.error("Unable to read back spilled entities of persist queue " + name, e);
+					reader = Collections.<EntityBase> emptyIterator();
+				}
+			}
+		} finally {
+			spillLock.unlock();
+		}
+	}
+
+	private static boolean isSpillable(EntityBase entity) {
+		return entity instanceof Trade || entity instanceof Book;
+	}
+
+	private TradeFactory tradeFactory() {
+		if (tradeFactory == null)
+			tradeFactory = Injector.root().getInstance(TradeFactory.class);
+		return tradeFactory;
+	}
+
+	private BookFactory bookFactory() {
+		if (bookFactory == null)
+			bookFactory = Injector.root().getInstance(BookFactory.class);
+		return bookFactory;
+	}
+
+	private static long sizeOf(File file) {
+		File[] children = file.listFiles();
+		if (children == null)
+			return file.length();
+		long size = 0;
+		for (File child : children)
+			size += sizeOf(child);
+		return size;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		if (!file.delete() && file.exists())
+			log.warn("Unable to delete spill file " + file);
+	}
+
+	/** a run of spilled entities kept in a tick store of its own, which is read back as a whole once writing to it has stopped */
+	private static class Segment {
+
+		private Segment(File directory) {
+			this.store = new TickStore(directory, SPILL_BLOCK_SIZE, SPILL_FLUSH_MILLIS);
+		}
+
+		private void write(EntityBase entity) throws IOException {
+			long time;
+			if (entity instanceof Trade) {
+				Trade trade = (Trade) entity;
+				store.write(trade);
+				tradeMarkets.add(trade.getMarket());
+				time = trade.getTime().getMillis();
+			} else {
+				Book book = (Book) entity;
+				store.write(book);
+				bookMarkets.add(book.getMarket());
+				time = book.getTime().getMillis();
+			}
+			minTime = Math.min(minTime, time);
+			maxTime = Math.max(maxTime, time);
+			remaining++;
+		}
+
+		/** closes the segment for writing and returns its records, market by market */
+		private Iterator<EntityBase> read(TradeFactory tradeFactory, BookFactory bookFactory) {
+			store.close();
+			List<Iterator<? extends EntityBase>> sources = new ArrayList<Iterator<? extends EntityBase>>();
+			for (Tradeable market : tradeMarkets)
+				sources.add(store.readTrades(market, minTime, maxTime, false, tradeFactory));
+			for (Tradeable market : bookMarkets)
+				sources.add(store.readBooks(market, minTime, maxTime, false, bookFactory));
+			return Iterators.concat(sources.iterator());
+		}
+
+		private void delete() {
+			store.close();
+			PersistQueue.delete(store.getRoot());
+		}
+
+		private final TickStore store;
+		private final Set<Tradeable> tradeMarkets = new HashSet<Tradeable>();
+		private final Set<Tradeable> bookMarkets = new HashSet<Tradeable>();
+		private long minTime = Long.MAX_VALUE;
+		private long maxTime = Long.MIN_VALUE;
+		private long remaining;
+	}
+
+	private static final int SPILL_BLOCK_SIZE = 1024;
+	private static final long SPILL_FLUSH_MILLIS = 1000;
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.persistQueue");
+	private final String name;
+	private final Policy policy;
+	private final int capacity;
+	private final File spillDirectory;
+	private final ArrayDeque<E> queue;
+	/** under COALESCE, the last Book of each market held in the queue and the later Books that replaced queued ones */
+	private final Map<Tradeable, Book> lastQueuedBooks = new HashMap<Tradeable, Book>();
+	private final Map<Book, Book> replacedBooks = new IdentityHashMap<Book, Book>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	/** held while reading the journal back, which only takes the queue lock to update the counts */
+	private final ReentrantLock spillLock = new ReentrantLock();
+	private TradeFactory tradeFactory;
+	private BookFactory bookFactory;
+	private Segment writeSegment;
+	/** the segment being read back and its records, guarded by the spill lock */
+	private Segment readSegment;
+	private Iterator<EntityBase> reader;
+	private long spilled;
+	private long totalSpilled;
+	private long dropped;
+	private long coalesced;
+
+}
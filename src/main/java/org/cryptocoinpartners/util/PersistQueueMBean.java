@@ -0,0 +1,25 @@
+package org.cryptocoinpartners.util;
+
+public interface PersistQueueMBean {
+
+	String getName();
+
+	String getPolicy();
+
+	int getCapacity();
+
+	/** entities waiting to be written, in memory and on disk */
+	long getDepth();
+
+	long getDropped();
+
+	long getCoalesced();
+
+	/** entities currently spilled to disk */
+	long getSpilled();
+
+	long getTotalSpilled();
+
+	long getSpillBytes();
+
+}
@@ -23,14 +23,10 @@ import javax.persistence.Query;
 import javax.persistence.TypedQuery;
 
 import org.cryptocoinpartners.schema.Currencies;
-import org.cryptocoinpartners.schema.Currency;
 import org.cryptocoinpartners.schema.EntityBase;
-import org.cryptocoinpartners.schema.Exchange;
 import org.cryptocoinpartners.schema.Exchanges;
-import org.cryptocoinpartners.schema.Listing;
-import org.cryptocoinpartners.schema.Market;
-import org.cryptocoinpartners.schema.Prompt;
 import org.cryptocoinpartners.schema.Prompts;
+import org.cryptocoinpartners.schema.ReferenceDataRegistry;
 import org.hibernate.TransientObjectException;
 import org.hibernate.TransientPropertyValueException;
 import org.slf4j.Logger;
@@ -822,11 +818,9 @@ public class PersistUtil {
 		Currencies.BTC.getSymbol(); // this should load all the singletons in Currencies
 		Exchanges.BITFINEX.getSymbol(); // this should load all the singletons in Exchanges
 		Prompts.THIS_WEEK.getSymbol();
-		EM.queryList(Currency.class, "select c from Currency c");
-		EM.queryList(Prompt.class, "select p from Prompt p");
-		EM.queryList(Listing.class, "select l from Listing l");
-		EM.queryList(Exchange.class, "select e from Exchange e");
-		EM.queryList(Market.class, "select m from Market m");
+		// and register everything else, one query per type
+		if (Injector.root() != null)
+			Injector.root().getInstance(ReferenceDataRegistry.class).warm();
 
 	}
 
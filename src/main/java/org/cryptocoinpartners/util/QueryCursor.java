@@ -0,0 +1,88 @@
+package org.cryptocoinpartners.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.ScrollableResults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A forward-only cursor over the results of a query, created by {@link EM#queryCursor}. Rows are fetched from the database in batches of the fetch
+ * size as the cursor advances, and the cursor's own EntityManager is cleared after every batch so the persistence context does not grow with the
+ * size of the result. Entities returned by the cursor are therefore detached once the following batch has been read.
+ *
+ * The cursor must be closed to release its connection.
+ */
+public class QueryCursor<T> implements Iterator<T>, AutoCloseable {
+
+	QueryCursor(EntityManager entityManager, ScrollableResults results, Class<T> resultType, int clearInterval) {
+		this.entityManager = entityManager;
+		this.results = results;
+		this.resultType = resultType;
+		this.clearInterval = Math.max(clearInterval, 1);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!advanced) {
+			if (closed)
+				return false;
+			if (sinceClear >= clearInterval) {
+				entityManager.clear();
+				sinceClear = 0;
+			}
+			hasRow = results.next();
+			advanced = true;
+			if (!hasRow)
+				close();
+		}
+		return hasRow;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		advanced = false;
+		sinceClear++;
+		count++;
+		return resultType.cast(results.get(0));
+	}
+
+	/** the number of rows returned so far */
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		hasRow = false;
+		advanced = true;
+		try {
+			results.close();
+		} catch (Error | Exception e) {
+			log.debug("Unable to close query cursor", e);
+		} finally {
+			if (entityManager.isOpen())
+				entityManager.close();
+		}
+	}
+
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.staticEntityManager");
+	private final EntityManager entityManager;
+	private final ScrollableResults results;
+	private final Class<T> resultType;
+	private final int clearInterval;
+	private boolean advanced;
+	private boolean hasRow;
+	private boolean closed;
+	private int sinceClear;
+	private long count;
+
+}
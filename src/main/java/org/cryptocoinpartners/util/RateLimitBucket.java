@@ -0,0 +1,264 @@
+package org.cryptocoinpartners.util;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A token bucket holding up to permits tokens, refilled continuously at permits per period. Requests carry a weight, the tokens they take,
+ * and a {@link Priority}; the bucket always serves its highest priority lane first, so an order cancel never waits behind polls queued before
+ * it. Within a lane requests are served in the order they were made. A request weighing more than the bucket holds takes the whole bucket.
+ * <p>
+ * Buckets have no threads of their own. They are created by the {@link RateLimitService}, whose timer wakes a bucket when enough tokens for its
+ * next request have refilled and whose worker pool runs the granted Runnables.
+ */
+public class RateLimitBucket implements Executor, RateLimitBucketMBean {
+
+	public enum Priority {
+		/** placing and cancelling orders */
+		TRADING,
+		/** polling open orders and fills */
+		ORDERS,
+		/** polling books and trades */
+		MARKET_DATA
+	}
+
+	RateLimitBucket(String name, int permits, Duration per, ScheduledExecutorService timer, Executor workers) {
+		this.name = name;
+		this.permits = Math.max(permits, 1);
+		this.per = per;
+		this.tokensPerNano = this.permits / (double) TimeUnit.MILLISECONDS.toNanos(Math.max(per.getMillis(), 1));
+		this.timer = timer;
+		this.workers = workers;
+		this.tokens = this.permits;
+		this.refilled = System.nanoTime();
+		for (int i = 0; i < lanes.length; i++)
+			lanes[i] = new ArrayDeque<Request>();
+	}
+
+	/** runs the runnable as a market data request of weight one */
+	@Override
+	public void execute(Runnable runnable) {
+		execute(runnable, 1, Priority.MARKET_DATA);
+	}
+
+	/** runs the runnable on the shared worker pool once weight permits are available and no higher priority request is waiting */
+	public void execute(Runnable runnable, int weight, Priority priority) {
+		enqueue(new Request(runnable, Math.min(weight, permits), priority));
+	}
+
+	/**
+	 * Blocks until weight permits have been granted, for requests which must be made on the calling thread. Callers waiting here are ordered
+	 * with queued Runnables of the same priority.
+	 */
+	public void acquire(int weight, Priority priority) throws InterruptedException {
+		Request request = new Request(null, Math.min(weight, permits), priority);
+		enqueue(request);
+		try {
+			request.granted.await();
+		} catch (InterruptedException e) {
+			synchronized (this) {
+				if (!lanes[priority.ordinal()].remove(request))
+					// already granted, so hand the permits back
+					tokens = Math.min(permits, tokens + request.weight);
+			}
+			throw e;
+		}
+	}
+
+	/** @return true if the runnable was still waiting and has been removed */
+	public synchronized boolean remove(Runnable runnable) {
+		for (ArrayDeque<Request> lane : lanes)
+			for (Iterator<Request> it = lane.iterator(); it.hasNext();)
+				if (it.next().runnable == runnable) {
+					it.remove();
+					return true;
+				}
+		return false;
+	}
+
+	public Duration getPeriod() {
+		return per;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public int getPermits() {
+		return permits;
+	}
+
+	@Override
+	public long getPeriodMillis() {
+		return per.getMillis();
+	}
+
+	@Override
+	public synchronized int getAvailablePermits() {
+		refill(System.nanoTime());
+		return (int) tokens;
+	}
+
+	@Override
+	public synchronized int getQueueDepth() {
+		int depth = 0;
+		for (ArrayDeque<Request> lane : lanes)
+			depth += lane.size();
+		return depth;
+	}
+
+	@Override
+	public synchronized int getTradingQueueDepth() {
+		return lanes[Priority.TRADING.ordinal()].size();
+	}
+
+	@Override
+	public synchronized int getOrdersQueueDepth() {
+		return lanes[Priority.ORDERS.ordinal()].size();
+	}
+
+	@Override
+	public synchronized int getMarketDataQueueDepth() {
+		return lanes[Priority.MARKET_DATA.ordinal()].size();
+	}
+
+	@Override
+	public synchronized long getGranted() {
+		return granted;
+	}
+
+	@Override
+	public synchronized double getMeanWaitMillis() {
+		return granted == 0 ? 0 : totalWaitNanos / 1e6 / granted;
+	}
+
+	@Override
+	public synchronized long getMaxWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos);
+	}
+
+	@Override
+	public synchronized long getMaxTradingWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(maxTradingWaitNanos);
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimitBucket[" + name + " " + permits + " per " + per.getMillis() + "ms]";
+	}
+
+	private synchronized void enqueue(Request request) {
+		lanes[request.priority.ordinal()].add(request);
+		dispatch();
+	}
+
+	// callers hold the lock
+	private void dispatch() {
+		long now = System.nanoTime();
+		refill(now);
+		for (ArrayDeque<Request> lane : lanes) {
+			Request next;
+			while ((next = lane.peek()) != null) {
+				if (tokens < next.weight) {
+					// lower lanes wait too, otherwise a stream of light polls could starve a heavy order request
+					wakeAfter((long) Math.ceil((next.weight - tokens) / tokensPerNano));
+					return;
+				}
+				lane.poll();
+				tokens -= next.weight;
+				long wait = now - next.queued;
+				granted++;
+				totalWaitNanos += wait;
+				maxWaitNanos = Math.max(maxWaitNanos, wait);
+				if (next.priority == Priority.TRADING)
+					maxTradingWaitNanos = Math.max(maxTradingWaitNanos, wait);
+				if (next.runnable == null)
+					next.granted.countDown();
+				else
+					try {
+						workers.execute(next.runnable);
+					} catch (RejectedExecutionException e) {
+						log.warn(this + " unable to run " + next.runnable + " after shutdown");
+					}
+			}
+		}
+	}
+
+	private void refill(long now) {
+		tokens = Math.min(permits, tokens + (now - refilled) * tokensPerNano);
+		refilled = now;
+	}
+
+	private void wakeAfter(long nanos) {
+		nanos = Math.max(nanos, 1);
+		long wakeAt = System.nanoTime() + nanos;
+		// a lighter request can arrive at the head of a higher lane and need an earlier wake; a stale later wake is harmless
+		if (wakeScheduled && wakeAt - this.wakeAt >= 0)
+			return;
+		wakeScheduled = true;
+		this.wakeAt = wakeAt;
+		try {
+			timer.schedule(wake, nanos, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			wakeScheduled = false;
+			log.warn(this + " unable to schedule refill after shutdown");
+		}
+	}
+
+	private final Runnable wake = new Runnable() {
+		@Override
+		public void run() {
+			synchronized (RateLimitBucket.this) {
+				wakeScheduled = false;
+				dispatch();
+			}
+		}
+	};
+
+	private static class Request {
+
+		Request(Runnable runnable, int weight, Priority priority) {
+			this.runnable = runnable;
+			this.weight = Math.max(weight, 1);
+			this.priority = priority;
+		}
+
+		private final Runnable runnable;
+		private final int weight;
+		private final Priority priority;
+		private final long queued = System.nanoTime();
+		private final CountDownLatch granted = new CountDownLatch(1);
+
+	}
+
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.util.ratelimiter");
+
+	private final String name;
+	private final int permits;
+	private final Duration per;
+	private final double tokensPerNano;
+	private final ScheduledExecutorService timer;
+	private final Executor workers;
+	@SuppressWarnings("unchecked")
+	private final ArrayDeque<Request>[] lanes = new ArrayDeque[Priority.values().length];
+	private double tokens;
+	private long refilled;
+	private boolean wakeScheduled;
+	private long wakeAt;
+	private long granted;
+	private long totalWaitNanos;
+	private long maxWaitNanos;
+	private long maxTradingWaitNanos;
+
+}
@@ -0,0 +1,32 @@
+package org.cryptocoinpartners.util;
+
+public interface RateLimitBucketMBean {
+
+	String getName();
+
+	/** the most permits the bucket holds, which are refilled over each period */
+	int getPermits();
+
+	long getPeriodMillis();
+
+	int getAvailablePermits();
+
+	/** requests waiting for permits, in all lanes */
+	int getQueueDepth();
+
+	int getTradingQueueDepth();
+
+	int getOrdersQueueDepth();
+
+	int getMarketDataQueueDepth();
+
+	long getGranted();
+
+	double getMeanWaitMillis();
+
+	long getMaxWaitMillis();
+
+	/** the longest wait of a trading request, i.e. an order placement or cancel */
+	long getMaxTradingWaitMillis();
+
+}
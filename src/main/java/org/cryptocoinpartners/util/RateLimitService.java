@@ -0,0 +1,125 @@
+package org.cryptocoinpartners.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.apache.commons.configuration.Configuration;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Owns the {@link RateLimitBucket}s for every exchange, with one timer thread to refill them all. Each bucket has its own few workers to run what it
+ * grants, so a slow exchange cannot hold up the others, and they time out so an idle exchange costs no threads. Buckets are shared by name: the
+ * market data and order services ask for the same bucket for an exchange, so their requests are limited together and order requests are served ahead
+ * of polls.
+ */
+public class RateLimitService {
+
+	public static RateLimitService getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/** @param workers the most Runnables granted by one bucket which run at once */
+	public RateLimitService(int workers) {
+		timer = new ScheduledThreadPoolExecutor(1, threadFactory("ratelimit-timer"));
+		timer.setRemoveOnCancelPolicy(true);
+		this.workers = workers;
+	}
+
+	/**
+	 * @return the bucket with this name, created with permits per period if there is none. An existing bucket keeps the limit it was created
+	 *         with.
+	 */
+	public RateLimitBucket getBucket(String name, int permits, Duration per) {
+		synchronized (buckets) {
+			RateLimitBucket bucket = buckets.get(name);
+			if (bucket != null) {
+				if (bucket.getPermits() != permits || bucket.getPeriodMillis() != per.getMillis())
+					log.warn("Rate limit " + name + " is already " + bucket.getPermits() + " per " + bucket.getPeriodMillis() + "ms, ignoring " + permits
+							+ " per " + per.getMillis() + "ms");
+				return bucket;
+			}
+			ThreadPoolExecutor bucketWorkers = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					threadFactory("ratelimit-" + name));
+			bucketWorkers.allowCoreThreadTimeOut(true);
+			bucket = new RateLimitBucket(name, permits, per, timer, bucketWorkers);
+			buckets.put(name, bucket);
+			bucketExecutors.put(name, bucketWorkers);
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(bucket,
+						new ObjectName("org.cryptocoinpartners.util:type=RateLimit,name=" + ObjectName.quote(name)));
+			} catch (JMException e) {
+				log.warn("Unable to register metrics for rate limit " + name, e);
+			}
+			return bucket;
+		}
+	}
+
+	public Collection<RateLimitBucket> getBuckets() {
+		synchronized (buckets) {
+			return new ArrayList<RateLimitBucket>(buckets.values());
+		}
+	}
+
+	/** stops the timer and workers; requests still waiting are never run */
+	public void shutdown() {
+		timer.shutdownNow();
+		synchronized (buckets) {
+			for (ThreadPoolExecutor bucketWorkers : bucketExecutors.values())
+				bucketWorkers.shutdown();
+			bucketExecutors.clear();
+			for (String name : buckets.keySet())
+				try {
+					ObjectName objectName = new ObjectName("org.cryptocoinpartners.util:type=RateLimit,name=" + ObjectName.quote(name));
+					if (ManagementFactory.getPlatformMBeanServer().isRegistered(objectName))
+						ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+				} catch (JMException e) {
+					log.debug("Unable to unregister metrics for rate limit " + name, e);
+				}
+			buckets.clear();
+		}
+	}
+
+	private static ThreadFactory threadFactory(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	private static class Holder {
+		private static final RateLimitService INSTANCE = new RateLimitService(workerCount());
+
+		private static int workerCount() {
+			Configuration config = ConfigUtil.combined();
+			return config == null ? DEFAULT_WORKERS : Math.max(config.getInt("ratelimit.workers", DEFAULT_WORKERS), 1);
+		}
+	}
+
+	private static final int DEFAULT_WORKERS = 2;
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.util.ratelimiter");
+
+	private final ScheduledThreadPoolExecutor timer;
+	private final int workers;
+	private final Map<String, RateLimitBucket> buckets = new HashMap<String, RateLimitBucket>();
+	private final Map<String, ThreadPoolExecutor> bucketExecutors = new HashMap<String, ThreadPoolExecutor>();
+
+}
@@ -16,7 +16,9 @@ import com.google.common.util.concurrent.UncheckedTimeoutException;
  * Implements an Executor which delays execution until a rate limit is fulfilled.
  * 
  * @author Tim Olson
+ * @deprecated each instance runs three threads of its own; use a {@link RateLimitBucket} from the shared {@link RateLimitService}
  */
+@Deprecated
 @SuppressWarnings("NullableProblems")
 public class RateLimiter implements Executor {
 
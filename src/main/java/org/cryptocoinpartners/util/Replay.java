@@ -1,16 +1,20 @@
 package org.cryptocoinpartners.util;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 
@@ -21,9 +25,11 @@ import org.cryptocoinpartners.schema.Bar;
 import org.cryptocoinpartners.schema.Book;
 import org.cryptocoinpartners.schema.BookFactory;
 import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.MarketData;
 import org.cryptocoinpartners.schema.Portfolio;
 import org.cryptocoinpartners.schema.RemoteEvent;
 import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.TradeFactory;
 import org.cryptocoinpartners.schema.Tradeable;
 import org.cryptocoinpartners.service.PortfolioService;
 import org.joda.time.Duration;
@@ -42,7 +48,7 @@ import com.google.inject.assistedinject.AssistedInject;
  */
 public class Replay implements Runnable {
 
-	private Map<Double, Instant> latestBars = new HashMap<Double, Instant>();
+	private final Map<Double, Instant> latestBars = new HashMap<Double, Instant>();
 
 	@AssistedInject
 	public Replay(@Assisted boolean orderByTimeReceived) {
@@ -144,6 +150,27 @@ public class Replay implements Runnable {
 		return context;
 	}
 
+	/**
+	 * creates a Context which is sent its own copy of every Trade and Book this Replay publishes, from a thread of its own. Several backtests can
+	 * then share one read of the market data, each running on a separate core. Followers must be created before the Replay is run, and they are
+	 * not sent random data.
+	 */
+	public Context createFollower(String name) {
+		Follower follower = new Follower(Context.create(new EventTimeManager(), name));
+		followers.add(follower);
+		return follower.context;
+	}
+
+	/** milliseconds spent publishing events into a Context, which is either this Replay's Context or one of its followers */
+	public long getPublishMillis(Context context) {
+		if (context == this.context)
+			return TimeUnit.NANOSECONDS.toMillis(publishNanos.get());
+		for (Follower follower : followers)
+			if (follower.context == context)
+				return TimeUnit.NANOSECONDS.toMillis(follower.publishNanos);
+		return 0;
+	}
+
 	/**
 	 * queries the database for all Books (optional) and Trades which have start <= time <= stop, then publishes those Events in order of time to this
 	 * Replay's Context
@@ -151,6 +178,17 @@ public class Replay implements Runnable {
 
 	@Override
 	public void run() {
+		for (Follower follower : followers)
+			follower.start();
+		try {
+			replay();
+		} finally {
+			for (Follower follower : followers)
+				follower.finish();
+		}
+	}
+
+	private void replay() {
 		try {
 			final Instant start = replayTimeInterval.getStart().toInstant();
 			final Instant end = replayTimeInterval.getEnd().toInstant();
@@ -346,23 +384,16 @@ public class Replay implements Runnable {
 
 			try {
 				// perform interesting task
-				log.debug("ReplayStepRunnable: Run querying events from " + start + " to " + stop + " with latch " + startLatch);
-				List<RemoteEvent> events = queryEvents(start, stop, replayBooks, replayBars, barEnd, markets, intervals);
-				log.debug("ReplayStepRunnable: Run queried events from " + start + " to " + stop + " with latch " + startLatch);
-
+				// the cursors are only opened once it is this step's turn, so waiting steps do not each hold a connection
 				if (startLatch != null) {
 					log.debug("ReplayStepRunnable: Run Waiting for start latch " + startLatch);
-
 					startLatch.await();
 				}
+				log.debug("ReplayStepRunnable: Run querying events from " + start + " to " + stop);
+				ReplayEvents events = openEvents(start, stop, replayBooks, replayBars, barEnd, markets, intervals);
 				log.debug("ReplayStepRunnable: Run publishing events from " + start + " to " + stop);
-
-				for (RemoteEvent event : events) {
-					context.publish(event);
-					EM.detach(event);
-				}
-				System.gc();
-				log.debug("ReplayStepRunnable: Published events from " + start + " to " + stop);
+				long published = publishEvents(events, markets);
+				log.debug("ReplayStepRunnable: Published " + published + " events from " + start + " to " + stop);
 			} catch (Error | Exception e) {
 				log.debug("ReplayStepRunnable: Unable to query events between " + start + " and stop " + stop + ", full stack trace follows:", e);
 			} finally {
@@ -389,117 +420,203 @@ public class Replay implements Runnable {
 
 	private void replayStep(Instant start, Instant stop, boolean replayBooks, boolean replayBars, Instant barEnd, Map<String, Tradeable> markets,
 			List<Double> intervals) {
-		Iterator<RemoteEvent> ite = queryEvents(start, stop, replayBooks, replayBars, barEnd, markets, intervals).iterator();
-		while (ite.hasNext()) {
-			RemoteEvent event = ite.next();
-
-			context.publish(event);
-			event.detach();
-
-		}
-		System.gc();
+		publishEvents(openEvents(start, stop, replayBooks, replayBars, barEnd, markets, intervals), markets);
 		context.advanceTime(stop); // advance to the end of the time window to trigger any timer events
 
 	}
 
-	private List<RemoteEvent> queryEvents(Instant start, Instant stop, boolean replayBooks, boolean replayBars, Instant barEnd, Map<String, Tradeable> markets,
+	/**
+	 * opens a forward-only cursor per event type for the window and merges them by time, so only one fetch of rows per event type is held in memory
+	 * however long the window is. With <code>replay.source=tickstore</code> trades and books are read from the {@link TickStore} files instead, one
+	 * reader per market; bars always come from the database.
+	 */
+	private ReplayEvents openEvents(Instant start, Instant stop, boolean replayBooks, boolean replayBars, Instant barEnd, Map<String, Tradeable> markets,
 			List<Double> intervals) {
 		final String timeField = timeFieldForOrdering(orderByTimeReceived);
 		//  order in (?1)
-		final String tradeQuery = "select t from Trade t where  market in (?1) and " + timeField + " >= ?2 and " + timeField + " <= ?3";
-		final String bookQuery = "select b from Book b where  market in (?1) and " + timeField + " >= ?2 and " + timeField + " <= ?3";
-		final String barQuery = "select r from Bar r where interval in (?1) and market in (?2) and " + timeField + " >= ?3 and " + timeField + " <= ?4";
-
-		final List<RemoteEvent> events = new ArrayList<>();
-		final List<Book> books = new ArrayList<>();
-		final List<Trade> trades = new ArrayList<>();
-		final List<Bar> bars = new ArrayList<>();
-		//   ArrayList marketsArray = new ArrayList(markets.values());
-		//we could kick these off the book and trade on seperate threads then let them come back before continuing.
-		//trades.addAll(EM.queryList(Trade.class, tradeQuery, new ArrayList(markets.values()), start, stop));
+		final String tradeQuery = "select t from Trade t where  market in (?1) and " + timeField + " >= ?2 and " + timeField + " <= ?3 order by "
+				+ timeField;
+		final String bookQuery = "select b from Book b where  market in (?1) and " + timeField + " >= ?2 and " + timeField + " <= ?3 order by " + timeField;
+		final String barQuery = "select r from Bar r where interval in (?1) and market in (?2) and " + timeField + " >= ?3 and " + timeField
+				+ " <= ?4 order by " + timeField;
+
+		final List<Iterator<? extends RemoteEvent>> cursors = new ArrayList<>();
+		ArrayList<Tradeable> marketList = new ArrayList<Tradeable>(markets.values());
+		TickStore tickStore = useTickStore ? context.getInjector().getInstance(TickStore.class) : null;
 
 		if (replayBooks) {
-			List<Book> results = EM.queryList(Book.class, bookQuery, new ArrayList(markets.values()), start, stop);
-			if (results != null) {
-				books.addAll(results);
-				Iterator<Book> itb = books.iterator();
+			if (tickStore != null) {
+				BookFactory bookFactory = context.getInjector().getInstance(BookFactory.class);
+				for (Tradeable market : marketList)
+					cursors.add(tickStore.readBooks(market, start.getMillis(), stop.getMillis(), orderByTimeReceived, bookFactory));
+			} else
+				addCursor(cursors, EM.queryCursor(Book.class, fetchSize, bookQuery, marketList, start, stop));
+		}
 
-				while (itb.hasNext()) {
-					Book book = itb.next();
+		if (replayBars && barEnd != null && start.isBefore(barEnd)) {
+			if (stop.isAfter(barEnd))
+				stop = barEnd;
+			addCursor(cursors, EM.queryCursor(Bar.class, fetchSize, barQuery, intervals, marketList, start, stop));
+		} else if (!replayBars || (replayBars && barEnd == null)) {
+			//TODO we need to replay trades for any bars we don't have.
+			if (tickStore != null) {
+				TradeFactory tradeFactory = context.getInjector().getInstance(TradeFactory.class);
+				for (Tradeable market : marketList)
+					cursors.add(tickStore.readTrades(market, start.getMillis(), stop.getMillis(), orderByTimeReceived, tradeFactory));
+			} else
+				addCursor(cursors, EM.queryCursor(Trade.class, fetchSize, tradeQuery, marketList, start, stop));
+		}
 
-					book.sortBook();
+		return new ReplayEvents(cursors, orderByTimeReceived ? timeReceivedComparator : timeHappenedComparator);
+	}
 
-					//book.
-					if (!markets.containsKey(book.getMarket().getSymbol())) {
-						itb.remove();
-						continue;
-					}
-					book.setMarket(markets.get(book.getMarket().getSymbol()));
-					book.setPersisted(true);
-				}
+	private static void addCursor(List<Iterator<? extends RemoteEvent>> cursors, @Nullable QueryCursor<? extends RemoteEvent> cursor) {
+		if (cursor != null)
+			cursors.add(cursor);
+	}
 
-				events.addAll(books);
+	/** publishes the merged events to the Context, then closes the cursors */
+	private long publishEvents(ReplayEvents events, Map<String, Tradeable> markets) {
+		long published = 0;
+		try {
+			while (events.hasNext()) {
+				RemoteEvent event = events.next();
+				if (!prepareEvent(event, markets))
+					continue;
+				// followers are sent copies before this Context's modules can change the event
+				for (Follower follower : followers)
+					follower.send(event);
+				long started = System.nanoTime();
+				context.publish(event);
+				publishNanos.addAndGet(System.nanoTime() - started);
+				published++;
 			}
+		} finally {
+			events.close();
 		}
-		//got the start time of the 115200 which would have been  2018-03-20 08:00:00 and run time was 2018-03-21 07:36:49 
-		//now -32 => 19/03/2018 23:36
-		//2135:2018-03-21 07:25:06 [pool-27-thread-2] DEBUG org.cryptocoinpartners.replay - ReplayStepRunnable: Run querying events from 2018-03-16T21:24:45.910Z to 2018-03-17T21:24:45.910Z with latch java.util.concurrent.CountDownLatch@54a24078[Count = 1]
-		//		2905:2018-03-21 07:25:07 [pool-27-thread-3] DEBUG org.cryptocoinpartners.replay - ReplayStepRunnable: Run querying events from 2018-03-17T21:24:45.910Z to 2018-03-18T21:24:45.910Z with latch java.util.concurrent.CountDownLatch@7f09c683[Count = 1]
-		//		3683:2018-03-21 07:25:07 [pool-27-thread-4] DEBUG org.cryptocoinpartners.replay - ReplayStepRunnable: Run querying events from 2018-03-18T21:24:45.910Z to 2018-03-19T21:24:45.910Z with latch java.util.concurrent.CountDownLatch@2a05469c[Count = 1]
-		//		4453:2018-03-21 07:25:08 [pool-27-thread-5] DEBUG org.cryptocoinpartners.replay - ReplayStepRunnable: Run querying events from 2018-03-19T21:24:45.910Z to 2018-03-20T21:24:45.910Z with latch java.util.concurrent.CountDownLatch@5260231b[Count = 1]			
+		return published;
+	}
 
-		//	so between 2018-03-17T21:24:45.910Z to 2018-03-18T21:24:45.910 at 2018-03-21 07:25:29 no envents?
+	/** @return false if the event is for a market which is not being replayed */
+	private boolean prepareEvent(RemoteEvent event, Map<String, Tradeable> markets) {
+		if (!(event instanceof MarketData))
+			return true;
+		MarketData marketData = (MarketData) event;
+		if (event instanceof Bar) {
+			Bar bar = (Bar) event;
+			synchronized (latestBars) {
+				Instant latest = latestBars.get(bar.getInterval());
+				if (latest == null || latest.isBefore(bar.getTime()))
+					latestBars.put(bar.getInterval(), bar.getTime());
+			}
+		}
+		Tradeable market = markets.get(marketData.getMarket().getSymbol());
+		if (market == null)
+			return false;
+		if (event instanceof Book) {
+			// Books arrive in the order their chains were persisted, so resolving each now finds its parent in the keyframe cache
+			if (resolveBooksInChainOrder)
+				((Book) event).resolveDiff();
+			((Book) event).sortBook();
+		}
+		marketData.setMarket(market);
+		marketData.setPersisted(true);
+		return true;
+	}
 
-		if (replayBars && start.isBefore(barEnd)) {
-			if (stop.isAfter(barEnd))
-				stop = barEnd;
-			List<Bar> results = EM.queryList(Bar.class, barQuery, intervals, new ArrayList(markets.values()), start, stop);
-			if (results != null) {
-				bars.addAll(results);
-				Iterator<Bar> itb = bars.iterator();
-
-				while (itb.hasNext()) {
-					Bar bar = itb.next();
-					if (latestBars == null || latestBars.isEmpty() || !latestBars.containsKey(bar.getInterval()))
-						latestBars.put(bar.getInterval(), bar.getTime());
-					else if (latestBars.containsKey(bar.getInterval()) && latestBars.get(bar.getInterval()).isBefore(bar.getTime()))
-						latestBars.put(bar.getInterval(), bar.getTime());
-
-					if (!markets.containsKey(bar.getMarket().getSymbol())) {
-						itb.remove();
-						continue;
+	/** the merged events of one replay step, which holds the database cursors and mapped tick files open until closed */
+	private static class ReplayEvents extends MergingIterator<RemoteEvent> implements AutoCloseable {
+
+		private ReplayEvents(List<Iterator<? extends RemoteEvent>> cursors, Comparator<RemoteEvent> comparator) {
+			super(cursors, comparator);
+			this.cursors = cursors;
+		}
+
+		@Override
+		public void close() {
+			for (Iterator<? extends RemoteEvent> cursor : cursors) {
+				if (cursor instanceof AutoCloseable) {
+					try {
+						((AutoCloseable) cursor).close();
+					} catch (Exception e) {
+						log.debug("ReplayEvents: Unable to close " + cursor, e);
 					}
-					bar.setMarket(markets.get(bar.getMarket().getSymbol()));
-					bar.setPersisted(true);
 				}
-				//I need to publish the trade updates then 
-				events.addAll(bars);
 			}
-		} else if (!replayBars || (replayBars && barEnd == null)) {
-			//TODO we need to replay trades for any bars we don't have.
-			List<Trade> results = EM.queryList(Trade.class, tradeQuery, new ArrayList(markets.values()), start, stop);
-			if (results != null) {
-				trades.addAll(results);
+		}
 
-				Iterator<Trade> itt = trades.iterator();
+		private final List<Iterator<? extends RemoteEvent>> cursors;
+	}
 
-				while (itt.hasNext()) {
-					Trade trade = itt.next();
-					if (!markets.containsKey(trade.getMarket().getSymbol())) {
-						itt.remove();
-						continue;
-					}
-					trade.setMarket(markets.get(trade.getMarket().getSymbol()));
-					trade.setPersisted(true);
-				}
-				events.addAll(trades);
+	/** a Context fed from its own thread through a bounded queue, so a slow follower holds the Replay back instead of filling the heap */
+	private class Follower implements Runnable {
+
+		private Follower(Context context) {
+			this.context = context;
+			this.queue = new ArrayBlockingQueue<RemoteEvent>(followerQueueSize);
+			this.tradeFactory = context.getInjector().getInstance(TradeFactory.class);
+			this.bookFactory = context.getInjector().getInstance(BookFactory.class);
+		}
+
+		private synchronized void start() {
+			if (thread != null)
+				return;
+			thread = new Thread(this, "replay-" + context.getProviderURI());
+			thread.start();
+		}
+
+		private void send(RemoteEvent event) {
+			RemoteEvent copy = event;
+			if (event instanceof Trade) {
+				Trade trade = (Trade) event;
+				copy = tradeFactory.create(trade.getMarket(), trade.getTime(), trade.getTimeReceived(), trade.getRemoteKey(), trade.getPriceCount(),
+						trade.getVolumeCount());
+				((Trade) copy).setPersisted(true);
+			} else if (event instanceof Book) {
+				copy = ((Book) event).copy(bookFactory);
+				((Book) copy).setPersisted(true);
 			}
+			try {
+				queue.put(copy);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
 
+		/** waits for the follower to publish everything it has been sent */
+		private void finish() {
+			if (thread == null)
+				return;
+			try {
+				queue.put(END);
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					RemoteEvent event = queue.take();
+					if (event == END)
+						return;
+					long started = System.nanoTime();
+					context.publish(event);
+					publishNanos += System.nanoTime() - started;
+				}
+			} catch (InterruptedException e) {
+				log.debug("Replay: follower " + context.getProviderURI() + " interrupted", e);
+			}
 		}
 
-		Collections.sort(events, orderByTimeReceived ? timeReceivedComparator : timeHappenedComparator);
-		System.gc();
-		return events;
+		private final Context context;
+		private final BlockingQueue<RemoteEvent> queue;
+		private final TradeFactory tradeFactory;
+		private final BookFactory bookFactory;
+		private Thread thread;
+		private volatile long publishNanos;
 	}
 
 	private static Instant getEventsStart(boolean orderByRemoteTime) {
@@ -588,6 +705,11 @@ public class Replay implements Runnable {
 	private final Interval replayTimeInterval;
 	private final Integer dbReaderThreads = ConfigUtil.combined().getInt("db.replay.reader.threads");
 	private final static Integer replayTimeStep = ConfigUtil.combined().getInt("db.replay.batchhours", 24);
+	private final static int fetchSize = ConfigUtil.combined().getInt("db.replay.fetch.size", 500);
+	private final static int followerQueueSize = ConfigUtil.combined().getInt("replay.follower.queue.size", 10000);
+	private static final RemoteEvent END = new Trade();
+	private final static boolean useTickStore = ConfigUtil.combined().getString("replay.source", "db").equalsIgnoreCase("tickstore");
+	private final static boolean resolveBooksInChainOrder = ConfigUtil.combined().getString("replay.book.resolve", "chain").equalsIgnoreCase("chain");
 
 	private final Semaphore semaphore;
 	private static ExecutorService service;
@@ -595,6 +717,8 @@ public class Replay implements Runnable {
 	private static CountDownLatch endLatch;
 
 	private final Context context;
+	private final List<Follower> followers = new CopyOnWriteArrayList<Follower>();
+	private final AtomicLong publishNanos = new AtomicLong();
 	private static final Duration timeStep = Duration.standardHours(replayTimeStep); // how many rows from the DB to gather in one batch
 	//private static final Duration timeStep = Duration.standardHours(24); // how many rows from the DB to gather in one batch
 
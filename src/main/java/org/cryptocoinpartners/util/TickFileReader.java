@@ -0,0 +1,364 @@
+package org.cryptocoinpartners.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.BookLevels;
+import org.cryptocoinpartners.schema.RemoteEvent;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.TradeFactory;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.Instant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the day files written by {@link TickFileWriter} for one market, memory-mapping them and decoding the columns straight into events. Only
+ * records whose time (or time received) lies in the requested range are returned, and whole blocks outside the range are skipped.
+ *
+ * Records are returned in order of the time the range applies to, although they are written in the order they arrive. Each block is sorted as
+ * it is decoded and merged with any other blocks whose times overlap it, so only the blocks around the current time are held in memory.
+ */
+public abstract class TickFileReader<T extends RemoteEvent> implements Iterator<T>, AutoCloseable {
+
+	protected TickFileReader(List<File> files, Tradeable market, int kind, long start, long end, boolean filterOnTimeReceived) {
+		this.files = files;
+		this.market = market;
+		this.kind = kind;
+		this.start = start;
+		this.end = end;
+		this.filterOnTimeReceived = filterOnTimeReceived;
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (blocks == null)
+			index();
+		if (next != null)
+			return true;
+		while (true) {
+			Run head = runs.peek();
+			// a block which may hold records before the earliest decoded one has to be decoded first
+			if (pending < blocks.size() && (head == null || blocks.get(pending).minTime <= key(head.events.get(head.index)))) {
+				Block block = blocks.get(pending++);
+				List<T> events = new ArrayList<T>(block.count);
+				decode(block, events);
+				if (!events.isEmpty()) {
+					Collections.sort(events, order);
+					runs.add(new Run(events, block.sequence));
+				}
+				continue;
+			}
+			if (head == null)
+				return false;
+			runs.poll();
+			next = head.events.get(head.index++);
+			if (head.index < head.events.size())
+				runs.add(head);
+			else
+				head.events = null;
+			return true;
+		}
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		T result = next;
+		next = null;
+		count++;
+		return result;
+	}
+
+	/** the number of events returned so far */
+	public long getCount() {
+		return count;
+	}
+
+	@Override
+	public void close() {
+		blocks = Collections.emptyList();
+		pending = 0;
+		runs.clear();
+		next = null;
+	}
+
+	/**
+	 * reads the header of the block at <code>position</code> into the block.
+	 *
+	 * @return the position of the following block, or -1 if the block is incomplete
+	 */
+	protected abstract long readBlock(MappedByteBuffer buffer, long position, Block block);
+
+	/** decodes the block's records which are in range, in the order they were written */
+	protected abstract void decode(Block block, List<T> events);
+
+	protected boolean inRange(long time, long timeReceived) {
+		long filterTime = filterOnTimeReceived ? timeReceived : time;
+		return filterTime >= start && filterTime <= end;
+	}
+
+	/** maps the files and reads the headers of every block which may hold records in range */
+	private void index() {
+		blocks = new ArrayList<Block>();
+		for (File file : files) {
+			MappedByteBuffer buffer = map(file);
+			if (buffer == null)
+				continue;
+			long position = HEADER_SIZE;
+			while (position < buffer.capacity()) {
+				Block block = new Block(buffer);
+				long following = readBlock(buffer, position, block);
+				if (following < 0) {
+					log.warn("Ignoring incomplete block at " + position + " of " + file);
+					break;
+				}
+				position = following;
+				if (filterOnTimeReceived) {
+					// the header only bounds the exchange times, so bound the times received from their column
+					block.minTime = Long.MAX_VALUE;
+					block.maxTime = Long.MIN_VALUE;
+					for (int i = 0; i < block.count; i++) {
+						long timeReceived = buffer.getLong(block.timesReceivedOffset + 8 * i);
+						block.minTime = Math.min(block.minTime, timeReceived);
+						block.maxTime = Math.max(block.maxTime, timeReceived);
+					}
+				}
+				if (block.count > 0 && block.maxTime >= start && block.minTime <= end) {
+					block.sequence = blocks.size();
+					blocks.add(block);
+				}
+			}
+		}
+		Collections.sort(blocks, new Comparator<Block>() {
+			@Override
+			public int compare(Block block, Block block2) {
+				int byTime = Long.compare(block.minTime, block2.minTime);
+				return byTime != 0 ? byTime : Integer.compare(block.sequence, block2.sequence);
+			}
+		});
+	}
+
+	private MappedByteBuffer map(File file) {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			if (channel.size() < HEADER_SIZE)
+				return null;
+			if (channel.size() > Integer.MAX_VALUE) {
+				log.warn("Skipping tick file " + file + " which is too large to map");
+				return null;
+			}
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (mapped.getInt(0) != TickStore.MAGIC || mapped.getInt(8) != kind) {
+				log.warn("Skipping " + file + " which is not a tick file of the expected kind");
+				return null;
+			}
+			if (mapped.getInt(4) > TickStore.VERSION) {
+				log.warn("Skipping " + file + " written by a newer version " + mapped.getInt(4));
+				return null;
+			}
+			return mapped;
+		} catch (IOException e) {
+			log.error("Unable to map tick file " + file, e);
+			return null;
+		}
+	}
+
+	private long key(T event) {
+		return filterOnTimeReceived ? event.getTimeReceived().getMillis() : event.getTime().getMillis();
+	}
+
+	protected static boolean fits(MappedByteBuffer buffer, long position, long length) {
+		return position + length <= buffer.capacity();
+	}
+
+	/** one block of a mapped file, with the column offsets its subclass decodes from */
+	protected static class Block {
+
+		Block(MappedByteBuffer buffer) {
+			this.buffer = buffer;
+			this.version = buffer.getInt(4);
+		}
+
+		protected final MappedByteBuffer buffer;
+		/** the format version of the block's file */
+		protected final int version;
+		protected int position;
+		protected int count;
+		protected long minTime;
+		protected long maxTime;
+		protected int timesOffset;
+		protected int timesReceivedOffset;
+		private int sequence;
+
+	}
+
+	/** the decoded, sorted records of a block which have not been returned yet */
+	private class Run implements Comparable<Run> {
+
+		Run(List<T> events, int sequence) {
+			this.events = events;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(Run other) {
+			int byTime = Long.compare(key(events.get(index)), key(other.events.get(other.index)));
+			return byTime != 0 ? byTime : Integer.compare(sequence, other.sequence);
+		}
+
+		private List<T> events;
+		private final int sequence;
+		private int index;
+
+	}
+
+	private final Comparator<T> order = new Comparator<T>() {
+		@Override
+		public int compare(T event, T event2) {
+			return Long.compare(key(event), key(event2));
+		}
+	};
+
+	private static final int HEADER_SIZE = 12;
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.tickStore");
+	private final List<File> files;
+	protected final Tradeable market;
+	private final int kind;
+	private final long start;
+	private final long end;
+	private final boolean filterOnTimeReceived;
+	private List<Block> blocks;
+	private int pending;
+	private final PriorityQueue<Run> runs = new PriorityQueue<Run>();
+	private T next;
+	private long count;
+
+	public static class Trades extends TickFileReader<Trade> {
+
+		Trades(List<File> files, Tradeable market, long start, long end, boolean filterOnTimeReceived, TradeFactory tradeFactory) {
+			super(files, market, TickStore.KIND_TRADES, start, end, filterOnTimeReceived);
+			this.tradeFactory = tradeFactory;
+		}
+
+		@Override
+		protected long readBlock(MappedByteBuffer buffer, long position, Block block) {
+			boolean keyed = block.version >= 2;
+			int headerSize = keyed ? 24 : 20;
+			if (!fits(buffer, position, headerSize))
+				return -1;
+			int p = (int) position;
+			int n = buffer.getInt(p);
+			int keyBytes = keyed ? buffer.getInt(p + 20) : 0;
+			long length = headerSize + (keyed ? 36L : 32L) * n + keyBytes;
+			if (n < 0 || keyBytes < 0 || !fits(buffer, position, length))
+				return -1;
+			block.position = p;
+			block.count = n;
+			block.minTime = buffer.getLong(p + 4);
+			block.maxTime = buffer.getLong(p + 12);
+			block.timesOffset = p + headerSize;
+			block.timesReceivedOffset = block.timesOffset + 8 * n;
+			return position + length;
+		}
+
+		@Override
+		protected void decode(Block block, List<Trade> events) {
+			MappedByteBuffer buffer = block.buffer;
+			int priceOffset = block.timesReceivedOffset + 8 * block.count;
+			int volumeOffset = priceOffset + 8 * block.count;
+			int keyLengthOffset = volumeOffset + 8 * block.count;
+			int keyOffset = keyLengthOffset + 4 * block.count;
+			for (int i = 0; i < block.count; i++) {
+				long time = buffer.getLong(block.timesOffset + 8 * i);
+				long timeReceived = buffer.getLong(block.timesReceivedOffset + 8 * i);
+				int keyLength = block.version >= 2 ? buffer.getInt(keyLengthOffset + 4 * i) : -1;
+				if (inRange(time, timeReceived))
+					events.add(tradeFactory.create(market, new Instant(time), new Instant(timeReceived), keyLength < 0 ? null : string(buffer,
+							keyOffset, keyLength), buffer.getLong(priceOffset + 8 * i), buffer.getLong(volumeOffset + 8 * i)));
+				if (keyLength > 0)
+					keyOffset += keyLength;
+			}
+		}
+
+		private static String string(MappedByteBuffer buffer, int offset, int length) {
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i++)
+				bytes[i] = buffer.get(offset + i);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private final TradeFactory tradeFactory;
+	}
+
+	public static class Books extends TickFileReader<Book> {
+
+		Books(List<File> files, Tradeable market, long start, long end, boolean filterOnTimeReceived, BookFactory bookFactory) {
+			super(files, market, TickStore.KIND_BOOKS, start, end, filterOnTimeReceived);
+			this.bookFactory = bookFactory;
+		}
+
+		@Override
+		protected long readBlock(MappedByteBuffer buffer, long position, Block block) {
+			if (!fits(buffer, position, 24))
+				return -1;
+			int p = (int) position;
+			int n = buffer.getInt(p);
+			int levels = buffer.getInt(p + 4);
+			long length = 24L + 24L * n + 16L * levels;
+			if (n < 0 || levels < 0 || !fits(buffer, position, length))
+				return -1;
+			block.position = p;
+			block.count = n;
+			block.minTime = buffer.getLong(p + 8);
+			block.maxTime = buffer.getLong(p + 16);
+			block.timesOffset = p + 24;
+			block.timesReceivedOffset = block.timesOffset + 8 * n;
+			return position + length;
+		}
+
+		@Override
+		protected void decode(Block block, List<Book> events) {
+			MappedByteBuffer buffer = block.buffer;
+			int n = block.count;
+			int bidChangesOffset = block.timesReceivedOffset + 8 * n;
+			int askChangesOffset = bidChangesOffset + 4 * n;
+			int levelPriceOffset = askChangesOffset + 4 * n;
+			int levelVolumeOffset = levelPriceOffset + 8 * buffer.getInt(block.position + 4);
+			// every block starts with a full book, and the deltas of records out of range still have to be applied
+			bids.clear();
+			asks.clear();
+			int level = 0;
+			for (int i = 0; i < n; i++) {
+				int bidChanges = buffer.getInt(bidChangesOffset + 4 * i);
+				int askChanges = buffer.getInt(askChangesOffset + 4 * i);
+				for (int j = 0; j < bidChanges; j++, level++)
+					bids.set(buffer.getLong(levelPriceOffset + 8 * level), buffer.getLong(levelVolumeOffset + 8 * level));
+				for (int j = 0; j < askChanges; j++, level++)
+					asks.set(buffer.getLong(levelPriceOffset + 8 * level), buffer.getLong(levelVolumeOffset + 8 * level));
+				long time = buffer.getLong(block.timesOffset + 8 * i);
+				long timeReceived = buffer.getLong(block.timesReceivedOffset + 8 * i);
+				if (inRange(time, timeReceived))
+					events.add(bookFactory.create(new Instant(time), new Instant(timeReceived), null, market).setLevels(bids, asks));
+			}
+		}
+
+		private final BookFactory bookFactory;
+		private final BookLevels bids = new BookLevels(true);
+		private final BookLevels asks = new BookLevels(false);
+	}
+
+}
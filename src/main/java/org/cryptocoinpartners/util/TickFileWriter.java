@@ -0,0 +1,333 @@
+package org.cryptocoinpartners.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookLevels;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.Tradeable;
+
+/**
+ * Appends the ticks of one market to the day files of a {@link TickStore}. Records are buffered in columns and written as a block when the buffer
+ * is full or when the writer is flushed. A file is only ever appended to, and each block can be decoded on its own, so a file which was being
+ * written when the process died is readable up to its last complete block.
+ *
+ * Block layout, all values big-endian:
+ *
+ * <pre>
+ * trades: int count, long minTime, long maxTime, int keyBytes, long[count] time, long[count] timeReceived, long[count] priceCount,
+ *         long[count] volumeCount, int[count] keyLength, byte[keyBytes] remoteKeys
+ * books:  int count, int levelCount, long minTime, long maxTime, long[count] time, long[count] timeReceived, int[count] bidChanges,
+ *         int[count] askChanges, long[levelCount] priceCount, long[levelCount] volumeCount
+ * </pre>
+ *
+ * The first book of every block is written in full. The following books only hold the levels which changed since the previous book, with a zero
+ * volume marking a level which was removed.
+ *
+ * The remote keys of trades are stored UTF-8 encoded one after the other, with a length of -1 for a trade without one. Files of version 1 have no
+ * keyBytes, keyLength or remoteKeys; a writer appending to such a file keeps to its layout.
+ *
+ * Records are written in the order they are appended, so the times in a block need not be ordered; {@link TickFileReader} sorts them.
+ */
+public abstract class TickFileWriter {
+
+	protected TickFileWriter(TickStore store, Tradeable market, String suffix, int kind, int blockSize) {
+		this.store = store;
+		this.market = market;
+		this.suffix = suffix;
+		this.kind = kind;
+		this.blockSize = blockSize;
+		this.times = new long[blockSize];
+		this.timesReceived = new long[blockSize];
+	}
+
+	public Tradeable getMarket() {
+		return market;
+	}
+
+	/** writes any buffered records as a block */
+	public synchronized void flush() throws IOException {
+		if (count == 0)
+			return;
+		writeBlock();
+		out.flush();
+		count = 0;
+		blockStarted();
+	}
+
+	public synchronized void close() throws IOException {
+		flush();
+		if (out != null) {
+			out.close();
+			out = null;
+		}
+	}
+
+	/** the number of records written to block buffers since the writer was created */
+	public synchronized long getRecordCount() {
+		return records;
+	}
+
+	/**
+	 * switches to the file for the record's day, flushing the current block first, so a record which arrives after midnight is still filed under
+	 * the day of its exchange time
+	 */
+	protected void startRecord(long time, long timeReceived) throws IOException {
+		long day = TickStore.dayOf(time);
+		if (out == null || day != currentDay) {
+			if (out != null) {
+				flush();
+				out.close();
+				out = null;
+			}
+			currentDay = day;
+			open(store.fileFor(market, currentDay, suffix));
+		}
+		if (count == blockSize)
+			flush();
+		times[count] = time;
+		timesReceived[count] = timeReceived;
+		if (count == 0 || time < minTime)
+			minTime = time;
+		if (count == 0 || time > maxTime)
+			maxTime = time;
+	}
+
+	protected void endRecord() {
+		count++;
+		records++;
+	}
+
+	protected abstract void writeBlock() throws IOException;
+
+	/** called after each block has been written, so subclasses can reset their per-block state */
+	protected void blockStarted() {
+	}
+
+	protected void writeLongs(long[] values, int length) throws IOException {
+		for (int i = 0; i < length; i++)
+			out.writeLong(values[i]);
+	}
+
+	protected void writeInts(int[] values, int length) throws IOException {
+		for (int i = 0; i < length; i++)
+			out.writeInt(values[i]);
+	}
+
+	private void open(File file) throws IOException {
+		File dir = file.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("could not create tick directory " + dir);
+		boolean isNew = !file.exists() || file.length() == 0;
+		version = isNew ? TickStore.VERSION : versionOf(file);
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+		if (isNew) {
+			out.writeInt(TickStore.MAGIC);
+			out.writeInt(version);
+			out.writeInt(kind);
+		}
+		count = 0;
+		blockStarted();
+	}
+
+	/** the format version of an existing file, which later blocks have to follow */
+	private static int versionOf(File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			if (in.readInt() != TickStore.MAGIC)
+				throw new IOException(file + " is not a tick file");
+			int version = in.readInt();
+			if (version > TickStore.VERSION)
+				throw new IOException(file + " was written by a newer version " + version);
+			return version;
+		}
+	}
+
+	public static class Trades extends TickFileWriter {
+
+		Trades(TickStore store, Tradeable market, int blockSize) {
+			super(store, market, TickStore.TRADE_SUFFIX, TickStore.KIND_TRADES, blockSize);
+			this.priceCounts = new long[blockSize];
+			this.volumeCounts = new long[blockSize];
+			this.remoteKeys = new byte[blockSize][];
+		}
+
+		public synchronized void append(Trade trade) throws IOException {
+			startRecord(trade.getTime().getMillis(), trade.getTimeReceived().getMillis());
+			priceCounts[count] = trade.getPriceCount();
+			volumeCounts[count] = trade.getVolumeCount();
+			remoteKeys[count] = trade.getRemoteKey() == null ? null : trade.getRemoteKey().getBytes(StandardCharsets.UTF_8);
+			endRecord();
+		}
+
+		@Override
+		protected void writeBlock() throws IOException {
+			boolean keyed = version >= 2;
+			int keyBytes = 0;
+			for (int i = 0; i < count; i++)
+				keyBytes += remoteKeys[i] == null ? 0 : remoteKeys[i].length;
+			out.writeInt(count);
+			out.writeLong(minTime);
+			out.writeLong(maxTime);
+			if (keyed)
+				out.writeInt(keyBytes);
+			writeLongs(times, count);
+			writeLongs(timesReceived, count);
+			writeLongs(priceCounts, count);
+			writeLongs(volumeCounts, count);
+			if (keyed) {
+				for (int i = 0; i < count; i++)
+					out.writeInt(remoteKeys[i] == null ? -1 : remoteKeys[i].length);
+				for (int i = 0; i < count; i++)
+					if (remoteKeys[i] != null)
+						out.write(remoteKeys[i]);
+			}
+			Arrays.fill(remoteKeys, 0, count, null);
+		}
+
+		private final long[] priceCounts;
+		private final long[] volumeCounts;
+		private final byte[][] remoteKeys;
+	}
+
+	public static class Books extends TickFileWriter {
+
+		Books(TickStore store, Tradeable market, int blockSize) {
+			super(store, market, TickStore.BOOK_SUFFIX, TickStore.KIND_BOOKS, blockSize);
+			this.bidChanges = new int[blockSize];
+			this.askChanges = new int[blockSize];
+		}
+
+		public synchronized void append(Book book) throws IOException {
+			// levels at the same rounded price are summed so each price appears once
+			nextBids.clear();
+			for (int i = 0; i < book.getBidDepth(); i++)
+				nextBids.increment(book.getBidPriceCount(i), book.getBidVolumeCount(i));
+			nextAsks.clear();
+			for (int i = 0; i < book.getAskDepth(); i++)
+				nextAsks.increment(book.getAskPriceCount(i), book.getAskVolumeCount(i));
+
+			startRecord(book.getTime().getMillis(), book.getTimeReceived().getMillis());
+			if (count == 0) {
+				bidChanges[count] = writeAll(nextBids);
+				askChanges[count] = writeAll(nextAsks);
+			} else {
+				bidChanges[count] = writeChanges(bids, nextBids);
+				askChanges[count] = writeChanges(asks, nextAsks);
+			}
+			bids.copyFrom(nextBids);
+			asks.copyFrom(nextAsks);
+			endRecord();
+		}
+
+		@Override
+		protected void writeBlock() throws IOException {
+			out.writeInt(count);
+			out.writeInt(levelCount);
+			out.writeLong(minTime);
+			out.writeLong(maxTime);
+			writeLongs(times, count);
+			writeLongs(timesReceived, count);
+			writeInts(bidChanges, count);
+			writeInts(askChanges, count);
+			writeLongs(levelPrices, levelCount);
+			writeLongs(levelVolumes, levelCount);
+		}
+
+		@Override
+		protected void blockStarted() {
+			levelCount = 0;
+		}
+
+		private int writeAll(BookLevels levels) {
+			for (int i = 0; i < levels.size(); i++)
+				addLevel(levels.getPriceCount(i), levels.getVolumeCount(i));
+			return levels.size();
+		}
+
+		/** merge walk over the previous and next levels of one side, recording added, changed and removed levels */
+		private int writeChanges(BookLevels previous, BookLevels next) {
+			int changes = 0;
+			int i = 0;
+			int j = 0;
+			while (i < previous.size() || j < next.size()) {
+				if (j == next.size()) {
+					// level removed
+					addLevel(previous.getPriceCount(i++), 0L);
+					changes++;
+					continue;
+				}
+				if (i == previous.size()) {
+					// level added
+					addLevel(next.getPriceCount(j), next.getVolumeCount(j));
+					j++;
+					changes++;
+					continue;
+				}
+				long previousPrice = previous.getPriceCount(i);
+				long nextPrice = next.getPriceCount(j);
+				if (previousPrice == nextPrice) {
+					if (previous.getVolumeCount(i) != next.getVolumeCount(j)) {
+						addLevel(nextPrice, next.getVolumeCount(j));
+						changes++;
+					}
+					i++;
+					j++;
+				} else if (previous.isDescending() ? previousPrice > nextPrice : previousPrice < nextPrice) {
+					addLevel(previousPrice, 0L);
+					i++;
+					changes++;
+				} else {
+					addLevel(nextPrice, next.getVolumeCount(j));
+					j++;
+					changes++;
+				}
+			}
+			return changes;
+		}
+
+		private void addLevel(long priceCount, long volumeCount) {
+			if (levelCount == levelPrices.length) {
+				levelPrices = Arrays.copyOf(levelPrices, levelCount * 2);
+				levelVolumes = Arrays.copyOf(levelVolumes, levelCount * 2);
+			}
+			levelPrices[levelCount] = priceCount;
+			levelVolumes[levelCount] = volumeCount;
+			levelCount++;
+		}
+
+		private final int[] bidChanges;
+		private final int[] askChanges;
+		private final BookLevels bids = new BookLevels(true);
+		private final BookLevels asks = new BookLevels(false);
+		private final BookLevels nextBids = new BookLevels(true);
+		private final BookLevels nextAsks = new BookLevels(false);
+		private long[] levelPrices = new long[1024];
+		private long[] levelVolumes = new long[1024];
+		private int levelCount;
+	}
+
+	protected final TickStore store;
+	protected final Tradeable market;
+	private final String suffix;
+	private final int kind;
+	protected final int blockSize;
+	protected final long[] times;
+	protected final long[] timesReceived;
+	protected DataOutputStream out;
+	/** the format version of the file being written */
+	protected int version;
+	protected int count;
+	protected long minTime;
+	protected long maxTime;
+	private long currentDay = Long.MIN_VALUE;
+	private long records;
+
+}
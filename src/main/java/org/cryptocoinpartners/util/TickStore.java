@@ -0,0 +1,199 @@
+package org.cryptocoinpartners.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.configuration.Configuration;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.TradeFactory;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A file store for Trades and Books kept outside the database, for fast backtest replays. Each market has a directory under
+ * <code>tickstore.path</code> holding one append-only file per UTC day for trades and another for books, in the column layout described by
+ * {@link TickFileWriter}. Files are read back by memory-mapping them with {@link TickFileReader}.
+ *
+ * Records are filed under the day of their exchange time and kept in the order they were written, which for live data is the order they were
+ * received; readers return them in time order. The remote keys of trades are stored, those of books are not.
+ */
+@Singleton
+public class TickStore {
+
+	@Inject
+	public TickStore(Configuration config) {
+		this(new File(config.getString("tickstore.path", "tickstore")), config.getInt("tickstore.block.size", 4096), config.getLong(
+				"tickstore.flush.ms", 5000));
+	}
+
+	public TickStore(File root, int blockSize) {
+		this(root, blockSize, 0);
+	}
+
+	/**
+	 * @param flushMillis how often buffered records are written to disk, or 0 to only write full blocks and on {@link #flush()}
+	 */
+	public TickStore(File root, int blockSize, long flushMillis) {
+		this.root = root;
+		this.blockSize = Math.max(blockSize, 1);
+		this.flushMillis = flushMillis;
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	public void write(Trade trade) throws IOException {
+		TickFileWriter.Trades writer = tradeWriters.get(trade.getMarket());
+		if (writer == null) {
+			TickFileWriter.Trades created = new TickFileWriter.Trades(this, trade.getMarket(), blockSize);
+			writer = tradeWriters.putIfAbsent(trade.getMarket(), created);
+			if (writer == null)
+				writer = created;
+			startFlusher();
+		}
+		writer.append(trade);
+	}
+
+	public void write(Book book) throws IOException {
+		TickFileWriter.Books writer = bookWriters.get(book.getMarket());
+		if (writer == null) {
+			TickFileWriter.Books created = new TickFileWriter.Books(this, book.getMarket(), blockSize);
+			writer = bookWriters.putIfAbsent(book.getMarket(), created);
+			if (writer == null)
+				writer = created;
+			startFlusher();
+		}
+		writer.append(book);
+	}
+
+	/** writes every buffered record to disk */
+	public void flush() {
+		for (TickFileWriter writer : writers()) {
+			try {
+				writer.flush();
+			} catch (IOException e) {
+				log.error("Unable to flush ticks for " + writer.getMarket(), e);
+			}
+		}
+	}
+
+	public void close() {
+		synchronized (this) {
+			if (flusher != null) {
+				flusher.shutdown();
+				flusher = null;
+			}
+		}
+		for (TickFileWriter writer : writers()) {
+			try {
+				writer.close();
+			} catch (IOException e) {
+				log.error("Unable to close tick file for " + writer.getMarket(), e);
+			}
+		}
+		tradeWriters.clear();
+		bookWriters.clear();
+	}
+
+	/**
+	 * @param start first millisecond to return, inclusive
+	 * @param end last millisecond to return, inclusive
+	 * @param filterOnTimeReceived if true the range applies to the time received instead of the exchange time
+	 */
+	public TickFileReader.Trades readTrades(Tradeable market, long start, long end, boolean filterOnTimeReceived, TradeFactory tradeFactory) {
+		return new TickFileReader.Trades(filesFor(market, start, end, filterOnTimeReceived, TRADE_SUFFIX), market, start, end, filterOnTimeReceived,
+				tradeFactory);
+	}
+
+	/** @see #readTrades */
+	public TickFileReader.Books readBooks(Tradeable market, long start, long end, boolean filterOnTimeReceived, BookFactory bookFactory) {
+		return new TickFileReader.Books(filesFor(market, start, end, filterOnTimeReceived, BOOK_SUFFIX), market, start, end, filterOnTimeReceived,
+				bookFactory);
+	}
+
+	/** the existing day files of a market which may hold records in the range, in day order */
+	List<File> filesFor(Tradeable market, long start, long end, boolean filterOnTimeReceived, String suffix) {
+		// a record is filed under the day of its exchange time, which may be a little before the day it was received
+		long firstDay = dayOf(start) - (filterOnTimeReceived ? 1 : 0);
+		long lastDay = dayOf(end);
+		List<File> files = new ArrayList<File>();
+		for (long day = firstDay; day <= lastDay; day++) {
+			File file = fileFor(market, day, suffix);
+			if (file.isFile())
+				files.add(file);
+		}
+		return files;
+	}
+
+	File fileFor(Tradeable market, long day, String suffix) {
+		return new File(new File(root, sanitize(market.getSymbol())), new LocalDate(day * MILLIS_PER_DAY, DateTimeZone.UTC).toString() + suffix);
+	}
+
+	/** the UTC day number of a time in milliseconds */
+	static long dayOf(long millis) {
+		return Math.floorDiv(millis, MILLIS_PER_DAY);
+	}
+
+	private static String sanitize(String name) {
+		return name.replaceAll("[^A-Za-z0-9._-]", "_");
+	}
+
+	private Collection<TickFileWriter> writers() {
+		List<TickFileWriter> writers = new ArrayList<TickFileWriter>(tradeWriters.values());
+		writers.addAll(bookWriters.values());
+		return writers;
+	}
+
+	private synchronized void startFlusher() {
+		if (flusher != null || flushMillis <= 0)
+			return;
+		flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "tickstore-flush");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		flusher.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				flush();
+			}
+		}, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+	}
+
+	static final int MAGIC = 0x4354544B; // "CTTK"
+	static final int VERSION = 2;
+	static final int KIND_TRADES = 0;
+	static final int KIND_BOOKS = 1;
+	static final String TRADE_SUFFIX = ".trades";
+	static final String BOOK_SUFFIX = ".books";
+	private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	protected static Logger log = LoggerFactory.getLogger("org.cryptocoinpartners.tickStore");
+	private final File root;
+	private final int blockSize;
+	private final long flushMillis;
+	private final ConcurrentHashMap<Tradeable, TickFileWriter.Trades> tradeWriters = new ConcurrentHashMap<Tradeable, TickFileWriter.Trades>();
+	private final ConcurrentHashMap<Tradeable, TickFileWriter.Books> bookWriters = new ConcurrentHashMap<Tradeable, TickFileWriter.Books>();
+	private ScheduledExecutorService flusher;
+
+}
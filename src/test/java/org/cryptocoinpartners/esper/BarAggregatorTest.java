@@ -0,0 +1,138 @@
+package org.cryptocoinpartners.esper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.cryptocoinpartners.schema.Bar;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.junit.Test;
+
+public class BarAggregatorTest {
+
+    private static final long MINUTE = 60000;
+    private static final long START = 1500000000000L - 1500000000000L % (60 * MINUTE);
+
+    private final Market btc = new Market(new Exchange("BARTEST"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false, "USD", 0.01)),
+            0.01, 0.001);
+    private final Market eth = new Market(new Exchange("BARTEST"), new Listing(new Currency(false, "ETH", 0.00000001), new Currency(false, "USD", 0.01)),
+            0.01, 0.001);
+
+    @Test
+    public void closesBarsAndFillsQuietMarkets() {
+        BarAggregator aggregator = new BarAggregator(60);
+        Collector bars = new Collector();
+        int btcId = aggregator.getMarketId(btc);
+        int ethId = aggregator.getMarketId(eth);
+        assertEquals(btcId, aggregator.getMarketId(btc));
+        assertEquals(START + MINUTE, aggregator.getNextClose(START + 5));
+
+        aggregator.apply(btcId, START + 1000, 100, 2);
+        aggregator.apply(btcId, START + 2000, 105, -1);
+        aggregator.apply(btcId, START + 3000, 98, 3);
+        aggregator.apply(btcId, START + 4000, 101, -2);
+        aggregator.apply(ethId, START + 5000, 10, 1);
+        aggregator.close(START + MINUTE, bars);
+
+        assertEquals(2, bars.bars.size());
+        Bar bar = bars.bars.get(0);
+        assertEquals(START, bar.getTimestamp());
+        assertEquals(100, bar.getOpen(), 0);
+        assertEquals(105, bar.getHigh(), 0);
+        assertEquals(98, bar.getLow(), 0);
+        assertEquals(101, bar.getClose(), 0);
+        assertEquals(2, bar.getVolume(), 0);
+        assertEquals(5, bar.getBuyVolume(), 0);
+        assertEquals(-3, bar.getSellVolume(), 0);
+        assertNull(bars.previous.get(0));
+
+        // trades before the published bar are too late, and a market without trades gets a flat bar at its last close
+        assertFalse(aggregator.apply(btcId, START + 59000, 1000, 1));
+        aggregator.apply(ethId, START + MINUTE + 1000, 11, 1);
+        aggregator.close(START + 2 * MINUTE, bars);
+        assertEquals(4, bars.bars.size());
+        Bar flat = bars.bars.get(2);
+        assertSame(btc, flat.getMarket());
+        assertEquals(START + MINUTE, flat.getTimestamp());
+        assertEquals(101, flat.getOpen(), 0);
+        assertEquals(101, flat.getHigh(), 0);
+        assertEquals(0, flat.getVolume(), 0);
+        assertSame(bar, bars.previous.get(2));
+    }
+
+    @Test
+    public void rollsCoarserIntervalsUpFromTheFinest() {
+        BarAggregator aggregator = new BarAggregator(300, 60, 3600);
+        BarAggregator reference = new BarAggregator(300);
+        Collector bars = new Collector();
+        Collector referenceBars = new Collector();
+        Random random = new Random(5);
+        int id = aggregator.getMarketId(btc);
+        int referenceId = reference.getMarketId(btc);
+        aggregator.getNextClose(START);
+        reference.getNextClose(START);
+
+        double price = 100;
+        for (long time = START; time < START + 120 * MINUTE; time += 7000) {
+            long now = time;
+            aggregator.close(now, bars);
+            reference.close(now, referenceBars);
+            price += random.nextGaussian();
+            double volume = random.nextInt(7) - 3;
+            aggregator.apply(id, time, price, volume);
+            reference.apply(referenceId, time, price, volume);
+        }
+        aggregator.close(START + 120 * MINUTE, bars);
+        reference.close(START + 120 * MINUTE, referenceBars);
+
+        List<Bar> fiveMinute = bars.forInterval(300);
+        assertEquals(120, bars.forInterval(60).size());
+        assertEquals(24, fiveMinute.size());
+        assertEquals(2, bars.forInterval(3600).size());
+        for (int i = 0; i < fiveMinute.size(); i++) {
+            Bar rolled = fiveMinute.get(i);
+            Bar direct = referenceBars.bars.get(i);
+            assertEquals(direct.getTimestamp(), rolled.getTimestamp());
+            assertEquals(direct.getOpen(), rolled.getOpen(), 0);
+            assertEquals(direct.getHigh(), rolled.getHigh(), 0);
+            assertEquals(direct.getLow(), rolled.getLow(), 0);
+            assertEquals(direct.getClose(), rolled.getClose(), 0);
+            assertEquals(direct.getVolume(), rolled.getVolume(), 1e-9);
+            assertEquals(direct.getBuyVolume(), rolled.getBuyVolume(), 1e-9);
+        }
+        Bar hour = bars.forInterval(3600).get(1);
+        assertEquals(START + 60 * MINUTE, hour.getTimestamp());
+        assertEquals(fiveMinute.get(12).getOpen(), hour.getOpen(), 0);
+        assertEquals(fiveMinute.get(23).getClose(), hour.getClose(), 0);
+    }
+
+    private static class Collector implements BarAggregator.BarListener {
+
+        @Override
+        public void onBar(int marketId, Bar bar, Bar previous) {
+            bars.add(bar);
+            this.previous.add(previous);
+        }
+
+        List<Bar> forInterval(double interval) {
+            List<Bar> matching = new ArrayList<Bar>();
+            for (Bar bar : bars)
+                if (bar.getInterval() == interval)
+                    matching.add(bar);
+            return matching;
+        }
+
+        private final List<Bar> bars = new ArrayList<Bar>();
+        private final List<Bar> previous = new ArrayList<Bar>();
+
+    }
+
+}
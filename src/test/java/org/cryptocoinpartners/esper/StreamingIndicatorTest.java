@@ -0,0 +1,165 @@
+package org.cryptocoinpartners.esper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.espertech.esper.client.Configuration;
+import com.espertech.esper.client.EPServiceProvider;
+import com.espertech.esper.client.EPServiceProviderManager;
+import com.espertech.esper.client.EPStatement;
+import com.espertech.esper.client.EventBean;
+import com.espertech.esper.client.UpdateListener;
+import com.tictactec.ta.lib.Core;
+import com.tictactec.ta.lib.MAType;
+import com.tictactec.ta.lib.MInteger;
+
+public class StreamingIndicatorTest {
+
+    private static final int POINTS = 600;
+    private final Core core = new Core();
+    private final double[] high = new double[POINTS];
+    private final double[] low = new double[POINTS];
+    private final double[] close = new double[POINTS];
+
+    public StreamingIndicatorTest() {
+        Random random = new Random(11);
+        double price = 250;
+        for (int i = 0; i < POINTS; i++) {
+            price = Math.max(1, price + random.nextGaussian() * 2);
+            close[i] = price;
+            high[i] = price + random.nextDouble() * 3;
+            low[i] = price - random.nextDouble() * 3;
+        }
+    }
+
+    @Test
+    public void matchesTaLibAverages() {
+        double[] out = new double[POINTS];
+        MInteger begin = new MInteger();
+        MInteger length = new MInteger();
+
+        core.sma(0, POINTS - 1, close, 20, begin, length, out);
+        assertSeries(new StreamingIndicator.Sma(20), out, begin.value, length.value, 1e-9);
+        core.ema(0, POINTS - 1, close, 20, begin, length, out);
+        assertSeries(new StreamingIndicator.Ema(20), out, begin.value, length.value, 1e-9);
+        core.wma(0, POINTS - 1, close, 20, begin, length, out);
+        assertSeries(new StreamingIndicator.Wma(20), out, begin.value, length.value, 1e-9);
+        core.stdDev(0, POINTS - 1, close, 20, 1.0, begin, length, out);
+        assertSeries(new StreamingIndicator.StdDev(20), out, begin.value, length.value, 1e-6);
+        core.min(0, POINTS - 1, close, 20, begin, length, out);
+        assertSeries(new StreamingIndicator.Extreme(20, false), out, begin.value, length.value, 0);
+        core.max(0, POINTS - 1, close, 20, begin, length, out);
+        assertSeries(new StreamingIndicator.Extreme(20, true), out, begin.value, length.value, 0);
+        core.rsi(0, POINTS - 1, close, 14, begin, length, out);
+        assertSeries(new StreamingIndicator.Rsi(14), out, begin.value, length.value, 1e-9);
+    }
+
+    @Test
+    public void matchesTaLibBars() {
+        double[] out = new double[POINTS];
+        MInteger begin = new MInteger();
+        MInteger length = new MInteger();
+        core.atr(0, POINTS - 1, high, low, close, 14, begin, length, out);
+        StreamingIndicator.Atr atr = new StreamingIndicator.Atr(14);
+        for (int i = 0; i < POINTS; i++) {
+            atr.update(high[i], low[i], close[i]);
+            if (i < begin.value)
+                assertNull(atr.getValue());
+            else
+                assertEquals(out[i - begin.value], (Double) atr.getValue(), 1e-9);
+        }
+        assertEquals(POINTS, begin.value + length.value);
+
+        double[] upper = new double[POINTS];
+        double[] middle = new double[POINTS];
+        double[] lower = new double[POINTS];
+        core.bbands(0, POINTS - 1, close, 20, 2.0, 2.0, MAType.Sma, begin, length, upper, middle, lower);
+        StreamingIndicator.Bollinger bollinger = new StreamingIndicator.Bollinger(20, 2.0);
+        for (int i = 0; i < POINTS; i++) {
+            bollinger.update(close[i]);
+            if (i >= begin.value) {
+                BollingerValue value = (BollingerValue) bollinger.getValue();
+                assertEquals(upper[i - begin.value], value.getUpper(), 1e-6);
+                assertEquals(middle[i - begin.value], value.getMiddle(), 1e-9);
+                assertEquals(lower[i - begin.value], value.getLower(), 1e-6);
+            }
+        }
+
+        double[] macd = new double[POINTS];
+        double[] signal = new double[POINTS];
+        double[] histogram = new double[POINTS];
+        core.macd(0, POINTS - 1, close, 12, 26, 9, begin, length, macd, signal, histogram);
+        StreamingIndicator.Macd streaming = new StreamingIndicator.Macd(12, 26, 9);
+        for (int i = 0; i < POINTS; i++) {
+            streaming.update(close[i]);
+            // the fast EMA is seeded earlier than TA-Lib's, which decays away
+            if (i >= 200) {
+                MacdValue value = (MacdValue) streaming.getValue();
+                assertEquals(macd[i - begin.value], value.getMacd(), 1e-6);
+                assertEquals(signal[i - begin.value], value.getSignal(), 1e-6);
+                assertEquals(histogram[i - begin.value], value.getHistogram(), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void aggregatesPerGroupInStatements() {
+        Configuration configuration = new Configuration();
+        Map<String, Object> tick = new HashMap<String, Object>();
+        tick.put("symbol", String.class);
+        tick.put("price", double.class);
+        configuration.addEventType("Tick", tick);
+        configuration.addPlugInAggregationFunctionFactory("sma", StreamingIndicatorFunction.class.getName());
+        configuration.addPlugInAggregationFunctionFactory("bollinger", StreamingIndicatorFunction.class.getName());
+        EPServiceProvider engine = EPServiceProviderManager.getProvider(StreamingIndicatorTest.class.getName(), configuration);
+        try {
+            EPStatement statement = engine.getEPAdministrator().createEPL(
+                    "select symbol, sma(price, 3) as average, bollinger(price, 3, 2.0) as bands from Tick group by symbol");
+            final Map<String, Object[]> last = new HashMap<String, Object[]>();
+            statement.addListener(new UpdateListener() {
+                @Override
+                public void update(EventBean[] newEvents, EventBean[] oldEvents) {
+                    for (EventBean event : newEvents)
+                        last.put((String) event.get("symbol"), new Object[] { event.get("average"), event.get("bands") });
+                }
+            });
+            for (int i = 1; i <= 5; i++) {
+                send(engine, "A", i);
+                send(engine, "B", 10 * i);
+            }
+            assertEquals(4.0, (Double) last.get("A")[0], 1e-12);
+            assertEquals(40.0, (Double) last.get("B")[0], 1e-12);
+            assertTrue(((BollingerValue) last.get("A")[1]).getUpper() > 4.0);
+            send(engine, "C", 1);
+            assertNull(last.get("C")[0]);
+        } finally {
+            engine.destroy();
+        }
+    }
+
+    private void assertSeries(StreamingIndicator indicator, double[] expected, int begin, int length, double tolerance) {
+        assertEquals(POINTS, begin + length);
+        for (int i = 0; i < POINTS; i++) {
+            indicator.update(close[i]);
+            if (i < begin)
+                assertNull(indicator.getValue());
+            else
+                assertEquals(expected[i - begin], (Double) indicator.getValue(), tolerance);
+        }
+    }
+
+    private static void send(EPServiceProvider engine, String symbol, double price) {
+        Map<String, Object> event = new HashMap<String, Object>();
+        event.put("symbol", symbol);
+        event.put("price", price);
+        engine.getEPRuntime().sendEvent(event, "Tick");
+    }
+
+}
@@ -0,0 +1,116 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.cryptocoinpartners.schema.EntityBase;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.dao.TradeDao;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BatchMergeRunnableTest {
+
+	@BeforeClass
+	public static void init() throws Exception {
+		ConfigUtil.init("cointrader.properties", Collections.<String, String> emptyMap());
+	}
+
+	@Test
+	public void onlyTheFailingRowIsRetriedSingly() {
+		StubDao stub = new StubDao();
+		List<EntityBase> batch = new ArrayList<EntityBase>();
+		for (int i = 0; i < 8; i++)
+			batch.add(trade(stub));
+		EntityBase bad = batch.get(5);
+		stub.failing = bad;
+
+		new ApplicationInitializer.batchMergeRunnable(new LinkedBlockingQueue<EntityBase>(), 8, 0).write(batch);
+
+		// rows 0-7 fail, 0-3 commit, 4-7 fail, 4-5 fail, 4 commits, 5 fails and is written alone, 6-7 commit
+		assertEquals(Arrays.asList(8, 4, 4, 2, 1, 1, 2), stub.batchSizes);
+		assertEquals(7, stub.committed.size());
+		assertFalse(stub.committed.contains(bad));
+		assertEquals(Collections.singletonList(bad), stub.merged);
+		assertTrue(stub.persisted.isEmpty());
+		for (EntityBase entity : batch)
+			if (entity != bad) {
+				assertTrue(entity.getPersisted());
+				assertEquals(0, entity.getAttempt());
+			}
+		// the ids and versions assigned by the failed transactions were rolled back
+		assertFalse(bad.getPersisted());
+		assertNull(bad.getId());
+		assertEquals(0, bad.getVersion());
+	}
+
+	@Test
+	public void storedEntitiesAreUpdatedNotInserted() {
+		StubDao stub = new StubDao();
+		EntityBase fresh = trade(stub);
+		EntityBase stored = trade(stub);
+		stored.setPersisted(true);
+		EntityBase queued = trade(stub);
+
+		new ApplicationInitializer.batchMergeRunnable(new LinkedBlockingQueue<EntityBase>(), 8, 0).write(Arrays.asList(fresh, stored, queued));
+
+		assertEquals(Collections.singletonList(2), stub.batchSizes);
+		assertEquals(Arrays.asList(fresh, queued), stub.committed);
+		assertEquals(Collections.singletonList(stored), stub.merged);
+		assertTrue(stub.persisted.isEmpty());
+	}
+
+	private static Trade trade(StubDao stub) {
+		Trade trade = new Trade();
+		trade.setDao(stub.dao);
+		return trade;
+	}
+
+	/** A TradeDao which assigns ids and versions like a flush would, then fails the whole batch if it holds the failing row */
+	private static class StubDao implements InvocationHandler {
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getName().equals("insertBatch")) {
+				List<EntityBase> entities = (List<EntityBase>) args[0];
+				batchSizes.add(entities.size());
+				for (EntityBase entity : entities) {
+					entity.setId(++nextId);
+					entity.setVersion(entity.getVersion() + 1);
+				}
+				if (entities.contains(failing))
+					throw new IllegalStateException("constraint violation");
+				committed.addAll(entities);
+			} else if (method.getName().equals("mergeEntities"))
+				merged.addAll(Arrays.asList((EntityBase[]) args[1]));
+			else if (method.getName().equals("persistEntities"))
+				persisted.addAll(Arrays.asList((EntityBase[]) args[1]));
+			else if (method.getDeclaringClass() == Object.class)
+				return method.invoke(this, args);
+			return null;
+		}
+
+		private final TradeDao dao = (TradeDao) Proxy.newProxyInstance(TradeDao.class.getClassLoader(), new Class<?>[] { TradeDao.class }, this);
+		private final List<Integer> batchSizes = new ArrayList<Integer>();
+		private final List<EntityBase> committed = new ArrayList<EntityBase>();
+		private final List<EntityBase> merged = new ArrayList<EntityBase>();
+		private final List<EntityBase> persisted = new ArrayList<EntityBase>();
+		private EntityBase failing;
+		private long nextId;
+
+	}
+
+}
@@ -7,9 +7,11 @@ import java.math.BigDecimal;
 import org.cryptocoinpartners.enumeration.ExecutionInstruction;
 import org.cryptocoinpartners.enumeration.FeeMethod;
 import org.cryptocoinpartners.enumeration.PositionEffect;
+import org.cryptocoinpartners.schema.Amount;
 import org.cryptocoinpartners.schema.Asset;
 import org.cryptocoinpartners.schema.Currency;
 import org.cryptocoinpartners.schema.DecimalAmount;
+import org.cryptocoinpartners.schema.DiscreteAmount;
 import org.cryptocoinpartners.schema.Exchange;
 import org.cryptocoinpartners.schema.Fill;
 import org.cryptocoinpartners.schema.Listing;
@@ -18,6 +20,7 @@ import org.cryptocoinpartners.schema.Portfolio;
 import org.cryptocoinpartners.schema.Prompt;
 import org.cryptocoinpartners.schema.SpecificOrder;
 import org.cryptocoinpartners.schema.Transaction;
+import org.cryptocoinpartners.util.FeesUtil;
 import org.joda.time.Instant;
 import org.junit.Test;
 
@@ -126,6 +129,36 @@ public class FeeUtilTest {
 
 	}
 
+	@Test
+	public final void commissionDoesNotDependOnTheAmountType() {
+		Asset usd = new Currency(false, "USD", 0.01);
+		Asset btc = new Currency(false, "BTC", 0.00000001);
+		Market percentageMarket = createMarket("FEETEST", btc, usd, 0.01, 0.00000001, 0.002, 0.003, FeeMethod.PercentagePerUnit, 0.03);
+		Market perUnitMarket = createMarket("FEETEST2", btc, usd, 0.01, 0.00000001, 0.002, 0.003, FeeMethod.PerUnit, 0.03);
+
+		// 1 BTC at 100.00 USD. the double rate is taken to DECIMAL64 precision before the fee is rounded up, so 0.002 is charged as exactly 0.20
+		Amount discretePrice = new DiscreteAmount(10000, 100);
+		Amount discreteVolume = new DiscreteAmount(100000000, 100000000);
+		Amount decimalPrice = new DecimalAmount(new BigDecimal("100.00"));
+		Amount decimalVolume = new DecimalAmount(BigDecimal.ONE);
+		for (Amount price : new Amount[] { discretePrice, decimalPrice })
+			for (Amount volume : new Amount[] { discreteVolume, decimalVolume }) {
+				assertFee("-0.2", FeesUtil.getCommission(price, volume, percentageMarket, PositionEffect.OPEN, ExecutionInstruction.MAKER));
+				assertFee("-0.3", FeesUtil.getCommission(price, volume, percentageMarket, PositionEffect.OPEN, ExecutionInstruction.TAKER));
+				assertFee("-0.01", FeesUtil.getCommission(price, volume, perUnitMarket, PositionEffect.OPEN, ExecutionInstruction.MAKER));
+			}
+
+		// 0.25 BTC at 6320.05 USD is 3.1600250 at the maker rate
+		assertFee("-3.17", FeesUtil.getCommission(new DiscreteAmount(632005, 100), new DiscreteAmount(25000000, 100000000), percentageMarket,
+				PositionEffect.OPEN, ExecutionInstruction.MAKER));
+		assertFee("-3.17", FeesUtil.getCommission(new DecimalAmount(new BigDecimal("6320.05")), new DecimalAmount(new BigDecimal("0.25")),
+				percentageMarket, PositionEffect.OPEN, ExecutionInstruction.MAKER));
+	}
+
+	private static void assertFee(String expected, Amount fee) {
+		assertEquals(expected, fee.asBigDecimal().stripTrailingZeros().toPlainString());
+	}
+
 	private Market createMarket(String exchangestr, Asset base, Asset quote, Prompt prompt, double priceBasis, double volumeBasis) {
 		Exchange exchange = new Exchange(exchangestr);
 		Listing listing = new Listing(base, quote, prompt);
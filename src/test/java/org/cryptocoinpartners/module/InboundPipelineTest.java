@@ -0,0 +1,97 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Event;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Trade;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class InboundPipelineTest {
+
+	private final Currency usd = new Currency(false, "USD", 0.01);
+	private final Market btc = new Market(new Exchange("INBOUNDTEST"), new Listing(new Currency(false, "BTC", 0.00000001), usd), 0.01, 0.001);
+	private final Market eth = new Market(new Exchange("INBOUNDTEST"), new Listing(new Currency(false, "ETH", 0.00000001), usd), 0.01, 0.001);
+
+	@Test
+	public void keepsEachMarketInOrder() throws InterruptedException {
+		final int perProducer = 20000;
+		final Map<Market, List<Long>> dispatched = new ConcurrentHashMap<Market, List<Long>>();
+		dispatched.put(btc, new ArrayList<Long>());
+		dispatched.put(eth, new ArrayList<Long>());
+		final CountDownLatch done = new CountDownLatch(2 * perProducer);
+		InboundPipeline pipeline = new InboundPipeline("ordering", 4, 64, InboundPipeline.WaitStrategy.YIELD, new Consumer<Event>() {
+			@Override
+			public void accept(Event event) {
+				Trade trade = (Trade) event;
+				// each market is only ever dispatched on its own shard's thread
+				dispatched.get(trade.getMarket()).add(trade.getPriceCount());
+				done.countDown();
+			}
+		});
+		Thread btcProducer = producer(pipeline, btc, perProducer);
+		Thread ethProducer = producer(pipeline, eth, perProducer);
+		btcProducer.start();
+		ethProducer.start();
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		pipeline.shutdown();
+		for (List<Long> prices : dispatched.values()) {
+			assertEquals(perProducer, prices.size());
+			for (int i = 0; i < perProducer; i++)
+				assertEquals(i, prices.get(i).longValue());
+		}
+		assertEquals(2L * perProducer, pipeline.getDispatched());
+		assertEquals(0L, pipeline.getDepth());
+	}
+
+	@Test
+	public void publishesFromDispatchThreadInline() throws InterruptedException {
+		final List<Thread> threads = new ArrayList<Thread>();
+		final CountDownLatch done = new CountDownLatch(2);
+		final InboundPipeline[] pipeline = new InboundPipeline[1];
+		pipeline[0] = new InboundPipeline("reentrant", 1, 2, InboundPipeline.WaitStrategy.PARK, new Consumer<Event>() {
+			@Override
+			public void accept(Event event) {
+				threads.add(Thread.currentThread());
+				if (((Trade) event).getPriceCount() == 0)
+					pipeline[0].publish(trade(btc, 1));
+				done.countDown();
+			}
+		});
+		pipeline[0].publish(trade(btc, 0));
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		pipeline[0].shutdown();
+		assertEquals(2, threads.size());
+		assertSame(threads.get(0), threads.get(1));
+		assertEquals(1L, pipeline[0].getPublished());
+	}
+
+	private Thread producer(final InboundPipeline pipeline, final Market market, final int count) {
+		return new Thread() {
+			@Override
+			public void run() {
+				for (int i = 0; i < count; i++)
+					pipeline.publish(trade(market, i));
+			}
+		};
+	}
+
+	private static Trade trade(Market market, long priceCount) {
+		return new Trade(market, new Instant(1000L), new Instant(1000L), null, priceCount, 1L);
+	}
+
+}
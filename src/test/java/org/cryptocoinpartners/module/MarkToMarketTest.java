@@ -0,0 +1,129 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cryptocoinpartners.enumeration.FeeMethod;
+import org.cryptocoinpartners.enumeration.PositionEffect;
+import org.cryptocoinpartners.schema.Amount;
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Fill;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.Position;
+import org.cryptocoinpartners.schema.Prompt;
+import org.cryptocoinpartners.schema.RiskSnapshot;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.service.QuoteService;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class MarkToMarketTest {
+
+	private final Asset usd = new Currency(false, "USD", 0.01);
+	private final Asset btc = new Currency(false, "BTC", 0.00000001);
+	private final Asset eth = new Currency(false, "ETH", 0.00000001);
+	/** BTC/USD for cash, with a contract size of 1 */
+	private final Market cash = new Market(new Exchange("M2MCASH"), new Listing(btc, usd), 0.01, 0.00000001);
+	/** ETH/USD futures of 100 USD a contract, settled in ETH */
+	private final Market futures = new Market(new Exchange("M2MFUTURES"), new Listing(eth, usd, new Prompt("M2M_WEEK", 1, 0.01, eth, 1, 0.01, 20,
+			FeeMethod.PercentagePerUnit, 0.0002, 0.0003, FeeMethod.PercentagePerUnit, FeeMethod.PercentagePerUnit)), 0.01, 1);
+
+	@Test
+	public void longCashPositionMatchesThePortfolio() {
+		check(cash, new long[] { 1000000, 1010000 }, new long[] { 50000000, 50000000 }, 1025050, 995099);
+	}
+
+	@Test
+	public void shortCashPositionMatchesThePortfolio() {
+		check(cash, new long[] { 2000050, 1999925 }, new long[] { -25000000, -12345678 }, 1950001, 2012345);
+	}
+
+	@Test
+	public void longFuturesPositionMatchesThePortfolio() {
+		check(futures, new long[] { 310000, 320050 }, new long[] { 3, 7 }, 331233, 298801);
+	}
+
+	@Test
+	public void shortFuturesPositionMatchesThePortfolio() {
+		check(futures, new long[] { 305075 }, new long[] { -12 }, 291177, 317777);
+	}
+
+	/** opens a position with a fill at each price, then checks the marks at each trade price against the portfolio service */
+	private void check(Market market, long[] fillPrices, long[] fillVolumes, long... tradePrices) {
+		Portfolio portfolio = new Portfolio();
+		List<Fill> fills = new ArrayList<Fill>();
+		for (int i = 0; i < fillPrices.length; i++) {
+			SpecificOrder order = new SpecificOrder(new Instant(1000), portfolio, market, fillVolumes[i], "m2m order");
+			order.withPositionEffect(PositionEffect.OPEN);
+			fills.add(new Fill(order, new Instant(1000), new Instant(1000), market, fillPrices[i], fillVolumes[i], "m2m fill " + i));
+		}
+		Position position = new Position(fills, market);
+		position.setPortfolio(portfolio);
+		portfolio.insert(position);
+
+		Map<Market, Trade> lastTrades = new HashMap<Market, Trade>();
+		QuoteService quotes = quotes(lastTrades);
+		BasicPortfolioService portfolioService = new BasicPortfolioService(portfolio);
+		portfolioService.quotes = quotes;
+		MarkToMarket markToMarket = new MarkToMarket(portfolioService, quotes, 0);
+
+		lastTrades.put(market, trade(market, 2000, tradePrices[0]));
+		markToMarket.refreshAll(new Instant(2000));
+		assertAgrees(portfolioService, markToMarket.getSnapshot());
+		for (int i = 1; i < tradePrices.length; i++) {
+			Trade trade = trade(market, 2000 + i, tradePrices[i]);
+			lastTrades.put(market, trade);
+			markToMarket.mark(trade);
+			assertAgrees(portfolioService, markToMarket.getSnapshot());
+		}
+	}
+
+	private static void assertAgrees(BasicPortfolioService portfolioService, RiskSnapshot snapshot) {
+		assertAgrees(portfolioService.getUnrealisedPnLs(), snapshot.getUnrealisedPnLs());
+		assertAgrees(portfolioService.getMarketValues(), snapshot.getMarketValues());
+	}
+
+	/** equal to within the DECIMAL64 rounding of the portfolio service's per leg arithmetic */
+	private static void assertAgrees(Map<Asset, Amount> expected, Map<Asset, Amount> actual) {
+		assertEquals(1, expected.size());
+		assertEquals(expected.keySet(), actual.keySet());
+		for (Map.Entry<Asset, Amount> entry : expected.entrySet()) {
+			BigDecimal want = entry.getValue().asBigDecimal();
+			BigDecimal got = actual.get(entry.getKey()).asBigDecimal();
+			assertTrue(want.signum() != 0);
+			assertTrue(entry.getKey() + " expected " + want + " but was " + got, want.subtract(got).abs().compareTo(new BigDecimal("1e-12")) <= 0);
+		}
+	}
+
+	private static Trade trade(Market market, long time, long priceCount) {
+		return new Trade(market, new Instant(time), new Instant(time), "m2m trade", priceCount, 1L);
+	}
+
+	private static QuoteService quotes(final Map<Market, Trade> lastTrades) {
+		return (QuoteService) Proxy.newProxyInstance(QuoteService.class.getClassLoader(), new Class<?>[] { QuoteService.class }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getLastTrade"))
+					return lastTrades.get(args[0]);
+				if (method.getDeclaringClass() == Object.class)
+					return method.invoke(this, args);
+				return null;
+			}
+		});
+	}
+
+}
@@ -0,0 +1,199 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.cryptocoinpartners.enumeration.OrderState;
+import org.cryptocoinpartners.enumeration.PositionEffect;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class OrderStateStoreTest {
+
+	private final Currency usd = new Currency(false, "USD", 0.01);
+	private final Exchange[] exchanges = { new Exchange("STORETEST1"), new Exchange("STORETEST2") };
+	private final Market[] markets = { market(0, "BTC"), market(0, "ETH"), market(1, "BTC") };
+	private final Portfolio[] portfolios = { new Portfolio("first", null), new Portfolio("second", null) };
+
+	@Test
+	public void indexesAgreeWithAFilterOfTheMap() {
+		for (long seed = 1; seed <= 20; seed++)
+			run(new Random(seed), seed % 4 == 0 ? 0 : 50);
+	}
+
+	@Test
+	public void terminalOrdersAreArchived() {
+		OrderStateStore store = new OrderStateStore(100);
+		SpecificOrder order = order(markets[0], portfolios[0], 1);
+		order.setRemoteKey("remote");
+		store.update(order, OrderState.PLACED, 0);
+		store.update(order, OrderState.FILLED, 10);
+		store.update(order(markets[0], portfolios[0], 1), OrderState.NEW, 109);
+		assertSame(order, store.getOrder(exchanges[0], "remote"));
+		store.update(order(markets[0], portfolios[0], 1), OrderState.NEW, 110);
+		assertEquals(OrderState.FILLED, store.get(order));
+		assertEquals(2, store.size());
+		assertEquals(1, store.getArchivedCount());
+		assertNull(store.getOrder(exchanges[0], "remote"));
+		assertTrue(store.getClosedOrders().isEmpty());
+
+		// a late update brings it back
+		assertEquals(OrderState.FILLED, store.update(order, OrderState.CANCELLED, 120));
+		assertEquals(0, store.getArchivedCount());
+		assertSame(order, store.getOrder(exchanges[0], "remote"));
+	}
+
+	@Test
+	public void remoteKeysAreOnlyUniqueWithinAnExchange() {
+		OrderStateStore store = new OrderStateStore();
+		SpecificOrder first = order(markets[0], portfolios[0], 1);
+		first.setRemoteKey("1001");
+		SpecificOrder second = order(markets[2], portfolios[0], 1);
+		second.setRemoteKey("1001");
+		store.update(first, OrderState.PLACED, 0);
+		store.update(second, OrderState.PLACED, 0);
+		assertSame(first, store.getOrder(exchanges[0], "1001"));
+		assertSame(second, store.getOrder(exchanges[1], "1001"));
+		assertNull(store.getOrder(new Exchange("STORETEST3"), "1001"));
+
+		store.update(first, OrderState.FILLED, 10);
+		assertSame(first, store.getOrder(exchanges[0], "1001"));
+		assertSame(second, store.getOrder(exchanges[1], "1001"));
+	}
+
+	private void run(Random random, long evictAfter) {
+		OrderStateStore store = new OrderStateStore(evictAfter);
+		List<SpecificOrder> orders = new ArrayList<SpecificOrder>();
+		Map<Order, OrderState> live = new HashMap<Order, OrderState>();
+		Map<Order, OrderState> archived = new HashMap<Order, OrderState>();
+		Map<Order, Long> terminalSince = new HashMap<Order, Long>();
+		OrderState[] states = OrderState.values();
+		long time = 0;
+		for (int step = 0; step < 250; step++) {
+			time += random.nextInt(5);
+			if (orders.isEmpty() || random.nextInt(4) == 0) {
+				SpecificOrder order = order(markets[random.nextInt(markets.length)], portfolios[random.nextInt(portfolios.length)],
+						random.nextBoolean() ? 1 : -1);
+				if (random.nextBoolean())
+					order.setPositionEffect(random.nextBoolean() ? PositionEffect.OPEN : PositionEffect.CLOSE);
+				if (random.nextInt(3) == 0)
+					order.setParentOrder(orders.isEmpty() ? null : orders.get(random.nextInt(orders.size())));
+				if (random.nextBoolean())
+					order.setRemoteKey("remote" + orders.size());
+				orders.add(order);
+			}
+			SpecificOrder order = orders.get(random.nextInt(orders.size()));
+			if (random.nextInt(6) == 0 && live.containsKey(order)) {
+				// keys which change between transitions are picked up by index
+				order.setVolumeCount(order.isBid() ? -1 : 1);
+				order.setPositionEffect(random.nextBoolean() ? null : PositionEffect.CLOSE);
+				order.setPortfolio(portfolios[random.nextInt(portfolios.length)]);
+				store.index(order);
+			} else {
+				OrderState state = states[random.nextInt(states.length)];
+				OrderState previous = live.containsKey(order) ? live.get(order) : archived.remove(order);
+				assertEquals(previous, store.update(order, state, time));
+				live.put(order, state);
+				if (OrderStateStore.isTerminal(state))
+					terminalSince.put(order, time);
+				if (evictAfter > 0)
+					for (Order evicted : new ArrayList<Order>(live.keySet()))
+						if (OrderStateStore.isTerminal(live.get(evicted)) && terminalSince.get(evicted) + evictAfter <= time)
+							archived.put(evicted, live.remove(evicted));
+			}
+			check(store, orders, live, archived);
+		}
+	}
+
+	private void check(OrderStateStore store, List<SpecificOrder> orders, Map<Order, OrderState> live, Map<Order, OrderState> archived) {
+		assertEquals(live, new HashMap<Order, OrderState>(store));
+		assertEquals(archived.size(), store.getArchivedCount());
+		for (SpecificOrder order : orders)
+			assertEquals(live.containsKey(order) ? live.get(order) : archived.get(order), store.get(order));
+
+		Set<Order> open = new HashSet<Order>();
+		Set<Order> closed = new HashSet<Order>();
+		for (Map.Entry<Order, OrderState> entry : live.entrySet())
+			(entry.getValue().isOpen() ? open : closed).add(entry.getKey());
+		assertEquals(open, store.getOpenOrders());
+		assertEquals(closed, store.getClosedOrders());
+		for (OrderState state : OrderState.values()) {
+			Set<Order> inState = new HashSet<Order>();
+			for (Map.Entry<Order, OrderState> entry : live.entrySet())
+				if (entry.getValue() == state)
+					inState.add(entry.getKey());
+			assertEquals(inState, store.getOrders(state));
+		}
+
+		for (Portfolio portfolio : portfolios) {
+			Set<Order> expected = new HashSet<Order>();
+			for (Order order : open)
+				if (order.getPortfolio().equals(portfolio))
+					expected.add(order);
+			assertEquals(expected, store.getOpenOrders(portfolio));
+		}
+		for (Exchange exchange : exchanges) {
+			Set<Order> expected = new HashSet<Order>();
+			for (Order order : open)
+				if (order.getMarket().getExchange().equals(exchange))
+					expected.add(order);
+			assertEquals(expected, store.getOpenOrders(exchange));
+		}
+		for (Market market : markets) {
+			Set<Order> expected = new HashSet<Order>();
+			for (Order order : open)
+				if (order.getMarket().equals(market))
+					expected.add(order);
+			assertEquals(expected, store.getOpenOrders(market));
+			for (boolean bid : new boolean[] { true, false }) {
+				expected = new HashSet<Order>();
+				for (Order order : open)
+					if (order.getMarket().equals(market) && order.isBid() == bid)
+						expected.add(order);
+				assertEquals(expected, store.getOpenOrders(market, bid));
+			}
+			for (PositionEffect positionEffect : PositionEffect.values()) {
+				expected = new HashSet<Order>();
+				for (Order order : open)
+					if (order.getMarket().equals(market) && order.getPositionEffect() == positionEffect)
+						expected.add(order);
+				assertEquals(expected, store.getOpenOrders(market, positionEffect));
+			}
+		}
+		for (SpecificOrder parent : orders) {
+			Set<Order> expected = new HashSet<Order>();
+			for (Order order : live.keySet())
+				if (parent.equals(order.getParentOrder()))
+					expected.add(order);
+			assertEquals(expected, store.getChildOrders(parent));
+			if (parent.getRemoteKey() != null)
+				assertEquals(live.containsKey(parent) ? parent : null, store.getOrder(parent.getMarket().getExchange(), parent.getRemoteKey()));
+		}
+	}
+
+	private Market market(int exchange, String base) {
+		return new Market(exchanges[exchange], new Listing(new Currency(false, base, 0.00000001), usd), 0.01, 0.001);
+	}
+
+	private static SpecificOrder order(Market market, Portfolio portfolio, long volumeCount) {
+		return new SpecificOrder(new Instant(0), portfolio, market, volumeCount);
+	}
+
+}
@@ -0,0 +1,196 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.cryptocoinpartners.enumeration.FillType;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.cryptocoinpartners.schema.SpecificOrder;
+import org.cryptocoinpartners.schema.Trade;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class SimulatedBookTest {
+
+	// whole units, so counts are prices and volumes
+	private final Market market = new Market(new Exchange("SIMTEST"), new Listing(new Currency(false, "BTC", 1), new Currency(false, "USD", 1)), 1, 1);
+	private final Map<SpecificOrder, String> names = new IdentityHashMap<SpecificOrder, String>();
+	private final List<String> reports = new ArrayList<String>();
+
+	@Test
+	public void fillsOneLevelFirstInFirstOut() {
+		SimulatedBook book = book(SimulatedLatency.NONE, SimulatedLatency.NONE, 1);
+		book.book(book(0, new long[] { 100, 5 }, new long[] { 101, 5 }));
+		SpecificOrder a = limit("a", 2, 100);
+		SpecificOrder b = limit("b", 3, 100);
+		book.place(a, new Instant(1));
+		book.place(b, new Instant(2));
+		assertEquals(5, book.getQueueAhead(a));
+		assertEquals(5, book.getQueueAhead(b));
+
+		// the five shown ahead go first
+		book.trade(sold(3, 100, 6));
+		assertEquals(Arrays.asList("a 100x1 maker 3/3"), reports);
+		assertEquals(0, book.getQueueAhead(b));
+		book.trade(sold(4, 100, 3));
+		assertEquals(Arrays.asList("a 100x1 maker 3/3", "a 100x1 maker 4/4", "b 100x2 maker 4/4"), reports);
+		assertFalse(book.isWorking(a));
+		assertTrue(book.isWorking(b));
+	}
+
+	@Test
+	public void tradesAndCancellationsUseUpTheQueue() {
+		SimulatedBook book = book(SimulatedLatency.NONE, SimulatedLatency.NONE, 1);
+		SimulatedBook behind = book(SimulatedLatency.NONE, SimulatedLatency.NONE, 0);
+		SpecificOrder a = limit("a", 10, 100);
+		SpecificOrder b = limit("b", 10, 100);
+		book.book(book(0, new long[] { 100, 100 }, new long[] { 101, 5 }));
+		behind.book(book(0, new long[] { 100, 100 }, new long[] { 101, 5 }));
+		book.place(a, new Instant(0));
+		behind.place(b, new Instant(0));
+
+		// more joins behind, then 30 is cancelled from a level of 130, 100 of it ahead
+		book.book(book(1, new long[] { 100, 130 }, new long[] { 101, 5 }));
+		book.book(book(2, new long[] { 100, 100 }, new long[] { 101, 5 }));
+		assertEquals(77, book.getQueueAhead(a));
+		behind.book(book(1, new long[] { 100, 130 }, new long[] { 101, 5 }));
+		behind.book(book(2, new long[] { 100, 100 }, new long[] { 101, 5 }));
+		assertEquals(100, behind.getQueueAhead(b));
+
+		// traded volume is not taken as cancelled as well
+		book.trade(sold(3, 100, 40));
+		assertEquals(37, book.getQueueAhead(a));
+		book.book(book(4, new long[] { 100, 60 }, new long[] { 101, 5 }));
+		assertEquals(37, book.getQueueAhead(a));
+		book.trade(sold(5, 100, 40));
+		assertEquals(Arrays.asList("a 100x3 maker 5/5"), reports);
+	}
+
+	@Test
+	public void takesLevelsOnceAndFillsPartially() {
+		SimulatedBook book = book(SimulatedLatency.NONE, SimulatedLatency.NONE, 1);
+		book.book(book(0, new long[] { 99, 5 }, new long[] { 101, 3, 102, 4, 103, 10 }));
+		SpecificOrder a = limit("a", 10, 102);
+		SpecificOrder b = limit("b", 5, 102);
+		book.place(a, new Instant(1));
+		// what a took is gone, so b rests behind it
+		book.place(b, new Instant(2));
+		assertEquals(Arrays.asList("a 101x3 taker 1/1", "a 102x4 taker 1/1"), reports);
+		assertEquals(0, book.getQueueAhead(b));
+
+		book.trade(sold(3, 102, 2));
+		assertEquals("a 102x2 maker 3/3", reports.get(2));
+		// asks at 100 have traded through both, as far as their volume goes
+		book.book(book(4, new long[] { 99, 5 }, new long[] { 100, 3 }));
+		assertEquals(Arrays.asList("a 102x1 maker 4/4", "b 102x2 maker 4/4"), reports.subList(3, 5));
+		assertEquals(1, book.size());
+
+		SpecificOrder c = limit("c", -4, 99);
+		book.place(c, new Instant(5));
+		assertEquals("c 99x-4 taker 5/5", reports.get(5));
+	}
+
+	@Test
+	public void latencyDelaysEntriesCancelsAndReports() {
+		SimulatedBook book = book(SimulatedLatency.fixed(10), SimulatedLatency.fixed(5), 1);
+		book.book(book(0, new long[] { 99, 1 }, new long[] { 101, 1 }));
+		SpecificOrder a = limit("a", 1, 101);
+		book.place(a, new Instant(0));
+		book.trade(sold(5, 101, 1));
+		assertFalse(book.isWorking(a));
+		assertTrue(reports.isEmpty());
+
+		// a reaches the exchange at 10 and takes the ask, but hears about it at 15
+		assertEquals(10, book.getNextDue());
+		book.advance(14);
+		assertEquals(15, book.getNextDue());
+		assertTrue(reports.isEmpty());
+		book.advance(15);
+		assertEquals(Arrays.asList("a 101x1 taker 10/15"), reports);
+
+		// a cancel sent before the order has arrived still lands after it
+		SpecificOrder b = limit("b", 1, 90);
+		book.place(b, new Instant(20));
+		book.cancel(b, new Instant(21));
+		book.advance(29);
+		assertEquals(1, reports.size());
+		book.advance(30);
+		assertEquals("b cancelled 1 at 30", reports.get(1));
+		assertEquals(0, book.size());
+		assertEquals(Long.MAX_VALUE, book.getNextDue());
+	}
+
+	@Test
+	public void sameSeedGivesSameLatencies() {
+		List<String> first = uniformRun(7);
+		reports.clear();
+		assertEquals(first, uniformRun(7));
+	}
+
+	private List<String> uniformRun(long seed) {
+		SimulatedBook book = new SimulatedBook(SimulatedLatency.uniform(0, 50), SimulatedLatency.NONE, SimulatedLatency.uniform(0, 50), 1,
+				new Random(seed), listener);
+		for (int i = 0; i < 20; i++) {
+			book.book(book(i * 10, new long[] { 99, 1 }, new long[] { 101, 1 }));
+			book.place(limit("o" + i, 1, 101), new Instant(i * 10));
+		}
+		book.advance(1000);
+		assertFalse(reports.isEmpty());
+		return new ArrayList<String>(reports);
+	}
+
+	private SimulatedBook book(SimulatedLatency entryLatency, SimulatedLatency fillLatency, double cancelAheadShare) {
+		return new SimulatedBook(entryLatency, SimulatedLatency.NONE, fillLatency, cancelAheadShare, new Random(1), listener);
+	}
+
+	/** levels as price, volume pairs, best first */
+	private Book book(long time, long[] bids, long[] asks) {
+		Book.Builder builder = new Book.Builder();
+		builder.start(new Instant(time), null, market);
+		for (int i = 0; i < bids.length; i += 2)
+			builder.addBid(BigDecimal.valueOf(bids[i]), BigDecimal.valueOf(bids[i + 1]));
+		for (int i = 0; i < asks.length; i += 2)
+			builder.addAsk(BigDecimal.valueOf(asks[i]), BigDecimal.valueOf(asks[i + 1]));
+		return builder.build();
+	}
+
+	private Trade sold(long time, long price, long volume) {
+		return new Trade(market, new Instant(time), new Instant(time), null, price, -volume);
+	}
+
+	private SpecificOrder limit(String name, long volume, long price) {
+		SpecificOrder order = new SpecificOrder(new Instant(0), (Portfolio) null, market, volume);
+		order.setFillType(FillType.LIMIT);
+		order.setLimitPriceCount(price);
+		names.put(order, name);
+		return order;
+	}
+
+	private final SimulatedBook.Listener listener = new SimulatedBook.Listener() {
+		@Override
+		public void filled(SpecificOrder order, long priceCount, long volumeCount, boolean maker, Instant time, Instant received) {
+			reports.add(names.get(order) + " " + priceCount + "x" + volumeCount + (maker ? " maker " : " taker ") + time.getMillis() + "/"
+					+ received.getMillis());
+		}
+
+		@Override
+		public void cancelled(SpecificOrder order, long volumeCount, Instant time) {
+			reports.add(names.get(order) + " cancelled " + volumeCount + " at " + time.getMillis());
+		}
+	};
+
+}
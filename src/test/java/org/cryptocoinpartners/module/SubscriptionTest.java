@@ -0,0 +1,52 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class SubscriptionTest {
+
+	private static class Module {
+		private String last;
+		private double total;
+
+		@SuppressWarnings("unused")
+		private void handle(String value, double amount) {
+			last = value;
+			total += amount;
+		}
+
+		@SuppressWarnings("unused")
+		private void fail(String value) {
+			throw new IllegalStateException(value);
+		}
+	}
+
+	@Test
+	public void deliversRowsToPrivateMethod() throws NoSuchMethodException {
+		Module module = new Module();
+		Subscription subscription = new Subscription(module, Module.class.getDeclaredMethod("handle", String.class, double.class),
+				"select value, amount from Test");
+		subscription.update(new Object[] { "a", 1.5 });
+		subscription.update(new Object[] { "b", 2.0 });
+		assertEquals("b", module.last);
+		assertEquals(3.5, module.total, 0.0);
+		assertEquals(2L, subscription.getDeliveries());
+		assertEquals(Module.class.getName() + ".handle", subscription.getMethod());
+	}
+
+	@Test
+	public void wrapsExceptionsFromTheMethod() throws NoSuchMethodException {
+		Subscription subscription = new Subscription(new Module(), Module.class.getDeclaredMethod("fail", String.class), "select * from Test");
+		try {
+			subscription.update(new Object[] { "boom" });
+			fail("expected an EsperError");
+		} catch (EsperError e) {
+			assertSame(IllegalStateException.class, e.getCause().getClass());
+		}
+		assertEquals(1L, subscription.getDeliveries());
+	}
+
+}
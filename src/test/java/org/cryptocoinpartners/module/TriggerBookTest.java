@@ -0,0 +1,112 @@
+package org.cryptocoinpartners.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.List;
+
+import org.cryptocoinpartners.enumeration.FillType;
+import org.cryptocoinpartners.enumeration.TransactionType;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.DecimalAmount;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.GeneralOrder;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Order;
+import org.cryptocoinpartners.schema.Portfolio;
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class TriggerBookTest {
+
+	private final Market market = new Market(new Exchange("TRIGGERTEST"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false,
+			"USD", 0.01)), 0.01, 0.001);
+
+	@Test
+	public void sellStopsAreCrossedFromTheHighestStop() {
+		TriggerBook book = new TriggerBook(TransactionType.SELL, FillType.STOP_LIMIT);
+		Order at90 = stop("90");
+		Order at100 = stop("100");
+		Order at95 = stop("95");
+		book.add(at90);
+		book.add(at100);
+		book.add(at95);
+		assertSame(at100, book.get(0));
+		assertSame(at90, book.get(2));
+
+		assertTrue(book.crossedBy(DecimalAmount.of(new BigDecimal("101"))).isEmpty());
+		List<Order> crossed = book.crossedBy(DecimalAmount.of(new BigDecimal("95")));
+		assertEquals(2, crossed.size());
+		assertSame(at95, crossed.get(1));
+		assertEquals(3, book.crossedBy(DecimalAmount.of(new BigDecimal("50"))).size());
+	}
+
+	@Test
+	public void buyStopsAreCrossedFromTheLowestStop() {
+		TriggerBook book = new TriggerBook(TransactionType.BUY, FillType.STOP_LIMIT);
+		book.add(stop("110"));
+		book.add(stop("105"));
+		book.add(target("120"));
+		assertEquals(1, book.crossedBy(DecimalAmount.of(new BigDecimal("107"))).size());
+		// orders without a stop price are never crossed
+		assertEquals(2, book.crossedBy(DecimalAmount.of(new BigDecimal("1000"))).size());
+	}
+
+	@Test
+	public void removingThroughTheCrossedViewRemovesFromTheBook() {
+		TriggerBook book = new TriggerBook(TransactionType.SELL, FillType.TARGET_LIMIT);
+		Order at120 = target("120");
+		Order at110 = target("110");
+		book.add(at120);
+		book.add(at110);
+		for (Iterator<Order> it = book.crossedBy(DecimalAmount.of(new BigDecimal("115"))).iterator(); it.hasNext();)
+			if (it.next() == at110)
+				it.remove();
+		assertEquals(1, book.size());
+		assertFalse(book.contains(at110));
+		assertTrue(book.contains(at120));
+	}
+
+	@Test
+	public void resortsAfterStopsAreMoved() {
+		TriggerBook book = new TriggerBook(TransactionType.SELL, FillType.STOP_LIMIT);
+		GeneralOrder trailing = stop("90");
+		book.add(trailing);
+		book.add(stop("95"));
+		trailing.setStopPrice(DecimalAmount.of(new BigDecimal("99")));
+		book.sort(BaseOrderService.descendingStopPriceComparator);
+		assertSame(trailing, book.get(0));
+		assertEquals(1, book.crossedBy(DecimalAmount.of(new BigDecimal("97"))).size());
+	}
+
+	@Test
+	public void expiryIsTracked() {
+		TriggerBook book = new TriggerBook(TransactionType.SELL, FillType.STOP_LIMIT);
+		GeneralOrder order = stop("90");
+		order.setTimeToLive(5000L);
+		book.add(order);
+		book.add(stop("80"));
+		assertFalse(book.hasExpiredBy(new Instant(5000L)));
+		assertTrue(book.hasExpiredBy(new Instant(5001L)));
+		book.remove(order);
+		assertFalse(book.hasExpiredBy(new Instant(5001L)));
+	}
+
+	private GeneralOrder stop(String price) {
+		GeneralOrder order = new GeneralOrder(new Instant(0L), (Portfolio) null, market, new BigDecimal("-1"), FillType.STOP_LIMIT);
+		order.setStopPrice(DecimalAmount.of(new BigDecimal(price)));
+		return order;
+	}
+
+	private GeneralOrder target(String price) {
+		GeneralOrder order = new GeneralOrder(new Instant(0L), (Portfolio) null, market, new BigDecimal("-1"), FillType.TARGET_LIMIT);
+		order.setTargetPrice(DecimalAmount.of(new BigDecimal(price)));
+		return order;
+	}
+
+}
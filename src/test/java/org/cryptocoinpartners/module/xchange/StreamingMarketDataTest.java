@@ -0,0 +1,196 @@
+package org.cryptocoinpartners.module.xchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.cryptocoinpartners.module.Context;
+import org.cryptocoinpartners.module.OrderBookEngine;
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.BookSnapshot;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.DiscreteAmount;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.TradeFactory;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.cryptocoinpartners.util.ConfigUtil;
+import org.joda.time.Instant;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class StreamingMarketDataTest {
+
+	private static final Currency USD = new Currency(false, "USD", 0.01);
+
+	private final Market btc = new Market(new Exchange("STREAMTEST"), new Listing(new Currency(false, "BTC", 0.00000001), USD), 0.01, 0.001);
+
+	private final Market eth = new Market(new Exchange("STREAMTEST"), new Listing(new Currency(false, "ETH", 0.00000001), USD), 0.01, 0.001);
+
+	@BeforeClass
+	public static void init() throws Exception {
+		ConfigUtil.init("cointrader.properties", Collections.<String, String> emptyMap());
+	}
+
+	@Test
+	public void booksFollowTheExchangeThroughGapsAndReconnects() throws Exception {
+		List<Market> markets = Arrays.asList(btc, eth);
+		Context context = Context.create();
+		OrderBookEngine orderBookEngine = new OrderBookEngine();
+		try (LocalExchangeSimulator exchange = new LocalExchangeSimulator(markets, 42, 0)) {
+			exchange.start();
+			StreamingMarketData handler = new StreamingMarketData(context, orderBookEngine, bookFactory, tradeFactory, exchange, 0);
+			WebSocketMarketDataSource source = new WebSocketMarketDataSource(exchange.getUri(), new BinanceStreamMapper(), 0, 20, 100);
+			source.start(markets, handler);
+			try {
+				assertTrue(exchange.awaitSubscribers(1, 10000));
+				exchange.send(2000);
+				exchange.drop(5);
+				exchange.send(2000);
+
+				exchange.disconnect();
+				assertTrue(awaitSubscribers(exchange, 0));
+				assertTrue(exchange.awaitSubscribers(1, 10000));
+				exchange.send(2000);
+
+				for (Market market : markets) {
+					awaitSequence(handler, exchange, market);
+					assertSameLevels(exchange.getBook(market), orderBookEngine.snapshot(market));
+				}
+				assertTrue(handler.getGapCount() >= 2);
+				assertTrue(handler.getResyncCount() >= 4);
+				assertTrue(handler.getTradeCount() > 0);
+				assertTrue(handler.getPublishedCount() > 0);
+				assertEquals(1, source.getReconnectCount());
+			} finally {
+				source.stop();
+				handler.close();
+				context.destroy();
+			}
+		}
+	}
+
+	@Test
+	public void bitmexLevelsAreTrackedById() throws Exception {
+		BitmexStreamMapper mapper = new BitmexStreamMapper();
+		mapper.subscribe(Collections.singletonList(btc));
+		List<DepthUpdate> updates = new ArrayList<DepthUpdate>();
+		StreamingMarketDataSource.Listener listener = recorder(updates);
+
+		mapper.map("{\"table\":\"orderBookL2_25\",\"action\":\"partial\",\"data\":[{\"symbol\":\"XBTUSD\",\"id\":1,\"side\":\"Sell\",\"size\":5,\"price\":100.5},"
+				+ "{\"symbol\":\"XBTUSD\",\"id\":2,\"side\":\"Buy\",\"size\":7,\"price\":100}]}", listener);
+		mapper.map("{\"table\":\"orderBookL2_25\",\"action\":\"update\",\"data\":[{\"symbol\":\"XBTUSD\",\"id\":2,\"side\":\"Buy\",\"size\":3}]}", listener);
+		mapper.map("{\"table\":\"orderBookL2_25\",\"action\":\"delete\",\"data\":[{\"symbol\":\"XBTUSD\",\"id\":1,\"side\":\"Sell\"}]}", listener);
+		mapper.map("{\"table\":\"orderBookL2_25\",\"action\":\"update\",\"data\":[{\"symbol\":\"XBTUSD\",\"id\":9,\"side\":\"Buy\",\"size\":1}]}", listener);
+
+		assertEquals(4, updates.size());
+		assertTrue(updates.get(0).isSnapshot());
+		assertEquals(2, updates.get(0).size());
+		DepthUpdate update = updates.get(1);
+		assertTrue(update.isBid(0));
+		assertEquals(10000, update.getPriceCount(0));
+		assertEquals(DiscreteAmount.roundedCountForBasis(new BigDecimal(3), btc.getVolumeBasis()), update.getVolumeCount(0));
+		update = updates.get(2);
+		assertEquals(10050, update.getPriceCount(0));
+		assertEquals(0, update.getVolumeCount(0));
+		// an unknown level skips a sequence number so the book resyncs
+		assertEquals(3, updates.get(2).getLastSequence());
+		assertEquals(5, updates.get(3).getFirstSequence());
+	}
+
+	private static StreamingMarketDataSource.Listener recorder(final List<DepthUpdate> updates) {
+		return new StreamingMarketDataSource.Listener() {
+			@Override
+			public void depth(DepthUpdate update) {
+				updates.add(update.copy());
+			}
+
+			@Override
+			public void trade(Market market, Instant time, String remoteKey, BigDecimal price, BigDecimal volume) {
+			}
+
+			@Override
+			public void connected() {
+			}
+
+			@Override
+			public void disconnected() {
+			}
+		};
+	}
+
+	private static boolean awaitSubscribers(LocalExchangeSimulator exchange, int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (exchange.getSubscriberCount() != count) {
+			if (System.currentTimeMillis() > deadline)
+				return false;
+			Thread.sleep(10);
+		}
+		return true;
+	}
+
+	private static void awaitSequence(StreamingMarketData handler, LocalExchangeSimulator exchange, Market market) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (handler.getSequence(market) != exchange.getSequence(market) && System.currentTimeMillis() < deadline)
+			Thread.sleep(10);
+		assertEquals(exchange.getSequence(market), handler.getSequence(market));
+	}
+
+	private static void assertSameLevels(BookSnapshot expected, BookSnapshot actual) {
+		assertEquals(expected.getBidDepth(), actual.getBidDepth());
+		for (int i = 0; i < expected.getBidDepth(); i++) {
+			assertEquals(expected.getBidPriceCount(i), actual.getBidPriceCount(i));
+			assertEquals(expected.getBidVolumeCount(i), actual.getBidVolumeCount(i));
+		}
+		assertEquals(expected.getAskDepth(), actual.getAskDepth());
+		for (int i = 0; i < expected.getAskDepth(); i++) {
+			assertEquals(expected.getAskPriceCount(i), actual.getAskPriceCount(i));
+			assertEquals(expected.getAskVolumeCount(i), actual.getAskVolumeCount(i));
+		}
+	}
+
+	private final TradeFactory tradeFactory = new TradeFactory() {
+		@Override
+		public Trade create(Tradeable market, Instant time, String remoteKey, long priceCount, long volumeCount) {
+			return new Trade(market, time, remoteKey, priceCount, volumeCount);
+		}
+
+		@Override
+		public Trade create(Tradeable market, Instant time, Instant timeRecieved, String remoteKey, long priceCount, long volumeCount) {
+			return new Trade(market, time, timeRecieved, remoteKey, priceCount, volumeCount);
+		}
+
+		@Override
+		public Trade create(Tradeable market, Instant time, String remoteKey, BigDecimal price, BigDecimal volume) {
+			return new Trade(market, time, remoteKey, price, volume);
+		}
+	};
+
+	private final BookFactory bookFactory = new BookFactory() {
+		@Override
+		public Book create(Instant time, Tradeable market) {
+			return create(time, time, null, market);
+		}
+
+		@Override
+		public Book create(Instant time, String remoteKey, Tradeable market) {
+			return create(time, time, remoteKey, market);
+		}
+
+		@Override
+		public Book create(Instant time, Instant timeReceived, String remoteKey, Tradeable market) {
+			Book.Builder builder = new Book.Builder();
+			builder.start(time, timeReceived, remoteKey, (Market) market);
+			return builder.build();
+		}
+	};
+
+}
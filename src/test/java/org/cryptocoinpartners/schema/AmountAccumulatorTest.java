@@ -0,0 +1,77 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.cryptocoinpartners.util.Remainder;
+import org.junit.Test;
+
+public class AmountAccumulatorTest {
+
+	@Test
+	public void sumsCountsExactly() {
+		AmountAccumulator sum = new AmountAccumulator();
+		sum.add(new DiscreteAmount(150, 100));
+		sum.add(new DiscreteAmount(1, 100000000));
+		sum.subtract(25, 10);
+		assertTrue(sum.isDiscrete());
+		assertEquals(100000000, sum.getIBasis());
+		assertEquals(new BigDecimal("-0.99999999"), sum.asBigDecimal().stripTrailingZeros());
+		assertEquals(new DiscreteAmount(-99999999, 100000000), sum.toAmount());
+
+		sum.add(DecimalAmount.of("1.000000001"));
+		assertFalse(sum.isDiscrete());
+		assertEquals(0, sum.asBigDecimal().compareTo(new BigDecimal("0.000000011")));
+	}
+
+	@Test
+	public void keepsOverflowAside() {
+		AmountAccumulator sum = new AmountAccumulator(100);
+		sum.add(Long.MAX_VALUE, 100);
+		sum.add(Long.MAX_VALUE, 100);
+		assertFalse(sum.isDiscrete());
+		assertEquals(0, sum.asBigDecimal().compareTo(BigDecimal.valueOf(Long.MAX_VALUE).multiply(BigDecimal.valueOf(2)).movePointLeft(2)));
+	}
+
+	@Test
+	public void weightedAverage() {
+		AmountAccumulator notional = new AmountAccumulator();
+		AmountAccumulator volume = new AmountAccumulator();
+		// 1 at 100.00 and 3 at 104.00
+		notional.addProduct(10000, 100, 100000000, 100000000);
+		notional.addProduct(10400, 100, 300000000, 100000000);
+		volume.add(400000000, 100000000);
+		assertEquals(0, notional.divide(volume, Remainder.ROUND_EVEN).asBigDecimal().compareTo(new BigDecimal("103")));
+	}
+
+	@Test
+	public void rescaleRounds() {
+		assertEquals(-1, new AmountAccumulator(1000).add(-1501, 1000).rescale(1, Remainder.ROUND_CEILING).getCount());
+		assertEquals(-2, new AmountAccumulator(1000).add(-1501, 1000).rescale(1, Remainder.ROUND_FLOOR).getCount());
+		assertEquals(150, new AmountAccumulator(10).add(15, 10).rescale(100, Remainder.ROUND_EVEN).getCount());
+		assertEquals(5, new AmountAccumulator(3).add(4, 3).rescale(4, Remainder.ROUND_UP).getCount());
+	}
+
+	@Test
+	public void divideMatchesBigDecimal() {
+		Random random = new Random(7);
+		RoundingMode[] modes = { RoundingMode.UP, RoundingMode.DOWN, RoundingMode.CEILING, RoundingMode.FLOOR, RoundingMode.HALF_UP,
+				RoundingMode.HALF_DOWN, RoundingMode.HALF_EVEN };
+		for (int i = 0; i < 10000; i++) {
+			long dividend = random.nextInt(2001) - 1000;
+			long divisor = random.nextInt(40) - 20;
+			if (divisor == 0)
+				continue;
+			for (RoundingMode mode : modes)
+				assertEquals(dividend + " / " + divisor + " " + mode,
+						BigDecimal.valueOf(dividend).divide(BigDecimal.valueOf(divisor), 0, mode).longValueExact(),
+						AmountAccumulator.divide(dividend, divisor, mode));
+		}
+	}
+
+}
@@ -0,0 +1,108 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BookCodecTest {
+
+	@Test
+	public void roundTripsLevels() {
+		BookLevels small = new BookLevels(true);
+		small.append(100, 5);
+		small.append(99, 1);
+		small.append(40, 3);
+		assertLevelsEqual(small, BookCodec.decodeLevels(BookCodec.encodeLevels(small), true));
+
+		BookLevels large = new BookLevels(false);
+		for (int i = 0; i < 500; i++)
+			large.append(25000 + i, -(i % 7) - 1);
+		byte[] blob = BookCodec.encodeLevels(large);
+		assertEquals(BookCodec.VARINT_LZ4, blob[0]);
+		assertTrue(blob.length < 500 * 16);
+		assertLevelsEqual(large, BookCodec.decodeLevels(blob, false));
+		assertEquals(0, BookCodec.decodeLevels(null, false).size());
+	}
+
+	@Test
+	public void roundTripsIndexes() {
+		int[] indexes = { 0, 3, 4, 90, 1000 };
+		assertArrayEquals(indexes, BookCodec.decodeIndexes(BookCodec.encodeIndexes(indexes, indexes.length)));
+		assertArrayEquals(new int[] { 0, 3 }, BookCodec.decodeIndexes(BookCodec.encodeIndexes(indexes, 2)));
+		assertEquals(0, BookCodec.decodeIndexes(null).length);
+	}
+
+	@Test
+	public void readsLegacyBlobs() throws IOException {
+		ByteArrayOutputStream levelBytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(levelBytes);
+		out.writeInt(2);
+		out.writeLong(101);
+		out.writeLong(-4);
+		out.writeLong(103);
+		out.writeLong(-1);
+		out.close();
+		BookLevels levels = BookCodec.decodeLevels(levelBytes.toByteArray(), false);
+		assertEquals(2, levels.size());
+		assertEquals(103, levels.getPriceCount(1));
+		assertEquals(-4, levels.getVolumeCount(0));
+
+		ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+		out = new ObjectOutputStream(indexBytes);
+		out.writeInt(2);
+		out.writeInt(1);
+		out.writeInt(7);
+		out.close();
+		assertArrayEquals(new int[] { 1, 7 }, BookCodec.decodeIndexes(indexBytes.toByteArray()));
+	}
+
+	@Test
+	public void mergeMatchesLikeBruteForce() {
+		Random random = new Random(13);
+		for (int round = 0; round < 200; round++) {
+			boolean descending = random.nextBoolean();
+			BookLevels a = randomLevels(random, descending);
+			BookLevels b = randomLevels(random, descending);
+			boolean[] aMatched = new boolean[a.size()];
+			boolean[] bMatched = new boolean[b.size()];
+			Book.matchLevels(a, b, aMatched, bMatched);
+			for (int i = 0; i < a.size(); i++)
+				assertEquals(contains(b, a.getPriceCount(i), a.getVolumeCount(i)), aMatched[i]);
+			for (int j = 0; j < b.size(); j++)
+				assertEquals(contains(a, b.getPriceCount(j), b.getVolumeCount(j)), bMatched[j]);
+		}
+	}
+
+	private static BookLevels randomLevels(Random random, boolean descending) {
+		BookLevels levels = new BookLevels(descending);
+		int size = random.nextInt(12);
+		// a narrow range of prices and volumes gives repeated levels
+		for (int i = 0; i < size; i++)
+			levels.append(100 + random.nextInt(6), 1 + random.nextInt(3));
+		levels.sort();
+		return levels;
+	}
+
+	private static boolean contains(BookLevels levels, long priceCount, long volumeCount) {
+		for (int i = 0; i < levels.size(); i++)
+			if (levels.getPriceCount(i) == priceCount && levels.getVolumeCount(i) == volumeCount)
+				return true;
+		return false;
+	}
+
+	private static void assertLevelsEqual(BookLevels expected, BookLevels actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getPriceCount(i), actual.getPriceCount(i));
+			assertEquals(expected.getVolumeCount(i), actual.getVolumeCount(i));
+		}
+	}
+
+}
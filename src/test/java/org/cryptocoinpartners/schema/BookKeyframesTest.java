@@ -0,0 +1,86 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.Method;
+
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class BookKeyframesTest {
+
+	private final Market market = new Market(new Exchange("KEYFRAMETEST"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false,
+			"USD", 0.01)), 0.01, 0.001);
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		BookKeyframes keyframes = new BookKeyframes(2);
+		Book first = book(1L);
+		Book second = book(2L);
+		keyframes.put(first, new BookLevels(true), new BookLevels(false));
+		keyframes.put(second, new BookLevels(true), new BookLevels(false));
+		keyframes.get(first);
+		keyframes.put(book(3L), new BookLevels(true), new BookLevels(false));
+		assertNull(keyframes.get(second));
+		assertEquals(2, keyframes.getSize());
+		assertEquals(1L, keyframes.getEvictions());
+		assertEquals(1L, keyframes.getHits());
+		assertEquals(1L, keyframes.getMisses());
+	}
+
+	@Test
+	public void resolvesDiffAgainstCachedParent() throws Exception {
+		Book parent = book(-1001L).addBid(100, 1).addBid(99, 2).addAsk(101, 1);
+		Book.getKeyframes().put(parent, parentLevels(parent, true), parentLevels(parent, false));
+
+		// the loaded parent's own levels are never resolved, so the child can only get them from the cache
+		Book child = load(-1002L, book(-1001L));
+		long hits = Book.getKeyframes().getHits();
+		assertEquals(2, child.getBidDepth());
+		assertEquals(100, child.getBidPriceCount(0));
+		assertEquals(98, child.getBidPriceCount(1));
+		assertEquals(101, child.getAskPriceCount(0));
+		assertEquals(hits + 1, Book.getKeyframes().getHits());
+
+		// loading the same Book again takes its resolved levels from the cache
+		Book again = load(-1002L, book(-1001L));
+		assertEquals(98, again.getBidPriceCount(1));
+		assertNull(again.getBidInsertionsBlob());
+	}
+
+	private Book load(long id, Book parent) throws Exception {
+		Book child = book(id);
+		child.setParent(parent);
+		BookLevels insertions = new BookLevels(true);
+		insertions.append(98, 3);
+		child.setBidInsertionsBlob(BookCodec.encodeLevels(insertions));
+		child.setBidDeletionsBlob(BookCodec.encodeIndexes(new int[] { 1 }, 1));
+		child.setAskInsertionsBlob(BookCodec.encodeLevels(new BookLevels(false)));
+		child.setAskDeletionsBlob(BookCodec.encodeIndexes(new int[0], 0));
+		Method postLoad = Book.class.getDeclaredMethod("postLoad");
+		postLoad.setAccessible(true);
+		postLoad.invoke(child);
+		return child;
+	}
+
+	private static BookLevels parentLevels(Book parent, boolean bids) {
+		BookLevels levels = new BookLevels(bids);
+		int depth = bids ? parent.getBidDepth() : parent.getAskDepth();
+		for (int i = 0; i < depth; i++)
+			if (bids)
+				levels.append(parent.getBidPriceCount(i), parent.getBidVolumeCount(i));
+			else
+				levels.append(parent.getAskPriceCount(i), parent.getAskVolumeCount(i));
+		return levels;
+	}
+
+	private Book book(long id) {
+		Book.Builder builder = new Book.Builder();
+		builder.start(new Instant(1000L), null, market);
+		Book book = builder.build();
+		book.setId(id);
+		return book;
+	}
+
+}
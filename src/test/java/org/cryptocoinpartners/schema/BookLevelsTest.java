@@ -0,0 +1,115 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BookLevelsTest {
+
+	@Test
+	public void bidsAreKeptHighestFirst() {
+		BookLevels bids = new BookLevels(true, 2);
+		bids.set(100, 5);
+		bids.set(102, 1);
+		bids.set(101, 3);
+		bids.set(99, 7);
+		assertEquals(4, bids.size());
+		assertEquals(102, bids.getBestPriceCount());
+		assertEquals(101, bids.getPriceCount(1));
+		assertEquals(99, bids.getPriceCount(3));
+
+		// modify and delete
+		bids.set(101, 4);
+		assertEquals(4, bids.getVolumeCount(1));
+		bids.set(102, 0);
+		assertEquals(101, bids.getBestPriceCount());
+		assertFalse(bids.remove(500));
+		assertTrue(bids.remove(99));
+		assertEquals(2, bids.size());
+	}
+
+	@Test
+	public void asksAreKeptLowestFirst() {
+		BookLevels asks = new BookLevels(false);
+		asks.set(105, -2);
+		asks.set(103, -1);
+		asks.increment(104, -6);
+		asks.increment(104, -1);
+		assertEquals(103, asks.getBestPriceCount());
+		assertEquals(-7, asks.getVolumeCount(1));
+		asks.increment(104, 7);
+		assertEquals(2, asks.size());
+		assertEquals(105, asks.getPriceCount(1));
+	}
+
+	@Test
+	public void depthAtVolume() {
+		BookLevels asks = new BookLevels(false);
+		asks.set(10, -2);
+		asks.set(11, -3);
+		asks.set(12, -5);
+		assertEquals(10, asks.getPriceCountForVolume(1));
+		assertEquals(10, asks.getPriceCountForVolume(2));
+		assertEquals(11, asks.getPriceCountForVolume(3));
+		assertEquals(12, asks.getPriceCountForVolume(10));
+		assertEquals(-1, asks.indexForVolume(11));
+		assertEquals(10, asks.getCumulativeVolumeCount(3));
+
+		// cumulative volumes are recomputed from the changed level
+		asks.set(9, -4);
+		assertEquals(9, asks.getPriceCountForVolume(3));
+		assertEquals(12, asks.getPriceCountForVolume(11));
+	}
+
+	@Test
+	public void appendThenSort() {
+		BookLevels bids = new BookLevels(true);
+		bids.append(10, 1);
+		bids.append(12, 1);
+		bids.append(11, 2);
+		bids.append(11, 5);
+		bids.sort();
+		assertEquals(12, bids.getPriceCount(0));
+		assertEquals(11, bids.getPriceCount(1));
+		assertEquals(5, bids.getVolumeCount(1));
+		assertEquals(2, bids.getVolumeCount(2));
+		assertEquals(10, bids.getPriceCount(3));
+	}
+
+	@Test
+	public void replaceCountsChangedLevels() {
+		LiveBook book = new LiveBook(null);
+		book.beginReplace();
+		book.stageBid(100, 1);
+		book.stageBid(99, 2);
+		book.stageAsk(101, 1);
+		assertEquals(3, book.commitReplace(null, null));
+
+		book.beginReplace();
+		book.stageBid(100, 1);
+		book.stageBid(99, 2);
+		book.stageAsk(101, 1);
+		assertEquals(0, book.commitReplace(null, null));
+
+		book.beginReplace();
+		book.stageBid(100, 3);
+		book.stageBid(98, 2);
+		book.stageAsk(101, 1);
+		book.stageAsk(101, 1);
+		// 100 changed, 99 removed, 98 added, 101 changed
+		assertEquals(4, book.commitReplace(null, null));
+		assertEquals(100, book.getBestBidPriceCount());
+		assertEquals(-2, book.getBestAskVolumeCount());
+		assertEquals(98, book.getBidPriceCountForVolume(4));
+
+		long sequence = book.getSequence();
+		assertFalse(book.removeBid(99));
+		assertFalse(book.removeAsk(102));
+		assertEquals(sequence, book.getSequence());
+		assertTrue(book.removeBid(98));
+		assertEquals(sequence + 1, book.getSequence());
+	}
+
+}
@@ -0,0 +1,68 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class BookOffersTest {
+
+	private final Market market = new Market(new Exchange("BOOKTEST"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false, "USD",
+			0.01)), 0.01, 0.001);
+
+	@Test
+	public void offersAreViewsOverLevels() {
+		Book book = new Book(new Instant(1000L), market);
+		book.addBid(new BigDecimal("100.00"), new BigDecimal("1.5"));
+		book.addBid(new BigDecimal("101.00"), new BigDecimal("0.5"));
+		book.addAsk(new BigDecimal("102.00"), new BigDecimal("2"));
+		book.addAsk(new BigDecimal("101.50"), new BigDecimal("1"));
+		book.build();
+
+		assertEquals(2, book.getBidDepth());
+		assertEquals(10100L, book.getBidPriceCount(0));
+		assertEquals(10150L, book.getAskPriceCount(0));
+		assertEquals(-DiscreteAmount.invertBasis(market.getVolumeBasis()), book.getAskVolumeCount(0));
+		assertEquals(101.0, book.getBidPriceAsDouble(), 0.0);
+		assertEquals(-1.0, book.getAskVolumeAsDouble(), 0.0);
+
+		List<Offer> bids = book.getBids();
+		Offer best = bids.get(0);
+		assertSame(best, book.getBestBid());
+		assertEquals(0.5, best.getVolumeAsDouble(), 0.0);
+		assertEquals(new Instant(1000L), best.getTime());
+
+		// legacy callers append offers directly
+		bids.add(Offer.bid(market, book.getTime(), book.getTimeReceived(), 9900L, 100L));
+		assertEquals(3, book.getBidDepth());
+		assertEquals(9900L, book.getBidPriceCount(2));
+
+		// and insert them anywhere, as any List allows
+		Offer inserted = Offer.bid(market, book.getTime(), book.getTimeReceived(), 10050L, 200L);
+		bids.add(1, inserted);
+		assertEquals(4, book.getBidDepth());
+		assertEquals(10050L, book.getBidPriceCount(1));
+		assertEquals(10000L, book.getBidPriceCount(2));
+		assertSame(best, bids.get(0));
+		assertSame(inserted, bids.get(1));
+		assertEquals(9900L, bids.get(3).getPriceCount().longValue());
+	}
+
+	@Test
+	public void bestByVolumeUsesCumulativeDepth() {
+		Book book = new Book(new Instant(2000L), market);
+		book.addAsk(10000L, 1000L);
+		book.addAsk(10001L, 1000L);
+		book.addAsk(10002L, 1000L);
+		book.build();
+
+		assertEquals(Long.valueOf(10000L), book.getBestAskByVolume(new DiscreteAmount(500L, 1)).getPriceCount());
+		assertEquals(Long.valueOf(10001L), book.getBestAskByVolume(new DiscreteAmount(1500L, 1)).getPriceCount());
+		assertEquals(Long.valueOf(10002L), book.getBestAskByVolume(new DiscreteAmount(5000L, 1)).getPriceCount());
+	}
+
+}
@@ -0,0 +1,62 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.cryptocoinpartners.enumeration.TransactionType;
+import org.junit.Test;
+
+public class CashLedgerTest {
+
+	private final Exchange exchange = new Exchange("LEDGERTEST");
+	private final Currency usd = new Currency(false, "USD", 0.01);
+
+	@Test
+	public void postsAddedTransactionsOnce() {
+		Portfolio portfolio = new Portfolio();
+		Transaction credit = new Transaction(portfolio, exchange, usd, TransactionType.CREDIT, DecimalAmount.of("100"));
+		Transaction debit = new Transaction(portfolio, exchange, usd, TransactionType.DEBIT, DecimalAmount.of("-30.25"));
+		assertTrue(portfolio.addTransaction(credit));
+		assertTrue(portfolio.addTransaction(debit));
+		assertFalse(portfolio.addTransaction(debit));
+
+		CashLedger ledger = portfolio.getCashLedger();
+		assertBalance("69.75", ledger.getBalance(usd));
+		assertEquals(2L, ledger.getPostings());
+
+		portfolio.removeTransaction(credit);
+		assertBalance("-30.25", ledger.getBalance(usd));
+
+		portfolio.resetTransactions();
+		assertTrue(ledger.getBalances().isEmpty());
+		ledger.rebuild(Arrays.asList(credit, debit));
+		assertBalance("69.75", ledger.getBalance(usd));
+	}
+
+	@Test
+	public void publishesImmutableSnapshots() {
+		Portfolio portfolio = new Portfolio();
+		CashLedger ledger = new CashLedger();
+		ledger.post(new Transaction(portfolio, exchange, usd, TransactionType.CREDIT, DecimalAmount.of("5")));
+		Map<Asset, Amount> before = ledger.getBalances();
+		ledger.post(new Transaction(portfolio, exchange, usd, TransactionType.FEES, DecimalAmount.of("-1")));
+		assertBalance("5", before.get(usd));
+		assertBalance("4", ledger.getBalances().get(usd));
+		try {
+			before.clear();
+			fail("snapshot was modifiable");
+		} catch (UnsupportedOperationException e) {
+		}
+	}
+
+	private static void assertBalance(String expected, Amount balance) {
+		assertEquals(0, new BigDecimal(expected).compareTo(balance.asBigDecimal()));
+	}
+
+}
@@ -0,0 +1,290 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.cryptocoinpartners.schema.dao.ReferenceDataDao;
+import org.junit.Test;
+
+public class ReferenceDataRegistryTest {
+
+	private static final int THREADS = 32;
+	private static final String[] SYMBOLS = { "BTC.USD", "ETH.USD", "btc.usd", "LTC.BTC", "ETH.BTC", "Eth.Usd" };
+	private static final String[] EXCHANGES = { "ALPHA", "BETA", "GAMMA" };
+
+	private final MemoryDao dao = new MemoryDao();
+	private final ReferenceDataRegistry registry = new ReferenceDataRegistry(dao, new ListingFactory() {
+		@Override
+		public Listing create(Asset base, Asset quote) {
+			return new Listing(base, quote);
+		}
+
+		@Override
+		public Listing create(Asset base, Asset quote, Prompt prompt) {
+			return new Listing(base, quote, prompt);
+		}
+	}, new MarketFactory() {
+		@Override
+		public Market create(Exchange exchange, Listing listing, double priceBasis, double volumeBasis) {
+			return new Market(exchange, listing, priceBasis, volumeBasis);
+		}
+
+		@Override
+		public Market create(Exchange exchange, Listing listing, double priceBasis, double volumeBasis, double minimumOrderSize) {
+			return new Market(exchange, listing, priceBasis, volumeBasis, minimumOrderSize);
+		}
+	});
+
+	@Test
+	public void concurrentLookupsShareOneInstancePersistedOnce() throws Exception {
+		for (String currency : new String[] { "BTC", "ETH", "LTC" })
+			dao.currencies.put(currency, new Currency(false, currency, 0.00000001));
+		dao.currencies.put("USD", new Currency(true, "USD", 0.01));
+
+		final CyclicBarrier start = new CyclicBarrier(THREADS);
+		final CountDownLatch done = new CountDownLatch(THREADS);
+		final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+		final Market[][] seen = new Market[THREADS][];
+		for (int t = 0; t < THREADS; t++) {
+			final int thread = t;
+			new Thread("registry-" + t) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						Market[] markets = new Market[EXCHANGES.length * SYMBOLS.length];
+						for (int round = 0; round < 50; round++)
+							for (int i = 0; i < markets.length; i++) {
+								// each thread starts at a different key, so first creations race from every direction
+								int k = (i + thread) % markets.length;
+								Exchange exchange = exchange(EXCHANGES[k / SYMBOLS.length]);
+								Market market = registry.findOrCreateMarket(exchange, registry.forSymbol(SYMBOLS[k % SYMBOLS.length]));
+								if (markets[k] != null && markets[k] != market)
+									throw new AssertionError("a second instance of " + market);
+								markets[k] = market;
+							}
+						seen[thread] = markets;
+					} catch (Throwable e) {
+						failures.add(e);
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		assertTrue(done.await(30, TimeUnit.SECONDS));
+		if (!failures.isEmpty())
+			throw new AssertionError(failures.get(0));
+
+		for (int t = 1; t < THREADS; t++)
+			for (int k = 0; k < seen[0].length; k++)
+				assertSame(seen[0][k], seen[t][k]);
+
+		// BTC.USD and btc.usd are one listing, as are ETH.USD and Eth.Usd
+		assertEquals(EXCHANGES.length, count("Exchange"));
+		assertEquals(4, count("Listing"));
+		assertEquals(EXCHANGES.length * 4, count("Market"));
+		for (Map.Entry<String, AtomicInteger> persisted : dao.persisted.entrySet())
+			assertEquals(persisted.getKey(), 1, persisted.getValue().get());
+		// the currencies were loaded, not created
+		assertEquals(0, count("Currency"));
+		assertEquals(1, dao.loads.get(Currency.class.getSimpleName()).get());
+
+		// the ordinals are dense and index the registered instances
+		assertEquals(EXCHANGES.length * 4, registry.getMarketCount());
+		for (int i = 0; i < registry.getMarketCount(); i++)
+			assertEquals(i, registry.getOrdinal(registry.getMarket(i)));
+		assertSame(registry.forSymbol("BTC.USD"), registry.forSymbol("btc.usd"));
+		assertSame(registry.forSymbol("BTC.USD"), registry.getListing(registry.getOrdinal(registry.forSymbol("BTC.USD"))));
+	}
+
+	@Test
+	public void adoptsInstancesItHasNotSeen() {
+		Currency btc = new Currency(false, "BTC", 0.00000001);
+		Currency usd = new Currency(true, "USD", 0.01);
+		Exchange exchange = new Exchange("DELTA");
+		Listing listing = new Listing(btc, usd);
+
+		Market market = registry.findOrCreateMarket(exchange, listing);
+		assertSame(exchange, market.getExchange());
+		assertSame(listing, market.getListing());
+		assertSame(listing, registry.forSymbol("BTC.USD"));
+		assertSame(btc, registry.findCurrency("BTC"));
+		// a copy loaded elsewhere resolves to the registered instances
+		assertSame(market, registry.findOrCreateMarket(new Exchange("DELTA"), new Listing(new Currency(false, "BTC", 0.00000001), usd)));
+		// adopted instances were persisted by whoever made them, only the new Market by the registry
+		assertEquals(0, count("Exchange") + count("Listing"));
+		assertEquals(1, count("Market"));
+		assertNull(registry.findExchange("EPSILON"));
+		try {
+			registry.forSymbol("BTC");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			registry.forSymbol("BTC.XYZ");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void failedInsertIsNotRegistered() {
+		dao.failPersist = true;
+		try {
+			exchange("ZETA");
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertNull(registry.findExchange("ZETA"));
+		dao.failPersist = false;
+		Exchange exchange = exchange("ZETA");
+		assertSame(exchange, registry.findExchange("ZETA"));
+		assertEquals(0, registry.getOrdinal(exchange));
+	}
+
+	@Test
+	public void marketHitsDoNotAllocate() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean) || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemoryEnabled())
+			return;
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		dao.currencies.put("BTC", new Currency(false, "BTC", 0.00000001));
+		dao.currencies.put("USD", new Currency(true, "USD", 0.01));
+		Exchange exchange = exchange("ALPHA");
+		Listing listing = registry.forSymbol("BTC.USD");
+		Market market = registry.findOrCreateMarket(exchange, listing);
+
+		long thread = Thread.currentThread().getId();
+		long before = allocations.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < 100000; i++)
+			if (registry.findOrCreateMarket(exchange, listing) != market)
+				fail();
+		long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+		// a Long key or iterator per lookup would be megabytes
+		assertTrue(allocated + " bytes", allocated < 4096);
+	}
+
+	private Exchange exchange(final String symbol) {
+		return registry.findOrCreateExchange(symbol, new Supplier<Exchange>() {
+			@Override
+			public Exchange get() {
+				return new Exchange(symbol);
+			}
+		});
+	}
+
+	private int count(String type) {
+		int count = 0;
+		for (String key : dao.persisted.keySet())
+			if (key.startsWith(type + ":"))
+				count++;
+		return count;
+	}
+
+	/** the database, as maps; counts what is persisted and how often each type is loaded in bulk */
+	private static class MemoryDao implements ReferenceDataDao {
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T extends EntityBase> List<T> findAll(Class<T> type) {
+			increment(loads, type.getSimpleName());
+			if (type == Currency.class)
+				return new ArrayList<T>((java.util.Collection<T>) currencies.values());
+			return new ArrayList<T>();
+		}
+
+		@Override
+		public Exchange findExchange(String symbol) {
+			query();
+			return exchanges.get(symbol);
+		}
+
+		@Override
+		public Currency findCurrency(String symbol) {
+			query();
+			return currencies.get(symbol);
+		}
+
+		@Override
+		public Prompt findPrompt(String symbol) {
+			return null;
+		}
+
+		@Override
+		public Listing findListing(Asset base, Asset quote, Prompt prompt) {
+			query();
+			return listings.get(base.getSymbol() + "." + quote.getSymbol());
+		}
+
+		@Override
+		public Market findMarket(Exchange exchange, Listing listing) {
+			query();
+			return markets.get(exchange.getSymbol() + ":" + listing.getSymbol());
+		}
+
+		@Override
+		public void persist(EntityBase entity) {
+			if (failPersist)
+				throw new IllegalStateException("insert failed");
+			String key;
+			if (entity instanceof Exchange) {
+				key = ((Exchange) entity).getSymbol();
+				exchanges.put(key, (Exchange) entity);
+			} else if (entity instanceof Listing) {
+				key = ((Listing) entity).getSymbol();
+				listings.put(key, (Listing) entity);
+			} else if (entity instanceof Market) {
+				key = ((Market) entity).getExchange().getSymbol() + ":" + ((Market) entity).getListing().getSymbol();
+				markets.put(key, (Market) entity);
+			} else
+				key = entity.toString();
+			increment(persisted, entity.getClass().getSimpleName() + ":" + key);
+		}
+
+		/** a round trip to the database, which keeps racing callers in the window between a miss and the insert */
+		private static void query() {
+			try {
+				Thread.sleep(2);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private static void increment(ConcurrentHashMap<String, AtomicInteger> counts, String key) {
+			AtomicInteger count = counts.get(key);
+			if (count == null) {
+				AtomicInteger first = new AtomicInteger();
+				count = counts.putIfAbsent(key, first);
+				if (count == null)
+					count = first;
+			}
+			count.incrementAndGet();
+		}
+
+		final Map<String, Currency> currencies = new ConcurrentHashMap<String, Currency>();
+		final Map<String, Exchange> exchanges = new ConcurrentHashMap<String, Exchange>();
+		final Map<String, Listing> listings = new ConcurrentHashMap<String, Listing>();
+		final Map<String, Market> markets = new ConcurrentHashMap<String, Market>();
+		final ConcurrentHashMap<String, AtomicInteger> persisted = new ConcurrentHashMap<String, AtomicInteger>();
+		final ConcurrentHashMap<String, AtomicInteger> loads = new ConcurrentHashMap<String, AtomicInteger>();
+		volatile boolean failPersist;
+
+	}
+
+}
@@ -0,0 +1,56 @@
+package org.cryptocoinpartners.schema;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+
+import org.joda.time.Instant;
+import org.junit.Test;
+
+public class TopOfBookTest {
+
+	private final Market market = new Market(new Exchange("TOPTEST"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false, "USD",
+			0.01)), 0.01, 0.001);
+
+	@Test
+	public void tradeIsBothSides() {
+		TopOfBook quote = TopOfBook.of(new Trade(market, new Instant(1000L), new Instant(1005L), null, 10050L, -3L));
+		assertEquals(10050L, quote.getBidPriceCount());
+		assertEquals(10050L, quote.getAskPriceCount());
+		assertEquals(3L, quote.getBidVolumeCount());
+		assertEquals(-3L, quote.getAskVolumeCount());
+		assertEquals(1000L, quote.getTimestamp());
+		assertEquals(0, quote.getAskPrice().compareTo(DecimalAmount.of(new BigDecimal("100.50"))));
+	}
+
+	@Test
+	public void bookGivesBestLevels() {
+		Book book = new Book(new Instant(1000L), market);
+		book.addBid(new BigDecimal("100.00"), new BigDecimal("1"));
+		book.addBid(new BigDecimal("101.00"), new BigDecimal("2"));
+		book.addAsk(new BigDecimal("102.00"), new BigDecimal("1"));
+		book.build();
+		TopOfBook quote = TopOfBook.of(book);
+		assertEquals(10100L, quote.getBidPriceCount());
+		assertEquals(10200L, quote.getAskPriceCount());
+		assertTrue(quote.getAskVolumeCount() < 0);
+	}
+
+	@Test
+	public void emptySideHasNoPrice() {
+		Book book = new Book(new Instant(1000L), market);
+		book.addBid(new BigDecimal("100.00"), new BigDecimal("1"));
+		book.build();
+		TopOfBook quote = TopOfBook.of(book);
+		assertTrue(quote.hasBid());
+		assertFalse(quote.hasAsk());
+
+		LiveBook live = new LiveBook(market);
+		live.addBid(10000L, 5L);
+		assertFalse(live.topOfBook().hasAsk());
+		assertEquals(5L, live.topOfBook().getBidVolumeCount());
+	}
+
+}
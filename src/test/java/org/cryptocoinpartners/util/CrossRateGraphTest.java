@@ -0,0 +1,225 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.cryptocoinpartners.schema.Asset;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.junit.Test;
+
+public class CrossRateGraphTest {
+
+	@Test
+	public void matchesBruteForceOnRandomGraphs() {
+		for (int seed = 0; seed < 40; seed++) {
+			Random random = new Random(seed);
+			int hops = 1 + random.nextInt(4);
+			long stale = 100;
+			// more than 16 assets in some graphs, so the graph has to grow
+			Currency[] assets = new Currency[4 + random.nextInt(seed % 5 == 0 ? 16 : 6)];
+			for (int i = 0; i < assets.length; i++)
+				assets[i] = new Currency(false, "C" + i, 0.0001);
+			Exchange[] exchanges = { new Exchange("XA"), new Exchange("XB"), new Exchange("XC") };
+			List<Market> markets = new ArrayList<Market>();
+			for (int i = 0; i < assets.length * 2; i++) {
+				int base = random.nextInt(assets.length);
+				int quote = (base + 1 + random.nextInt(assets.length - 1)) % assets.length;
+				markets.add(new Market(exchanges[random.nextInt(exchanges.length)], new Listing(assets[base], assets[quote]), 0.0001, 0.0001));
+			}
+
+			CrossRateGraph graph = new CrossRateGraph(hops, stale);
+			Model model = new Model(hops, stale);
+			long time = 1000;
+			for (int update = 0; update < 300; update++) {
+				time += random.nextInt(10) == 0 ? 60 : random.nextInt(8);
+				Market market = markets.get(random.nextInt(markets.size()));
+				double bid = Math.exp(random.nextGaussian());
+				double ask = bid * (1 + random.nextDouble() / 10);
+				// sometimes one side of the book is empty, and sometimes the quote is already stale when it arrives
+				if (random.nextInt(15) == 0)
+					bid = 0;
+				if (random.nextInt(15) == 0)
+					ask = Double.NaN;
+				long quoted = random.nextInt(30) == 0 ? time - 2 * stale : time;
+				graph.update(market, bid, ask, quoted);
+				model.update(market, bid, ask, quoted);
+				if (update % 5 == 0)
+					for (Currency base : assets)
+						for (Currency quote : assets) {
+							check(graph, model, base, quote, null, seed);
+							for (Exchange exchange : exchanges)
+								check(graph, model, base, quote, exchange, seed);
+						}
+			}
+		}
+	}
+
+	@Test
+	public void staleMarketsDropOutOfPaths() {
+		Currency btc = new Currency(false, "BTC", 0.00000001);
+		Currency eth = new Currency(false, "ETH", 0.00000001);
+		Currency usd = new Currency(true, "USD", 0.01);
+		Exchange exchange = new Exchange("STALETEST");
+		Market ethBtc = new Market(exchange, new Listing(eth, btc), 0.00001, 0.001);
+		Market btcUsd = new Market(exchange, new Listing(btc, usd), 0.01, 0.00000001);
+		CrossRateGraph graph = new CrossRateGraph(3, 1000);
+		graph.update(ethBtc, 0.05, 0.051, 0);
+		graph.update(btcUsd, 10000, 10010, 500);
+
+		assertEquals(500, graph.getBid(eth, usd, null), 1e-9);
+		assertEquals(0.051 * 10010, graph.getAsk(eth, usd, exchange), 1e-9);
+		List<Market> path = graph.getAskPath(eth, usd, null);
+		assertEquals(2, path.size());
+		assertTrue(path.get(0) == btcUsd && path.get(1) == ethBtc);
+		assertEquals(1 / 0.051, graph.getBid(btc, eth, null), 1e-9);
+		assertEquals(1, graph.getBid(usd, usd, null), 0);
+
+		graph.advance(1001);
+		assertTrue(Double.isNaN(graph.getBid(eth, usd, null)));
+		assertTrue(graph.getBidPath(eth, usd, null).isEmpty());
+		assertEquals(10000, graph.getBid(btc, usd, null), 1e-9);
+		graph.update(ethBtc, 0.06, 0.061, 1200);
+		assertEquals(600, graph.getBid(eth, usd, null), 1e-9);
+		assertTrue(Double.isNaN(graph.getBid(eth, usd, new Exchange("OTHER"))));
+	}
+
+	@Test
+	public void unchangedMarketsStayLive() {
+		Currency btc = new Currency(false, "BTC", 0.00000001);
+		Currency usd = new Currency(true, "USD", 0.01);
+		Market quiet = new Market(new Exchange("QUIETTEST"), new Listing(btc, usd), 0.01, 0.00000001);
+		CrossRateGraph graph = new CrossRateGraph(2, 1000);
+		// a market not yet quoted has nothing to keep
+		graph.touch(quiet, 0);
+		assertTrue(Double.isNaN(graph.getBid(btc, usd, null)));
+
+		// the market keeps quoting the same book, so each poll touches it instead of updating it
+		graph.update(quiet, 10000, 10010, 0);
+		graph.touch(quiet, 800);
+		graph.advance(1500);
+		assertEquals(10000, graph.getBid(btc, usd, null), 1e-9);
+		assertEquals(10010, graph.getAsk(btc, usd, null), 1e-9);
+		graph.touch(quiet, 1600);
+		graph.advance(2500);
+		assertEquals(10000, graph.getBid(btc, usd, null), 1e-9);
+
+		// an older touch does not hold the market past its last quote, but a later one brings it back
+		graph.touch(quiet, 1000);
+		graph.advance(2601);
+		assertTrue(Double.isNaN(graph.getBid(btc, usd, null)));
+		graph.touch(quiet, 2700);
+		assertEquals(10010, graph.getAsk(btc, usd, null), 1e-9);
+	}
+
+	private static void check(CrossRateGraph graph, Model model, Currency base, Currency quote, Exchange exchange, int seed) {
+		String pair = "seed " + seed + " " + base + "." + quote + " on " + exchange;
+		double bid = graph.getBid(base, quote, exchange);
+		assertSame(pair + " bid", model.best(base, quote, exchange), bid);
+		assertSame(pair + " ask", 1 / model.best(quote, base, exchange), graph.getAsk(base, quote, exchange));
+		if (base == quote || Double.isNaN(bid))
+			return;
+		// the path has to be there, live, on the exchange, and worth the rate
+		List<Market> legs = graph.getBidPath(base, quote, exchange);
+		assertTrue(pair + " legs " + legs, legs.size() >= 1 && legs.size() <= model.hops);
+		Asset held = base;
+		double rate = 1;
+		for (Market leg : legs) {
+			assertTrue(pair, exchange == null || leg.getExchange() == exchange);
+			double[] quoted = model.live(leg);
+			if (leg.getBase() == held) {
+				rate *= quoted[0];
+				held = leg.getQuote();
+			} else {
+				assertTrue(pair, leg.getQuote() == held);
+				rate /= quoted[1];
+				held = leg.getBase();
+			}
+		}
+		assertTrue(pair, held == quote);
+		assertSame(pair + " path", bid, rate);
+	}
+
+	private static void assertSame(String message, double expected, double actual) {
+		if (Double.isNaN(expected) || Double.isNaN(actual))
+			assertEquals(message, Double.isNaN(expected), Double.isNaN(actual));
+		else
+			assertEquals(message, 1, actual / expected, 1e-9);
+	}
+
+	/** the quotes, and every simple path through them */
+	private static class Model {
+
+		Model(int hops, long stale) {
+			this.hops = hops;
+			this.stale = stale;
+		}
+
+		void update(Market market, double bid, double ask, long time) {
+			clock = Math.max(clock, time);
+			quotes.put(market, new double[] { bid, ask, time });
+		}
+
+		/** @return the {bid, ask} if the market is live, with NaN for a side which is not */
+		double[] live(Market market) {
+			double[] quote = quotes.get(market);
+			if (quote == null || clock - (long) quote[2] > stale)
+				return new double[] { Double.NaN, Double.NaN };
+			return new double[] { quote[0] > 0 ? quote[0] : Double.NaN, quote[1] > 0 ? quote[1] : Double.NaN };
+		}
+
+		/** @return the most to asset one unit of from converts to in at most hops trades, NaN if it cannot */
+		double best(Asset from, Asset to, Exchange exchange) {
+			if (from == to)
+				return 1;
+			List<Asset> visited = new ArrayList<Asset>();
+			visited.add(from);
+			double best = search(from, to, exchange, visited, 1);
+			return best == 0 ? Double.NaN : best;
+		}
+
+		private double search(Asset at, Asset to, Exchange exchange, List<Asset> visited, double amount) {
+			double best = 0;
+			for (Market market : quotes.keySet()) {
+				if (exchange != null && market.getExchange() != exchange)
+					continue;
+				double[] quote = live(market);
+				Asset next;
+				double converted;
+				if (market.getBase() == at) {
+					next = market.getQuote();
+					converted = amount * quote[0];
+				} else if (market.getQuote() == at) {
+					next = market.getBase();
+					converted = amount / quote[1];
+				} else
+					continue;
+				if (Double.isNaN(converted) || visited.contains(next))
+					continue;
+				if (next == to)
+					best = Math.max(best, converted);
+				else if (visited.size() < hops) {
+					visited.add(next);
+					best = Math.max(best, search(next, to, exchange, visited, converted));
+					visited.remove(visited.size() - 1);
+				}
+			}
+			return best;
+		}
+
+		private final int hops;
+		private final long stale;
+		private final Map<Market, double[]> quotes = new HashMap<Market, double[]>();
+		private long clock = Long.MIN_VALUE;
+
+	}
+
+}
@@ -0,0 +1,64 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MergingIteratorTest {
+
+	private static final Comparator<long[]> byTime = new Comparator<long[]>() {
+		@Override
+		public int compare(long[] event, long[] event2) {
+			return Long.compare(event[0], event2[0]);
+		}
+	};
+
+	@Test
+	public void mergesOrderedSources() {
+		Random random = new Random(42);
+		List<Iterator<long[]>> sources = new ArrayList<>();
+		List<Long> expected = new ArrayList<>();
+		for (int source = 0; source < 4; source++) {
+			List<long[]> events = new ArrayList<>();
+			long time = 0;
+			for (int i = 0; i < 1000; i++) {
+				time += random.nextInt(5);
+				events.add(new long[] { time, source });
+				expected.add(time);
+			}
+			sources.add(events.iterator());
+		}
+		sources.add(Collections.<long[]> emptyIterator());
+		Collections.sort(expected);
+
+		MergingIterator<long[]> merged = new MergingIterator<long[]>(sources, byTime);
+		long lastSource = -1;
+		long lastTime = -1;
+		for (Long time : expected) {
+			long[] event = merged.next();
+			assertEquals(time.longValue(), event[0]);
+			// equal times come from the earlier source first
+			if (event[0] == lastTime)
+				assertFalse(event[1] < lastSource);
+			lastTime = event[0];
+			lastSource = event[1];
+		}
+		assertFalse(merged.hasNext());
+	}
+
+	@Test
+	public void emptySources() {
+		List<Iterator<long[]>> sources = Arrays.asList(Collections.<long[]> emptyIterator(), null);
+		assertFalse(new MergingIterator<long[]>(sources, byTime).hasNext());
+	}
+
+}
@@ -0,0 +1,197 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.EntityBase;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.TradeFactory;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersistQueueTest {
+
+	private final Market market = new Market(new Exchange("QUEUETEST"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false,
+			"USD", 0.01)), 0.01, 0.001);
+
+	private final Market otherMarket = new Market(new Exchange("QUEUETEST2"), new Listing(new Currency(false, "ETH", 0.00000001), new Currency(
+			false, "USD", 0.01)), 0.01, 0.001);
+
+	private File root;
+
+	@Before
+	public void createRoot() throws IOException {
+		root = Files.createTempDirectory("spill").toFile();
+	}
+
+	@After
+	public void deleteRoot() {
+		delete(root);
+	}
+
+	@Test
+	public void blockRejectsOffersWhenFull() throws InterruptedException {
+		PersistQueue<Trade> queue = new PersistQueue<Trade>("block", PersistQueue.Policy.BLOCK, 2, root, null, null);
+		assertTrue(queue.offer(trade(1)));
+		assertTrue(queue.offer(trade(2)));
+		assertFalse(queue.offer(trade(3)));
+		assertEquals(0, queue.remainingCapacity());
+		assertEquals(1000L, queue.take().getTime().getMillis());
+		assertTrue(queue.offer(trade(3)));
+	}
+
+	@Test
+	public void dropOldestKeepsNewest() {
+		PersistQueue<Trade> queue = new PersistQueue<Trade>("drop", PersistQueue.Policy.DROP_OLDEST, 3, root, null, null);
+		for (int i = 1; i <= 5; i++)
+			assertTrue(queue.offer(trade(i)));
+		assertEquals(2, queue.getDropped());
+		assertEquals(3, queue.size());
+		assertEquals(3000L, queue.poll().getTime().getMillis());
+	}
+
+	@Test
+	public void coalesceReplacesLatestBookPerMarketWhenFull() {
+		PersistQueue<Book> queue = new PersistQueue<Book>("coalesce", PersistQueue.Policy.COALESCE, 2, root, null, null);
+		Book first = book(market, 1);
+		Book other = book(otherMarket, 2);
+		Book last = book(market, 3);
+		assertTrue(queue.offer(first));
+		assertTrue(queue.offer(other));
+		assertTrue(queue.offer(last));
+		assertEquals(2, queue.size());
+		assertEquals(1, queue.getCoalesced());
+		assertSame(last, queue.peek());
+		assertSame(last, queue.poll());
+		assertSame(other, queue.poll());
+		assertNull(queue.poll());
+
+		// with no queued book of its market to replace, a book waits for room
+		PersistQueue<Book> single = new PersistQueue<Book>("coalesce", PersistQueue.Policy.COALESCE, 1, root, null, null);
+		assertTrue(single.offer(first));
+		assertFalse(single.offer(other));
+		assertTrue(single.offer(last));
+		assertSame(last, single.poll());
+	}
+
+	@Test
+	public void coalesceKeepsEveryBookUntilFull() {
+		PersistQueue<Book> queue = new PersistQueue<Book>("coalesce", PersistQueue.Policy.COALESCE, 10, root, null, null);
+		List<Book> books = new ArrayList<Book>();
+		for (int i = 1; i <= 6; i++)
+			books.add(book(i % 3 == 0 ? otherMarket : market, i));
+		for (Book book : books)
+			assertTrue(queue.offer(book));
+		assertEquals(6, queue.size());
+		assertEquals(0, queue.getCoalesced());
+		for (Book book : books)
+			assertSame(book, queue.poll());
+		assertNull(queue.poll());
+	}
+
+	@Test
+	public void spilledTradesAreReadBackInOrder() {
+		PersistQueue<Trade> queue = new PersistQueue<Trade>("spill", PersistQueue.Policy.SPILL, 3, root, tradeFactory, bookFactory);
+		for (int i = 1; i <= 10; i++)
+			assertTrue(queue.offer(trade(i)));
+		assertEquals(3, queue.size());
+		assertEquals(7, queue.getSpilled());
+		assertEquals(10, queue.getDepth());
+
+		List<EntityBase> taken = new ArrayList<EntityBase>();
+		assertEquals(5, queue.drainTo(taken, 5));
+		// the writers have caught up with memory, but later trades still follow the spilled ones
+		queue.offer(trade(11));
+		queue.drainTo(taken);
+		assertEquals(11, taken.size());
+		for (int i = 0; i < taken.size(); i++) {
+			Trade trade = (Trade) taken.get(i);
+			assertEquals(1000L * (i + 1), trade.getTime().getMillis());
+			assertEquals(10000L + i + 1, (long) trade.getPriceCount());
+			assertEquals("t" + (i + 1), trade.getRemoteKey());
+		}
+		assertEquals(0, queue.getDepth());
+		assertEquals(0, queue.getSpillBytes());
+
+		// with the journal empty, entities are queued in memory again
+		queue.offer(trade(12));
+		assertEquals(1, queue.size());
+		assertEquals(0, queue.getSpilled());
+	}
+
+	private Trade trade(int i) {
+		return new Trade(market, new Instant(1000L * i), new Instant(1000L * i + 5), "t" + i, 10000L + i, 1L);
+	}
+
+	private static Book book(Market market, int i) {
+		Book.Builder builder = new Book.Builder();
+		builder.start(new Instant(1000L * i), new Instant(1000L * i), null, market);
+		builder.addBid(new BigDecimal("100.00"), new BigDecimal("1"));
+		builder.addAsk(new BigDecimal("101.00"), new BigDecimal("1"));
+		return builder.build();
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	private final TradeFactory tradeFactory = new TradeFactory() {
+		@Override
+		public Trade create(Tradeable market, Instant time, String remoteKey, long priceCount, long volumeCount) {
+			return new Trade(market, time, remoteKey, priceCount, volumeCount);
+		}
+
+		@Override
+		public Trade create(Tradeable market, Instant time, Instant timeRecieved, String remoteKey, long priceCount, long volumeCount) {
+			return new Trade(market, time, timeRecieved, remoteKey, priceCount, volumeCount);
+		}
+
+		@Override
+		public Trade create(Tradeable market, Instant time, String remoteKey, BigDecimal price, BigDecimal volume) {
+			return new Trade(market, time, remoteKey, price, volume);
+		}
+	};
+
+	private final BookFactory bookFactory = new BookFactory() {
+		@Override
+		public Book create(Instant time, Tradeable market) {
+			return create(time, time, null, market);
+		}
+
+		@Override
+		public Book create(Instant time, String remoteKey, Tradeable market) {
+			return create(time, time, remoteKey, market);
+		}
+
+		@Override
+		public Book create(Instant time, Instant timeReceived, String remoteKey, Tradeable market) {
+			Book.Builder builder = new Book.Builder();
+			builder.start(time, timeReceived, remoteKey, (Market) market);
+			return builder.build();
+		}
+	};
+
+}
@@ -0,0 +1,100 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Test;
+
+public class RateLimitBucketTest {
+
+	private final RateLimitService service = new RateLimitService(2);
+
+	@After
+	public void tearDown() {
+		service.shutdown();
+	}
+
+	@Test
+	public void servesTradingAheadOfQueuedPolls() throws InterruptedException {
+		RateLimitBucket bucket = service.getBucket("priority-test", 1, Duration.millis(40));
+		final List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch done = new CountDownLatch(4);
+		// the first poll takes the only permit, so everything after it queues
+		for (int i = 0; i < 3; i++)
+			bucket.execute(record(order, "data" + i, done), 1, RateLimitBucket.Priority.MARKET_DATA);
+		bucket.execute(record(order, "cancel", done), 1, RateLimitBucket.Priority.TRADING);
+		assertEquals(3, bucket.getQueueDepth());
+		assertEquals(1, bucket.getTradingQueueDepth());
+
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		assertEquals("data0", order.get(0));
+		assertEquals("cancel", order.get(1));
+		assertEquals("data1", order.get(2));
+		assertEquals(4, bucket.getGranted());
+		assertEquals(0, bucket.getQueueDepth());
+	}
+
+	@Test
+	public void weightsTakeTheirPermits() throws InterruptedException {
+		RateLimitBucket bucket = service.getBucket("weight-test", 4, Duration.millis(200));
+		long start = System.nanoTime();
+		bucket.acquire(4, RateLimitBucket.Priority.ORDERS);
+		// a weight of two needs half the period to refill
+		bucket.acquire(2, RateLimitBucket.Priority.ORDERS);
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("waited " + elapsed + "ms", elapsed >= 90);
+		// heavier than the bucket, so takes all of it rather than waiting forever
+		bucket.acquire(10, RateLimitBucket.Priority.ORDERS);
+		assertEquals(0, bucket.getAvailablePermits());
+		assertTrue(bucket.getMaxWaitMillis() >= 90);
+	}
+
+	@Test
+	public void slowExchangeDoesNotHoldUpOthers() throws InterruptedException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		RateLimitBucket slow = service.getBucket("slow-test", 10, Duration.millis(1000));
+		for (int i = 0; i < 4; i++)
+			slow.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}, 1, RateLimitBucket.Priority.MARKET_DATA);
+		// both of the slow bucket's workers are stuck, but the other bucket has its own
+		service.getBucket("fast-test", 10, Duration.millis(1000)).execute(record(new ArrayList<String>(), "fast", done), 1,
+				RateLimitBucket.Priority.MARKET_DATA);
+		assertTrue(done.await(2, TimeUnit.SECONDS));
+		release.countDown();
+	}
+
+	@Test
+	public void sharesBucketsByName() {
+		RateLimitBucket bucket = service.getBucket("shared-test", 3, Duration.millis(1000));
+		assertTrue(bucket == service.getBucket("shared-test", 5, Duration.millis(1000)));
+		assertEquals(3, bucket.getPermits());
+	}
+
+	private static Runnable record(final List<String> order, final String name, final CountDownLatch done) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				order.add(name);
+				done.countDown();
+			}
+		};
+	}
+
+}
@@ -0,0 +1,195 @@
+package org.cryptocoinpartners.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cryptocoinpartners.schema.Book;
+import org.cryptocoinpartners.schema.BookFactory;
+import org.cryptocoinpartners.schema.Currency;
+import org.cryptocoinpartners.schema.Exchange;
+import org.cryptocoinpartners.schema.Listing;
+import org.cryptocoinpartners.schema.Market;
+import org.cryptocoinpartners.schema.Trade;
+import org.cryptocoinpartners.schema.TradeFactory;
+import org.cryptocoinpartners.schema.Tradeable;
+import org.joda.time.Instant;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TickStoreTest {
+
+	private static final long DAY = 24L * 60 * 60 * 1000;
+
+	private final Market market = new Market(new Exchange("TICKTEST"), new Listing(new Currency(false, "BTC", 0.00000001), new Currency(false, "USD",
+			0.01)), 0.01, 0.001);
+
+	private File root;
+
+	@Before
+	public void createRoot() throws IOException {
+		root = Files.createTempDirectory("tickstore").toFile();
+	}
+
+	@After
+	public void deleteRoot() {
+		delete(root);
+	}
+
+	@Test
+	public void tradesRoundTrip() throws IOException {
+		TickStore store = new TickStore(root, 3);
+		List<Trade> written = new ArrayList<>();
+		// spans two days and several blocks, with the last block left partial
+		for (int i = 0; i < 10; i++) {
+			Trade trade = new Trade(market, new Instant(DAY - 5000 + i * 1000), new Instant(DAY - 4990 + i * 1000), i == 4 ? null : "é" + i, 10000L
+					+ i, 5L * i);
+			store.write(trade);
+			written.add(trade);
+		}
+		store.close();
+
+		List<Trade> read = readTrades(store, 0, 2 * DAY);
+		assertEquals(written.size(), read.size());
+		for (int i = 0; i < written.size(); i++) {
+			assertEquals(written.get(i).getTime(), read.get(i).getTime());
+			assertEquals(written.get(i).getTimeReceived(), read.get(i).getTimeReceived());
+			assertEquals(written.get(i).getPriceCount(), read.get(i).getPriceCount());
+			assertEquals(written.get(i).getVolumeCount(), read.get(i).getVolumeCount());
+			assertEquals(written.get(i).getRemoteKey(), read.get(i).getRemoteKey());
+		}
+
+		List<Trade> range = readTrades(store, DAY - 3000, DAY + 1000);
+		assertEquals(5, range.size());
+		assertEquals(DAY - 3000, range.get(0).getTime().getMillis());
+	}
+
+	@Test
+	public void booksRoundTrip() throws IOException {
+		TickStore store = new TickStore(root, 4);
+		List<Book> written = new ArrayList<>();
+		for (int i = 0; i < 9; i++) {
+			Book.Builder builder = new Book.Builder();
+			builder.start(new Instant(1000L * i), new Instant(1000L * i + 5), null, market);
+			builder.addBid(new BigDecimal("100.00"), new BigDecimal(1 + i % 2));
+			if (i % 3 != 0)
+				builder.addBid(new BigDecimal("99.50"), new BigDecimal("2"));
+			builder.addAsk(new BigDecimal("100.50").add(new BigDecimal(i)), new BigDecimal("1"));
+			Book book = builder.build();
+			store.write(book);
+			written.add(book);
+		}
+		store.close();
+
+		TickFileReader.Books books = store.readBooks(market, 2000L, 100000L, false, bookFactory);
+		int i = 2;
+		while (books.hasNext()) {
+			Book expected = written.get(i++);
+			Book book = books.next();
+			assertEquals(expected.getTime(), book.getTime());
+			assertEquals(expected.getBidDepth(), book.getBidDepth());
+			assertEquals(expected.getAskDepth(), book.getAskDepth());
+			for (int level = 0; level < expected.getBidDepth(); level++) {
+				assertEquals(expected.getBidPriceCount(level), book.getBidPriceCount(level));
+				assertEquals(expected.getBidVolumeCount(level), book.getBidVolumeCount(level));
+			}
+			assertEquals(expected.getAskPriceCount(0), book.getAskPriceCount(0));
+			assertEquals(expected.getAskVolumeCount(0), book.getAskVolumeCount(0));
+		}
+		books.close();
+		assertEquals(written.size(), i);
+	}
+
+	@Test
+	public void outOfOrderTradesAreReadInTimeOrder() throws IOException {
+		TickStore store = new TickStore(root, 4);
+		// batches arrive newest first, and the last one is from before midnight
+		long[] times = { DAY + 5000, DAY + 4000, DAY + 3000, DAY + 2000, DAY + 9000, DAY + 8000, DAY + 7000, DAY + 6000, DAY - 1000, DAY - 2000 };
+		for (long time : times)
+			store.write(new Trade(market, new Instant(time), new Instant(DAY + 10000), null, 10000L, 1L));
+		store.close();
+
+		List<Trade> read = readTrades(store, 0, 2 * DAY);
+		assertEquals(times.length, read.size());
+		for (int i = 1; i < read.size(); i++)
+			assertFalse(read.get(i).getTime().isBefore(read.get(i - 1).getTime()));
+		// late records are filed under the day they happened
+		assertEquals(2, readTrades(store, 0, DAY - 1).size());
+	}
+
+	@Test
+	public void truncatedBlockIsIgnored() throws IOException {
+		TickStore store = new TickStore(root, 2);
+		for (int i = 0; i < 4; i++)
+			store.write(new Trade(market, new Instant(1000L * i), null, 10000L, 1L));
+		store.close();
+
+		File file = store.fileFor(market, 0, TickStore.TRADE_SUFFIX);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+		assertEquals(2, readTrades(store, 0, DAY).size());
+		assertFalse(store.readTrades(market, DAY, 2 * DAY, false, tradeFactory).hasNext());
+	}
+
+	private List<Trade> readTrades(TickStore store, long start, long end) {
+		List<Trade> trades = new ArrayList<>();
+		try (TickFileReader.Trades reader = store.readTrades(market, start, end, false, tradeFactory)) {
+			while (reader.hasNext())
+				trades.add(reader.next());
+		}
+		return trades;
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null)
+			for (File child : children)
+				delete(child);
+		file.delete();
+	}
+
+	private final TradeFactory tradeFactory = new TradeFactory() {
+		@Override
+		public Trade create(Tradeable market, Instant time, String remoteKey, long priceCount, long volumeCount) {
+			return new Trade(market, time, remoteKey, priceCount, volumeCount);
+		}
+
+		@Override
+		public Trade create(Tradeable market, Instant time, Instant timeRecieved, String remoteKey, long priceCount, long volumeCount) {
+			return new Trade(market, time, timeRecieved, remoteKey, priceCount, volumeCount);
+		}
+
+		@Override
+		public Trade create(Tradeable market, Instant time, String remoteKey, BigDecimal price, BigDecimal volume) {
+			return new Trade(market, time, remoteKey, price, volume);
+		}
+	};
+
+	private final BookFactory bookFactory = new BookFactory() {
+		@Override
+		public Book create(Instant time, Tradeable market) {
+			return create(time, time, null, market);
+		}
+
+		@Override
+		public Book create(Instant time, String remoteKey, Tradeable market) {
+			return create(time, time, remoteKey, market);
+		}
+
+		@Override
+		public Book create(Instant time, Instant timeReceived, String remoteKey, Tradeable market) {
+			Book.Builder builder = new Book.Builder();
+			builder.start(time, timeReceived, remoteKey, (Market) market);
+			return builder.build();
+		}
+	};
+
+}